@@ -0,0 +1,62 @@
+#! /usr/bin/env python
+
+'''
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+'''
+
+# Compares two JMH JSON result files, e.g. build/bench/<old>.json build/bench/<new>.json
+
+import json
+import sys
+
+
+def load(path):
+    results = {}
+    with open(path) as f:
+        for r in json.load(f):
+            name = r['benchmark'].replace('com.logicblox.cloudstore.', '')
+            params = r.get('params', {})
+            key = name + ''.join(' %s=%s' % (k, params[k]) for k in sorted(params))
+            metric = r['primaryMetric']
+            results[key] = (metric['score'], float(metric['scoreError']), metric['scoreUnit'], r['mode'])
+    return results
+
+
+def main():
+    if len(sys.argv) != 3:
+        sys.stderr.write('usage: compare.py BASELINE.json CURRENT.json\n')
+        sys.exit(1)
+
+    baseline = load(sys.argv[1])
+    current = load(sys.argv[2])
+
+    width = max([len(k) for k in current] + [9])
+    print('%-*s %14s %14s %9s  %s' % (width, 'Benchmark', 'Baseline', 'Current', 'Change', 'Units'))
+    for key in sorted(current):
+        score, error, unit, mode = current[key]
+        if key not in baseline:
+            print('%-*s %14s %14.3f %9s  %s' % (width, key, '-', score, 'new', unit))
+            continue
+        base = baseline[key][0]
+        change = 100.0 * (score - base) / base if base else 0.0
+        # for throughput higher is better, for time per operation lower is better
+        better = change > 0 if mode == 'thrpt' else change < 0
+        significant = abs(score - base) > error + baseline[key][1]
+        flag = ('+' if better else '-') if significant else ' '
+        print('%-*s %14.3f %14.3f %+8.1f%%%s %s' % (width, key, base, score, change, flag, unit))
+
+
+if __name__ == '__main__':
+    main()
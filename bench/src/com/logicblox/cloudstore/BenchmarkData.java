@@ -0,0 +1,88 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Key;
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks.  Everything is derived from a fixed seed so
+ * that results of different runs and different commits measure exactly the same work.
+ */
+class BenchmarkData
+{
+  static final long SEED = 0x5eed;
+
+  static byte[] randomBytes(int size)
+  {
+    byte[] bytes = new byte[size];
+    new Random(SEED).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Return a fixed 256-bit AES key, the key size used for uploads.
+   */
+  static Key aesKey()
+  {
+    byte[] keyBytes = new byte[32];
+    new Random(SEED + 1).nextBytes(keyBytes);
+    return new SecretKeySpec(keyBytes, "AES");
+  }
+
+  /**
+   * Encrypt {@code data} the way uploads do, i.e. with the IV inlined before the cipher text.
+   */
+  static byte[] encrypt(byte[] data, Key key)
+    throws Exception
+  {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    InputStream in = new CipherWithInlineIVInputStream(new ByteArrayInputStream(data), cipher,
+      Cipher.ENCRYPT_MODE, key);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int count;
+    while((count = in.read(buf, 0, buf.length)) != -1)
+    {
+      out.write(buf, 0, count);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Read {@code in} until EOF.
+   *
+   * @return number of bytes read
+   */
+  static long drain(InputStream in, byte[] buf)
+    throws IOException
+  {
+    long total = 0;
+    int count;
+    while((count = in.read(buf, 0, buf.length)) != -1)
+    {
+      total += count;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import java.io.ByteArrayInputStream;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES/CBC encryption and decryption of a part through {@link CipherWithInlineIVInputStream},
+ * including the cipher setup every part pays for.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherStreamBenchmark
+{
+  @Param({"5242880"})
+  int partSize;
+
+  @Param({"8192", "65536"})
+  int bufferSize;
+
+  private Key _key;
+  private byte[] _plain;
+  private byte[] _encrypted;
+  private byte[] _buf;
+
+  @Setup
+  public void setup()
+    throws Exception
+  {
+    _key = BenchmarkData.aesKey();
+    _plain = BenchmarkData.randomBytes(partSize);
+    _encrypted = BenchmarkData.encrypt(_plain, _key);
+    _buf = new byte[bufferSize];
+  }
+
+  @Benchmark
+  public long encryptPart()
+    throws Exception
+  {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    return BenchmarkData.drain(
+      new CipherWithInlineIVInputStream(new ByteArrayInputStream(_plain), cipher,
+        Cipher.ENCRYPT_MODE, _key), _buf);
+  }
+
+  @Benchmark
+  public long decryptPart()
+    throws Exception
+  {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    return BenchmarkData.drain(
+      new CipherWithInlineIVInputStream(new ByteArrayInputStream(_encrypted), cipher,
+        Cipher.DECRYPT_MODE, _key), _buf);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ConsoleProgressListener#progress} called concurrently by the threads transferring the
+ * parts of one object.  Every thread reports on its own part, like the transfer threads do, and
+ * console output is discarded so that only the listener itself is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ConsoleProgressListenerBenchmark
+{
+  // bytes reported by every progress event, the AWS SDK reports in chunks of about this size
+  private static final long EVENT_BYTES = 8192;
+
+  @State(Scope.Benchmark)
+  public static class Listener
+  {
+    ConsoleProgressListener listener;
+    AtomicInteger nextPart = new AtomicInteger();
+    private PrintStream _stdout;
+
+    @Setup
+    public void setup()
+    {
+      _stdout = System.out;
+      System.setOut(new PrintStream(new OutputStream()
+      {
+        public void write(int b)
+        {
+        }
+
+        public void write(byte[] b, int off, int len)
+        {
+        }
+      }));
+
+      ProgressOptions options = new ProgressOptionsBuilder().setObjectUri("s3://bench/object")
+        .setOperation("upload")
+        .setFileSizeInBytes(Long.MAX_VALUE)
+        .createProgressOptions();
+      listener = new ConsoleProgressListener(options, Utils.getDefaultChunkSize());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+      System.setOut(_stdout);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Part
+  {
+    PartProgressEvent event;
+
+    @Setup
+    public void setup(Listener listener)
+    {
+      event = new PartProgressEvent(Integer.toString(listener.nextPart.getAndIncrement()));
+    }
+  }
+
+  @Benchmark
+  public void progress(Listener listener, Part part)
+  {
+    part.event.setLastTransferBytes(EVENT_BYTES);
+    listener.listener.progress(part.event);
+  }
+}
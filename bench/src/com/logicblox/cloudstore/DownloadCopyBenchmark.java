@@ -0,0 +1,113 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The loop that moves a downloaded part from the response stream into the local file, i.e.
+ * {@link S3DownloadCommand#copyPart}, with hashing and optional decryption on the way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DownloadCopyBenchmark
+{
+  private static final Runnable NO_CLEANUP = () -> {
+  };
+
+  @Param({"5242880"})
+  int partSize;
+
+  @Param({"8192", "65536", "1048576"})
+  int bufferSize;
+
+  @Param({"false", "true"})
+  boolean encrypted;
+
+  private Key _key;
+  private byte[] _data;
+  private byte[] _buf;
+  private File _path;
+  private RandomAccessFile _file;
+  private OutputStream _out;
+
+  @Setup
+  public void setup()
+    throws Exception
+  {
+    _key = BenchmarkData.aesKey();
+    _data = BenchmarkData.randomBytes(partSize);
+    if(encrypted)
+    {
+      _data = BenchmarkData.encrypt(_data, _key);
+    }
+    _buf = new byte[bufferSize];
+    _path = File.createTempFile("cloudstore-bench", ".bin");
+    _file = new RandomAccessFile(_path, "rw");
+    _out = Channels.newOutputStream(_file.getChannel());
+  }
+
+  @TearDown
+  public void tearDown()
+    throws IOException
+  {
+    _out.close();
+    _path.delete();
+  }
+
+  @Benchmark
+  public byte[] copyPart()
+    throws Exception
+  {
+    HashingInputStream stream = new HashingInputStream(new ByteArrayInputStream(_data));
+    InputStream in = stream;
+    if(encrypted)
+    {
+      in = new CipherWithInlineIVInputStream(stream, Cipher.getInstance("AES/CBC/PKCS5Padding"),
+        Cipher.DECRYPT_MODE, _key);
+    }
+    _file.seek(0);
+    S3DownloadCommand.copyPart(in, _out, partSize, encrypted, _buf, NO_CLEANUP);
+    return stream.getDigest();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed pools of platform threads against virtual threads bounded by a semaphore, for many
+ * small blocking operations.
+ * <p>
+ * {@code blockingTasks} runs tasks that only sleep, which isolates the cost of the executors.
+ * {@code headObjects} sends a HEAD request for every object of a prefix to a {@link
+ * FakeS3Server} that adds latency to every request, like a recursive operation over many small
+ * objects does.  The virtual thread variants need Java 21 or later and fail on older runtimes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark
+{
+  private static final String BUCKET = "bench";
+  private static final int OBJECTS = 2000;
+
+  @Param({"platform", "virtual"})
+  String threads;
+
+  @Param({"10", "100", "1000"})
+  int concurrency;
+
+  @Param({"20"})
+  long latencyMillis;
+
+  private ListeningExecutorService _executor;
+  private FakeS3Server _server;
+  private CloudStoreClient _client;
+
+  @Setup
+  public void setup()
+    throws Exception
+  {
+    boolean virtual = threads.equals("virtual");
+    _executor = virtual ? Utils.createVirtualThreadApiExecutor(concurrency) :
+      Utils.createApiExecutor(concurrency);
+
+    _server = new FakeS3Server();
+    _server.start();
+    _server.getStorage().createBucket(BUCKET);
+    FakeS3Storage.StoredBucket bucket = _server.getStorage().getBucket(BUCKET);
+    FakeS3Storage.Blob empty = _server.getStorage().write(new ByteArrayInputStream(new byte[0]));
+    for(int i = 0; i < OBJECTS; ++i)
+    {
+      FakeS3Storage.StoredObject object = new FakeS3Storage.StoredObject();
+      object.key = String.format("object-%05d", i);
+      object.blob = empty;
+      object.etag = "d41d8cd98f00b204e9800998ecf8427e";
+      object.lastModified = new Date();
+      bucket.objects.put(object.key, object);
+    }
+    _server.setLatency(latencyMillis);
+
+    if(System.getProperty("aws.accessKeyId") == null)
+    {
+      System.setProperty("aws.accessKeyId", "cloud-store");
+      System.setProperty("aws.secretKey", "cloud-store");
+    }
+    Utils.setVirtualThreads(virtual);
+    try
+    {
+      _client = Utils.createCloudStoreClient("s3", _server.getEndpoint(), concurrency,
+        Utils.getDefaultKeyDirectory(), Collections.singletonList("system-properties"), false, 0);
+    }
+    finally
+    {
+      Utils.setVirtualThreads(false);
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    _executor.shutdown();
+    _client.shutdown();
+    _server.stop();
+  }
+
+  @Benchmark
+  public List<Long> blockingTasks()
+    throws Exception
+  {
+    List<ListenableFuture<Long>> futures = new ArrayList<>(OBJECTS);
+    for(int i = 0; i < OBJECTS; ++i)
+    {
+      futures.add(_executor.submit(new Callable<Long>()
+      {
+        public Long call()
+          throws Exception
+        {
+          Thread.sleep(latencyMillis);
+          return latencyMillis;
+        }
+      }));
+    }
+    return Futures.allAsList(futures).get();
+  }
+
+  @Benchmark
+  public List<Metadata> headObjects()
+    throws Exception
+  {
+    List<ListenableFuture<Metadata>> futures = new ArrayList<>(OBJECTS);
+    for(int i = 0; i < OBJECTS; ++i)
+    {
+      ExistsOptions options = _client.getOptionsBuilderFactory()
+        .newExistsOptionsBuilder()
+        .setBucketName(BUCKET)
+        .setObjectKey(String.format("object-%05d", i))
+        .createOptions();
+      futures.add(_client.exists(options));
+    }
+    return Futures.allAsList(futures).get();
+  }
+}
@@ -0,0 +1,77 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MD5 hashing of a part while it is read, as done for every uploaded and downloaded part.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HashingInputStreamBenchmark
+{
+  @Param({"5242880"})
+  int partSize;
+
+  @Param({"8192", "65536"})
+  int bufferSize;
+
+  private byte[] _data;
+  private byte[] _buf;
+
+  @Setup
+  public void setup()
+  {
+    _data = BenchmarkData.randomBytes(partSize);
+    _buf = new byte[bufferSize];
+  }
+
+  @Benchmark
+  public byte[] hashPart()
+    throws IOException
+  {
+    HashingInputStream in = new HashingInputStream(new ByteArrayInputStream(_data));
+    BenchmarkData.drain(in, _buf);
+    return in.getDigest();
+  }
+
+  @Benchmark
+  public long readPartBaseline()
+    throws IOException
+  {
+    return BenchmarkData.drain(new ByteArrayInputStream(_data), _buf);
+  }
+}
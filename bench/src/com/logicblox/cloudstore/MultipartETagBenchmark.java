@@ -0,0 +1,86 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computation of the multipart ETag with {@link Utils#getMultipartETag}, from binary part
+ * digests (downloads) and from the hex part ETags returned by S3 (uploads and copies).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultipartETagBenchmark
+{
+  @Param({"1", "100", "10000"})
+  int parts;
+
+  private List<byte[]> _digests;
+  private List<String> _partETags;
+
+  @Setup
+  public void setup()
+  {
+    Random random = new Random(BenchmarkData.SEED);
+    _digests = new ArrayList<>(parts);
+    _partETags = new ArrayList<>(parts);
+    for(int i = 0; i < parts; ++i)
+    {
+      byte[] digest = new byte[16];
+      random.nextBytes(digest);
+      _digests.add(digest);
+      _partETags.add(DatatypeConverter.printHexBinary(digest).toLowerCase());
+    }
+  }
+
+  @Benchmark
+  public String fromDigests()
+  {
+    return Utils.getMultipartETag(_digests);
+  }
+
+  @Benchmark
+  public String fromPartETags()
+  {
+    List<byte[]> digests = new ArrayList<>(_partETags.size());
+    for(String etag : _partETags)
+    {
+      digests.add(DatatypeConverter.parseHexBinary(etag));
+    }
+    return Utils.getMultipartETag(digests);
+  }
+}
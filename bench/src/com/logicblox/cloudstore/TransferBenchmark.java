@@ -0,0 +1,192 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end upload, download, copy and list through {@link CloudStoreClient} against an
+ * in-process {@link FakeS3Server}, so that the whole transfer pipeline (part planning, executors,
+ * the AWS SDK, hashing and the local file I/O) is measured without a storage service.
+ * <p>
+ * The server runs on loopback without latency by default, which shows the client-side overhead.
+ * Use {@code -p latencyMillis=...} and {@code -p bandwidth=...} to model a remote service.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark
+{
+  private static final String BUCKET = "bench";
+  private static final String SOURCE_KEY = "source";
+  private static final int LIST_OBJECTS = 2000;
+
+  @Param({"33554432"})
+  long fileSize;
+
+  @Param({"5242880", "16777216"})
+  long chunkSize;
+
+  @Param({"1", "8", "32"})
+  int concurrency;
+
+  @Param({"0"})
+  long latencyMillis;
+
+  // bytes per second per connection, 0 for unlimited
+  @Param({"0"})
+  long bandwidth;
+
+  private FakeS3Server _server;
+  private CloudStoreClient _client;
+  private File _source;
+  private File _download;
+
+  @Setup
+  public void setup()
+    throws Exception
+  {
+    _server = new FakeS3Server();
+    _server.start();
+    _server.getStorage().createBucket(BUCKET);
+    if(System.getProperty("aws.accessKeyId") == null)
+    {
+      System.setProperty("aws.accessKeyId", "cloud-store");
+      System.setProperty("aws.secretKey", "cloud-store");
+    }
+    _client = Utils.createCloudStoreClient("s3", _server.getEndpoint(), concurrency,
+      Utils.getDefaultKeyDirectory(), Collections.singletonList("system-properties"), false, 0);
+
+    _source = File.createTempFile("cloudstore-bench", ".bin");
+    _download = File.createTempFile("cloudstore-bench", ".bin");
+    try(OutputStream out = new FileOutputStream(_source))
+    {
+      out.write(BenchmarkData.randomBytes((int) fileSize));
+    }
+    upload(SOURCE_KEY);
+
+    // listing objects are created directly in the storage, they only need a key
+    FakeS3Storage.StoredBucket bucket = _server.getStorage().getBucket(BUCKET);
+    FakeS3Storage.Blob empty = _server.getStorage().write(new ByteArrayInputStream(new byte[0]));
+    for(int i = 0; i < LIST_OBJECTS; ++i)
+    {
+      FakeS3Storage.StoredObject object = new FakeS3Storage.StoredObject();
+      object.key = String.format("list/%03d/object-%05d", i % 100, i);
+      object.blob = empty;
+      object.etag = "d41d8cd98f00b204e9800998ecf8427e";
+      object.lastModified = new Date();
+      bucket.objects.put(object.key, object);
+    }
+
+    // transfers of the setup are not part of the measurement
+    _server.setLatency(latencyMillis);
+    _server.setBandwidth(bandwidth);
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    _client.shutdown();
+    _server.stop();
+    _source.delete();
+    _download.delete();
+  }
+
+  @Benchmark
+  public StoreFile upload()
+    throws Exception
+  {
+    return upload("upload");
+  }
+
+  @Benchmark
+  public StoreFile download()
+    throws Exception
+  {
+    DownloadOptions options = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(_download)
+      .setBucketName(BUCKET)
+      .setObjectKey(SOURCE_KEY)
+      .setOverwrite(true)
+      .createOptions();
+    return _client.download(options).get();
+  }
+
+  @Benchmark
+  public StoreFile copy()
+    throws Exception
+  {
+    CopyOptions options = _client.getOptionsBuilderFactory()
+      .newCopyOptionsBuilder()
+      .setSourceBucketName(BUCKET)
+      .setSourceObjectKey(SOURCE_KEY)
+      .setDestinationBucketName(BUCKET)
+      .setDestinationObjectKey("copy")
+      .createOptions();
+    return _client.copy(options).get();
+  }
+
+  @Benchmark
+  public List<StoreFile> list()
+    throws Exception
+  {
+    ListOptions options = _client.getOptionsBuilderFactory()
+      .newListOptionsBuilder()
+      .setBucketName(BUCKET)
+      .setObjectKey("list/")
+      .setRecursive(true)
+      .createOptions();
+    return _client.listObjects(options).get();
+  }
+
+  private StoreFile upload(String key)
+    throws Exception
+  {
+    UploadOptions options = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(_source)
+      .setBucketName(BUCKET)
+      .setObjectKey(key)
+      .setChunkSize(chunkSize)
+      .createOptions();
+    return _client.upload(options).get();
+  }
+}
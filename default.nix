@@ -169,6 +169,7 @@ let
           "--with-aws-java-sdk=${deps.aws_java_sdk}"
           "--with-gcs-java-sdk=${deps.gcs_java_sdk}"
           "--with-junit=${deps.junit}"
+          "--with-jmh=${deps.jmh}"
         ];
         buildInputs = [ python pkgs.makeWrapper ];
         propagatedBuildInputs = [ jdk ];
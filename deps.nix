@@ -54,6 +54,49 @@ in {
       sha256 = "1l8v7bykvaqrswbg4jlwwb96v308020q2wiaq8w7lv1q748k7vdh";
     };
 
+  jmh =
+    let
+      jmh_core =
+        buildjar {
+          name = "jmh-core-1.21";
+          url = http://search.maven.org/remotecontent?filepath=org/openjdk/jmh/jmh-core/1.21/jmh-core-1.21.jar;
+          sha256 = "79aecd73ffb5d95d88b1ac36b505fa30ae3e83788e936838e2be9a51074fd2dd";
+      };
+
+      jmh_generator_annprocess =
+        buildjar {
+          name = "jmh-generator-annprocess-1.21";
+          url = http://search.maven.org/remotecontent?filepath=org/openjdk/jmh/jmh-generator-annprocess/1.21/jmh-generator-annprocess-1.21.jar;
+          sha256 = "c5636ecbc617732f5acf41f94521cf6ae4f5bc6ad3512e82416fbbaabe805fe5";
+      };
+
+      jopt_simple =
+        buildjar {
+          name = "jopt-simple-4.6";
+          url = http://search.maven.org/remotecontent?filepath=net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar;
+          sha256 = "3fcfbe3203c2ea521bf7640484fd35d6303186ea2e08e72f032d640ca067ffda";
+      };
+
+      commons_math3 =
+        buildjar {
+          name = "commons-math3-3.2";
+          url = http://search.maven.org/remotecontent?filepath=org/apache/commons/commons-math3/3.2/commons-math3-3.2.jar;
+          sha256 = "6268a9a0ea3e769fc493a21446664c0ef668e48c93d126791f6f3f757978fee2";
+      };
+    in
+    pkgs.stdenv.mkDerivation rec {
+      name = "jmh-1.21";
+      buildInputs = [jmh_core jmh_generator_annprocess jopt_simple commons_math3];
+      buildCommand = ''
+        mkdir -p $out/lib/java
+
+        cp ${jmh_core}/lib/java/*.jar $out/lib/java
+        cp ${jmh_generator_annprocess}/lib/java/*.jar $out/lib/java
+        cp ${jopt_simple}/lib/java/*.jar $out/lib/java
+        cp ${commons_math3}/lib/java/*.jar $out/lib/java
+      '';
+    };
+
   log4j =
     buildjar {
       name = "log4j-1.2.13";
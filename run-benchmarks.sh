@@ -0,0 +1,38 @@
+#!/usr/bin/env bash
+
+#
+#  Copyright 2018, Infor Inc.
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Runs the JMH benchmarks and writes the results to build/bench/<revision>.json.
+# Arguments are passed to JMH, e.g. a benchmark regexp or "-p bufferSize=65536".
+
+set -e
+
+cloudstore_jars=$CLOUDSTORE_HOME/lib/java
+
+# for local testing
+bench_jars=$PWD/build/jars
+
+revision=$(git rev-parse --short HEAD 2>/dev/null || echo unknown)
+results_dir=${BENCH_RESULTS_DIR:-$PWD/build/bench}
+results=$results_dir/$revision.json
+mkdir -p $results_dir
+
+cp="$bench_jars/cloudstore-bench.jar:$cloudstore_jars/cloudstore-bench.jar"
+
+java -cp $cp org.openjdk.jmh.Main -rf json -rff $results $*
+
+echo "Results written to $results"
@@ -21,6 +21,7 @@ import com.amazonaws.Request;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.Signer;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.metrics.RequestMetricCollector;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.internal.S3Signer;
@@ -68,6 +69,16 @@ public class AmazonS3ClientForGCS
     super(clientConfiguration);
   }
 
+  /**
+   * Add a handler to the requests of this client.  Unlike the deprecated {@code
+   * addRequestHandler} this does not check that the client is mutable, which clients created
+   * with a constructor always are.
+   */
+  void registerRequestHandler(RequestHandler2 handler)
+  {
+    requestHandler2s.add(handler);
+  }
+
   protected Signer createSigner(
     final Request<?> request, final String bucketName, final String key,
     final boolean isAdditionalHeadRequestToFindRegion)
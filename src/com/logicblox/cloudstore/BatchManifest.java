@@ -0,0 +1,426 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A list of upload, download, copy, delete, rename and exists operations that run through one
+ * {@link CloudStoreClient}, for the {@code batch} command.
+ * <p>
+ * Every line of a manifest is one operation, written like the corresponding command line
+ * without the options that configure the client, and parsed by the options of that command,
+ * e.g.
+ * <pre>
+ *   upload s3://bucket/dir/ -i "my file.txt"
+ *   download s3://bucket/data -o data --overwrite
+ *   copy -r s3://bucket/a/ s3://bucket/b/
+ *   exists s3://bucket/marker
+ * </pre>
+ * Arguments are separated by whitespace and can be quoted with single or double quotes.  Empty
+ * lines and lines starting with {@code #} are ignored.
+ * <p>
+ * Operations start in manifest order, with at most a fixed number in flight, and share the
+ * executors and connections of the client.  A result line is printed as soon as an operation
+ * completes.
+ */
+class BatchManifest
+{
+  static final List<String> OPERATIONS = Arrays.asList("upload", "download", "copy", "delete",
+    "rename", "exists");
+
+  /**
+   * Options of the commands that configure their client, which is the client of the batch
+   * command for all operations.
+   */
+  static final List<String> CLIENT_OPTIONS = Arrays.asList("--max-concurrent-connections",
+    "--endpoint", "--keydir", "--stubborn", "--retry", "--credential-providers-s3",
+    "--metrics-json", "--metrics-interval", "--virtual-threads", "--cache-dir",
+    "--cache-max-bytes", "--cache-ttl");
+
+  private final List<Operation> _operations;
+
+  private BatchManifest(List<Operation> operations)
+  {
+    _operations = operations;
+  }
+
+  /**
+   * Parse a manifest.
+   *
+   * @param reader manifest text
+   * @param main   command line that the manifest belongs to, which also resolves relative file
+   *               names
+   * @throws UsageException if a line is not a valid operation
+   */
+  static BatchManifest parse(Reader reader, Main main)
+    throws IOException
+  {
+    List<Operation> operations = new ArrayList<>();
+    BufferedReader lines = new BufferedReader(reader);
+    String line;
+    int lineNumber = 0;
+    while((line = lines.readLine()) != null)
+    {
+      lineNumber++;
+      String trimmed = line.trim();
+      if(trimmed.isEmpty() || trimmed.startsWith("#"))
+      {
+        continue;
+      }
+      try
+      {
+        operations.add(Operation.parse(lineNumber, tokenize(trimmed), main));
+      }
+      catch(ParameterException | UsageException | URISyntaxException exc)
+      {
+        throw new UsageException("Line " + lineNumber + " of manifest: " + exc.getMessage());
+      }
+    }
+    return new BatchManifest(operations);
+  }
+
+  List<Operation> getOperations()
+  {
+    return _operations;
+  }
+
+  /**
+   * Return the scheme of the first operation, or null for an empty manifest.
+   */
+  String getScheme()
+  {
+    return _operations.isEmpty() ? null : _operations.get(0).getScheme();
+  }
+
+  /**
+   * Run all operations and print a result line for each of them and a summary.
+   *
+   * @param client                  client that runs the operations
+   * @param maxConcurrentOperations maximum number of operations in flight
+   * @param failFast                do not start new operations after one has failed
+   * @param report                  stream to print results to
+   * @return results in manifest order, null for operations that were not started
+   */
+  List<Result> run(
+    final CloudStoreClient client, int maxConcurrentOperations, boolean failFast,
+    final PrintStream report)
+    throws InterruptedException
+  {
+    final Result[] results = new Result[_operations.size()];
+    final Semaphore permits = new Semaphore(maxConcurrentOperations);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    long start = System.nanoTime();
+
+    for(int i = 0; i < _operations.size(); ++i)
+    {
+      permits.acquire();
+      if(failFast && failed.get())
+      {
+        permits.release();
+        break;
+      }
+
+      final int index = i;
+      final Operation operation = _operations.get(i);
+      final long opStart = System.nanoTime();
+      ListenableFuture<?> future;
+      try
+      {
+        future = operation.start(client);
+      }
+      catch(Exception exc)
+      {
+        future = Futures.immediateFailedFuture(exc);
+      }
+      Futures.addCallback(future, new FutureCallback<Object>()
+      {
+        public void onSuccess(Object value)
+        {
+          complete(operation.getResult(value, null, System.nanoTime() - opStart));
+        }
+
+        public void onFailure(Throwable t)
+        {
+          complete(operation.getResult(null, t, System.nanoTime() - opStart));
+        }
+
+        private void complete(Result result)
+        {
+          results[index] = result;
+          if(!result.isSuccess())
+          {
+            failed.set(true);
+          }
+          synchronized(report)
+          {
+            report.println(result);
+          }
+          permits.release();
+        }
+      });
+    }
+    permits.acquire(maxConcurrentOperations);
+    permits.release(maxConcurrentOperations);
+
+    int succeeded = 0;
+    int failures = 0;
+    int skipped = 0;
+    for(Result result : results)
+    {
+      if(result == null)
+      {
+        skipped++;
+      }
+      else if(result.isSuccess())
+      {
+        succeeded++;
+      }
+      else
+      {
+        failures++;
+      }
+    }
+    report.format("%d operations: %d succeeded, %d failed, %d skipped in %.1f s%n",
+      results.length, succeeded, failures, skipped,
+      (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Split a manifest line into arguments.
+   */
+  static List<String> tokenize(String line)
+  {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder current = new StringBuilder();
+    boolean inToken = false;
+    char quote = 0;
+    for(int i = 0; i < line.length(); ++i)
+    {
+      char c = line.charAt(i);
+      if(quote != 0)
+      {
+        if(c == quote)
+        {
+          quote = 0;
+        }
+        else if(c == '\\' && quote == '"' && i + 1 < line.length())
+        {
+          current.append(line.charAt(++i));
+        }
+        else
+        {
+          current.append(c);
+        }
+      }
+      else if(c == '"' || c == '\'')
+      {
+        quote = c;
+        inToken = true;
+      }
+      else if(c == '\\' && i + 1 < line.length())
+      {
+        current.append(line.charAt(++i));
+        inToken = true;
+      }
+      else if(Character.isWhitespace(c))
+      {
+        if(inToken)
+        {
+          tokens.add(current.toString());
+          current.setLength(0);
+          inToken = false;
+        }
+      }
+      else
+      {
+        current.append(c);
+        inToken = true;
+      }
+    }
+    if(quote != 0)
+    {
+      throw new UsageException("Unterminated quote");
+    }
+    if(inToken)
+    {
+      tokens.add(current.toString());
+    }
+    return tokens;
+  }
+
+  /**
+   * Outcome of one operation.
+   */
+  static class Result
+  {
+    final Operation _operation;
+    final boolean _success;
+    final String _message;
+    final long _nanos;
+
+    Result(Operation operation, boolean success, String message, long nanos)
+    {
+      _operation = operation;
+      _success = success;
+      _message = message;
+      _nanos = nanos;
+    }
+
+    boolean isSuccess()
+    {
+      return _success;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("%-6s line %d: %s (%d ms)%s", _success ? "OK" : "FAILED",
+        _operation._line, _operation._description, TimeUnit.NANOSECONDS.toMillis(_nanos),
+        (_message == null) ? "" : ": " + _message);
+    }
+  }
+
+  /**
+   * One line of a manifest, parsed by the options class of the command with the same name.
+   */
+  static class Operation
+  {
+    final int _line;
+    final String _name;
+    final String _description;
+    final Main.S3CommandOptions _options;
+
+    private Operation(int line, String name, String description, Main.S3CommandOptions options)
+    {
+      _line = line;
+      _name = name;
+      _description = description;
+      _options = options;
+    }
+
+    static Operation parse(int line, List<String> args, Main main)
+      throws URISyntaxException
+    {
+      if(args.isEmpty() || !OPERATIONS.contains(args.get(0)))
+      {
+        throw new UsageException("Expected one of " + OPERATIONS + ", got '" +
+          (args.isEmpty() ? "" : args.get(0)) + "'");
+      }
+      for(String arg : args)
+      {
+        if(CLIENT_OPTIONS.contains(arg))
+        {
+          throw new UsageException(arg + " configures the client and must be passed to the " +
+            "batch command instead");
+        }
+      }
+
+      Main.S3CommandOptions options;
+      switch(args.get(0))
+      {
+        case "upload":
+          options = main.new UploadCommandOptions();
+          break;
+        case "download":
+          options = main.new DownloadCommandOptions();
+          break;
+        case "copy":
+          options = main.new CopyCommandOptions();
+          break;
+        case "delete":
+          options = main.new DeleteCommandOptions();
+          break;
+        case "rename":
+          options = main.new RenameCommandOptions();
+          break;
+        default:
+          options = main.new ExistsCommandOptions();
+          break;
+      }
+      List<String> rest = args.subList(1, args.size());
+      new JCommander(options, rest.toArray(new String[rest.size()]));
+      // fails for a missing or malformed URL
+      options.getScheme();
+      return new Operation(line, args.get(0), String.join(" ", args), options);
+    }
+
+    String getScheme()
+    {
+      try
+      {
+        return _options.getScheme();
+      }
+      catch(URISyntaxException exc)
+      {
+        throw new UsageException(exc.getMessage());
+      }
+    }
+
+    /**
+     * Start the operation.
+     */
+    ListenableFuture<?> start(CloudStoreClient client)
+      throws Exception
+    {
+      String scheme = getScheme();
+      if(scheme != null && !scheme.equals(client.getScheme()))
+      {
+        throw new UsageException("All operations of a manifest must use the same storage " +
+          "service, this one uses " + scheme + " instead of " + client.getScheme());
+      }
+      return _options.start(client);
+    }
+
+    Result getResult(Object value, Throwable error, long nanos)
+    {
+      if(error != null)
+      {
+        while(error instanceof ExecutionException && error.getCause() != null)
+        {
+          error = error.getCause();
+        }
+        String message = error.getMessage();
+        return new Result(this, false, (message == null) ? error.toString() : message, nanos);
+      }
+      if(_name.equals("exists") && value == null)
+      {
+        // like the exists command, a missing object is a failure
+        return new Result(this, false, "does not exist", nanos);
+      }
+      return new Result(this, true, null, nanos);
+    }
+  }
+}
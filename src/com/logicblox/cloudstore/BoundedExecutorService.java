@@ -0,0 +1,201 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+
+package com.logicblox.cloudstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs every task on its own thread of a delegate executor, but lets at most a
+ * fixed number of tasks run at the same time.
+ * <p>
+ * Used with an executor that starts a virtual thread per task: tasks over the limit wait on
+ * the semaphore in their own (cheap) virtual thread instead of in a queue, so concurrency is
+ * bounded by permits rather than by the number of platform threads.  {@link #shutdownNow()}
+ * treats the tasks that wait for a permit like queued tasks: they never run, they are
+ * returned, and if they are futures they are cancelled, so nobody waits for them forever.
+ */
+class BoundedExecutorService
+  extends AbstractExecutorService
+{
+  private static final int WAITING = 0;
+  private static final int RUNNING = 1;
+  private static final int DROPPED = 2;
+
+  private final ExecutorService _delegate;
+  private final Semaphore _permits;
+  private final int _maxConcurrency;
+  private final Set<Gate> _waiting = ConcurrentHashMap.newKeySet();
+
+  BoundedExecutorService(ExecutorService delegate, int maxConcurrency)
+  {
+    if(maxConcurrency < 1)
+    {
+      throw new IllegalArgumentException("maxConcurrency must be positive");
+    }
+    _delegate = delegate;
+    _permits = new Semaphore(maxConcurrency, true);
+    _maxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * Return the maximum number of tasks that run at the same time.
+   */
+  int getMaxConcurrency()
+  {
+    return _maxConcurrency;
+  }
+
+  /**
+   * Return the number of submitted tasks that wait for a permit.
+   */
+  int getQueueDepth()
+  {
+    return _waiting.size();
+  }
+
+  @Override
+  public void execute(Runnable command)
+  {
+    Gate gate = new Gate(command);
+    _waiting.add(gate);
+    try
+    {
+      _delegate.execute(gate);
+    }
+    catch(RuntimeException e)
+    {
+      _waiting.remove(gate);
+      throw e;
+    }
+  }
+
+  @Override
+  public void shutdown()
+  {
+    _delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow()
+  {
+    // drop the waiting tasks first, so none of them gets the permit of an interrupted task;
+    // the delegate only has gates, which are all among the waiting ones
+    _delegate.shutdown();
+    List<Runnable> dropped = new ArrayList<>();
+    for(Gate gate : _waiting)
+    {
+      if(gate.drop())
+      {
+        dropped.add(gate._command);
+      }
+    }
+    _delegate.shutdownNow();
+    return dropped;
+  }
+
+  @Override
+  public boolean isShutdown()
+  {
+    return _delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated()
+  {
+    return _delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit)
+    throws InterruptedException
+  {
+    return _delegate.awaitTermination(timeout, unit);
+  }
+
+  /**
+   * Runs a task once it has a permit.  A task leaves the waiting state exactly once, either
+   * to run or to be dropped.
+   */
+  private class Gate
+    implements Runnable
+  {
+    private final Runnable _command;
+    private final AtomicInteger _state = new AtomicInteger(WAITING);
+
+    Gate(Runnable command)
+    {
+      _command = command;
+    }
+
+    public void run()
+    {
+      try
+      {
+        _permits.acquire();
+      }
+      catch(InterruptedException e)
+      {
+        // only happens on shutdownNow, the task is dropped like a queued task would be
+        drop();
+        return;
+      }
+      if(!_state.compareAndSet(WAITING, RUNNING))
+      {
+        _permits.release();
+        return;
+      }
+      _waiting.remove(this);
+      try
+      {
+        _command.run();
+      }
+      finally
+      {
+        _permits.release();
+      }
+    }
+
+    /**
+     * Drop the task if it is still waiting, cancelling it if it is a future.
+     *
+     * @return true if the task was dropped by this call
+     */
+    boolean drop()
+    {
+      if(!_state.compareAndSet(WAITING, DROPPED))
+      {
+        return false;
+      }
+      _waiting.remove(this);
+      if(_command instanceof Future)
+      {
+        ((Future<?>) _command).cancel(false);
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.OutputStream;
+
+/**
+ * A sink that writes a download into a byte array.  Parts are downloaded concurrently, and
+ * every part writes a disjoint region of the array.  The array may be longer than the
+ * download, for example when it is sized after an encrypted object, whose stored size
+ * includes the overhead of the encryption.
+ */
+class ByteArraySink
+  implements DownloadSink
+{
+  private final byte[] _bytes;
+  private int _length = 0;
+
+  ByteArraySink(byte[] bytes)
+  {
+    _bytes = bytes;
+  }
+
+  /**
+   * Return the end of the furthest part that was written, which is the length of the download
+   * once it completes.
+   */
+  synchronized int getLength()
+  {
+    return _length;
+  }
+
+  private synchronized void extend(int end)
+  {
+    _length = Math.max(_length, end);
+  }
+
+  public OutputStream open(final long position)
+  {
+    return new OutputStream()
+    {
+      private int _position = (int) position;
+
+      @Override
+      public void write(int b)
+      {
+        _bytes[_position++] = (byte) b;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len)
+      {
+        System.arraycopy(b, off, _bytes, _position, len);
+        _position += len;
+      }
+
+      @Override
+      public void close()
+      {
+        extend(_position);
+      }
+    };
+  }
+}
@@ -0,0 +1,52 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * {@link UploadSource} for data in memory.
+ */
+class ByteArrayUploadSource
+  implements UploadSource
+{
+  private final byte[] _bytes;
+  private final String _description;
+
+  ByteArrayUploadSource(byte[] bytes, String description)
+  {
+    _bytes = bytes;
+    _description = description;
+  }
+
+  public long getLength()
+  {
+    return _bytes.length;
+  }
+
+  public InputStream open(long position)
+  {
+    int offset = (int) position;
+    return new ByteArrayInputStream(_bytes, offset, _bytes.length - offset);
+  }
+
+  public String getDescription()
+  {
+    return _description;
+  }
+}
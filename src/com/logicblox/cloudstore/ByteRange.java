@@ -0,0 +1,56 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+/**
+ * A range of {@code length} bytes of a file, starting at {@code offset}.
+ */
+class ByteRange
+{
+  private final long _offset;
+  private final long _length;
+
+  ByteRange(long offset, long length)
+  {
+    _offset = offset;
+    _length = length;
+  }
+
+  long getOffset()
+  {
+    return _offset;
+  }
+
+  long getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Return the offset after the last byte of the range.
+   */
+  long getEnd()
+  {
+    return _offset + _length;
+  }
+
+  @Override
+  public String toString()
+  {
+    return _offset + "-" + getEnd();
+  }
+}
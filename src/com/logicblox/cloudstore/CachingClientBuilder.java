@@ -0,0 +1,106 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a {@link CachingCloudStoreClient} around an existing client.  The client and the
+ * cache directory are mandatory.
+ */
+public class CachingClientBuilder
+{
+  public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+
+  private CloudStoreClient _client;
+  private File _directory;
+  private long _maxBytes = DEFAULT_MAX_BYTES;
+  private long _ttlMillis = 0;
+  private boolean _hardLinks = false;
+
+  public CachingClientBuilder setClient(CloudStoreClient client)
+  {
+    _client = client;
+    return this;
+  }
+
+  /**
+   * Set the directory of the cache.  Clients in the same process should not share a
+   * directory, because each keeps its own account of the quota.
+   */
+  public CachingClientBuilder setDirectory(File directory)
+  {
+    _directory = directory;
+    return this;
+  }
+
+  /**
+   * Set the largest total size of the cached files.  The default is 10 GB.
+   */
+  public CachingClientBuilder setMaxBytes(long maxBytes)
+  {
+    _maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * Set how long the ETag of an object is trusted before it is looked up again.  With the
+   * default of 0 every download looks it up, so a changed object is never served from the
+   * cache; with a TTL, changes may go unnoticed for that long, but hits cost no request at all.
+   */
+  public CachingClientBuilder setTtl(long ttl, TimeUnit unit)
+  {
+    _ttlMillis = unit.toMillis(ttl);
+    return this;
+  }
+
+  /**
+   * Serve hits by hard-linking the cached file instead of copying it, which is faster for
+   * large files.  The linked files are read-only and must not be changed, because that would
+   * change the cached file as well.
+   */
+  public CachingClientBuilder setHardLinks(boolean hardLinks)
+  {
+    _hardLinks = hardLinks;
+    return this;
+  }
+
+  public CachingCloudStoreClient createCachingClient()
+    throws IOException
+  {
+    if(_client == null)
+    {
+      throw new UsageException("Client has to be set");
+    }
+    else if(_directory == null)
+    {
+      throw new UsageException("Cache directory has to be set");
+    }
+    else if(_maxBytes < 0)
+    {
+      throw new UsageException("Cache size cannot be negative");
+    }
+    else if(_ttlMillis < 0)
+    {
+      throw new UsageException("TTL cannot be negative");
+    }
+    return new CachingCloudStoreClient(_client, new DownloadCache(_directory, _maxBytes,
+      _hardLinks), _ttlMillis);
+  }
+}
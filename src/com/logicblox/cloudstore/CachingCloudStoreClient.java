@@ -0,0 +1,511 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link CloudStoreClient} that keeps downloaded files in a local directory, so that
+ * downloading the same object again costs only a metadata request.
+ * <p>
+ * Cached files are named after a digest of the storage service, bucket, key, version and ETag
+ * of the object, so a changed object is never served from the cache.  Before a cached file is
+ * used, the ETag of the object is looked up, unless it was looked up less than the TTL ago.
+ * Hits are served by copying the cached file with {@link
+ * java.nio.channels.FileChannel#transferTo}, or by hard-linking it.  Files are evicted least
+ * recently used first when the cache exceeds its quota.
+ * <p>
+ * Encrypted objects are not cached, so their plaintext is never kept outside the requested
+ * file and a private key is still needed for every download.  All other operations are
+ * passed to the wrapped client.  Options have to be created with the {@link
+ * OptionsBuilderFactory} of this client, so that recursive downloads and synchronization use
+ * the cache as well.
+ *
+ * @see CachingClientBuilder
+ */
+public class CachingCloudStoreClient
+  implements CloudStoreClient
+{
+  private final CloudStoreClient _client;
+  private final DownloadCache _cache;
+  private final long _ttlMillis;
+  private final ConcurrentMap<String, Validation> _validations = new ConcurrentHashMap<>();
+
+  CachingCloudStoreClient(CloudStoreClient client, DownloadCache cache, long ttlMillis)
+  {
+    _client = client;
+    _cache = cache;
+    _ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Return the client that this client passes operations to.
+   *
+   * @return wrapped client
+   */
+  public CloudStoreClient getClient()
+  {
+    return _client;
+  }
+
+  /**
+   * Return the total size of the files in the cache.
+   *
+   * @return size in bytes
+   */
+  public long getCachedBytes()
+  {
+    return _cache.getBytes();
+  }
+
+  @Override
+  public OptionsBuilderFactory getOptionsBuilderFactory()
+  {
+    return new OptionsBuilderFactory(this);
+  }
+
+  @Override
+  public void setRetryCount(int retryCount)
+  {
+    _client.setRetryCount(retryCount);
+  }
+
+  @Override
+  public void setRetryClientException(boolean retry)
+  {
+    _client.setRetryClientException(retry);
+  }
+
+  @Override
+  public void setEndpoint(String endpoint)
+  {
+    _client.setEndpoint(endpoint);
+  }
+
+  @Override
+  public void setOutput(PrintStream out, PrintStream err)
+  {
+    _client.setOutput(out, err);
+  }
+
+  @Override
+  public PrintStream getOutput()
+  {
+    return _client.getOutput();
+  }
+
+  @Override
+  public PrintStream getErrorOutput()
+  {
+    return _client.getErrorOutput();
+  }
+
+  @Override
+  public String getScheme()
+  {
+    return _client.getScheme();
+  }
+
+  @Override
+  public ListeningExecutorService getApiExecutor()
+  {
+    return _client.getApiExecutor();
+  }
+
+  @Override
+  public ListeningScheduledExecutorService getInternalExecutor()
+  {
+    return _client.getInternalExecutor();
+  }
+
+  @Override
+  public KeyProvider getKeyProvider()
+  {
+    return _client.getKeyProvider();
+  }
+
+  @Override
+  public ClientMetrics getMetrics()
+  {
+    return _client.getMetrics();
+  }
+
+  @Override
+  public AclHandler getAclHandler()
+  {
+    return _client.getAclHandler();
+  }
+
+  @Override
+  public StorageClassHandler getStorageClassHandler()
+  {
+    return _client.getStorageClassHandler();
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> upload(UploadOptions options)
+    throws IOException
+  {
+    return _client.upload(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> uploadRecursively(UploadOptions options)
+    throws IOException, ExecutionException, InterruptedException
+  {
+    return _client.uploadRecursively(options);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> delete(DeleteOptions options)
+  {
+    return _client.delete(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> deleteRecursively(DeleteOptions options)
+    throws InterruptedException, ExecutionException
+  {
+    return _client.deleteRecursively(options);
+  }
+
+  @Override
+  public ListenableFuture<List<Bucket>> listBuckets()
+  {
+    return _client.listBuckets();
+  }
+
+  @Override
+  public ListenableFuture<Bucket> getBucket(String bucketName)
+    throws ExecutionException, InterruptedException, IOException
+  {
+    return _client.getBucket(bucketName);
+  }
+
+  @Override
+  public ListenableFuture<Metadata> exists(ExistsOptions options)
+  {
+    return _client.exists(options);
+  }
+
+  /**
+   * Download a file through the cache.  Downloads to a sink, of ranges, dry runs and downloads
+   * of encrypted objects bypass the cache.
+   */
+  @Override
+  public ListenableFuture<StoreFile> download(final DownloadOptions options)
+    throws IOException
+  {
+    if(options.getSink().isPresent() || options.getRanges().isPresent() || options.isDryRun())
+    {
+      return _client.download(options);
+    }
+
+    final String objectId = getUri(options);
+    Validation validation = _validations.get(objectId);
+    if(validation != null && System.currentTimeMillis() - validation._time < _ttlMillis)
+    {
+      return download(options, objectId, validation);
+    }
+
+    ExistsOptions exists = getOptionsBuilderFactory().newExistsOptionsBuilder()
+      .setBucketName(options.getBucketName())
+      .setObjectKey(options.getObjectKey())
+      .setVersion(options.getVersion().orElse(null))
+      .createOptions();
+    return Futures.transform(_client.exists(exists), new AsyncFunction<Metadata, StoreFile>()
+    {
+      public ListenableFuture<StoreFile> apply(Metadata metadata)
+        throws IOException
+      {
+        if(metadata == null)
+        {
+          // let the download report the missing object
+          return _client.download(options);
+        }
+        Validation validation = new Validation(metadata.getETag(),
+          metadata.getUserMetadata().containsKey("s3tool-key-name"));
+        _validations.put(objectId, validation);
+        return download(options, objectId, validation);
+      }
+    });
+  }
+  @Override
+  public ListenableFuture<byte[]> read(ReadOptions options)
+    throws IOException
+  {
+    return _client.read(options);
+  }
+
+  @Override
+  public ListenableFuture<List<ByteBuffer>> readVectored(VectoredReadOptions options)
+    throws IOException
+  {
+    return _client.readVectored(options);
+  }
+
+  @Override
+  public ListenableFuture<SeekableByteChannel> open(OpenOptions options)
+    throws IOException
+  {
+    return _client.open(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> downloadRecursively(DownloadOptions options)
+    throws IOException, ExecutionException, InterruptedException
+  {
+    return _client.downloadRecursively(options);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> copy(CopyOptions options)
+  {
+    return _client.copy(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> copyRecursively(CopyOptions options)
+    throws InterruptedException, ExecutionException, IOException
+  {
+    return _client.copyRecursively(options);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> concat(ConcatOptions options)
+  {
+    return _client.concat(options);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> rename(RenameOptions options)
+  {
+    return _client.rename(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> renameRecursively(RenameOptions options)
+    throws InterruptedException, ExecutionException, IOException
+  {
+    return _client.renameRecursively(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> sync(SyncOptions options)
+    throws IOException, ExecutionException, InterruptedException
+  {
+    return _client.sync(options);
+  }
+
+  @Override
+  public ListenableFuture<List<VerifyResult>> verify(VerifyOptions options)
+    throws IOException
+  {
+    return _client.verify(options);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> listObjects(ListOptions lsOptions)
+  {
+    return _client.listObjects(lsOptions);
+  }
+
+  @Override
+  public ListenableFuture<List<Upload>> listPendingUploads(PendingUploadsOptions options)
+  {
+    return _client.listPendingUploads(options);
+  }
+
+  @Override
+  public ListenableFuture<List<Void>> abortPendingUploads(PendingUploadsOptions options)
+  {
+    return _client.abortPendingUploads(options);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> addEncryptionKey(EncryptionKeyOptions options)
+    throws IOException
+  {
+    return _client.addEncryptionKey(options);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> removeEncryptionKey(EncryptionKeyOptions options)
+    throws IOException
+  {
+    return _client.removeEncryptionKey(options);
+  }
+
+  @Override
+  public void shutdown()
+  {
+    _client.shutdown();
+  }
+
+  @Override
+  public boolean hasBucket(String bucketName)
+  {
+    return _client.hasBucket(bucketName);
+  }
+
+  @Override
+  public void createBucket(String bucketName)
+  {
+    _client.createBucket(bucketName);
+  }
+
+  @Override
+  public void destroyBucket(String bucketName)
+  {
+    _client.destroyBucket(bucketName);
+  }
+
+  private ListenableFuture<StoreFile> download(
+    final DownloadOptions options, final String objectId, final Validation validation)
+    throws IOException
+  {
+    if(validation._encrypted)
+    {
+      return _client.download(options);
+    }
+
+    final String key = getCacheKey(objectId, validation._etag);
+    AsyncFunction<Object, StoreFile> fromCache = new AsyncFunction<Object, StoreFile>()
+    {
+      public ListenableFuture<StoreFile> apply(Object ignored)
+        throws IOException
+      {
+        File file = options.getFile().getAbsoluteFile();
+        if(_cache.contains(key))
+        {
+          prepareFile(file, options.doesOverwrite());
+          if(_cache.get(key, file))
+          {
+            StoreFile f = new StoreFile(options.getBucketName(), options.getObjectKey());
+            f.setLocalFile(file);
+            f.setETag(validation._etag);
+            return Futures.immediateFuture(f);
+          }
+        }
+        return downloadAndAdmit(options, objectId);
+      }
+    };
+    return Futures.transform(Futures.immediateFuture(null), fromCache, getInternalExecutor());
+  }
+
+  /**
+   * Download and add the file to the cache under the ETag of the object that was downloaded,
+   * which differs from the validated ETag if the object was replaced meanwhile.
+   */
+  private ListenableFuture<StoreFile> downloadAndAdmit(
+    final DownloadOptions options, final String objectId)
+    throws IOException
+  {
+    return Futures.transform(_client.download(options), new Function<StoreFile, StoreFile>()
+    {
+      public StoreFile apply(StoreFile f)
+      {
+        if(f.getETag() == null)
+        {
+          return f;
+        }
+        try
+        {
+          _cache.put(getCacheKey(objectId, f.getETag()), f.getLocalFile());
+        }
+        catch(IOException exc)
+        {
+          getErrorOutput().println("warning: could not cache " + getUri(options) + ": " +
+            exc.getMessage());
+        }
+        return f;
+      }
+    }, getInternalExecutor());
+  }
+
+  private static String getCacheKey(String objectId, String etag)
+  {
+    return DigestUtils.sha256Hex(objectId + "\n" + etag);
+  }
+
+  /**
+   * Check and prepare the target of a download like {@link S3DownloadCommand} does.
+   */
+  private static void prepareFile(File file, boolean overwrite)
+    throws IOException
+  {
+    if(file.exists())
+    {
+      if(!overwrite)
+      {
+        throw new UsageException(
+          "File '" + file + "' already exists.  Please delete or use --overwrite");
+      }
+      if(!file.delete())
+      {
+        throw new UsageException("Could not delete existing file '" + file + "'");
+      }
+    }
+    File dir = file.getParentFile();
+    if(!dir.exists())
+    {
+      Utils.mkdirs(dir);
+    }
+  }
+
+  private String getUri(DownloadOptions options)
+  {
+    String uri = getScheme() + options.getBucketName() + "/" + options.getObjectKey();
+    if(options.getVersion().isPresent())
+    {
+      return uri + "?versionId=" + options.getVersion().get();
+    }
+    return uri;
+  }
+
+  /**
+   * The ETag of an object and whether it is encrypted, and when they were looked up.
+   */
+  private static class Validation
+  {
+    final String _etag;
+    final boolean _encrypted;
+    final long _time = System.currentTimeMillis();
+
+    Validation(String etag, boolean encrypted)
+    {
+      _etag = etag;
+      _encrypted = encrypted;
+    }
+  }
+}
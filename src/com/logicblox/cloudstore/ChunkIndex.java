@@ -0,0 +1,208 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Local index of the chunks that exist under one chunk prefix of a {@link DedupStore}, so that
+ * checking whether a chunk has to be uploaded does not cost a request per chunk.
+ * <p>
+ * Chunks are known from the index file of earlier runs, or because they were uploaded through
+ * this index.  A chunk that is not known is looked up by listing its shard, the chunks whose
+ * hashes have the same first two digits.  That is one listing request per thousand chunks,
+ * and each shard is listed at most once per index, however many chunks are looked up in it.
+ * <p>
+ * The index file only grows, one hash per line.  It is trusted: chunks must not be deleted
+ * from the storage service while an index file refers to them, or the index file has to be
+ * deleted as well.  Chunks that were stored by other writers after a shard was listed are
+ * uploaded again, which is harmless.  This class is thread-safe.
+ */
+class ChunkIndex
+{
+  private static final int HASH_LENGTH = 64;
+
+  private final CloudStoreClient _client;
+  private final String _bucket;
+  private final String _chunkPrefix;
+  private final File _file;
+  private final Set<String> _known =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final Set<String> _listedShards =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final ConcurrentMap<String, ListenableFuture<List<StoreFile>>> _shards =
+    new ConcurrentHashMap<>();
+  private Writer _writer;
+
+  /**
+   * @param directory directory of the index files of all chunk prefixes
+   */
+  ChunkIndex(CloudStoreClient client, String bucket, String chunkPrefix, File directory)
+  {
+    _client = client;
+    _bucket = bucket;
+    _chunkPrefix = chunkPrefix;
+    _file = new File(directory, DigestUtils.sha256Hex(bucket + "\n" + chunkPrefix) + ".index");
+  }
+
+  /**
+   * Read the index file, if there is one.
+   */
+  void load()
+    throws IOException
+  {
+    if(!_file.exists())
+    {
+      return;
+    }
+    try(BufferedReader in = new BufferedReader(new InputStreamReader(
+      new FileInputStream(_file), StandardCharsets.UTF_8)))
+    {
+      String line;
+      while((line = in.readLine()) != null)
+      {
+        // the last line may be incomplete if the process stopped while writing it
+        if(line.length() == HASH_LENGTH)
+        {
+          _known.add(line);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return true if the chunk with {@code hash} exists, listing its shard if the chunk is not
+   * known yet.
+   */
+  boolean contains(String hash)
+    throws IOException, InterruptedException
+  {
+    if(_known.contains(hash))
+    {
+      return true;
+    }
+
+    String shard = hash.substring(0, 2);
+    ListenableFuture<List<StoreFile>> listing = _shards.get(shard);
+    if(listing == null)
+    {
+      ListOptions options = _client.getOptionsBuilderFactory()
+        .newListOptionsBuilder()
+        .setBucketName(_bucket)
+        .setObjectKey(_chunkPrefix + shard + "/")
+        .setRecursive(true)
+        .createOptions();
+      ListenableFuture<List<StoreFile>> started = _client.listObjects(options);
+      listing = _shards.putIfAbsent(shard, started);
+      if(listing == null)
+      {
+        listing = started;
+      }
+    }
+
+    try
+    {
+      List<StoreFile> objects = listing.get();
+      synchronized(listing)
+      {
+        if(!_listedShards.contains(shard))
+        {
+          for(StoreFile object : objects)
+          {
+            String key = object.getObjectKey();
+            String found = key.substring(key.lastIndexOf('/') + 1);
+            if(found.length() == HASH_LENGTH)
+            {
+              add(found);
+            }
+          }
+          _listedShards.add(shard);
+        }
+      }
+    }
+    catch(ExecutionException exc)
+    {
+      // list the shard again next time
+      _shards.remove(shard, listing);
+      throw new IOException("Could not list chunks under '" + _chunkPrefix + shard + "/'",
+        exc.getCause());
+    }
+    return _known.contains(hash);
+  }
+
+  /**
+   * Record that the chunk with {@code hash} exists.
+   */
+  void add(String hash)
+    throws IOException
+  {
+    if(!_known.add(hash))
+    {
+      return;
+    }
+    synchronized(this)
+    {
+      if(_writer == null)
+      {
+        _file.getParentFile().mkdirs();
+        _writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_file, true),
+          StandardCharsets.UTF_8));
+      }
+      _writer.write(hash + "\n");
+    }
+  }
+
+  /**
+   * Write the chunks that were added to the index file.
+   */
+  synchronized void flush()
+    throws IOException
+  {
+    if(_writer != null)
+    {
+      _writer.flush();
+    }
+  }
+
+  synchronized void close()
+    throws IOException
+  {
+    if(_writer != null)
+    {
+      _writer.close();
+      _writer = null;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manifest of a file that a {@link DedupStore} stored as content-addressed chunks.
+ * <p>
+ * The manifest of file {@code f} is stored as {@code f.cloud-store-chunks}.  It is
+ * gzip-compressed text: a header line, the prefix of the chunk objects, and one line per chunk
+ * with the hash of the chunk and its length, separated by a tab.  The chunk with hash {@code h}
+ * is stored under the prefix as {@code h[0..2]/h}.  How the hashes are computed depends on the
+ * prefix, see {@link DedupStore}.
+ */
+class ChunkManifest
+{
+  static final String SUFFIX = ".cloud-store-chunks";
+
+  private static final String HEADER = "cloud-store-chunks 1";
+
+  private final String _chunkPrefix;
+  private final List<Chunk> _chunks = new ArrayList<>();
+
+  ChunkManifest(String chunkPrefix)
+  {
+    _chunkPrefix = chunkPrefix;
+  }
+
+  static String getManifestKey(String fileKey)
+  {
+    return fileKey + SUFFIX;
+  }
+
+  static boolean isManifestKey(String key)
+  {
+    return key.endsWith(SUFFIX);
+  }
+
+  /**
+   * Return the key of the file that {@code manifestKey} describes.
+   */
+  static String getFileKey(String manifestKey)
+  {
+    return manifestKey.substring(0, manifestKey.length() - SUFFIX.length());
+  }
+
+  static String getChunkKey(String chunkPrefix, String hash)
+  {
+    return chunkPrefix + hash.substring(0, 2) + "/" + hash;
+  }
+
+  String getChunkPrefix()
+  {
+    return _chunkPrefix;
+  }
+
+  void add(String hash, int length)
+  {
+    _chunks.add(new Chunk(hash, length));
+  }
+
+  List<Chunk> getChunks()
+  {
+    return Collections.unmodifiableList(_chunks);
+  }
+
+  long getLength()
+  {
+    long length = 0;
+    for(Chunk c : _chunks)
+    {
+      length += c._length;
+    }
+    return length;
+  }
+
+  byte[] toBytes()
+    throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes),
+      StandardCharsets.UTF_8))
+    {
+      out.write(HEADER + "\n");
+      out.write(_chunkPrefix + "\n");
+      for(Chunk c : _chunks)
+      {
+        out.write(c._hash + "\t" + c._length + "\n");
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  static ChunkManifest parse(byte[] bytes, int length)
+    throws IOException
+  {
+    try(BufferedReader in = new BufferedReader(new InputStreamReader(
+      new GZIPInputStream(new ByteArrayInputStream(bytes, 0, length)), StandardCharsets.UTF_8)))
+    {
+      String chunkPrefix = HEADER.equals(in.readLine()) ? in.readLine() : null;
+      if(chunkPrefix == null)
+      {
+        throw new IOException("Not a manifest of chunks");
+      }
+      ChunkManifest manifest = new ChunkManifest(chunkPrefix);
+      String line;
+      while((line = in.readLine()) != null)
+      {
+        String[] fields = line.split("\t");
+        if(fields.length != 2 || fields[0].length() < 2)
+        {
+          throw new IOException("Invalid line in manifest of chunks: " + line);
+        }
+        try
+        {
+          manifest.add(fields[0], Integer.parseInt(fields[1]));
+        }
+        catch(NumberFormatException exc)
+        {
+          throw new IOException("Invalid line in manifest of chunks: " + line);
+        }
+      }
+      return manifest;
+    }
+  }
+
+  /**
+   * A chunk of the file.
+   */
+  static class Chunk
+  {
+    private final String _hash;
+    private final int _length;
+
+    Chunk(String hash, int length)
+    {
+      _hash = hash;
+      _length = length;
+    }
+
+    String getHash()
+    {
+      return _hash;
+    }
+
+    int getLength()
+    {
+      return _length;
+    }
+  }
+}
@@ -0,0 +1,559 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the requests a {@link CloudStoreClient} sends to the storage service.
+ * <p>
+ * For every request type (see the constants of this class) the client records a latency
+ * histogram, the number of requests in flight and the number of failed requests.  Errors and
+ * retries are also counted by error code, e.g. "SlowDown", "InternalError" or
+ * "SocketTimeoutException".  Besides that the metrics include byte counters and the queue
+ * depths of the client executors.
+ * <p>
+ * Latencies are measured per HTTP request, from sending it until the response headers are
+ * received.  Retries by {@link ThrowableRetriableTask} show up as separate requests.
+ * <p>
+ * Metrics can be read through the getters, exported through JMX with {@link
+ * #registerMBean(String)}, or periodically written to a JSON file with {@link
+ * #startJsonDump(File, long, TimeUnit)}.
+ *
+ * @see CloudStoreClient#getMetrics()
+ */
+public class ClientMetrics
+  implements ClientMetricsMXBean
+{
+  public static final String HEAD = "HEAD";
+  public static final String GET = "GET";
+  public static final String GET_RANGE = "GET-range";
+  public static final String PUT = "Put";
+  public static final String INITIATE = "Initiate";
+  public static final String UPLOAD_PART = "UploadPart";
+  public static final String COPY_PART = "CopyPart";
+  public static final String COMPLETE = "Complete";
+  public static final String ABORT = "Abort";
+  public static final String COPY = "Copy";
+  public static final String COMPOSE = "Compose";
+  public static final String DELETE = "Delete";
+  public static final String LIST = "List";
+
+  private static final ObjectMapper _jsonMapper = new ObjectMapper().enable(
+    SerializationFeature.INDENT_OUTPUT);
+
+  private final ConcurrentMap<String, RequestStats> _requests = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> _errors = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> _retries = new ConcurrentHashMap<>();
+  private final Map<String, ExecutorService> _executors = new LinkedHashMap<>();
+  private final AtomicLong _bytesUploaded = new AtomicLong();
+  private final AtomicLong _bytesDownloaded = new AtomicLong();
+  private final AtomicLong _bytesCopied = new AtomicLong();
+
+  private final ScheduledExecutorService _scheduler;
+  private ScheduledFuture<?> _jsonDump;
+  private File _jsonFile;
+  private ObjectName _mbeanName;
+
+  /**
+   * @param scheduler executor used to write periodic JSON dumps
+   */
+  ClientMetrics(ScheduledExecutorService scheduler)
+  {
+    _scheduler = scheduler;
+  }
+
+  /**
+   * Called when a request is sent.
+   *
+   * @return start time to pass to {@link #requestCompleted(String, long, Throwable)}
+   */
+  long requestStarted(String requestType)
+  {
+    getStats(requestType)._inFlight.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /**
+   * Called when a request has completed.
+   *
+   * @param error exception the request failed with, or null if it succeeded
+   */
+  void requestCompleted(String requestType, long startNanos, Throwable error)
+  {
+    RequestStats stats = getStats(requestType);
+    stats._inFlight.decrementAndGet();
+    stats._latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    if(error != null)
+    {
+      stats._errors.incrementAndGet();
+      increment(_errors, getErrorCode(error));
+    }
+  }
+
+  /**
+   * Execute a request of the GCS JSON API, which is not covered by {@link
+   * MetricsRequestHandler}, and record it.
+   */
+  <T> T execute(String requestType, AbstractGoogleClientRequest<T> request)
+    throws IOException
+  {
+    long start = requestStarted(requestType);
+    try
+    {
+      T result = request.execute();
+      requestCompleted(requestType, start, null);
+      return result;
+    }
+    catch(IOException | RuntimeException exc)
+    {
+      requestCompleted(requestType, start, exc);
+      throw exc;
+    }
+  }
+
+  void retried(Throwable error)
+  {
+    increment(_retries, getErrorCode(error));
+  }
+
+  void addBytesUploaded(long bytes)
+  {
+    _bytesUploaded.addAndGet(bytes);
+  }
+
+  void addBytesDownloaded(long bytes)
+  {
+    _bytesDownloaded.addAndGet(bytes);
+  }
+
+  void addBytesCopied(long bytes)
+  {
+    _bytesCopied.addAndGet(bytes);
+  }
+
+  /**
+   * Track the queue depth of {@code executor}.  Only executors created by {@link
+   * Utils#createApiExecutor(int)} and {@link Utils#createInternalExecutor(int)} report a depth.
+   */
+  void registerExecutor(String name, ExecutorService executor)
+  {
+    synchronized(_executors)
+    {
+      _executors.put(name, executor);
+    }
+  }
+
+  /**
+   * Return the request types that have been recorded so far.
+   *
+   * @return sorted set of request types
+   */
+  public Set<String> getRequestTypes()
+  {
+    return new TreeSet<>(_requests.keySet());
+  }
+
+  /**
+   * Return the latency histogram of a request type.
+   *
+   * @param requestType request type, e.g. {@link #GET_RANGE}
+   * @return latency histogram, empty if no such requests have been sent
+   */
+  public LatencyHistogram getLatency(String requestType)
+  {
+    RequestStats stats = _requests.get(requestType);
+    return (stats == null) ? new LatencyHistogram() : stats._latency;
+  }
+
+  public Map<String, Long> getRequestCounts()
+  {
+    Map<String, Long> result = new TreeMap<>();
+    for(Map.Entry<String, RequestStats> e : _requests.entrySet())
+    {
+      result.put(e.getKey(), e.getValue()._latency.getCount());
+    }
+    return result;
+  }
+
+  public Map<String, Long> getInFlightRequests()
+  {
+    Map<String, Long> result = new TreeMap<>();
+    for(Map.Entry<String, RequestStats> e : _requests.entrySet())
+    {
+      result.put(e.getKey(), e.getValue()._inFlight.get());
+    }
+    return result;
+  }
+
+  public Map<String, Double> getMeanLatencyMillis()
+  {
+    Map<String, Double> result = new TreeMap<>();
+    for(Map.Entry<String, RequestStats> e : _requests.entrySet())
+    {
+      result.put(e.getKey(), e.getValue()._latency.getMean() / 1000.0);
+    }
+    return result;
+  }
+
+  public Map<String, Double> getP50LatencyMillis()
+  {
+    return getPercentileMillis(50);
+  }
+
+  public Map<String, Double> getP99LatencyMillis()
+  {
+    return getPercentileMillis(99);
+  }
+
+  public Map<String, Double> getMaxLatencyMillis()
+  {
+    return getPercentileMillis(100);
+  }
+
+  public Map<String, Long> getErrorCounts()
+  {
+    return snapshot(_errors);
+  }
+
+  public Map<String, Long> getRetryCounts()
+  {
+    return snapshot(_retries);
+  }
+
+  public Map<String, Long> getExecutorQueueDepths()
+  {
+    Map<String, Long> result = new LinkedHashMap<>();
+    synchronized(_executors)
+    {
+      for(Map.Entry<String, ExecutorService> e : _executors.entrySet())
+      {
+        result.put(e.getKey(), (long) Utils.getQueueDepth(e.getValue()));
+      }
+    }
+    return result;
+  }
+
+  public long getBytesUploaded()
+  {
+    return _bytesUploaded.get();
+  }
+
+  public long getBytesDownloaded()
+  {
+    return _bytesDownloaded.get();
+  }
+
+  public long getBytesCopied()
+  {
+    return _bytesCopied.get();
+  }
+
+  /**
+   * Clear all histograms and counters.  Requests that are in flight stay counted as such.
+   */
+  public void reset()
+  {
+    for(RequestStats stats : _requests.values())
+    {
+      stats._latency.reset();
+      stats._errors.set(0);
+    }
+    _errors.clear();
+    _retries.clear();
+    _bytesUploaded.set(0);
+    _bytesDownloaded.set(0);
+    _bytesCopied.set(0);
+  }
+
+  /**
+   * Return all metrics as a JSON document.
+   *
+   * @return JSON representation of the current metrics
+   */
+  public String toJson()
+  {
+    Map<String, Object> requests = new TreeMap<>();
+    for(Map.Entry<String, RequestStats> e : _requests.entrySet())
+    {
+      LatencyHistogram h = e.getValue()._latency;
+      Map<String, Object> latency = new LinkedHashMap<>();
+      latency.put("mean", h.getMean());
+      latency.put("p50", h.getPercentile(50));
+      latency.put("p90", h.getPercentile(90));
+      latency.put("p99", h.getPercentile(99));
+      latency.put("p999", h.getPercentile(99.9));
+      latency.put("max", h.getMax());
+
+      Map<String, Object> request = new LinkedHashMap<>();
+      request.put("count", h.getCount());
+      request.put("inFlight", e.getValue()._inFlight.get());
+      request.put("errors", e.getValue()._errors.get());
+      request.put("latencyMicros", latency);
+      requests.put(e.getKey(), request);
+    }
+
+    Map<String, Object> bytes = new LinkedHashMap<>();
+    bytes.put("uploaded", getBytesUploaded());
+    bytes.put("downloaded", getBytesDownloaded());
+    bytes.put("copied", getBytesCopied());
+
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("timestamp", System.currentTimeMillis());
+    json.put("requests", requests);
+    json.put("errors", getErrorCounts());
+    json.put("retries", getRetryCounts());
+    json.put("bytes", bytes);
+    json.put("executorQueueDepths", getExecutorQueueDepths());
+
+    try
+    {
+      return _jsonMapper.writeValueAsString(json);
+    }
+    catch(JsonProcessingException exc)
+    {
+      throw new RuntimeException(exc);
+    }
+  }
+
+  /**
+   * Write the metrics as JSON to {@code file}.  The file is replaced atomically, so readers
+   * never see a partial document.
+   *
+   * @param file destination file
+   * @throws IOException if the file cannot be written
+   */
+  public void writeJson(File file)
+    throws IOException
+  {
+    File dir = file.getAbsoluteFile().getParentFile();
+    File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+    try
+    {
+      Files.write(tmp.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally
+    {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Periodically write the metrics as JSON to {@code file}.  The dump continues until {@link
+   * #stopJsonDump()} is called or the client is shut down, which both write a final dump.
+   *
+   * @param file   destination file, replaced on every dump
+   * @param period time between dumps
+   * @param unit   unit of {@code period}
+   */
+  public synchronized void startJsonDump(final File file, long period, TimeUnit unit)
+  {
+    stopJsonDump();
+    _jsonFile = file;
+    _jsonDump = _scheduler.scheduleAtFixedRate(new Runnable()
+    {
+      public void run()
+      {
+        dumpJson(file);
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * Stop periodic JSON dumps, writing a final dump if they were running.
+   */
+  public synchronized void stopJsonDump()
+  {
+    if(_jsonDump != null)
+    {
+      _jsonDump.cancel(false);
+      _jsonDump = null;
+      dumpJson(_jsonFile);
+      _jsonFile = null;
+    }
+  }
+
+  /**
+   * Register the metrics with the platform MBean server under {@code
+   * com.logicblox.cloudstore:type=ClientMetrics,name=<name>}.
+   *
+   * @param name name distinguishing this client from others in the same JVM
+   * @throws JMException if the MBean cannot be registered
+   */
+  public synchronized void registerMBean(String name)
+    throws JMException
+  {
+    unregisterMBean();
+    ObjectName objectName = new ObjectName(
+      "com.logicblox.cloudstore:type=ClientMetrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    _mbeanName = objectName;
+  }
+
+  /**
+   * Unregister the metrics from the platform MBean server, if registered.
+   */
+  public synchronized void unregisterMBean()
+  {
+    if(_mbeanName != null)
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try
+      {
+        server.unregisterMBean(_mbeanName);
+      }
+      catch(JMException ignored)
+      {
+      }
+      _mbeanName = null;
+    }
+  }
+
+  /**
+   * Stop JSON dumps and unregister from JMX.  Called when the client shuts down.
+   */
+  synchronized void close()
+  {
+    stopJsonDump();
+    unregisterMBean();
+  }
+
+  private void dumpJson(File file)
+  {
+    try
+    {
+      writeJson(file);
+    }
+    catch(IOException | RuntimeException exc)
+    {
+      System.err.println("Warning: Could not write metrics to '" + file + "': " + exc.getMessage());
+    }
+  }
+
+  private Map<String, Double> getPercentileMillis(double percentile)
+  {
+    Map<String, Double> result = new TreeMap<>();
+    for(Map.Entry<String, RequestStats> e : _requests.entrySet())
+    {
+      result.put(e.getKey(), e.getValue()._latency.getPercentile(percentile) / 1000.0);
+    }
+    return result;
+  }
+
+  private RequestStats getStats(String requestType)
+  {
+    RequestStats stats = _requests.get(requestType);
+    if(stats == null)
+    {
+      RequestStats newStats = new RequestStats();
+      stats = _requests.putIfAbsent(requestType, newStats);
+      if(stats == null)
+      {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  private static void increment(ConcurrentMap<String, AtomicLong> counters, String key)
+  {
+    AtomicLong counter = counters.get(key);
+    if(counter == null)
+    {
+      AtomicLong newCounter = new AtomicLong();
+      counter = counters.putIfAbsent(key, newCounter);
+      if(counter == null)
+      {
+        counter = newCounter;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  private static Map<String, Long> snapshot(ConcurrentMap<String, AtomicLong> counters)
+  {
+    Map<String, Long> result = new TreeMap<>();
+    for(Map.Entry<String, AtomicLong> e : counters.entrySet())
+    {
+      result.put(e.getKey(), e.getValue().get());
+    }
+    return result;
+  }
+
+  static String getErrorCode(Throwable t)
+  {
+    // unwrap to the root cause of client-side failures, e.g. SocketTimeoutException
+    while((t instanceof ExecutionException ||
+      (t instanceof AmazonClientException && !(t instanceof AmazonServiceException))) &&
+      t.getCause() != null)
+    {
+      t = t.getCause();
+    }
+    if(t instanceof AmazonServiceException)
+    {
+      AmazonServiceException exc = (AmazonServiceException) t;
+      if(exc.getErrorCode() != null)
+      {
+        return exc.getErrorCode();
+      }
+      return "HTTP " + exc.getStatusCode();
+    }
+    if(t instanceof HttpResponseException)
+    {
+      return "HTTP " + ((HttpResponseException) t).getStatusCode();
+    }
+    return t.getClass().getSimpleName();
+  }
+
+  private static class RequestStats
+  {
+    final LatencyHistogram _latency = new LatencyHistogram();
+    final AtomicLong _inFlight = new AtomicLong();
+    final AtomicLong _errors = new AtomicLong();
+  }
+}
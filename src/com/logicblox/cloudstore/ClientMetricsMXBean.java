@@ -0,0 +1,56 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ClientMetrics}.  Per request type values are keyed by request type, e.g.
+ * "HEAD", "GET-range", "UploadPart", "CopyPart", "Complete" or "List".
+ *
+ * @see ClientMetrics#registerMBean(String)
+ */
+public interface ClientMetricsMXBean
+{
+  Map<String, Long> getRequestCounts();
+
+  Map<String, Long> getInFlightRequests();
+
+  Map<String, Double> getMeanLatencyMillis();
+
+  Map<String, Double> getP50LatencyMillis();
+
+  Map<String, Double> getP99LatencyMillis();
+
+  Map<String, Double> getMaxLatencyMillis();
+
+  Map<String, Long> getErrorCounts();
+
+  Map<String, Long> getRetryCounts();
+
+  Map<String, Long> getExecutorQueueDepths();
+
+  long getBytesUploaded();
+
+  long getBytesDownloaded();
+
+  long getBytesCopied();
+
+  String toJson();
+
+  void reset();
+}
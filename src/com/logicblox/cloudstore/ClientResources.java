@@ -0,0 +1,363 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpTransport;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resources that many {@link CloudStoreClient}s can share: the API executor, the internal
+ * executor (which also schedules retries), the low-level clients with their HTTP connection
+ * pools, resolved credentials and a {@link ClientMetrics} registry.
+ * <p>
+ * Services that create a client per tenant or per request should create one {@code
+ * ClientResources} and pass it to {@link Utils#createCloudStoreClient(String, String,
+ * ClientResources, String, List, boolean, int)} or to the {@code setResources} method of the
+ * client builders.  Threads and connections then scale with the load instead of with the number
+ * of clients.
+ * <p>
+ * The resources are reference-counted.  The creator holds the first reference and every client
+ * built with the resources holds another one.  {@link #shutdown()} and {@link
+ * CloudStoreClient#shutdown()} each release a reference, and the executors and connection pools
+ * are shut down when the last one is released.
+ * <p>
+ * Low-level clients are shared per storage service, endpoint and credentials provider.  Their
+ * endpoint is fixed when they are created, so clients that share resources must not change it
+ * with {@link CloudStoreClient#setEndpoint(String)}; pass the endpoint to the builder instead.
+ * Metrics are also shared: {@link CloudStoreClient#getMetrics()} of every client returns the
+ * metrics of all clients that use these resources.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ClientResources
+{
+  private final ListeningExecutorService _apiExecutor;
+  private final ListeningScheduledExecutorService _internalExecutor;
+  private final int _maxConnections;
+  private final ClientMetrics _metrics;
+
+  private final Map<List<String>, AWSCredentialsProvider> _credentialsProviders =
+    new HashMap<>();
+  private final Map<List<Object>, AmazonS3> _s3Clients = new HashMap<>();
+  private final Set<AmazonS3> _instrumentedClients =
+    Collections.newSetFromMap(new IdentityHashMap<AmazonS3, Boolean>());
+  private AWSCredentialsProvider _gcsCredentialsProvider;
+  private HttpTransport _httpTransport;
+  private GoogleCredential _googleCredential;
+
+  private int _references = 1;
+
+  /**
+   * Create resources for at most {@code maxConcurrentConnections} concurrent requests to the
+   * storage services, shared by all clients.
+   *
+   * @param maxConcurrentConnections size of the API executor and of the HTTP connection pools
+   */
+  public ClientResources(int maxConcurrentConnections)
+  {
+    this(Utils.createApiExecutor(maxConcurrentConnections), Utils.createInternalExecutor(50),
+      maxConcurrentConnections);
+  }
+
+  /**
+   * Create resources around existing executors.  The executors are shut down with the
+   * resources.
+   *
+   * @param apiExecutor      executor for storage service calls
+   * @param internalExecutor executor for internal tasks and retries
+   * @param maxConnections   size of the HTTP connection pools of the low-level clients
+   */
+  public ClientResources(
+    ListeningExecutorService apiExecutor, ListeningScheduledExecutorService internalExecutor,
+    int maxConnections)
+  {
+    _apiExecutor = apiExecutor;
+    _internalExecutor = internalExecutor;
+    _maxConnections = maxConnections;
+    _metrics = new ClientMetrics(internalExecutor);
+    _metrics.registerExecutor("api", apiExecutor);
+    _metrics.registerExecutor("internal", internalExecutor);
+  }
+
+  public ListeningExecutorService getApiExecutor()
+  {
+    return _apiExecutor;
+  }
+
+  public ListeningScheduledExecutorService getInternalExecutor()
+  {
+    return _internalExecutor;
+  }
+
+  /**
+   * Return the metrics of all clients that use these resources.
+   *
+   * @return metrics registry
+   */
+  public ClientMetrics getMetrics()
+  {
+    return _metrics;
+  }
+
+  /**
+   * Return the number of references that have not been released yet.
+   *
+   * @return reference count, 0 after the resources have been shut down
+   */
+  public synchronized int getReferenceCount()
+  {
+    return _references;
+  }
+
+  /**
+   * Take a reference to the resources, to be released with {@link #release()}.
+   *
+   * @return this object
+   * @throws IllegalStateException if the resources have already been shut down
+   */
+  public synchronized ClientResources retain()
+  {
+    if(_references == 0)
+    {
+      throw new IllegalStateException("Client resources have been shut down");
+    }
+    _references++;
+    return this;
+  }
+
+  /**
+   * Release a reference to the resources, and shut them down if it was the last one.
+   */
+  public void release()
+  {
+    synchronized(this)
+    {
+      if(_references == 0)
+      {
+        return;
+      }
+      _references--;
+      if(_references > 0)
+      {
+        return;
+      }
+    }
+    close();
+  }
+
+  /**
+   * Release the reference of the creator.  The resources are shut down once all clients that
+   * use them have been shut down as well.
+   */
+  public void shutdown()
+  {
+    release();
+  }
+
+  /**
+   * Return the credentials provider for a list of S3 credential provider names, creating it on
+   * first use.  Providers cache the credentials they resolve, so sharing them avoids resolving
+   * the provider chain for every client.
+   */
+  synchronized AWSCredentialsProvider getCredentialsProvider(List<String> credentialProviders)
+  {
+    List<String> key = (credentialProviders == null) ? new ArrayList<String>() :
+      new ArrayList<>(credentialProviders);
+    AWSCredentialsProvider provider = _credentialsProviders.get(key);
+    if(provider == null)
+    {
+      provider = S3ClientBuilder.getCredentialsProvider(key);
+      _credentialsProviders.put(key, provider);
+    }
+    return provider;
+  }
+
+  /**
+   * Return the credentials provider for the S3-compatible API of GCS, creating it on first use.
+   */
+  synchronized AWSCredentialsProvider getGCSCredentialsProvider()
+  {
+    if(_gcsCredentialsProvider == null)
+    {
+      _gcsCredentialsProvider = GCSClientBuilder.getDefaultAWSCredentialsProvider();
+    }
+    return _gcsCredentialsProvider;
+  }
+
+  /**
+   * Return the low-level client for a storage service, endpoint and credentials provider,
+   * creating it on first use.
+   *
+   * @param service     S3 or GCS
+   * @param endpoint    endpoint of the service, or null for the default endpoint
+   * @param credentials provider of the credentials to sign requests with
+   */
+  synchronized AmazonS3 getS3Client(
+    Utils.StorageService service, String endpoint, AWSCredentialsProvider credentials)
+    throws MalformedURLException
+  {
+    checkNotShutdown();
+    List<Object> key = Arrays.asList(service, endpoint, credentials);
+    AmazonS3 client = _s3Clients.get(key);
+    if(client == null)
+    {
+      if(service == Utils.StorageService.GCS)
+      {
+        ClientConfiguration clientCfg = GCSClientBuilder.createClientConfiguration(
+          _maxConnections);
+        client = new AmazonS3ClientForGCS(credentials, clientCfg);
+        client.setEndpoint((endpoint == null) ? GCSClient.GCS_XML_API_ENDPOINT : endpoint);
+      }
+      else
+      {
+        ClientConfiguration clientCfg = S3ClientBuilder.createClientConfiguration(
+          _maxConnections);
+        client = S3ClientBuilder.createInternalS3Client(credentials, clientCfg, endpoint,
+          _metrics);
+        _instrumentedClients.add(client);
+      }
+      _s3Clients.put(key, client);
+    }
+    return client;
+  }
+
+  /**
+   * Return the HTTP transport of the GCS JSON API, creating it on first use.
+   */
+  synchronized HttpTransport getHttpTransport()
+    throws GeneralSecurityException, IOException
+  {
+    checkNotShutdown();
+    if(_httpTransport == null)
+    {
+      _httpTransport = GCSClientBuilder.getDefaultHttpTransport();
+    }
+    return _httpTransport;
+  }
+
+  /**
+   * Return the default application credential of the GCS JSON API, loading it on first use.
+   */
+  synchronized GoogleCredential getGoogleCredential()
+    throws IOException
+  {
+    if(_googleCredential == null)
+    {
+      _googleCredential = GCSClientBuilder.getDefaultCredential();
+    }
+    return _googleCredential;
+  }
+
+  /**
+   * Record the requests of {@code client} in the shared metrics, unless they are recorded
+   * already.
+   */
+  synchronized void instrument(AmazonS3 client)
+  {
+    if(_instrumentedClients.add(client))
+    {
+      MetricsRequestHandler.install(client, _metrics);
+    }
+  }
+
+  private void checkNotShutdown()
+  {
+    if(_references == 0)
+    {
+      throw new IllegalStateException("Client resources have been shut down");
+    }
+  }
+
+  private void close()
+  {
+    _metrics.close();
+
+    List<AmazonS3> clients;
+    HttpTransport transport;
+    synchronized(this)
+    {
+      clients = new ArrayList<>(_s3Clients.values());
+      _s3Clients.clear();
+      _instrumentedClients.clear();
+      transport = _httpTransport;
+      _httpTransport = null;
+    }
+
+    try
+    {
+      _apiExecutor.shutdown();
+    }
+    catch(Exception exc)
+    {
+      exc.printStackTrace();
+    }
+
+    try
+    {
+      _internalExecutor.shutdown();
+    }
+    catch(Exception exc)
+    {
+      exc.printStackTrace();
+    }
+
+    for(AmazonS3 client : clients)
+    {
+      try
+      {
+        if(client instanceof AmazonWebServiceClient)
+        {
+          ((AmazonWebServiceClient) client).shutdown();
+        }
+      }
+      catch(Exception exc)
+      {
+        exc.printStackTrace();
+      }
+    }
+
+    if(transport != null)
+    {
+      try
+      {
+        transport.shutdown();
+      }
+      catch(IOException exc)
+      {
+        exc.printStackTrace();
+      }
+    }
+  }
+}
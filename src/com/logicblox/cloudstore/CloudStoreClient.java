@@ -21,6 +21,9 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
@@ -57,11 +60,37 @@ public interface CloudStoreClient
    * This is mostly useful to test different cloud store services with compatible APIs or for
    * unit-testing purposes (e.g. mocks or minio).  Setting an endpoint is not necessary when using
    * standard AWS S3 or GCS stores.
+   * <p>
+   * The endpoint of S3 clients whose low-level client is created by {@link S3ClientBuilder} is
+   * fixed when they are built.  Pass it to {@link S3ClientBuilder#setEndpoint(String)} instead.
    *
    * @param endpoint API endpoint, i.e, "http://127.0.0.1:9000/"
    */
   void setEndpoint(String endpoint);
 
+  /**
+   * Set the streams that commands of this client print dry-run messages, progress and warnings
+   * to.  By default they print to {@link System#out} and {@link System#err}.
+   *
+   * @param out stream for regular output
+   * @param err stream for warnings
+   */
+  void setOutput(PrintStream out, PrintStream err);
+
+  /**
+   * Return the stream that commands of this client print regular output to.
+   *
+   * @return output stream
+   */
+  PrintStream getOutput();
+
+  /**
+   * Return the stream that commands of this client print warnings to.
+   *
+   * @return error stream
+   */
+  PrintStream getErrorOutput();
+
   /**
    * Returns the scheme of the backend storage service (e.g. "s3" or "gs")
    *
@@ -101,6 +130,15 @@ public interface CloudStoreClient
    */
   KeyProvider getKeyProvider();
 
+  /**
+   * Returns the metrics of the requests this client sends to the storage service: latency
+   * histograms per request type, byte counters, in-flight requests, retries and errors by
+   * error code, and executor queue depths.
+   *
+   * @return Metrics of this client
+   */
+  ClientMetrics getMetrics();
+
   /**
    * Returns a service-specific object used to abstract over access control functionality
    * provided by different services.
@@ -157,6 +195,10 @@ public interface CloudStoreClient
    * <p>
    * Note that uploading from directories that are symbolically linked to another directory
    * is not supported.
+   * <p>
+   * The directory is walked in parallel and every file is uploaded as soon as it is found,
+   * so this method returns once the walk has finished, while uploads may still be running.
+   * Include and exclude globs in the options select the files to upload.
    *
    * @param options Set of options that control the upload operation
    * @return Future containing list of StoreFiles with uploaded file information
@@ -246,6 +288,72 @@ public interface CloudStoreClient
   ListenableFuture<StoreFile> download(DownloadOptions options)
     throws IOException;
 
+  /**
+   * Read a range of bytes of a file in a cloud store service into memory, e.g. the footer or
+   * an index block of a large file.
+   * <p>
+   * Only the chunks of the file that overlap the range are fetched.  For encrypted files the
+   * offset refers to the decrypted data.  Files encrypted in segments (format version 5) are
+   * read segment by segment, so little more than the range itself is fetched; files encrypted
+   * in the older format, and compressed files, are fetched and decrypted or decompressed a
+   * whole chunk at a time and then trimmed to the range.  Unlike {@link
+   * #download(DownloadOptions)}, the checksum of the whole file is not validated.
+   * <p>
+   * Return a future that when complete will contain the bytes of the range.  The future
+   * fails with a {@link UsageException} if the range extends beyond the end of the file.
+   *
+   * @param options Set of options specifying the file and the range to read
+   * @return Future containing the bytes of the range
+   * @throws IOException -
+   */
+  ListenableFuture<byte[]> read(ReadOptions options)
+    throws IOException;
+
+  /**
+   * Read many ranges of an object into caller buffers, for example the column chunks that a
+   * query needs from a columnar file.
+   * <p>
+   * Ranges that overlap or are at most {@link VectoredReadOptions#getMaxGap()} bytes apart are
+   * merged, and the bytes between them are fetched and discarded.  The merged ranges are read
+   * with a single download: the metadata of the object is looked up once and the chunks of
+   * all ranges are fetched concurrently on the API executor.  As with {@link
+   * #read(ReadOptions)}, offsets refer to the decrypted data and the checksum of the whole
+   * file is not validated.
+   * <p>
+   * Return a future that when complete will contain the buffers, in the order the ranges were
+   * added, with their positions advanced past the bytes read.  The future fails with a {@link
+   * UsageException} if a range extends beyond the end of the file.
+   *
+   * @param options Set of options specifying the file and the ranges to read
+   * @return Future containing the filled buffers
+   * @throws IOException -
+   */
+  ListenableFuture<List<ByteBuffer>> readVectored(VectoredReadOptions options)
+    throws IOException;
+
+  /**
+   * Open an object as a read-only {@link SeekableByteChannel}, so that it can be read in place
+   * instead of being downloaded to a local file first.  {@link
+   * java.nio.channels.Channels#newInputStream(java.nio.channels.ReadableByteChannel)} turns the
+   * channel into an {@code InputStream} whose position can still be changed through the
+   * channel.
+   * <p>
+   * The metadata of the object is looked up once.  The channel then reads the object in
+   * blocks of {@link OpenOptions#getBlockSize()} bytes, keeps the most recently used blocks in
+   * memory, and fetches the next blocks in parallel while it is read sequentially.  Encrypted
+   * and compressed objects are decrypted and decompressed per chunk; positions refer to the
+   * original file.  The checksum of the whole file is not validated.
+   * <p>
+   * Return a future that when complete will contain the open channel.  Closing the channel
+   * releases its cached blocks.
+   *
+   * @param options Set of options specifying the object and the block cache
+   * @return Future containing the channel
+   * @throws IOException -
+   */
+  ListenableFuture<SeekableByteChannel> open(OpenOptions options)
+    throws IOException;
+
   /**
    * Download a set of objects from a cloud store service to the local file system. The
    * {@code objectKey} in the {@link DownloadOptions} will be used as a prefix to find
@@ -323,6 +431,24 @@ public interface CloudStoreClient
   ListenableFuture<List<StoreFile>> copyRecursively(CopyOptions options)
     throws InterruptedException, ExecutionException, IOException;
 
+  /**
+   * Create a new file from the contents of a list of files in a cloud store service, in
+   * order, without transferring them through the client.
+   * <p>
+   * S3 builds the new file with a multipart upload whose parts are copied from the source
+   * files.  Because all parts but the last one must be at least 5 MB, source files smaller
+   * than that are combined with their neighbours into parts that are downloaded and uploaded
+   * again.  GCS composes the source files, which must be in the destination bucket.  Encrypted
+   * files cannot be concatenated.
+   * <p>
+   * Return a future that when complete will contain a {@link StoreFile} with information
+   * about the destination file.
+   *
+   * @param options Set of options specifying the files to concatenate and the new file
+   * @return Future containing StoreFile with information about the new file
+   */
+  ListenableFuture<StoreFile> concat(ConcatOptions options);
+
   /**
    * Rename a file in a cloud-store service.  That this is equivalent to a copy operation
    * followed by a delete operation on a file.
@@ -363,6 +489,50 @@ public interface CloudStoreClient
   ListenableFuture<List<StoreFile>> renameRecursively(RenameOptions options)
     throws InterruptedException, ExecutionException, IOException;
 
+  /**
+   * Synchronize a local directory with the objects under a prefix, in the direction given by
+   * the options.  Only files that are missing or differ at the destination are transferred,
+   * and if requested the files that exist only at the destination are deleted.
+   * <p>
+   * Files are compared by size and modification time.  If these are inconclusive, or if a
+   * content comparison is requested, the ETag of the local file is computed with the chunk
+   * size recorded in the metadata of the object and compared with the ETag of the object, so
+   * unchanged files are not transferred even if their modification time differs.  Downloaded
+   * files get the modification time of their object.
+   * <p>
+   * Comparisons and transfers run concurrently.  The level of parallelism of the transfers is
+   * controlled by the executor used to create the CloudStoreClient interface.  See
+   * {@link #getApiExecutor()} and {@link Utils#createCloudStoreClient(String)}.
+   *
+   * @param options Set of options that control the sync operation
+   * @return Future containing list of StoreFiles with transferred and deleted file information
+   * @throws IOException -
+   * @throws ExecutionException -
+   * @throws InterruptedException -
+   */
+  ListenableFuture<List<StoreFile>> sync(SyncOptions options)
+    throws IOException, ExecutionException, InterruptedException;
+
+  /**
+   * Verify that a local file, or the files under a local directory, match the corresponding
+   * objects, without downloading the objects.
+   * <p>
+   * The ETag of every local file is computed with the chunk size recorded in the metadata of
+   * its object and compared with the ETag of the object.  The parts of large files are digested
+   * in parallel on the internal executor.  Encrypted objects, and objects uploaded by other
+   * tools with the multipart protocol, cannot be verified this way and are reported as such.
+   * <p>
+   * The returned future fails only if the verification could not be done.  Mismatches and
+   * missing files are reported in the {@link VerifyResult VerifyResults} it contains, one per
+   * file or object.
+   *
+   * @param options VerifyOptions that specify what to verify
+   * @return Future containing a VerifyResult for every file or object
+   * @throws IOException -
+   */
+  ListenableFuture<List<VerifyResult>> verify(VerifyOptions options)
+    throws IOException;
+
   /**
    * Return a future that when complete will contain a list of {@link StoreFile} objects
    * with summary information about all files whose keys start with a specified prefix
@@ -0,0 +1,449 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running process that executes cloud-store commands on behalf of thin clients, so that
+ * short commands do not pay for JVM startup, class loading, credential resolution and a cold
+ * connection pool.
+ * <p>
+ * The daemon listens on a loopback port and writes the port and a random token to a state file
+ * that only the owner can read.  The {@code cloud-store} script forwards commands to the daemon
+ * if the {@code CLOUDSTORE_DAEMON} environment variable is set, and runs them in a new JVM if no
+ * daemon is reachable.
+ * <p>
+ * The protocol uses big-endian integers and strings encoded as a length followed by UTF-8
+ * bytes.  A request is the protocol version, the token, the working directory of the client,
+ * the number of arguments and the arguments.  The response is a sequence of frames, each a
+ * channel byte followed by a length and data: {@link #STDOUT} and {@link #STDERR} frames carry
+ * output, and an {@link #EXIT} frame carries the exit status and ends the response.  A
+ * {@link #STDIN} frame has no data and asks the client for at most length bytes of its standard
+ * input, which the client sends back as a length followed by the data, with length 0 at the end
+ * of the input.  Standard input is only read when a command asks for it, as by {@code batch}
+ * without a manifest file, so commands that do not read it leave it to the next command of a
+ * script.
+ * <p>
+ * Commands of different connections run concurrently, each printing to streams that send frames
+ * to its own connection.  Every command uses the same {@link ClientResources}, so the
+ * connection pool and credentials stay warm, and relative file names are resolved against the
+ * working directory of the client.  Credentials come from the environment of the daemon, not
+ * of the client.
+ */
+class CloudStoreDaemon
+{
+  static final int PROTOCOL_VERSION = 2;
+
+  static final byte EXIT = 0;
+  static final byte STDOUT = 1;
+  static final byte STDERR = 2;
+  static final byte STDIN = 3;
+
+  private static final int MAX_STRING_LENGTH = 1024 * 1024;
+  private static final int MAX_ARGUMENTS = 64 * 1024;
+  private static final int MAX_STDIN_REQUEST = 64 * 1024;
+
+  private final ClientResources _resources;
+  private final File _stateFile;
+  private final int _port;
+  private final long _idleTimeoutMillis;
+  private final String _token;
+
+  private final AtomicInteger _runningCommands = new AtomicInteger();
+  private volatile long _lastActive = System.currentTimeMillis();
+  private ServerSocket _serverSocket;
+
+  /**
+   * @param resources   resources of the clients of all commands
+   * @param stateFile   file to write the port and token to
+   * @param port        port to listen on, or 0 for any free port
+   * @param idleTimeout seconds without commands after which the daemon stops, or 0 to run until
+   *                    it is killed
+   */
+  CloudStoreDaemon(ClientResources resources, File stateFile, int port, long idleTimeout)
+  {
+    _resources = resources;
+    _stateFile = stateFile;
+    _port = port;
+    _idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeout);
+    byte[] token = new byte[16];
+    new SecureRandom().nextBytes(token);
+    StringBuilder hex = new StringBuilder();
+    for(byte b : token)
+    {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    _token = hex.toString();
+  }
+
+  /**
+   * Return the default state file, {@code ~/.cloud-store-daemon}.
+   */
+  static String getDefaultStateFile()
+  {
+    return System.getProperty("user.home") + File.separator + ".cloud-store-daemon";
+  }
+
+  /**
+   * Accept and execute commands until the idle timeout expires.
+   */
+  void run()
+    throws IOException
+  {
+    _serverSocket = new ServerSocket();
+    _serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), _port));
+    if(_idleTimeoutMillis > 0)
+    {
+      _serverSocket.setSoTimeout((int) Math.min(_idleTimeoutMillis, 1000));
+    }
+    writeStateFile(_serverSocket.getLocalPort());
+    Runtime.getRuntime().addShutdownHook(new Thread()
+    {
+      public void run()
+      {
+        deleteStateFile();
+      }
+    });
+
+    System.err.println("cloud-store daemon listening on " +
+      _serverSocket.getLocalSocketAddress() + ", state file " + _stateFile);
+    try
+    {
+      while(true)
+      {
+        Socket socket;
+        try
+        {
+          socket = _serverSocket.accept();
+        }
+        catch(SocketTimeoutException exc)
+        {
+          if(isIdle())
+          {
+            System.err.println("cloud-store daemon idle, stopping");
+            return;
+          }
+          continue;
+        }
+        startHandler(socket);
+      }
+    }
+    finally
+    {
+      _serverSocket.close();
+      deleteStateFile();
+      _resources.shutdown();
+    }
+  }
+
+  private boolean isIdle()
+  {
+    return _runningCommands.get() == 0 &&
+      System.currentTimeMillis() - _lastActive > _idleTimeoutMillis;
+  }
+
+  private void startHandler(final Socket socket)
+  {
+    Thread handler = new Thread("cloud-store-daemon-" + socket.getPort())
+    {
+      public void run()
+      {
+        try
+        {
+          handle(socket);
+        }
+        catch(IOException exc)
+        {
+          System.err.println("warning: cloud-store daemon request failed: " + exc.getMessage());
+        }
+        finally
+        {
+          try
+          {
+            socket.close();
+          }
+          catch(IOException ignored)
+          {
+          }
+        }
+      }
+    };
+    handler.setDaemon(true);
+    handler.start();
+  }
+
+  private void handle(Socket socket)
+    throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(socket.getOutputStream()));
+
+    int version = in.readInt();
+    String token = readString(in);
+    if(!_token.equals(token))
+    {
+      // do not tell a wrong client anything
+      return;
+    }
+    if(version != PROTOCOL_VERSION)
+    {
+      writeFrame(out, STDERR, ("error: cloud-store daemon speaks protocol version " +
+        PROTOCOL_VERSION + ", not " + version + "\n").getBytes(StandardCharsets.UTF_8));
+      writeExit(out, 1);
+      return;
+    }
+    File workingDirectory = new File(readString(in));
+    int argc = in.readInt();
+    if(argc < 0 || argc > MAX_ARGUMENTS)
+    {
+      throw new IOException("Invalid number of arguments: " + argc);
+    }
+    String[] args = new String[argc];
+    for(int i = 0; i < argc; ++i)
+    {
+      args[i] = readString(in);
+    }
+
+    int status;
+    _runningCommands.incrementAndGet();
+    try
+    {
+      status = execute(args, workingDirectory, in, out);
+    }
+    finally
+    {
+      _lastActive = System.currentTimeMillis();
+      _runningCommands.decrementAndGet();
+    }
+    writeExit(out, status);
+  }
+
+  private int execute(
+    String[] args, File workingDirectory, DataInputStream in, DataOutputStream out)
+    throws IOException
+  {
+    if(args.length > 0 && args[0].equals("daemon"))
+    {
+      writeFrame(out, STDERR, "error: a cloud-store daemon is already running\n".getBytes(
+        StandardCharsets.UTF_8));
+      return 1;
+    }
+
+    PrintStream stdout = new PrintStream(new FrameOutputStream(out, STDOUT), true, "UTF-8");
+    PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR), true, "UTF-8");
+    try
+    {
+      return new Main(_resources, workingDirectory, new StdinInputStream(in, out), stdout,
+        stderr).execute(args);
+    }
+    finally
+    {
+      stdout.flush();
+      stderr.flush();
+    }
+  }
+
+  private void writeStateFile(int port)
+    throws IOException
+  {
+    // create the file empty and restrict it before the token is written
+    File parent = _stateFile.getAbsoluteFile().getParentFile();
+    if(parent != null)
+    {
+      parent.mkdirs();
+    }
+    new FileOutputStream(_stateFile).close();
+    _stateFile.setReadable(false, false);
+    _stateFile.setWritable(false, false);
+    _stateFile.setReadable(true, true);
+    _stateFile.setWritable(true, true);
+    try(Writer writer = new OutputStreamWriter(new FileOutputStream(_stateFile),
+      StandardCharsets.UTF_8))
+    {
+      writer.write(port + " " + _token + "\n");
+    }
+  }
+
+  private void deleteStateFile()
+  {
+    _stateFile.delete();
+  }
+
+  static String readString(DataInputStream in)
+    throws IOException
+  {
+    int length = in.readInt();
+    if(length < 0 || length > MAX_STRING_LENGTH)
+    {
+      throw new IOException("Invalid string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeExit(DataOutputStream out, int status)
+    throws IOException
+  {
+    synchronized(out)
+    {
+      out.writeByte(EXIT);
+      out.writeInt(status);
+      out.flush();
+    }
+  }
+
+  private static void writeFrame(DataOutputStream out, byte channel, byte[] data)
+    throws IOException
+  {
+    writeFrame(out, channel, data, 0, data.length);
+  }
+
+  private static void writeFrame(
+    DataOutputStream out, byte channel, byte[] data, int offset, int length)
+    throws IOException
+  {
+    synchronized(out)
+    {
+      out.writeByte(channel);
+      out.writeInt(length);
+      out.write(data, offset, length);
+      out.flush();
+    }
+  }
+
+  /**
+   * Reads the standard input of the client by sending it {@link #STDIN} frames.
+   */
+  private static class StdinInputStream
+    extends InputStream
+  {
+    private final DataInputStream _in;
+    private final DataOutputStream _out;
+    private boolean _eof = false;
+
+    StdinInputStream(DataInputStream in, DataOutputStream out)
+    {
+      _in = in;
+      _out = out;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if(len == 0)
+      {
+        return 0;
+      }
+      if(_eof)
+      {
+        return -1;
+      }
+      int requested = Math.min(len, MAX_STDIN_REQUEST);
+      synchronized(_out)
+      {
+        _out.writeByte(STDIN);
+        _out.writeInt(requested);
+        _out.flush();
+      }
+      int length = _in.readInt();
+      if(length < 0 || length > requested)
+      {
+        throw new IOException("Invalid standard input length: " + length);
+      }
+      if(length == 0)
+      {
+        _eof = true;
+        return -1;
+      }
+      _in.readFully(b, off, length);
+      return length;
+    }
+  }
+
+  /**
+   * Sends everything written to it as frames of one channel.  Output of background tasks that
+   * is written after the client has gone away is dropped.
+   */
+  private static class FrameOutputStream
+    extends OutputStream
+  {
+    private final DataOutputStream _out;
+    private final byte _channel;
+    private boolean _broken = false;
+
+    FrameOutputStream(DataOutputStream out, byte channel)
+    {
+      _out = out;
+      _channel = channel;
+    }
+
+    @Override
+    public void write(int b)
+    {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+    {
+      if(_broken || len == 0)
+      {
+        return;
+      }
+      try
+      {
+        writeFrame(_out, _channel, b, off, len);
+      }
+      catch(IOException exc)
+      {
+        _broken = true;
+      }
+    }
+  }
+}
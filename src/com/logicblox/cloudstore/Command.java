@@ -155,7 +155,8 @@ class Command
       }
     };
 
-    Callable<ListenableFuture<V>> rt = new ThrowableRetriableTask(callable, executor, trp);
+    Callable<ListenableFuture<V>> rt = new ThrowableRetriableTask(callable, executor, trp,
+      _client.getMetrics());
     ListenableFuture<V> f;
     try
     {
@@ -0,0 +1,127 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of an object whose chunks are compressed.  Every chunk of the file is compressed, and
+ * encrypted if a key is used, independently of the others, and the results are stored one
+ * after the other.  Because their sizes differ, the stored size of every chunk is appended to
+ * the object as an 8-byte big-endian integer.  The number of chunks follows from the {@code
+ * s3tool-file-length} and {@code s3tool-chunk-size} metadata, so readers know how many bytes to
+ * read from the end of the object before they read the chunks in parallel.
+ * <p>
+ * The sizes are not kept in the metadata of the object because S3 limits user metadata to 2 KB,
+ * which is not enough for objects with thousands of chunks.
+ */
+class CompressedChunkIndex
+{
+  private final long[] _sizes;
+  private final long[] _starts;
+
+  CompressedChunkIndex(long[] sizes)
+  {
+    _sizes = sizes;
+    _starts = new long[sizes.length + 1];
+    for(int i = 0; i < sizes.length; ++i)
+    {
+      _starts[i + 1] = _starts[i] + sizes[i];
+    }
+  }
+
+  /**
+   * Return the number of chunks of a file.  Empty files have one empty chunk.
+   */
+  static int getChunkCount(long fileLength, long chunkSize)
+  {
+    return (fileLength == 0) ? 1 : (int) ((fileLength + chunkSize - 1) / chunkSize);
+  }
+
+  /**
+   * Return the length of the index of an object with the given metadata.
+   */
+  static long getIndexLength(long fileLength, long chunkSize)
+  {
+    return 8L * getChunkCount(fileLength, chunkSize);
+  }
+
+  int getChunkCount()
+  {
+    return _sizes.length;
+  }
+
+  /**
+   * Return the offset of chunk {@code chunkNumber} in the object.
+   */
+  long getStart(int chunkNumber)
+  {
+    return _starts[chunkNumber];
+  }
+
+  /**
+   * Return the stored, i.e. compressed and possibly encrypted, size of chunk {@code
+   * chunkNumber}.
+   */
+  long getSize(int chunkNumber)
+  {
+    return _sizes[chunkNumber];
+  }
+
+  byte[] toBytes()
+  {
+    ByteBuffer buf = ByteBuffer.allocate(8 * _sizes.length);
+    for(long size : _sizes)
+    {
+      buf.putLong(size);
+    }
+    return buf.array();
+  }
+
+  /**
+   * Read the index of {@code chunkCount} chunks from {@code in}, and check it against the
+   * length of the object.
+   */
+  static CompressedChunkIndex read(InputStream in, int chunkCount, long objectLength)
+    throws IOException
+  {
+    long[] sizes = new long[chunkCount];
+    DataInputStream data = new DataInputStream(in);
+    try
+    {
+      for(int i = 0; i < chunkCount; ++i)
+      {
+        sizes[i] = data.readLong();
+      }
+    }
+    catch(EOFException exc)
+    {
+      throw new IOException("Index of compressed chunks is truncated", exc);
+    }
+    CompressedChunkIndex index = new CompressedChunkIndex(sizes);
+    if(index.getStart(chunkCount) + 8L * chunkCount != objectLength)
+    {
+      throw new IOException("Index of compressed chunks does not match the object length " +
+        objectLength);
+    }
+    return index;
+  }
+}
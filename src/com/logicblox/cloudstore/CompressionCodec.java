@@ -0,0 +1,145 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to every chunk of an upload before it is encrypted.  The name of the
+ * codec is stored in the {@code s3tool-compression} metadata of the object, and downloads look
+ * the codec up by that name.
+ * <p>
+ * {@code gzip} and {@code deflate} are built in.  Other codecs, e.g. ones based on zstd or LZ4
+ * libraries, can be added with {@link #register(CompressionCodec)} on every client that
+ * uploads or downloads objects compressed with them.
+ *
+ * @see UploadOptionsBuilder#setCompression(String)
+ */
+public abstract class CompressionCodec
+{
+  public static final String GZIP = "gzip";
+  public static final String DEFLATE = "deflate";
+
+  private static final Map<String, CompressionCodec> _codecs = new LinkedHashMap<>();
+
+  static
+  {
+    register(new CompressionCodec()
+    {
+      public String getName()
+      {
+        return GZIP;
+      }
+
+      public OutputStream compress(OutputStream out)
+        throws IOException
+      {
+        return new GZIPOutputStream(out);
+      }
+
+      public InputStream decompress(InputStream in)
+        throws IOException
+      {
+        return new GZIPInputStream(in);
+      }
+    });
+    register(new CompressionCodec()
+    {
+      public String getName()
+      {
+        return DEFLATE;
+      }
+
+      public OutputStream compress(OutputStream out)
+      {
+        return new DeflaterOutputStream(out);
+      }
+
+      public InputStream decompress(InputStream in)
+      {
+        return new InflaterInputStream(in);
+      }
+    });
+  }
+
+  /**
+   * Make a codec available under its name, replacing any codec with the same name.
+   *
+   * @param codec codec to register
+   */
+  public static synchronized void register(CompressionCodec codec)
+  {
+    _codecs.put(codec.getName(), codec);
+  }
+
+  /**
+   * Return the codec with the given name.
+   *
+   * @param name name of the codec
+   * @return the codec, or null if there is no codec with that name
+   */
+  public static synchronized CompressionCodec forName(String name)
+  {
+    return _codecs.get(name);
+  }
+
+  /**
+   * Return the names of all registered codecs.
+   *
+   * @return codec names
+   */
+  public static synchronized List<String> getNames()
+  {
+    return new ArrayList<>(_codecs.keySet());
+  }
+
+  /**
+   * Return the name that identifies the codec in object metadata.
+   *
+   * @return codec name
+   */
+  public abstract String getName();
+
+  /**
+   * Return a stream that compresses what is written to it into {@code out}.  Closing the
+   * returned stream finishes the compressed data and closes {@code out}.
+   *
+   * @param out stream for the compressed data
+   * @return compressing stream
+   */
+  public abstract OutputStream compress(OutputStream out)
+    throws IOException;
+
+  /**
+   * Return a stream that decompresses the data read from {@code in}.
+   *
+   * @param in stream of compressed data
+   * @return decompressing stream
+   */
+  public abstract InputStream decompress(InputStream in)
+    throws IOException;
+}
@@ -0,0 +1,122 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * {@code ConcatOptions} contains all the details needed by the concat operation.  The objects
+ * {@code _sourceObjectKeys}, under {@code _sourceBucketName} bucket, are concatenated in order
+ * into {@code _destinationObjectKey}, under {@code _destinationBucketName}.
+ * <p>
+ * If {@code _cannedAcl} is specified then it is applied to the destination object.
+ * <p>
+ * {@code ConcatOptions} objects are meant to be built by {@code ConcatOptionsBuilder}. This
+ * class provides only public accessor methods.
+ *
+ * @see ConcatOptionsBuilder
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#concat(ConcatOptions)
+ * @see OptionsBuilderFactory#newConcatOptionsBuilder()
+ */
+public class ConcatOptions
+  extends CommandOptions
+{
+  private final String _sourceBucketName;
+  private final List<String> _sourceObjectKeys;
+  private final String _destinationBucketName;
+  private final String _destinationObjectKey;
+  private final String _cannedAcl;
+  private final boolean _dryRun;
+
+  ConcatOptions(
+    CloudStoreClient cloudStoreClient, String sourceBucketName, List<String> sourceObjectKeys,
+    String destinationBucketName, String destinationObjectKey, String cannedAcl, boolean dryRun)
+  {
+    super(cloudStoreClient);
+    _sourceBucketName = sourceBucketName;
+    _sourceObjectKeys = sourceObjectKeys;
+    _destinationBucketName = destinationBucketName;
+    _destinationObjectKey = destinationObjectKey;
+    _cannedAcl = cannedAcl;
+    _dryRun = dryRun;
+  }
+
+  /**
+   * Return the bucket name containing the objects to be concatenated.
+   *
+   * @return name of source bucket
+   */
+  public String getSourceBucketName()
+  {
+    return _sourceBucketName;
+  }
+
+  /**
+   * Return the keys of the objects to be concatenated, in the order of their contents in the
+   * new object.
+   *
+   * @return keys of source objects
+   */
+  public List<String> getSourceObjectKeys()
+  {
+    return _sourceObjectKeys;
+  }
+
+  /**
+   * Return the name of the bucket that will receive the new object.
+   *
+   * @return name of destination bucket
+   */
+  public String getDestinationBucketName()
+  {
+    return _destinationBucketName;
+  }
+
+  /**
+   * Return the key of the new object to be created.
+   *
+   * @return key of destination object
+   */
+  public String getDestinationObjectKey()
+  {
+    return _destinationObjectKey;
+  }
+
+  /**
+   * Return the name of an access control list for the new object.  If not specified, the
+   * default access control list of the bucket is used.
+   *
+   * @return optional canned access control list name
+   */
+  public Optional<String> getCannedAcl()
+  {
+    return Optional.ofNullable(_cannedAcl);
+  }
+
+  /**
+   * Return the dry-run property for the concat operation.  If set to true, print operations
+   * that would be executed, but do not perform them.
+   *
+   * @return dry-run flag
+   */
+  public boolean isDryRun()
+  {
+    return _dryRun;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@code ConcatOptionsBuilder} is used to create and set properties for {@code ConcatOptions}
+ * objects used to control the behavior of the cloud-store concat command.
+ * <p>
+ * Setting {@code _sourceBucketName}, {@code _sourceObjectKeys}, {@code _destinationBucketName}
+ * and {@code _destinationObjectKey} are mandatory. All the others are optional.
+ *
+ * @see ConcatOptions
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#concat(ConcatOptions)
+ * @see OptionsBuilderFactory#newConcatOptionsBuilder()
+ */
+public class ConcatOptionsBuilder
+  extends CommandOptionsBuilder
+{
+  private String _sourceBucketName;
+  private List<String> _sourceObjectKeys;
+  private String _destinationBucketName;
+  private String _destinationObjectKey;
+  private String _cannedAcl;
+  private boolean _dryRun = false;
+
+  ConcatOptionsBuilder(CloudStoreClient client)
+  {
+    _cloudStoreClient = client;
+  }
+
+  /**
+   * Set the bucket name containing the objects to be concatenated.
+   *
+   * @param sourceBucketName name of source bucket
+   * @return this builder
+   */
+  public ConcatOptionsBuilder setSourceBucketName(String sourceBucketName)
+  {
+    _sourceBucketName = sourceBucketName;
+    return this;
+  }
+
+  /**
+   * Set the keys of the objects to be concatenated, in the order of their contents in the new
+   * object.
+   *
+   * @param sourceObjectKeys keys of source objects
+   * @return this builder
+   */
+  public ConcatOptionsBuilder setSourceObjectKeys(List<String> sourceObjectKeys)
+  {
+    _sourceObjectKeys = sourceObjectKeys;
+    return this;
+  }
+
+  /**
+   * Set the name of the bucket that will receive the new object.
+   *
+   * @param destinationBucketName name of destination bucket
+   * @return this builder
+   */
+  public ConcatOptionsBuilder setDestinationBucketName(String destinationBucketName)
+  {
+    _destinationBucketName = destinationBucketName;
+    return this;
+  }
+
+  /**
+   * Set the key of the new object to be created.
+   *
+   * @param destinationObjectKey key of destination object
+   * @return this builder
+   */
+  public ConcatOptionsBuilder setDestinationObjectKey(String destinationObjectKey)
+  {
+    _destinationObjectKey = destinationObjectKey;
+    return this;
+  }
+
+  /**
+   * Set the name of an access control list for the new object.  If not specified, the
+   * default access control list of the bucket is used.
+   *
+   * @param cannedAcl name of access control list for the new object
+   * @return this builder
+   */
+  public ConcatOptionsBuilder setCannedAcl(String cannedAcl)
+  {
+    _cannedAcl = cannedAcl;
+    return this;
+  }
+
+  /**
+   * If set to true, print operations that would be executed, but do not perform them.
+   *
+   * @param dryRun true if operations are to be printed but not executed
+   * @return this builder
+   */
+  public ConcatOptionsBuilder setDryRun(boolean dryRun)
+  {
+    _dryRun = dryRun;
+    return this;
+  }
+
+  private void validateOptions()
+  {
+    if(_cloudStoreClient == null)
+    {
+      throw new UsageException("CloudStoreClient has to be set");
+    }
+    else if(_sourceBucketName == null)
+    {
+      throw new UsageException("Source bucket name has to be set");
+    }
+    else if(_sourceObjectKeys == null || _sourceObjectKeys.isEmpty())
+    {
+      throw new UsageException("Source object keys have to be set");
+    }
+    else if(_destinationBucketName == null)
+    {
+      throw new UsageException("Destination bucket name has to be set");
+    }
+    else if(_destinationObjectKey == null)
+    {
+      throw new UsageException("Destination object key has to be set");
+    }
+
+    for(String key : _sourceObjectKeys)
+    {
+      if(key.endsWith("/") || key.equals(""))
+      {
+        throw new UsageException("Source keys should be fully qualified: '" + key + "'");
+      }
+    }
+
+    if(_cannedAcl != null)
+    {
+      if(!_cloudStoreClient.getAclHandler().isCannedAclValid(_cannedAcl))
+      {
+        throw new UsageException("Invalid canned ACL '" + _cannedAcl + "'");
+      }
+    }
+  }
+
+  /**
+   * Validate that all required parameters are set and if so return a new {@link ConcatOptions}
+   * object.
+   *
+   * @return immutable options with all values from this builder
+   */
+  @Override
+  public ConcatOptions createOptions()
+  {
+    validateOptions();
+
+    return new ConcatOptions(_cloudStoreClient, _sourceBucketName,
+      Collections.unmodifiableList(new ArrayList<>(_sourceObjectKeys)), _destinationBucketName,
+      _destinationObjectKey, _cannedAcl, _dryRun);
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.logicblox.cloudstore;
 
+import java.io.PrintStream;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,11 +36,18 @@ class ConsoleProgressListener
   protected final long intervalInBytes;
   protected final ProgressOptions options;
   protected AtomicLong lastReportBytes = new AtomicLong();
+  private final PrintStream _out;
 
   ConsoleProgressListener(ProgressOptions options, long intervalInBytes)
+  {
+    this(options, intervalInBytes, System.out);
+  }
+
+  ConsoleProgressListener(ProgressOptions options, long intervalInBytes, PrintStream out)
   {
     this.options = options;
     this.intervalInBytes = intervalInBytes;
+    _out = out;
   }
 
   synchronized public void progress(PartProgressEvent partProgressEvent)
@@ -54,7 +62,7 @@ class ConsoleProgressListener
     if(isReportTime(unreportedBytes) ||
       (isTransferComplete(totalTransferredBytes) && !allBytesReported()))
     {
-      System.out.println(
+      _out.println(
         MessageFormat.format("{0}: ({1}%) {2} {3}/{4} bytes...", options.getObjectUri(),
           100 * totalTransferredBytes / options.getFileSizeInBytes(), opEd, totalTransferredBytes,
           options.getFileSizeInBytes()));
@@ -16,11 +16,14 @@
 
 package com.logicblox.cloudstore;
 
+import java.io.PrintStream;
+
 public class ConsoleProgressListenerFactory
   implements OverallProgressListenerFactory
 {
 
   private long _intervalInBytes = -1;
+  private PrintStream _out = System.out;
 
   private long getDefaultIntervalInBytes(long totalSizeInBytes)
   {
@@ -34,12 +37,18 @@ public class ConsoleProgressListenerFactory
     return this;
   }
 
+  public ConsoleProgressListenerFactory setOutput(PrintStream out)
+  {
+    _out = out;
+    return this;
+  }
+
   public OverallProgressListener create(ProgressOptions progressOptions)
   {
     if(_intervalInBytes <= 0)
     {
       _intervalInBytes = getDefaultIntervalInBytes(progressOptions.getFileSizeInBytes());
     }
-    return new ConsoleProgressListener(progressOptions, _intervalInBytes);
+    return new ConsoleProgressListener(progressOptions, _intervalInBytes, _out);
   }
 }
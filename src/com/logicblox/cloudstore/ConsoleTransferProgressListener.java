@@ -0,0 +1,79 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.PrintStream;
+
+/**
+ * Prints one line per report of the aggregate progress of a recursive transfer, e.g.
+ * <pre>
+ *   uploaded 12/100 files, 15.2/120.0 MB (12%), 8.3 MB/s, ETA 0:00:13
+ * </pre>
+ */
+public class ConsoleTransferProgressListener
+  implements TransferProgressListener
+{
+  private static final double MB = 1024.0 * 1024.0;
+
+  private final PrintStream _out;
+
+  public ConsoleTransferProgressListener()
+  {
+    this(System.out);
+  }
+
+  /**
+   * @param out stream to print the reports to
+   */
+  public ConsoleTransferProgressListener(PrintStream out)
+  {
+    _out = out;
+  }
+
+  public void progress(TransferProgress progress)
+  {
+    String opEd = progress.getOperation();
+    opEd = opEd.endsWith("y") ? opEd.substring(0, opEd.length() - 1) + "ied" : opEd + "ed";
+
+    long percent = (progress.getTotalBytes() == 0) ? 100 :
+      100 * progress.getTransferredBytes() / progress.getTotalBytes();
+
+    StringBuilder line = new StringBuilder();
+    line.append(String.format("%s %d/%d files, %.1f/%.1f MB (%d%%), ", opEd,
+      progress.getCompletedObjects(), progress.getTotalObjects(),
+      progress.getTransferredBytes() / MB, progress.getTotalBytes() / MB, percent));
+    if(progress.isDone())
+    {
+      line.append(String.format("%.1f MB/s average, done in %s",
+        progress.getTransferredBytes() / MB / Math.max(1, progress.getElapsedMillis()) * 1000.0,
+        formatMillis(progress.getElapsedMillis())));
+    }
+    else
+    {
+      long eta = progress.getEtaMillis();
+      line.append(String.format("%.1f MB/s, ETA %s", progress.getCurrentBytesPerSecond() / MB,
+        (eta < 0) ? "unknown" : formatMillis(eta)));
+    }
+    _out.println(line);
+  }
+
+  private static String formatMillis(long millis)
+  {
+    long seconds = millis / 1000;
+    return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks at content-defined boundaries.  A boundary is where a rolling
+ * hash of the last 64 bytes has its high bits all zero, so inserting or deleting bytes only
+ * moves the boundaries close to the change, and the chunks of the rest of the stream stay the
+ * same.
+ * <p>
+ * The rolling hash is a gear hash: every byte shifts the hash left by one bit and adds a
+ * random value for the byte.  Bit {@code i} of the hash therefore only depends on the last
+ * {@code i + 1} bytes, and the high bits are tested, as in FastCDC, so that a boundary depends
+ * on the whole window.  The table of random values is fixed, because chunks stored by earlier
+ * versions must still be found.  Chunks are at least a quarter and at most four times the
+ * average size, and the hash is not computed for the first bytes of a chunk that cannot be a
+ * boundary.
+ */
+class ContentChunker
+{
+  /**
+   * Receives the chunks of a stream, in order.
+   */
+  interface Handler
+  {
+    /**
+     * @param data   buffer with the chunk at the start; it is reused for the next chunk
+     * @param length length of the chunk
+     * @param offset position of the chunk in the stream
+     */
+    void chunk(byte[] data, int length, long offset)
+      throws IOException;
+  }
+
+  private static final int WINDOW = 64;
+  private static final long[] GEAR = new long[256];
+
+  static
+  {
+    Random random = new Random(0x636c6f7564L);
+    for(int i = 0; i < GEAR.length; ++i)
+    {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final int _minSize;
+  private final int _maxSize;
+  private final long _mask;
+
+  /**
+   * @param averageSize average size of the chunks, a power of two of at least 256
+   */
+  ContentChunker(int averageSize)
+  {
+    _minSize = averageSize / 4;
+    _maxSize = averageSize * 4;
+    // the top log2(averageSize) bits
+    _mask = (averageSize - 1L) << (Long.SIZE - Integer.numberOfTrailingZeros(averageSize));
+  }
+
+  int getMaxSize()
+  {
+    return _maxSize;
+  }
+
+  /**
+   * Read {@code in} to the end and pass its chunks to {@code handler}.  An empty stream has no
+   * chunks.  The buffer starts at the expected {@code length} of the stream rather than the
+   * maximum chunk size, so small files do not allocate a buffer for the largest chunk, and
+   * grows if the stream turns out to be longer.
+   */
+  void split(InputStream in, long length, Handler handler)
+    throws IOException
+  {
+    byte[] buf = new byte[(int) Math.max(1, Math.min(_maxSize, length))];
+    int filled = 0;
+    int pos = 0;
+    long hash = 0;
+    long offset = 0;
+    while(true)
+    {
+      if(pos == filled)
+      {
+        if(filled == buf.length)
+        {
+          buf = Arrays.copyOf(buf, (int) Math.min(_maxSize, 2L * buf.length));
+        }
+        int n = in.read(buf, filled, buf.length - filled);
+        if(n == -1)
+        {
+          break;
+        }
+        filled += n;
+        continue;
+      }
+      if(pos < _minSize - WINDOW)
+      {
+        // bytes that leave the window before the minimum size do not matter
+        pos = Math.min(filled, _minSize - WINDOW);
+        continue;
+      }
+
+      hash = (hash << 1) + GEAR[buf[pos] & 0xff];
+      pos++;
+      if((pos >= _minSize && (hash & _mask) == 0) || pos == _maxSize)
+      {
+        handler.chunk(buf, pos, offset);
+        offset += pos;
+        System.arraycopy(buf, pos, buf, 0, filled - pos);
+        filled -= pos;
+        pos = 0;
+        hash = 0;
+      }
+    }
+    if(filled > 0)
+    {
+      handler.chunk(buf, filled, offset);
+    }
+  }
+}
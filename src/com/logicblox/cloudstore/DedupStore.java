@@ -0,0 +1,841 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicating storage for many similar snapshots of a directory.  Files are split into
+ * chunks at content-defined boundaries by a rolling hash, every distinct chunk is stored once
+ * as an object named after its hash, and every file is stored as a small manifest that lists
+ * its chunks.  A snapshot that differs from an earlier one in a few places only uploads the
+ * chunks around the changes.
+ * <p>
+ * Chunks are stored in the bucket of the store, under the chunk prefix followed by {@code
+ * plain/} or, for chunks encrypted with key {@code k}, by {@code key-k/}, so that an encrypted
+ * snapshot never refers to chunks that are not encrypted with its key.  Chunks are encrypted
+ * like any other upload, and decrypted with the {@link KeyProvider} of the client.  Plain
+ * chunks are named after their SHA-256.  Encrypted chunks are named after their HMAC-SHA256
+ * with a secret derived from the private key of {@code k}, because a plain hash would let
+ * anyone who can list the bucket check whether a snapshot contains a known file.  Storing an
+ * encrypted snapshot therefore needs the private key, not just the public key.
+ * <p>
+ * Manifests are stored next to where the files would be, with the suffix {@code
+ * .cloud-store-chunks}, and are encrypted with the key of the snapshot.  A manifest is
+ * uploaded after all its chunks, so it never refers to chunks that do not exist.  Restored
+ * chunks are checked against their hash and length in the manifest.
+ * <p>
+ * Whether a chunk exists is checked against a local index in the index directory, which is
+ * filled from earlier runs and by listing the chunks in batches.  Chunks must therefore never
+ * be deleted while a store, or an index directory, may still refer to them.
+ * <p>
+ * Chunks are read into memory once and uploaded from there, so a file that changes while it
+ * is stored never corrupts a chunk.  At most {@code maxPendingChunks} new chunks are held in
+ * memory at a time.  Delta uploads, compression, packing and progress listeners are not
+ * supported.  This class is thread-safe.
+ *
+ * @see DedupStoreBuilder
+ */
+public class DedupStore
+{
+  private static final int WALK_PARALLELISM = 8;
+  private static final String PLAIN_NAMESPACE = "plain/";
+  private static final String KEY_NAMESPACE = "key-";
+  private static final String CHUNK_SECRET_LABEL = "cloud-store-chunks";
+
+  private final CloudStoreClient _client;
+  private final String _bucket;
+  private final String _chunkPrefix;
+  private final File _indexDirectory;
+  private final ContentChunker _chunker;
+  private final Semaphore _pendingChunks;
+
+  private final Map<String, ChunkIndex> _indexes = new HashMap<>();
+  private final ConcurrentMap<String, ListenableFuture<Void>> _uploading =
+    new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, SecretKeySpec> _chunkSecrets = new ConcurrentHashMap<>();
+  private final AtomicLong _uploadedBytes = new AtomicLong();
+  private final AtomicLong _deduplicatedBytes = new AtomicLong();
+
+  DedupStore(
+    CloudStoreClient client, String bucket, String chunkPrefix, File indexDirectory,
+    int averageChunkSize, int maxPendingChunks)
+  {
+    _client = client;
+    _bucket = bucket;
+    _chunkPrefix = chunkPrefix;
+    _indexDirectory = indexDirectory;
+    _chunker = new ContentChunker(averageChunkSize);
+    _pendingChunks = new Semaphore(maxPendingChunks);
+  }
+
+  /**
+   * Store the files of the directory {@code options.getFile()} below the prefix {@code
+   * options.getObjectKey()}, uploading only the chunks that are not stored yet.  The includes
+   * and excludes, the canned ACL and the encryption key of the options are used.
+   *
+   * @return future of the manifests that were uploaded, one per file
+   */
+  public ListenableFuture<List<StoreFile>> uploadRecursively(final UploadOptions options)
+    throws IOException
+  {
+    final File dir = options.getFile();
+    if(!dir.exists())
+    {
+      throw new FileNotFoundException(dir.getPath());
+    }
+    else if(!dir.isDirectory())
+    {
+      throw new UsageException("'" + dir + "' is not a directory");
+    }
+    else if(options.isDelta() || options.getCompression().isPresent() ||
+      options.getPackSize() > 0)
+    {
+      throw new UsageException(
+        "Delta uploads, compression and packing are not supported by deduplicated stores");
+    }
+
+    final String namespace = _chunkPrefix + (options.getEncKey().isPresent() ?
+      KEY_NAMESPACE + options.getEncKey().get() + "/" : PLAIN_NAMESPACE);
+    // fail before walking the directory if the chunks cannot be named
+    newChunkHash(namespace);
+    final ChunkIndex index = getIndex(namespace);
+    final List<ListenableFuture<StoreFile>> manifests =
+      Collections.synchronizedList(new ArrayList<ListenableFuture<StoreFile>>());
+
+    FileWalker walker = new FileWalker(
+      new PathFilter(options.getIncludes(), options.getExcludes()), WALK_PARALLELISM);
+    walker.walk(dir, new FileWalker.Visitor()
+    {
+      public void visit(File file, String relPath)
+        throws IOException
+      {
+        String key = Paths.get(options.getObjectKey(), relPath).toString();
+        if(options.isDryRun())
+        {
+          _client.getOutput().println("<DRYRUN> storing chunks of '" + file.getAbsolutePath() +
+            "' for '" + getUri(options.getBucketName(), key) + "'");
+        }
+        else
+        {
+          manifests.add(storeFile(options, file, key, namespace, index));
+        }
+      }
+    });
+
+    if(options.isDryRun())
+    {
+      return Futures.immediateFuture(null);
+    }
+    ListenableFuture<List<StoreFile>> result = Futures.allAsList(manifests);
+    Futures.addCallback(result, new FutureCallback<List<StoreFile>>()
+    {
+      public void onSuccess(List<StoreFile> files)
+      {
+        flushIndex(index);
+      }
+
+      public void onFailure(Throwable t)
+      {
+        // the chunks that were uploaded are still worth remembering
+        flushIndex(index);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Restore the files stored below the prefix {@code options.getObjectKey()} into the
+   * directory {@code options.getFile()}.  The includes and excludes and the overwrite flag of
+   * the options are used.  Files that were restored are deleted if the restore fails.
+   *
+   * @return future of the files that were restored
+   */
+  public ListenableFuture<List<File>> downloadRecursively(final DownloadOptions options)
+    throws IOException
+  {
+    final File destination = options.getFile().getAbsoluteFile();
+    if(destination.exists() && !destination.isDirectory())
+    {
+      throw new UsageException("Existing destination '" + destination +
+        "' must be a directory");
+    }
+
+    ListOptions listOptions = _client.getOptionsBuilderFactory()
+      .newListOptionsBuilder()
+      .setBucketName(options.getBucketName())
+      .setObjectKey(options.getObjectKey())
+      .setRecursive(true)
+      .createOptions();
+    return Futures.transform(_client.listObjects(listOptions),
+      new AsyncFunction<List<StoreFile>, List<File>>()
+      {
+        public ListenableFuture<List<File>> apply(List<StoreFile> objects)
+          throws IOException
+        {
+          return restoreFiles(options, destination, objects);
+        }
+      });
+  }
+
+  /**
+   * Return the number of bytes of new chunks that were uploaded.
+   */
+  public long getUploadedBytes()
+  {
+    return _uploadedBytes.get();
+  }
+
+  /**
+   * Return the number of bytes of chunks that were not uploaded because they were stored
+   * already.
+   */
+  public long getDeduplicatedBytes()
+  {
+    return _deduplicatedBytes.get();
+  }
+
+  /**
+   * Write and close the local indexes.  Uploads must have completed.
+   */
+  public void close()
+    throws IOException
+  {
+    synchronized(_indexes)
+    {
+      for(ChunkIndex index : _indexes.values())
+      {
+        index.close();
+      }
+      _indexes.clear();
+    }
+  }
+
+  private ChunkIndex getIndex(String namespace)
+    throws IOException
+  {
+    synchronized(_indexes)
+    {
+      ChunkIndex index = _indexes.get(namespace);
+      if(index == null)
+      {
+        index = new ChunkIndex(_client, _bucket, namespace, _indexDirectory);
+        index.load();
+        _indexes.put(namespace, index);
+      }
+      return index;
+    }
+  }
+
+  private void flushIndex(ChunkIndex index)
+  {
+    try
+    {
+      index.flush();
+    }
+    catch(IOException exc)
+    {
+      _client.getErrorOutput().println("warning: could not write chunk index: " + exc.getMessage());
+    }
+  }
+
+  /**
+   * Split a file into chunks, start the uploads of the new chunks, and upload the manifest of
+   * the file once all its chunks are stored.
+   */
+  private ListenableFuture<StoreFile> storeFile(
+    final UploadOptions options, File file, String key, final String namespace,
+    final ChunkIndex index)
+    throws IOException
+  {
+    final ChunkManifest manifest = new ChunkManifest(namespace);
+    final List<ListenableFuture<Void>> chunks = new ArrayList<>();
+    final ChunkHash chunkHash = newChunkHash(namespace);
+    try(InputStream in = new FileInputStream(file))
+    {
+      _chunker.split(in, file.length(), new ContentChunker.Handler()
+      {
+        public void chunk(byte[] data, int length, long offset)
+          throws IOException
+        {
+          chunkHash.update(data, 0, length);
+          String hash = chunkHash.finish();
+          manifest.add(hash, length);
+          chunks.add(storeChunk(options, namespace, index, hash, data, length));
+        }
+      });
+    }
+
+    final String manifestKey = ChunkManifest.getManifestKey(key);
+    return Futures.transform(Futures.allAsList(chunks),
+      new AsyncFunction<List<Void>, StoreFile>()
+      {
+        public ListenableFuture<StoreFile> apply(List<Void> stored)
+          throws IOException
+        {
+          UploadOptionsBuilder builder = _client.getOptionsBuilderFactory()
+            .newUploadOptionsBuilder()
+            .setSource(new ByteArrayUploadSource(manifest.toBytes(),
+              getUri(options.getBucketName(), manifestKey)))
+            .setBucketName(options.getBucketName())
+            .setObjectKey(manifestKey)
+            .setCannedAcl(options.getCannedAcl());
+          if(options.getEncKey().isPresent())
+          {
+            builder.setEncKey(options.getEncKey().get());
+          }
+          return _client.upload(builder.createOptions());
+        }
+      });
+  }
+
+  /**
+   * Return a future that completes when the chunk is stored, uploading it unless it exists or
+   * is being uploaded already.
+   */
+  private ListenableFuture<Void> storeChunk(
+    UploadOptions options, String namespace, final ChunkIndex index, final String hash,
+    byte[] data, final int length)
+    throws IOException
+  {
+    final String chunkKey = ChunkManifest.getChunkKey(namespace, hash);
+    ListenableFuture<Void> pending = _uploading.get(chunkKey);
+    try
+    {
+      if(pending == null && index.contains(hash))
+      {
+        pending = Futures.immediateFuture(null);
+      }
+    }
+    catch(InterruptedException exc)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while looking up chunk " + hash);
+    }
+    final SettableFuture<Void> upload = SettableFuture.create();
+    if(pending == null)
+    {
+      pending = _uploading.putIfAbsent(chunkKey, upload);
+    }
+    if(pending != null)
+    {
+      _deduplicatedBytes.addAndGet(length);
+      return pending;
+    }
+
+    try
+    {
+      _pendingChunks.acquire();
+    }
+    catch(InterruptedException exc)
+    {
+      _uploading.remove(chunkKey);
+      upload.setException(exc);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to upload chunk " + hash);
+    }
+
+    ListenableFuture<StoreFile> stored;
+    try
+    {
+      UploadOptionsBuilder builder = _client.getOptionsBuilderFactory()
+        .newUploadOptionsBuilder()
+        .setSource(new ByteArrayUploadSource(Arrays.copyOf(data, length),
+          getUri(_bucket, chunkKey)))
+        .setBucketName(_bucket)
+        .setObjectKey(chunkKey)
+        .setCannedAcl(options.getCannedAcl());
+      if(options.getEncKey().isPresent())
+      {
+        builder.setEncKey(options.getEncKey().get());
+      }
+      stored = _client.upload(builder.createOptions());
+    }
+    catch(IOException | RuntimeException exc)
+    {
+      _pendingChunks.release();
+      _uploading.remove(chunkKey);
+      upload.setException(exc);
+      throw exc;
+    }
+
+    Futures.addCallback(stored, new FutureCallback<StoreFile>()
+    {
+      public void onSuccess(StoreFile f)
+      {
+        _pendingChunks.release();
+        _uploadedBytes.addAndGet(length);
+        try
+        {
+          index.add(hash);
+          upload.set(null);
+        }
+        catch(IOException exc)
+        {
+          upload.setException(exc);
+        }
+        finally
+        {
+          _uploading.remove(chunkKey);
+        }
+      }
+
+      public void onFailure(Throwable t)
+      {
+        _pendingChunks.release();
+        _uploading.remove(chunkKey);
+        upload.setException(t);
+      }
+    });
+    return upload;
+  }
+
+  /**
+   * Load the manifests among {@code objects} and restore the files they describe.
+   */
+  private ListenableFuture<List<File>> restoreFiles(
+    final DownloadOptions options, File destination, List<StoreFile> objects)
+    throws IOException
+  {
+    PathFilter filter = new PathFilter(options.getIncludes(), options.getExcludes());
+    String baseDirURI = Utils.getBaseDirURI(options.getObjectKey());
+    final List<File> created = Collections.synchronizedList(new ArrayList<File>());
+    final List<ListenableFuture<?>> pending =
+      Collections.synchronizedList(new ArrayList<ListenableFuture<?>>());
+    List<ListenableFuture<File>> restored = new ArrayList<>();
+    for(StoreFile object : objects)
+    {
+      String manifestKey = object.getObjectKey();
+      if(!ChunkManifest.isManifestKey(manifestKey))
+      {
+        continue;
+      }
+      String relFile = ChunkManifest.getFileKey(manifestKey).substring(baseDirURI.length());
+      if(!filter.accepts(Paths.get(relFile)))
+      {
+        continue;
+      }
+      final File outputFile = new File(destination, relFile);
+      if(outputFile.exists() && !options.doesOverwrite())
+      {
+        throw new UsageException("File '" + outputFile + "' already exists.  Please delete " +
+          "or use --overwrite");
+      }
+      if(options.isDryRun())
+      {
+        _client.getOutput().println("<DRYRUN> restoring '" + getUri(options.getBucketName(),
+          manifestKey) + "' to '" + outputFile.getAbsolutePath() + "'");
+        continue;
+      }
+
+      // the stored size is larger than the manifest if the manifest is encrypted
+      final byte[] bytes = new byte[(int) (long) object.getSize().orElse(0L)];
+      final ByteArraySink sink = new ByteArraySink(bytes);
+      DownloadOptions manifestOptions = _client.getOptionsBuilderFactory()
+        .newDownloadOptionsBuilder()
+        .setSink(sink)
+        .setBucketName(options.getBucketName())
+        .setObjectKey(manifestKey)
+        .createOptions();
+      ListenableFuture<File> file = Futures.transform(_client.download(manifestOptions),
+        new AsyncFunction<StoreFile, File>()
+        {
+          public ListenableFuture<File> apply(StoreFile f)
+            throws IOException
+          {
+            return restoreFile(ChunkManifest.parse(bytes, sink.getLength()), outputFile,
+              created, pending);
+          }
+        });
+      pending.add(file);
+      restored.add(file);
+    }
+
+    if(options.isDryRun())
+    {
+      return Futures.immediateFuture(null);
+    }
+    return Futures.withFallback(Futures.allAsList(restored), new FutureFallback<List<File>>()
+    {
+      public ListenableFuture<List<File>> create(Throwable t)
+      {
+        // downloads that are still running would fail once their file is deleted
+        synchronized(pending)
+        {
+          for(ListenableFuture<?> f : pending)
+          {
+            f.cancel(true);
+          }
+        }
+        synchronized(created)
+        {
+          for(File f : created)
+          {
+            f.delete();
+          }
+        }
+        return Futures.immediateFailedFuture(t);
+      }
+    });
+  }
+
+  /**
+   * Download the chunks of a file into their positions in the file, and check every chunk, and
+   * the length of the file, against the manifest.  The downloads of the chunks are added to
+   * {@code pending}, so they can be cancelled if the restore fails.
+   */
+  private ListenableFuture<File> restoreFile(
+    final ChunkManifest manifest, final File outputFile, List<File> created,
+    List<ListenableFuture<?>> pending)
+    throws IOException
+  {
+    File parent = outputFile.getParentFile();
+    if(!parent.isDirectory() && !parent.mkdirs())
+    {
+      throw new IOException("Could not create directory '" + parent + "'");
+    }
+    outputFile.delete();
+    if(!outputFile.createNewFile())
+    {
+      throw new IOException("File '" + outputFile + "' already exists");
+    }
+    created.add(outputFile);
+
+    List<ListenableFuture<StoreFile>> chunks = new ArrayList<>();
+    long offset = 0;
+    for(ChunkManifest.Chunk chunk : manifest.getChunks())
+    {
+      final ChunkSink sink = new ChunkSink(outputFile, offset, manifest.getChunkPrefix(), chunk);
+      DownloadOptions chunkOptions = _client.getOptionsBuilderFactory()
+        .newDownloadOptionsBuilder()
+        .setSink(sink)
+        .setBucketName(_bucket)
+        .setObjectKey(ChunkManifest.getChunkKey(manifest.getChunkPrefix(), chunk.getHash()))
+        .createOptions();
+      ListenableFuture<StoreFile> downloaded = Futures.transform(
+        _client.download(chunkOptions), new AsyncFunction<StoreFile, StoreFile>()
+        {
+          public ListenableFuture<StoreFile> apply(StoreFile f)
+            throws IOException
+          {
+            sink.verify();
+            return Futures.immediateFuture(f);
+          }
+        });
+      pending.add(downloaded);
+      chunks.add(downloaded);
+      offset += chunk.getLength();
+    }
+    return Futures.transform(Futures.allAsList(chunks),
+      new AsyncFunction<List<StoreFile>, File>()
+      {
+        public ListenableFuture<File> apply(List<StoreFile> downloaded)
+          throws IOException
+        {
+          if(outputFile.length() != manifest.getLength())
+          {
+            throw new IOException("Restored file '" + outputFile + "' has " +
+              outputFile.length() + " bytes instead of " + manifest.getLength());
+          }
+          return Futures.immediateFuture(outputFile);
+        }
+      });
+  }
+
+  /**
+   * Return a new hash that names the chunks of {@code namespace}.  The hash is not
+   * thread-safe.
+   */
+  private ChunkHash newChunkHash(String namespace)
+    throws IOException
+  {
+    String keyName = getKeyName(namespace);
+    if(keyName == null)
+    {
+      final MessageDigest digest = DigestUtils.getSha256Digest();
+      return new ChunkHash()
+      {
+        public void update(byte[] data, int offset, int length)
+        {
+          digest.update(data, offset, length);
+        }
+
+        public String finish()
+        {
+          return Hex.encodeHexString(digest.digest());
+        }
+      };
+    }
+
+    final Mac mac;
+    try
+    {
+      mac = Mac.getInstance("HmacSHA256");
+      mac.init(getChunkSecret(keyName));
+    }
+    catch(NoSuchAlgorithmException | InvalidKeyException exc)
+    {
+      throw new RuntimeException(exc);
+    }
+    return new ChunkHash()
+    {
+      public void update(byte[] data, int offset, int length)
+      {
+        mac.update(data, offset, length);
+      }
+
+      public String finish()
+      {
+        return Hex.encodeHexString(mac.doFinal());
+      }
+    };
+  }
+
+  /**
+   * Return the secret for naming the chunks encrypted with key {@code keyName}, derived from
+   * the private key.
+   */
+  private SecretKeySpec getChunkSecret(String keyName)
+    throws IOException
+  {
+    SecretKeySpec secret = _chunkSecrets.get(keyName);
+    if(secret != null)
+    {
+      return secret;
+    }
+    if(_client.getKeyProvider() == null)
+    {
+      throw new UsageException("No encryption key provider is specified");
+    }
+    try
+    {
+      MessageDigest digest = DigestUtils.getSha256Digest();
+      digest.update(CHUNK_SECRET_LABEL.getBytes(StandardCharsets.UTF_8));
+      digest.update(_client.getKeyProvider().getPrivateKey(keyName).getEncoded());
+      secret = new SecretKeySpec(digest.digest(), "HmacSHA256");
+    }
+    catch(NoSuchKeyException exc)
+    {
+      throw new UsageException("Missing private key of encryption key: " + keyName);
+    }
+    _chunkSecrets.putIfAbsent(keyName, secret);
+    return secret;
+  }
+
+  /**
+   * Return the name of the key of the chunks in {@code namespace}, or null if they are not
+   * encrypted.
+   */
+  private static String getKeyName(String namespace)
+  {
+    if(!namespace.endsWith("/"))
+    {
+      return null;
+    }
+    String name = namespace.substring(
+      namespace.lastIndexOf('/', namespace.length() - 2) + 1, namespace.length() - 1);
+    return name.startsWith(KEY_NAMESPACE) ? name.substring(KEY_NAMESPACE.length()) : null;
+  }
+
+  private String getUri(String bucket, String key)
+  {
+    return _client.getScheme() + bucket + "/" + key;
+  }
+
+  /**
+   * Names chunks after their content.
+   */
+  private interface ChunkHash
+  {
+    void update(byte[] data, int offset, int length);
+
+    /**
+     * Return the hash of the data since the last call, as hex.
+     */
+    String finish();
+  }
+
+  /**
+   * A sink that writes the download of a chunk into its region of a file, and checks it
+   * against its length and hash in the manifest.  A chunk that is downloaded as one stream is
+   * hashed while it is written.  The parts of a chunk that is downloaded in several parts can
+   * arrive in any order, so such a chunk is read back from the file once it is complete.
+   */
+  private class ChunkSink
+    implements DownloadSink
+  {
+    private final File _file;
+    private final long _offset;
+    private final String _namespace;
+    private final ChunkManifest.Chunk _chunk;
+    private final Map<Long, Long> _written = new HashMap<>();
+    private ChunkHash _streamHash = null;
+    private int _streams = 0;
+
+    ChunkSink(File file, long offset, String namespace, ChunkManifest.Chunk chunk)
+    {
+      _file = file;
+      _offset = offset;
+      _namespace = namespace;
+      _chunk = chunk;
+    }
+
+    public OutputStream open(final long position)
+      throws IOException
+    {
+      final ChunkHash hash;
+      synchronized(this)
+      {
+        _streams++;
+        _streamHash = _streams == 1 && position == 0 ? newChunkHash(_namespace) : null;
+        hash = _streamHash;
+      }
+      final FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.WRITE);
+      channel.position(_offset + position);
+      return new OutputStream()
+      {
+        private long _position = position;
+
+        @Override
+        public void write(int b)
+          throws IOException
+        {
+          write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+          throws IOException
+        {
+          // never overwrite the next chunk
+          if(_position + len > _chunk.getLength())
+          {
+            throw new IOException("Chunk " + _chunk.getHash() + " of '" + _file +
+              "' is longer than expected");
+          }
+          if(hash != null)
+          {
+            hash.update(b, off, len);
+          }
+          ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+          while(buf.hasRemaining())
+          {
+            channel.write(buf);
+          }
+          _position += len;
+          setWritten(position, _position - position);
+        }
+
+        @Override
+        public void close()
+          throws IOException
+        {
+          channel.close();
+        }
+      };
+    }
+
+    /**
+     * Check the chunk once its download has completed.
+     */
+    synchronized void verify()
+      throws IOException
+    {
+      long written = 0;
+      for(long length : _written.values())
+      {
+        written += length;
+      }
+      if(written != _chunk.getLength())
+      {
+        throw new IOException("Chunk " + _chunk.getHash() + " of '" + _file + "' has " +
+          written + " bytes instead of " + _chunk.getLength());
+      }
+      ChunkHash hash = _streamHash;
+      if(hash == null)
+      {
+        hash = newChunkHash(_namespace);
+        try(FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+        {
+          ByteBuffer buf = ByteBuffer.allocate(Math.min(_chunk.getLength(), 65536));
+          long position = 0;
+          while(position < _chunk.getLength())
+          {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), _chunk.getLength() - position));
+            int n = channel.read(buf, _offset + position);
+            if(n == -1)
+            {
+              throw new IOException("Unexpected end of '" + _file + "'");
+            }
+            hash.update(buf.array(), 0, n);
+            position += n;
+          }
+        }
+      }
+      if(!hash.finish().equals(_chunk.getHash()))
+      {
+        throw new IOException("Chunk " + _chunk.getHash() + " of '" + _file +
+          "' does not match its hash");
+      }
+    }
+
+    /**
+     * Record the bytes written by the stream of the part at {@code position}.  A part that is
+     * retried writes its bytes again.
+     */
+    private synchronized void setWritten(long position, long length)
+    {
+      _written.put(position, length);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+
+/**
+ * Builds a {@link DedupStore} around an existing client.  The client, the bucket of the
+ * chunks and the local index directory are mandatory.
+ */
+public class DedupStoreBuilder
+{
+  public static final String DEFAULT_CHUNK_PREFIX = ".cloud-store-chunks/";
+  public static final int DEFAULT_AVERAGE_CHUNK_SIZE = 1024 * 1024;
+  public static final int DEFAULT_MAX_PENDING_CHUNKS = 32;
+
+  private static final int MIN_AVERAGE_CHUNK_SIZE = 256;
+  private static final int MAX_AVERAGE_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private CloudStoreClient _client;
+  private String _bucket;
+  private String _chunkPrefix = DEFAULT_CHUNK_PREFIX;
+  private File _indexDirectory;
+  private int _averageChunkSize = DEFAULT_AVERAGE_CHUNK_SIZE;
+  private int _maxPendingChunks = DEFAULT_MAX_PENDING_CHUNKS;
+
+  public DedupStoreBuilder setClient(CloudStoreClient client)
+  {
+    _client = client;
+    return this;
+  }
+
+  /**
+   * Set the bucket of the chunks.  Snapshots may be stored in other buckets.
+   */
+  public DedupStoreBuilder setBucketName(String bucket)
+  {
+    _bucket = bucket;
+    return this;
+  }
+
+  /**
+   * Set the prefix of the chunk objects.  The default is {@code .cloud-store-chunks/}.
+   */
+  public DedupStoreBuilder setChunkPrefix(String chunkPrefix)
+  {
+    _chunkPrefix = chunkPrefix;
+    return this;
+  }
+
+  /**
+   * Set the directory of the local index of the chunks that exist.  The directory may be
+   * shared by stores, but it has to be deleted if chunks are deleted from the bucket.
+   */
+  public DedupStoreBuilder setIndexDirectory(File indexDirectory)
+  {
+    _indexDirectory = indexDirectory;
+    return this;
+  }
+
+  /**
+   * Set the average size of the chunks, a power of two.  Smaller chunks find more duplicate
+   * data, but cost more requests and objects.  The default is 1 MB.  Snapshots that are stored
+   * with another average size share hardly any chunks with earlier ones.
+   */
+  public DedupStoreBuilder setAverageChunkSize(int averageChunkSize)
+  {
+    _averageChunkSize = averageChunkSize;
+    return this;
+  }
+
+  /**
+   * Set how many new chunks may be held in memory while they are uploaded.  Every chunk takes
+   * at most four times the average chunk size.  The default is 32.
+   */
+  public DedupStoreBuilder setMaxPendingChunks(int maxPendingChunks)
+  {
+    _maxPendingChunks = maxPendingChunks;
+    return this;
+  }
+
+  public DedupStore createDedupStore()
+  {
+    if(_client == null)
+    {
+      throw new UsageException("Client has to be set");
+    }
+    else if(_bucket == null)
+    {
+      throw new UsageException("Bucket has to be set");
+    }
+    else if(_indexDirectory == null)
+    {
+      throw new UsageException("Index directory has to be set");
+    }
+    else if(_chunkPrefix == null || (!_chunkPrefix.isEmpty() && !_chunkPrefix.endsWith("/")))
+    {
+      throw new UsageException("Chunk prefix has to be empty or end with '/'");
+    }
+    else if(Integer.bitCount(_averageChunkSize) != 1 ||
+      _averageChunkSize < MIN_AVERAGE_CHUNK_SIZE || _averageChunkSize > MAX_AVERAGE_CHUNK_SIZE)
+    {
+      throw new UsageException("Average chunk size has to be a power of two between " +
+        MIN_AVERAGE_CHUNK_SIZE + " and " + MAX_AVERAGE_CHUNK_SIZE);
+    }
+    else if(_maxPendingChunks < 1)
+    {
+      throw new UsageException("Number of pending chunks has to be positive");
+    }
+    return new DedupStore(_client, _bucket, _chunkPrefix, _indexDirectory.getAbsoluteFile(),
+      _averageChunkSize, _maxPendingChunks);
+  }
+}
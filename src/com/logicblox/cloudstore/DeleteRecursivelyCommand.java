@@ -53,7 +53,8 @@ class DeleteRecursivelyCommand
               matches.add(f);
             }
           }
-          List<ListenableFuture<StoreFile>> futures = prepareFutures(matches);
+          List<ListenableFuture<StoreFile>> futures = prepareFutures(
+            PartManifest.withoutAttachedManifests(matches));
 
           if(_options.isDryRun())
           {
@@ -76,7 +77,8 @@ class DeleteRecursivelyCommand
     {
       if(_options.isDryRun())
       {
-        System.out.println("<DRYRUN> deleting '" + getUri(src.getBucketName(), src.getObjectKey()) + "'");
+        _client.getOutput().println("<DRYRUN> deleting '" +
+          getUri(src.getBucketName(), src.getObjectKey()) + "'");
       }
       else
       {
@@ -0,0 +1,245 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directory of downloaded files, each named after the cache key of its object, with a byte
+ * quota enforced by evicting the least recently used files.
+ * <p>
+ * Files are admitted by copying them to a temporary file in the directory and renaming it, so
+ * a file of the cache is always complete.  Temporary files that have not been written for an
+ * hour are left behind by admissions that failed, and are deleted when the cache is opened;
+ * younger ones may belong to another process that shares the directory.  Files are never
+ * written after they are admitted, and they are made read-only so that hard links to them are
+ * not changed by accident.  A file that is evicted while it is being served is still read
+ * completely, because it is only unlinked; a file that is evicted before it is opened is
+ * reported as a miss.
+ * <p>
+ * The order of use is kept in memory and in the modification times of the files, from which
+ * it is restored when the cache is opened again.  This class is thread-safe.
+ */
+class DownloadCache
+{
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /**
+   * Age after which a temporary file is considered left behind.  Other processes that share
+   * the directory may still be writing younger ones.
+   */
+  private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final File _directory;
+  private final long _maxBytes;
+  private final boolean _hardLinks;
+  private final LinkedHashMap<String, Long> _entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long _bytes = 0;
+
+  /**
+   * @param directory directory of the cache, created if it does not exist
+   * @param maxBytes  largest total size of the cached files
+   * @param hardLinks serve hits by hard-linking the cached file instead of copying it
+   */
+  DownloadCache(File directory, long maxBytes, boolean hardLinks)
+    throws IOException
+  {
+    _directory = directory.getAbsoluteFile();
+    _maxBytes = maxBytes;
+    _hardLinks = hardLinks;
+    if(!_directory.isDirectory() && !_directory.mkdirs())
+    {
+      throw new IOException("Could not create cache directory '" + _directory + "'");
+    }
+    // downloaded files can be private
+    _directory.setReadable(false, false);
+    _directory.setExecutable(false, false);
+    _directory.setReadable(true, true);
+    _directory.setExecutable(true, true);
+    load();
+  }
+
+  private synchronized void load()
+  {
+    File[] files = _directory.listFiles();
+    if(files == null)
+    {
+      return;
+    }
+    List<File> cached = new ArrayList<>(Arrays.asList(files));
+    Collections.sort(cached, new Comparator<File>()
+    {
+      public int compare(File a, File b)
+      {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+    for(File f : cached)
+    {
+      if(f.getName().endsWith(TEMP_SUFFIX))
+      {
+        if(f.lastModified() < staleBefore)
+        {
+          // left behind by an admission that did not complete
+          f.delete();
+        }
+      }
+      else if(f.isFile())
+      {
+        _entries.put(f.getName(), f.length());
+        _bytes += f.length();
+      }
+    }
+    evict();
+  }
+
+  /**
+   * Return the total size of the cached files.
+   */
+  synchronized long getBytes()
+  {
+    return _bytes;
+  }
+
+  /**
+   * Return whether a file is cached for {@code key}.
+   */
+  synchronized boolean contains(String key)
+  {
+    return _entries.containsKey(key);
+  }
+
+  /**
+   * Write the cached file of {@code key} to {@code target}, which must not exist.
+   *
+   * @return false if no file is cached for {@code key}
+   */
+  boolean get(String key, File target)
+    throws IOException
+  {
+    File cached = new File(_directory, key);
+    synchronized(this)
+    {
+      if(_entries.get(key) == null)
+      {
+        return false;
+      }
+      cached.setLastModified(System.currentTimeMillis());
+    }
+
+    try
+    {
+      if(_hardLinks)
+      {
+        try
+        {
+          Files.createLink(target.toPath(), cached.toPath());
+          return true;
+        }
+        catch(UnsupportedOperationException | IOException exc)
+        {
+          if(exc instanceof NoSuchFileException)
+          {
+            throw (NoSuchFileException) exc;
+          }
+          // e.g. another file system, fall back to a copy
+        }
+      }
+      Utils.copyFile(cached, target, false);
+      return true;
+    }
+    catch(NoSuchFileException exc)
+    {
+      // evicted by another process sharing the directory
+      remove(key);
+      target.delete();
+      return false;
+    }
+  }
+
+  /**
+   * Admit a copy of {@code source} as the file of {@code key}, evicting other files if the
+   * quota is exceeded.  Files larger than the quota are not admitted.
+   */
+  void put(String key, File source)
+    throws IOException
+  {
+    long size = source.length();
+    if(size > _maxBytes || contains(key))
+    {
+      return;
+    }
+
+    File temp = File.createTempFile("admit", TEMP_SUFFIX, _directory);
+    try
+    {
+      Utils.copyFile(source, temp, false);
+      temp.setReadOnly();
+      Files.move(temp.toPath(), new File(_directory, key).toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    finally
+    {
+      temp.delete();
+    }
+
+    synchronized(this)
+    {
+      if(!_entries.containsKey(key))
+      {
+        _entries.put(key, size);
+        _bytes += size;
+      }
+      evict();
+    }
+  }
+
+  private synchronized void remove(String key)
+  {
+    Long size = _entries.remove(key);
+    if(size != null)
+    {
+      _bytes -= size;
+    }
+  }
+
+  private void evict()
+  {
+    Iterator<Map.Entry<String, Long>> it = _entries.entrySet().iterator();
+    while(_bytes > _maxBytes && it.hasNext())
+    {
+      Map.Entry<String, Long> eldest = it.next();
+      new File(_directory, eldest.getKey()).delete();
+      _bytes -= eldest.getValue();
+      it.remove();
+    }
+  }
+}
@@ -17,6 +17,8 @@
 package com.logicblox.cloudstore;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -26,7 +28,14 @@ import java.util.Optional;
  * If {@code _overwrite} is set, then newly downloaded files is possible to _overwrite existing local
  * files.
  * <p>
+ * Recursive downloads only download the objects whose key relative to the downloaded prefix
+ * matches one of the {@code _includes} globs, if there are any, and skip objects and
+ * directories that match one of the {@code _excludes} globs.  Files of packed uploads are
+ * unpacked.
+ * <p>
  * If progress listener factory has been set, then progress notifications will be recorded.
+ * If a transfer progress listener has been set, recursive downloads report their aggregate
+ * progress to it.
  * <p>
  * {@code DownloadOptions} objects are meant to be built by {@code DownloadOptionsBuilder}. This
  * class provides only public accessor methods.
@@ -47,10 +56,17 @@ public class DownloadOptions
   private boolean _overwrite;
   private boolean _dryRun;
   private OverallProgressListenerFactory _overallProgressListenerFactory;
+  private TransferProgressListener _transferProgressListener;
+  private DownloadSink _sink;
+  private List<ByteRange> _ranges;
+  private List<String> _includes;
+  private List<String> _excludes;
 
   DownloadOptions(
     CloudStoreClient cloudStoreClient, File file, String bucketName, String objectKey, String version,
-    boolean overwrite, boolean dryRun, OverallProgressListenerFactory overallProgressListenerFactory)
+    boolean overwrite, boolean dryRun, OverallProgressListenerFactory overallProgressListenerFactory,
+    TransferProgressListener transferProgressListener, DownloadSink sink, List<ByteRange> ranges,
+    List<String> includes, List<String> excludes)
   {
     super(cloudStoreClient);
     _file = file;
@@ -60,6 +76,32 @@ public class DownloadOptions
     _overwrite = overwrite;
     _dryRun = dryRun;
     _overallProgressListenerFactory = overallProgressListenerFactory;
+    _transferProgressListener = transferProgressListener;
+    _sink = sink;
+    _ranges = ranges;
+    _includes = includes;
+    _excludes = excludes;
+  }
+
+  /**
+   * Return the sink that receives the data instead of a local file, if any.
+   *
+   * @return optional download sink
+   */
+  Optional<DownloadSink> getSink()
+  {
+    return Optional.ofNullable(_sink);
+  }
+
+  /**
+   * Return the ranges of the object to download, if only parts of the object are downloaded.
+   * The file or sink receives the ranges one after the other, starting at position 0.
+   *
+   * @return optional ranges to download
+   */
+  Optional<List<ByteRange>> getRanges()
+  {
+    return Optional.ofNullable(_ranges);
   }
 
   /**
@@ -134,4 +176,38 @@ public class DownloadOptions
   {
     return Optional.ofNullable(_overallProgressListenerFactory);
   }
+
+  /**
+   * Return the optional listener for the aggregate progress of a recursive download.
+   *
+   * @return listener for the progress of the whole transfer
+   */
+  public Optional<TransferProgressListener> getTransferProgressListener()
+  {
+    return Optional.ofNullable(_transferProgressListener);
+  }
+
+  /**
+   * Return the globs that the relative keys of objects in a recursive download have to match.
+   * If the list is empty, all objects are downloaded.
+   *
+   * @return include globs
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public List<String> getIncludes()
+  {
+    return Collections.unmodifiableList(_includes);
+  }
+
+  /**
+   * Return the globs of the relative keys of objects and directories that a recursive download
+   * skips.
+   *
+   * @return exclude globs
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public List<String> getExcludes()
+  {
+    return Collections.unmodifiableList(_excludes);
+  }
 }
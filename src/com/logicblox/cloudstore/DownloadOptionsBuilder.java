@@ -17,6 +17,9 @@
 package com.logicblox.cloudstore;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@code DownloadOptionsBuilder} is a builder for {@code DownloadOptions} objects, used
@@ -42,6 +45,11 @@ public class DownloadOptionsBuilder
   private boolean _overwrite = false;
   private boolean _dryRun = false;
   private OverallProgressListenerFactory _overallProgressListenerFactory;
+  private TransferProgressListener _transferProgressListener;
+  private DownloadSink _sink;
+  private List<ByteRange> _ranges;
+  private List<String> _includes = new ArrayList<>();
+  private List<String> _excludes = new ArrayList<>();
 
   DownloadOptionsBuilder(CloudStoreClient client)
   {
@@ -61,6 +69,46 @@ public class DownloadOptionsBuilder
     return this;
   }
 
+  /**
+   * Write the downloaded data to {@code sink} instead of a local file.
+   *
+   * @param sink destination of the downloaded data
+   * @return this builder
+   */
+  DownloadOptionsBuilder setSink(DownloadSink sink)
+  {
+    _sink = sink;
+    return this;
+  }
+
+  /**
+   * Download only {@code length} bytes of the object, starting at {@code offset}.  Only the
+   * chunks that overlap the range are fetched, and their checksums are not validated.
+   *
+   * @param offset offset of the first byte to download
+   * @param length number of bytes to download
+   * @return this builder
+   * @see CloudStoreClient#read(ReadOptions)
+   */
+  DownloadOptionsBuilder setRange(long offset, long length)
+  {
+    return setRanges(Collections.singletonList(new ByteRange(offset, length)));
+  }
+
+  /**
+   * Download only the given ranges of the object, which the file or sink receives one after
+   * the other.
+   *
+   * @param ranges ranges to download
+   * @return this builder
+   * @see CloudStoreClient#readVectored(VectoredReadOptions)
+   */
+  DownloadOptionsBuilder setRanges(List<ByteRange> ranges)
+  {
+    _ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+    return this;
+  }
+
   /**
    * Set the name of the bucket containing the file to download.
    *
@@ -136,13 +184,57 @@ public class DownloadOptionsBuilder
     return this;
   }
 
+  /**
+   * Set a listener for the aggregate progress of a recursive download.  The listener
+   * receives the total bytes and files transferred, the throughput and an ETA at a fixed
+   * rate.  It is ignored by non-recursive downloads.
+   *
+   * @param transferProgressListener listener for the progress of the whole transfer
+   * @return this builder
+   */
+  public DownloadOptionsBuilder setTransferProgressListener(
+    TransferProgressListener transferProgressListener)
+  {
+    _transferProgressListener = transferProgressListener;
+    return this;
+  }
+
+  /**
+   * Set globs, e.g. {@code **.csv}, that the key of an object relative to the downloaded
+   * prefix has to match for a recursive download to download it.  Only the selected files of
+   * packed uploads are read from their archives.  By default all objects are downloaded.
+   *
+   * @param includes include globs
+   * @return this builder
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public DownloadOptionsBuilder setIncludes(List<String> includes)
+  {
+    _includes = (includes == null) ? new ArrayList<String>() : new ArrayList<>(includes);
+    return this;
+  }
+
+  /**
+   * Set globs of the relative keys of objects and directories that a recursive download
+   * skips.
+   *
+   * @param excludes exclude globs
+   * @return this builder
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public DownloadOptionsBuilder setExcludes(List<String> excludes)
+  {
+    _excludes = (excludes == null) ? new ArrayList<String>() : new ArrayList<>(excludes);
+    return this;
+  }
+
   private void validateOptions()
   {
     if(_cloudStoreClient == null)
     {
       throw new UsageException("CloudStoreClient has to be set");
     }
-    else if(_file == null)
+    else if(_file == null && _sink == null)
     {
       throw new UsageException("File has to be set");
     }
@@ -154,6 +246,9 @@ public class DownloadOptionsBuilder
     {
       throw new UsageException("Object key has to be set");
     }
+
+    PathFilter.validate(_includes);
+    PathFilter.validate(_excludes);
   }
 
   /**
@@ -168,6 +263,7 @@ public class DownloadOptionsBuilder
     validateOptions();
 
     return new DownloadOptions(_cloudStoreClient, _file, _bucketName, _objectKey, _version,
-      _overwrite, _dryRun, _overallProgressListenerFactory);
+      _overwrite, _dryRun, _overallProgressListenerFactory, _transferProgressListener, _sink,
+      _ranges, _includes, _excludes);
   }
 }
@@ -24,8 +24,12 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 
 class DownloadRecursivelyCommand
@@ -37,6 +41,8 @@ class DownloadRecursivelyCommand
   private java.util.Set<File> _filesToCleanup;
   private List<File> _dirsToCleanup;
   private boolean _dryRun = false;
+  private TransferSession _session;
+  private PathFilter _filter;
 
 
   public DownloadRecursivelyCommand(DownloadOptions options)
@@ -48,7 +54,7 @@ class DownloadRecursivelyCommand
     _filesToCleanup = new java.util.HashSet<>();
     _dirsToCleanup = new ArrayList<>();
     _dryRun = _options.isDryRun();
-
+    _filter = new PathFilter(_options.getIncludes(), _options.getExcludes());
   }
 
   public ListenableFuture<List<StoreFile>> run()
@@ -72,30 +78,85 @@ class DownloadRecursivelyCommand
     ListenableFuture<List<StoreFile>> result = Futures.transform(listObjs,
       new AsyncFunction<List<StoreFile>, List<StoreFile>>()
       {
-        public ListenableFuture<List<StoreFile>> apply(List<StoreFile> srcFiles)
+        public ListenableFuture<List<StoreFile>> apply(List<StoreFile> objects)
           throws IOException
         {
-          prepareFutures(srcFiles);
-          if(_options.isDryRun())
+          // part manifests of delta uploads and the archives of packed uploads are not files
+          // of the tree, the files in the archives are
+          final List<StoreFile> srcFiles = new ArrayList<>();
+          final List<StoreFile> indexes = new ArrayList<>();
+          final Map<String, StoreFile> archives = new HashMap<>();
+          for(StoreFile object : objects)
           {
-            return Futures.immediateFuture(null);
-          }
-          else
-          {
-            return scheduleExecution();
+            String key = object.getObjectKey();
+            if(PackIndex.isIndexKey(key))
+            {
+              indexes.add(object);
+            }
+            else if(PackIndex.isPackKey(key))
+            {
+              archives.put(key, object);
+            }
+            else if(!PartManifest.isManifestKey(key))
+            {
+              srcFiles.add(object);
+            }
           }
+          return Futures.transform(loadIndexes(indexes),
+            new AsyncFunction<List<PackIndex>, List<StoreFile>>()
+            {
+              public ListenableFuture<List<StoreFile>> apply(List<PackIndex> loaded)
+                throws IOException
+              {
+                return start(srcFiles, indexes, loaded, archives);
+              }
+            });
         }
       });
     return result;
   }
 
 
+  private ListenableFuture<List<StoreFile>> start(
+    List<StoreFile> srcFiles, List<StoreFile> indexes, List<PackIndex> loaded,
+    Map<String, StoreFile> archives)
+    throws IOException
+  {
+    startSession();
+    try
+    {
+      prepareFutures(srcFiles);
+      for(int i = 0; i < indexes.size(); ++i)
+      {
+        prepareUnpack(indexes.get(i), loaded.get(i), archives);
+      }
+    }
+    catch(IOException | RuntimeException ex)
+    {
+      stopSession();
+      throw ex;
+    }
+    if(_options.isDryRun())
+    {
+      return Futures.immediateFuture(null);
+    }
+    else
+    {
+      return scheduleExecution();
+    }
+  }
+
+
   private ListenableFuture<List<StoreFile>> scheduleExecution()
   {
     // Don't see a way to have all peer futures in the list fail and clean up if any
     // one fails, even if explicitly cancelled.  This seems to be the only way
     // to clean up all the newly created files reliably.
     ListenableFuture<List<StoreFile>> futureList = Futures.allAsList(_futures);
+    if(_session != null)
+    {
+      _session.stopOnCompletion(futureList);
+    }
     return Futures.withFallback(futureList, new FutureFallback<List<StoreFile>>()
     {
       public ListenableFuture<List<StoreFile>> create(Throwable t)
@@ -107,6 +168,31 @@ class DownloadRecursivelyCommand
   }
 
 
+  private void startSession()
+  {
+    if(!_options.getTransferProgressListener().isPresent() || _dryRun)
+    {
+      return;
+    }
+
+    // objects are added as their downloads start
+    _session = new TransferSession("download", 0, 0,
+      _options.getTransferProgressListener().get(),
+      _options.getOverallProgressListenerFactory().orElse(null), _client.getInternalExecutor(),
+      TransferSession.DEFAULT_INTERVAL_MILLIS);
+    _session.start();
+  }
+
+
+  private void stopSession()
+  {
+    if(_session != null)
+    {
+      _session.stop();
+    }
+  }
+
+
   private ListenableFuture<List<StoreFile>> querySourceFiles()
   {
     // find all files that need to be downloaded
@@ -134,7 +220,7 @@ class DownloadRecursivelyCommand
         {
           if(_dryRun)
           {
-            System.out.println(
+            _client.getOutput().println(
               "<DRYRUN> overwriting existing file '" + _destination.getAbsolutePath() +
                 "' with new directory");
           }
@@ -173,7 +259,8 @@ class DownloadRecursivelyCommand
       {
         if(!_dirsToCleanup.contains(f))
         {
-          System.out.println("<DRYRUN> creating missing directory '" + f.getAbsolutePath() + "'");
+          _client.getOutput().println("<DRYRUN> creating missing directory '" +
+            f.getAbsolutePath() + "'");
         }
       }
     }
@@ -191,68 +278,221 @@ class DownloadRecursivelyCommand
     {
       String relFile = src.getObjectKey().substring(baseDirURI.length());
       File outputFile = new File(destAbs, relFile);
-      File outputPath = new File(outputFile.getParent());
 
-      if(!outputPath.exists())
+      if(src.getObjectKey().endsWith("/"))
       {
-        try
+        prepareDirectory(new File(outputFile.getParent()));
+      }
+      else if(_filter.accepts(Paths.get(relFile)))
+      {
+        prepareOutputFile(outputFile);
+        if(_dryRun)
         {
-          updateDirsToCleanup(Utils.mkdirs(outputPath, _dryRun));
+          _client.getOutput().println(
+            "<DRYRUN> downloading '" + getUri(_options.getBucketName(), src.getObjectKey()) + "' to '" +
+              outputFile.getAbsolutePath() + "'");
         }
-        catch(IOException ex)
+        else
         {
-          throw new UsageException(
-            "Could not create directory '" + outputPath + "': " + ex.getMessage());
+          _filesToCleanup.add(outputFile);
+
+          DownloadOptions options = newDownloadOptionsBuilder(src.getObjectKey())
+            .setFile(outputFile)
+            .createOptions();
+          startDownload(options, src.getObjectKey(), src.getSize().orElse(0L));
         }
       }
+    }
+  }
+
+
+  /**
+   * Download the selected files of a packed upload.  Archives whose files are all selected are
+   * downloaded as a whole and unpacked while they are downloaded, the selected files of other
+   * archives with ranged reads.
+   */
+  private void prepareUnpack(StoreFile indexObject, PackIndex index, Map<String, StoreFile> archives)
+    throws IOException
+  {
+    File destAbs = _destination.getAbsoluteFile();
+    String baseDirURI = Utils.getBaseDirURI(_options.getObjectKey());
+    String prefix = PackIndex.getPrefix(indexObject.getObjectKey());
+    String relPrefix = prefix.substring(baseDirURI.length());
 
-      if(!src.getObjectKey().endsWith("/"))
+    Map<Integer, List<PackIndex.Entry>> selected = new TreeMap<>();
+    Map<Integer, List<File>> outputFiles = new HashMap<>();
+    Map<Integer, Integer> entryCounts = new HashMap<>();
+    for(PackIndex.Entry entry : index.getEntries())
+    {
+      Integer count = entryCounts.get(entry.getArchive());
+      entryCounts.put(entry.getArchive(), (count == null) ? 1 : count + 1);
+
+      String relFile = relPrefix + entry.getPath();
+      if(!_filter.accepts(Paths.get(relFile)))
+      {
+        continue;
+      }
+      File outputFile = new File(destAbs, relFile);
+      prepareOutputFile(outputFile);
+      if(!selected.containsKey(entry.getArchive()))
       {
-        if(outputFile.exists())
+        selected.put(entry.getArchive(), new ArrayList<PackIndex.Entry>());
+        outputFiles.put(entry.getArchive(), new ArrayList<File>());
+      }
+      selected.get(entry.getArchive()).add(entry);
+      outputFiles.get(entry.getArchive()).add(outputFile);
+    }
+
+    for(Map.Entry<Integer, List<PackIndex.Entry>> archive : selected.entrySet())
+    {
+      String archiveKey = PackIndex.getArchiveKey(prefix, archive.getKey());
+      List<PackIndex.Entry> entries = archive.getValue();
+      List<File> files = outputFiles.get(archive.getKey());
+      if(_dryRun)
+      {
+        for(int i = 0; i < entries.size(); ++i)
+        {
+          _client.getOutput().println("<DRYRUN> unpacking '" + entries.get(i).getPath() + "' of '" +
+            getUri(_options.getBucketName(), archiveKey) + "' to '" +
+            files.get(i).getAbsolutePath() + "'");
+        }
+      }
+      else if(entries.size() == entryCounts.get(archive.getKey()))
+      {
+        for(File file : files)
         {
-          if(_options.doesOverwrite())
+          _filesToCleanup.add(file);
+          if(!file.createNewFile())
           {
-            if(_dryRun)
-            {
-              System.out.println(
-                "<DRYRUN> overwrite existing file '" + outputFile.getAbsolutePath() + "'");
-            }
-            else
-            {
-              if(!outputFile.delete())
-              {
-                throw new UsageException("Could not overwrite existing file '" + outputFile + "'");
-              }
-            }
+            throw new IOException("File '" + file + "' already exists");
           }
-          else
+        }
+        DownloadOptions options = newDownloadOptionsBuilder(archiveKey)
+          .setSink(new TarExtractSink(entries, files))
+          .createOptions();
+        StoreFile archiveObject = archives.get(archiveKey);
+        startDownload(options, archiveKey,
+          (archiveObject == null) ? 0 : archiveObject.getSize().orElse(0L));
+      }
+      else
+      {
+        for(int i = 0; i < entries.size(); ++i)
+        {
+          PackIndex.Entry entry = entries.get(i);
+          _filesToCleanup.add(files.get(i));
+          DownloadOptions options = newDownloadOptionsBuilder(archiveKey)
+            .setFile(files.get(i))
+            .setRange(entry.getOffset(), entry.getLength())
+            .createOptions();
+          startDownload(options, archiveKey, entry.getLength());
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Read the indexes of packed uploads.
+   */
+  private ListenableFuture<List<PackIndex>> loadIndexes(List<StoreFile> indexes)
+    throws IOException
+  {
+    List<ListenableFuture<PackIndex>> loaded = new ArrayList<>();
+    for(StoreFile index : indexes)
+    {
+      final byte[] bytes = new byte[(int) (long) index.getSize().orElse(0L)];
+      DownloadOptions options = _client.getOptionsBuilderFactory()
+        .newDownloadOptionsBuilder()
+        .setSink(new ByteArraySink(bytes))
+        .setBucketName(_options.getBucketName())
+        .setObjectKey(index.getObjectKey())
+        .createOptions();
+      loaded.add(Futures.transform(_client.download(options),
+        new AsyncFunction<StoreFile, PackIndex>()
+        {
+          public ListenableFuture<PackIndex> apply(StoreFile f)
+            throws IOException
           {
-            throw new UsageException(
-              "File '" + outputFile + "' already exists. Please delete or use --overwrite");
+            return Futures.immediateFuture(PackIndex.parse(bytes));
           }
-        }
+        }));
+    }
+    return Futures.allAsList(loaded);
+  }
+
+
+  private DownloadOptionsBuilder newDownloadOptionsBuilder(String key)
+  {
+    OverallProgressListenerFactory progressListenerFactory = (_session != null) ? _session :
+      _options.getOverallProgressListenerFactory().orElse(null);
+
+    return _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(key)
+      .setOverallProgressListenerFactory(progressListenerFactory);
+  }
+
+
+  private void startDownload(DownloadOptions options, String key, long size)
+    throws IOException
+  {
+    ListenableFuture<StoreFile> download = _client.download(options);
+    if(_session != null)
+    {
+      _session.addObject(size);
+      _session.track(getUri(_options.getBucketName(), key), size, download);
+    }
+    _futures.add(download);
+  }
+
+
+  private void prepareDirectory(File dir)
+  {
+    if(!dir.exists())
+    {
+      try
+      {
+        updateDirsToCleanup(Utils.mkdirs(dir, _dryRun));
+      }
+      catch(IOException ex)
+      {
+        throw new UsageException(
+          "Could not create directory '" + dir + "': " + ex.getMessage());
+      }
+    }
+  }
+
+
+  /**
+   * Create the directory of a file that is about to be downloaded, and delete the file if it
+   * exists and may be overwritten.
+   */
+  private void prepareOutputFile(File outputFile)
+  {
+    prepareDirectory(new File(outputFile.getParent()));
+    if(outputFile.exists())
+    {
+      if(_options.doesOverwrite())
+      {
         if(_dryRun)
         {
-          System.out.println(
-            "<DRYRUN> downloading '" + getUri(_options.getBucketName(), src.getObjectKey()) + "' to '" +
-              outputFile.getAbsolutePath() + "'");
+          _client.getOutput().println(
+            "<DRYRUN> overwrite existing file '" + outputFile.getAbsolutePath() + "'");
         }
         else
         {
-          _filesToCleanup.add(outputFile);
-
-          DownloadOptions options = _client.getOptionsBuilderFactory()
-            .newDownloadOptionsBuilder()
-            .setFile(outputFile)
-            .setBucketName(_options.getBucketName())
-            .setObjectKey(src.getObjectKey())
-            .setOverallProgressListenerFactory(
-              _options.getOverallProgressListenerFactory().orElse(null))
-            .createOptions();
-
-          _futures.add(_client.download(options));
+          if(!outputFile.delete())
+          {
+            throw new UsageException("Could not overwrite existing file '" + outputFile + "'");
+          }
         }
       }
+      else
+      {
+        throw new UsageException(
+          "File '" + outputFile + "' already exists. Please delete or use --overwrite");
+      }
     }
   }
 
@@ -0,0 +1,59 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Destination of a single object download other than a local file.  Parts are downloaded
+ * concurrently, so every part opens its own stream at the offset of the part.
+ */
+interface DownloadSink
+{
+  /**
+   * A sink that discards all data, for benchmarks that should not depend on the speed of the
+   * local disk.  Checksums are still validated.
+   */
+  DownloadSink NULL = new DownloadSink()
+  {
+    public OutputStream open(long position)
+    {
+      return new OutputStream()
+      {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+      };
+    }
+  };
+
+  /**
+   * Open a stream that writes the part starting at {@code position}.
+   *
+   * @param position offset of the first byte of the part
+   * @return stream for the part, closed by the caller
+   */
+  OutputStream open(long position)
+    throws IOException;
+}
@@ -0,0 +1,188 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes the ETag a storage service reports for a local file, without transferring the file.
+ * <p>
+ * The multipart ETag is the MD5 of the MD5 digests of the parts, so the parts are digested
+ * concurrently, one task per part, each reading its region of the file through a read-only
+ * memory mapping.  The ETag of a single-part object is the MD5 of the whole file, which cannot
+ * be split and is computed by one task.
+ */
+class ETagCalculator
+{
+  // regions larger than this are mapped in several windows
+  private static final long MAX_WINDOW = 256L * 1024 * 1024;
+
+  /**
+   * Return true if {@code etag} is the ETag of an object uploaded with the multipart protocol.
+   */
+  static boolean isMultipartETag(String etag)
+  {
+    return (etag.length() > 32) && (etag.charAt(32) == '-');
+  }
+
+  /**
+   * Return the number of parts of a multipart ETag.
+   */
+  static int getPartCount(String etag)
+  {
+    return Integer.parseInt(etag.substring(33));
+  }
+
+  /**
+   * Return the number of parts a file of {@code length} bytes is uploaded in with parts of
+   * {@code chunkSize} bytes.
+   */
+  static int getPartCount(long length, long chunkSize)
+  {
+    return length == 0 ? 1 : (int) ((length + chunkSize - 1) / chunkSize);
+  }
+
+  /**
+   * Compute the ETag of {@code file} as if it was uploaded with the multipart protocol and parts
+   * of {@code chunkSize} bytes.
+   *
+   * @param file      local file
+   * @param chunkSize size of the parts, from the {@code s3tool-chunk-size} metadata of the object
+   * @param executor  executor to digest the parts on
+   * @return future multipart ETag
+   */
+  static ListenableFuture<String> computeMultipartETag(
+    File file, long chunkSize, ListeningExecutorService executor)
+  {
+    return Futures.transform(computePartDigests(file, chunkSize, executor),
+      new Function<List<byte[]>, String>()
+      {
+        public String apply(List<byte[]> partDigests)
+        {
+          return Utils.getMultipartETag(partDigests);
+        }
+      });
+  }
+
+  /**
+   * Compute the MD5 digests of the parts of {@code file} with parts of {@code chunkSize} bytes.
+   *
+   * @param file      local file
+   * @param chunkSize size of the parts
+   * @param executor  executor to digest the parts on
+   * @return future binary MD5 digests of the parts, in part number order
+   */
+  static ListenableFuture<List<byte[]>> computePartDigests(
+    final File file, long chunkSize, ListeningExecutorService executor)
+  {
+    final long length = file.length();
+    int partCount = getPartCount(length, chunkSize);
+    List<ListenableFuture<byte[]>> parts = new ArrayList<>(partCount);
+    for(int i = 0; i < partCount; ++i)
+    {
+      final long start = i * chunkSize;
+      final long size = Math.min(chunkSize, length - start);
+      parts.add(executor.submit(new Callable<byte[]>()
+      {
+        public byte[] call()
+          throws IOException
+        {
+          return digest(file, start, size);
+        }
+      }));
+    }
+    return Futures.allAsList(parts);
+  }
+
+  /**
+   * Compute the MD5 of {@code file}, the ETag of an object uploaded in a single part.
+   *
+   * @param file     local file
+   * @param executor executor to digest the file on
+   * @return future hex MD5
+   */
+  static ListenableFuture<String> computeMD5(final File file, ListeningExecutorService executor)
+  {
+    return executor.submit(new Callable<String>()
+    {
+      public String call()
+        throws IOException
+      {
+        return Hex.encodeHexString(digest(file, 0, file.length()));
+      }
+    });
+  }
+
+  /**
+   * Compute the ETag of {@code file} that can be compared with {@code remoteETag}, or return
+   * null if it cannot be computed because a multipart ETag has a part count that does not
+   * match {@code chunkSize}, or because the chunk size is not known.
+   *
+   * @param chunkSize size of the parts of the object, or -1 if not known
+   */
+  static ListenableFuture<String> computeETag(
+    File file, String remoteETag, long chunkSize, ListeningExecutorService executor)
+  {
+    if(!isMultipartETag(remoteETag))
+    {
+      return computeMD5(file, executor);
+    }
+    if(chunkSize <= 0 || getPartCount(file.length(), chunkSize) != getPartCount(remoteETag))
+    {
+      return Futures.immediateFuture(null);
+    }
+    return computeMultipartETag(file, chunkSize, executor);
+  }
+
+  private static byte[] digest(File file, long start, long size)
+    throws IOException
+  {
+    MessageDigest md = DigestUtils.getMd5Digest();
+    try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      if(start + size > channel.size())
+      {
+        throw new IOException("File '" + file + "' changed while it was read");
+      }
+      long position = start;
+      long end = start + size;
+      while(position < end)
+      {
+        long window = Math.min(MAX_WINDOW, end - position);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+        md.update(buffer);
+        position += window;
+      }
+    }
+    return md.digest();
+  }
+}
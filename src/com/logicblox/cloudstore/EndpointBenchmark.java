@@ -0,0 +1,448 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the throughput of a storage service endpoint with upload, download, copy, list and
+ * delete workloads, for the {@code bench} command.
+ * <p>
+ * Objects are uploaded from a {@link SyntheticUploadSource} and downloaded to
+ * {@link DownloadSink#NULL}, so the local disk is not part of the measurement.  Every workload
+ * keeps a fixed number of operations in flight and records the latency of every operation in a
+ * {@link LatencyHistogram}.  All objects are created under a fresh prefix and deleted at the
+ * end, unless they are kept explicitly.
+ */
+class EndpointBenchmark
+{
+  static final List<String> WORKLOADS = Arrays.asList("upload", "download", "copy", "list",
+    "delete");
+
+  private final CloudStoreClient _client;
+  private final String _bucket;
+  private final String _prefix;
+  private final Set<String> _workloads;
+  private final int _objects;
+  private final SizeDistribution _sizes;
+  private final int _concurrency;
+  private final long _chunkSize;
+  private final int _listRepeat;
+  private final long _seed;
+  private final boolean _keep;
+
+  /**
+   * @param prefix    key prefix under which a directory for the benchmark objects is created
+   * @param workloads workloads to report, a subset of {@link #WORKLOADS}.  Objects are always
+   *                  uploaded first, and deleted at the end unless {@code keep} is set.
+   * @param chunkSize chunk size of uploads, or -1 to determine it per object
+   */
+  EndpointBenchmark(
+    CloudStoreClient client, String bucket, String prefix, List<String> workloads, int objects,
+    SizeDistribution sizes, int concurrency, long chunkSize, int listRepeat, long seed,
+    boolean keep)
+  {
+    for(String workload : workloads)
+    {
+      if(!WORKLOADS.contains(workload))
+      {
+        throw new UsageException(
+          "Unknown workload '" + workload + "', expected one of " + String.join(", ", WORKLOADS));
+      }
+    }
+    if(keep && workloads.contains("delete"))
+    {
+      throw new UsageException("The delete workload cannot be combined with --keep");
+    }
+    if(objects < 1 || concurrency < 1 || listRepeat < 1)
+    {
+      throw new UsageException("Number of objects, concurrency and list repeat must be positive");
+    }
+
+    _client = client;
+    _bucket = bucket;
+    _prefix = (prefix.isEmpty() || prefix.endsWith("/")) ? prefix : prefix + "/";
+    _workloads = new LinkedHashSet<>(workloads);
+    _objects = objects;
+    _sizes = sizes;
+    _concurrency = concurrency;
+    _chunkSize = chunkSize;
+    _listRepeat = listRepeat;
+    _seed = seed;
+    _keep = keep;
+  }
+
+  void run(PrintStream out)
+    throws Exception
+  {
+    final String dir = _prefix + "cloud-store-bench-" + System.currentTimeMillis() + "/";
+    final long[] sizes = new long[_objects];
+    Random random = new Random(_seed);
+    long totalSize = 0;
+    for(int i = 0; i < _objects; ++i)
+    {
+      sizes[i] = _sizes.sample(random);
+      totalSize += sizes[i];
+    }
+
+    out.println("Benchmarking " + Utils.getURI(_client.getScheme(), _bucket, dir) + " with " +
+      _objects + " objects of " + _sizes + " (" + formatSize(totalSize) + " total), " +
+      "concurrency " + _concurrency + ", chunk size " +
+      ((_chunkSize == -1) ? "auto" : formatSize(_chunkSize)));
+
+    List<Result> results = new ArrayList<>();
+    final List<String> created = new ArrayList<>();
+    try
+    {
+      Result upload = runWorkload("upload", _objects, i -> {
+        UploadOptions options = _client.getOptionsBuilderFactory()
+          .newUploadOptionsBuilder()
+          .setSource(new SyntheticUploadSource(sizes[i], _seed + i))
+          .setBucketName(_bucket)
+          .setObjectKey(objectKey(dir, i))
+          .setChunkSize(_chunkSize)
+          .createOptions();
+        return _client.upload(options);
+      }, sizes);
+      results.add(upload);
+      for(int i = 0; i < _objects; ++i)
+      {
+        created.add(objectKey(dir, i));
+      }
+      if(upload.errors.get() > 0)
+      {
+        throw new Exception("Upload of benchmark objects failed: " + upload.firstError);
+      }
+
+      if(_workloads.contains("download"))
+      {
+        results.add(runWorkload("download", _objects, i -> {
+          DownloadOptions options = _client.getOptionsBuilderFactory()
+            .newDownloadOptionsBuilder()
+            .setSink(DownloadSink.NULL)
+            .setBucketName(_bucket)
+            .setObjectKey(objectKey(dir, i))
+            .createOptions();
+          return _client.download(options);
+        }, sizes));
+      }
+
+      if(_workloads.contains("copy"))
+      {
+        for(int i = 0; i < _objects; ++i)
+        {
+          created.add(copyKey(dir, i));
+        }
+        results.add(runWorkload("copy", _objects, i -> {
+          CopyOptions options = _client.getOptionsBuilderFactory()
+            .newCopyOptionsBuilder()
+            .setSourceBucketName(_bucket)
+            .setSourceObjectKey(objectKey(dir, i))
+            .setDestinationBucketName(_bucket)
+            .setDestinationObjectKey(copyKey(dir, i))
+            .createOptions();
+          return _client.copy(options);
+        }, sizes));
+      }
+
+      if(_workloads.contains("list"))
+      {
+        results.add(runWorkload("list", _listRepeat, i -> {
+          ListOptions options = _client.getOptionsBuilderFactory()
+            .newListOptionsBuilder()
+            .setBucketName(_bucket)
+            .setObjectKey(dir)
+            .setRecursive(true)
+            .createOptions();
+          return _client.listObjects(options);
+        }, null));
+      }
+    }
+    finally
+    {
+      if(!_keep && !created.isEmpty())
+      {
+        Result delete = runWorkload("delete", created.size(), i -> {
+          DeleteOptions options = _client.getOptionsBuilderFactory()
+            .newDeleteOptionsBuilder()
+            .setBucketName(_bucket)
+            .setObjectKey(created.get(i))
+            .createOptions();
+          return _client.delete(options);
+        }, null);
+        if(_workloads.contains("delete"))
+        {
+          results.add(delete);
+        }
+        if(delete.errors.get() > 0)
+        {
+          _client.getErrorOutput().println("Warning: Could not delete all benchmark objects: " +
+            delete.firstError);
+        }
+      }
+    }
+
+    if(!_workloads.contains("upload"))
+    {
+      results.remove(0);
+    }
+    printResults(out, results);
+  }
+
+  private static String objectKey(String dir, int i)
+  {
+    return String.format("%sobject-%06d", dir, i);
+  }
+
+  private static String copyKey(String dir, int i)
+  {
+    return String.format("%scopy/object-%06d", dir, i);
+  }
+
+  /**
+   * Start {@code count} operations, keeping at most {@code _concurrency} of them in flight.
+   *
+   * @param sizes bytes transferred by each operation, or null
+   */
+  private Result runWorkload(String name, int count, Operation operation, final long[] sizes)
+    throws InterruptedException
+  {
+    final Result result = new Result(name);
+    final Semaphore permits = new Semaphore(_concurrency);
+    long start = System.nanoTime();
+    for(int i = 0; i < count; ++i)
+    {
+      permits.acquire();
+      final int index = i;
+      final long opStart = System.nanoTime();
+      ListenableFuture<?> future;
+      try
+      {
+        future = operation.start(i);
+      }
+      catch(Exception e)
+      {
+        future = Futures.immediateFailedFuture(e);
+      }
+      Futures.addCallback(future, new FutureCallback<Object>()
+      {
+        public void onSuccess(Object ignored)
+        {
+          result.latency.record((System.nanoTime() - opStart) / 1000);
+          result.bytes.addAndGet((sizes == null) ? 0 : sizes[index]);
+          permits.release();
+        }
+
+        public void onFailure(Throwable t)
+        {
+          result.errors.incrementAndGet();
+          result.firstError.compareAndSet(null, String.valueOf(t.getMessage()));
+          permits.release();
+        }
+      });
+    }
+    permits.acquire(_concurrency);
+    permits.release(_concurrency);
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+
+  private static void printResults(PrintStream out, List<Result> results)
+  {
+    String header = "%-10s %8s %7s %10s %10s %10s %10s %10s %10s%n";
+    String row = "%-10s %8d %7d %10.2f %10.2f %10.1f %10.1f %10.1f %10.1f%n";
+    out.println();
+    out.format(Locale.US, header, "workload", "ops", "errors", "MB/s", "ops/s", "p50 ms",
+      "p90 ms", "p99 ms", "max ms");
+    for(Result r : results)
+    {
+      double seconds = r.nanos / 1e9;
+      LatencyHistogram h = r.latency;
+      out.format(Locale.US, row, r.name, h.getCount(), r.errors.get(),
+        r.bytes.get() / (1024.0 * 1024.0) / seconds, h.getCount() / seconds,
+        h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0,
+        h.getPercentile(99) / 1000.0, h.getMax() / 1000.0);
+    }
+    for(Result r : results)
+    {
+      if(r.firstError.get() != null)
+      {
+        out.println("First " + r.name + " error: " + r.firstError.get());
+      }
+    }
+  }
+
+  static String formatSize(long bytes)
+  {
+    String[] units = {"B", "KB", "MB", "GB", "TB"};
+    int unit = 0;
+    double value = bytes;
+    while(value >= 1024 && unit < units.length - 1 && value % 1024 == 0)
+    {
+      value /= 1024;
+      unit++;
+    }
+    return ((value == Math.floor(value)) ? Long.toString((long) value) :
+      String.format(Locale.US, "%.1f", value)) + units[unit];
+  }
+
+  /**
+   * Parse a size like "512", "64KB", "5MB" or "1GB" (powers of 1024).
+   */
+  static long parseSize(String size)
+  {
+    String s = size.trim().toUpperCase(Locale.US);
+    long multiplier = 1;
+    String[] units = {"KB", "MB", "GB", "TB"};
+    for(int i = 0; i < units.length; ++i)
+    {
+      if(s.endsWith(units[i]) || s.endsWith(units[i].substring(0, 1)))
+      {
+        multiplier = 1L << (10 * (i + 1));
+        s = s.substring(0, s.length() - (s.endsWith(units[i]) ? 2 : 1));
+        break;
+      }
+    }
+    if(s.endsWith("B"))
+    {
+      s = s.substring(0, s.length() - 1);
+    }
+    try
+    {
+      long value = Long.parseLong(s.trim()) * multiplier;
+      if(value < 0)
+      {
+        throw new NumberFormatException();
+      }
+      return value;
+    }
+    catch(NumberFormatException e)
+    {
+      throw new UsageException("Invalid size '" + size + "'");
+    }
+  }
+
+  private interface Operation
+  {
+    ListenableFuture<?> start(int index)
+      throws Exception;
+  }
+
+  private static class Result
+  {
+    final String name;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicInteger errors = new AtomicInteger();
+    final AtomicReference<String> firstError = new AtomicReference<>();
+    long nanos;
+
+    Result(String name)
+    {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Distribution of object sizes, given as a single size or as comma-separated size:weight
+   * pairs, e.g. "4KB:50,1MB:40,64MB:10".
+   */
+  static class SizeDistribution
+  {
+    private final long[] _sizes;
+    private final double[] _cumulative;
+    private final String _spec;
+
+    private SizeDistribution(long[] sizes, double[] cumulative, String spec)
+    {
+      _sizes = sizes;
+      _cumulative = cumulative;
+      _spec = spec;
+    }
+
+    static SizeDistribution parse(String spec)
+    {
+      String[] entries = spec.split(",");
+      long[] sizes = new long[entries.length];
+      double[] cumulative = new double[entries.length];
+      double total = 0;
+      for(int i = 0; i < entries.length; ++i)
+      {
+        String[] parts = entries[i].split(":");
+        if(parts.length > 2)
+        {
+          throw new UsageException("Invalid object size distribution '" + spec + "'");
+        }
+        sizes[i] = parseSize(parts[0]);
+        double weight;
+        try
+        {
+          weight = (parts.length == 2) ? Double.parseDouble(parts[1]) : 1;
+        }
+        catch(NumberFormatException e)
+        {
+          throw new UsageException("Invalid weight in object size distribution '" + spec + "'");
+        }
+        if(weight <= 0)
+        {
+          throw new UsageException("Weights of object sizes must be positive");
+        }
+        total += weight;
+        cumulative[i] = total;
+      }
+      for(int i = 0; i < cumulative.length; ++i)
+      {
+        cumulative[i] /= total;
+      }
+      return new SizeDistribution(sizes, cumulative, spec);
+    }
+
+    long sample(Random random)
+    {
+      double r = random.nextDouble();
+      for(int i = 0; i < _cumulative.length - 1; ++i)
+      {
+        if(r < _cumulative[i])
+        {
+          return _sizes[i];
+        }
+      }
+      return _sizes[_sizes.length - 1];
+    }
+
+    @Override
+    public String toString()
+    {
+      return _spec;
+    }
+  }
+}
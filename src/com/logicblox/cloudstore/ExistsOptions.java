@@ -16,6 +16,7 @@
 
 package com.logicblox.cloudstore;
 
+import java.util.Optional;
 
 /**
  * {@code ExistsOptions} contains all the details needed by the exists operation.
@@ -30,12 +31,15 @@ public class ExistsOptions
 {
   private final String _bucket;
   private final String _objectKey;
+  private final String _version;
 
-  ExistsOptions(CloudStoreClient cloudStoreClient, String bucket, String objectKey)
+  ExistsOptions(
+    CloudStoreClient cloudStoreClient, String bucket, String objectKey, String version)
   {
     super(cloudStoreClient);
     _bucket = bucket;
     _objectKey = objectKey;
+    _version = version;
   }
 
   /**
@@ -57,4 +61,14 @@ public class ExistsOptions
   {
     return _objectKey;
   }
+
+  /**
+   * Return the version of the file to check.
+   *
+   * @return optional version id
+   */
+  public Optional<String> getVersion()
+  {
+    return Optional.ofNullable(_version);
+  }
 }
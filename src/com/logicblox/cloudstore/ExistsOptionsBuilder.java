@@ -32,6 +32,7 @@ public class ExistsOptionsBuilder
 {
   private String _bucket;
   private String _objectKey;
+  private String _version;
 
   ExistsOptionsBuilder(CloudStoreClient client)
   {
@@ -62,6 +63,18 @@ public class ExistsOptionsBuilder
     return this;
   }
 
+  /**
+   * Set the version of the file to check.  The latest version is checked if none is set.
+   *
+   * @param version version id
+   * @return this builder
+   */
+  public ExistsOptionsBuilder setVersion(String version)
+  {
+    _version = version;
+    return this;
+  }
+
   private void validateOptions()
   {
     if(_cloudStoreClient == null)
@@ -89,6 +102,6 @@ public class ExistsOptionsBuilder
   {
     validateOptions();
 
-    return new ExistsOptions(_cloudStoreClient, _bucket, _objectKey);
+    return new ExistsOptions(_cloudStoreClient, _bucket, _objectKey, _version);
   }
 }
@@ -0,0 +1,165 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uploads one file to several destinations at the same time, for instance to replicate it to
+ * buckets in different regions or services.  Every destination may use its own {@link
+ * CloudStoreClient}, and is a complete upload of its own, with its own retries, encryption key
+ * and checksum validation.  The uploads read the file through a {@link SharedFileSource}, so
+ * every part is read from disk once and sent to all destinations from memory.
+ * <p>
+ * The destinations fail independently: a destination that fails does not cancel the others.
+ * {@link #start()} returns a future that completes when every destination has completed or
+ * failed, and {@link #getUploads()} the future of every destination.
+ * <p>
+ * Parts are encrypted and hashed for every destination, because every encrypted upload has its
+ * own data key, and the checksum of every part is validated against the response of its
+ * destination.  Progress listeners, delta uploads and compression are not supported.
+ *
+ * @see FanOutUploadBuilder
+ */
+public class FanOutUpload
+{
+  private final File _file;
+  private final List<FanOutUploadBuilder.Destination> _destinations;
+  private final long _chunkSize;
+  private final long _maxBufferedBytes;
+  private List<ListenableFuture<StoreFile>> _uploads;
+  private SharedFileSource _source;
+
+  FanOutUpload(
+    File file, List<FanOutUploadBuilder.Destination> destinations, long chunkSize,
+    long maxBufferedBytes)
+  {
+    _file = file;
+    _destinations = destinations;
+    _chunkSize = chunkSize;
+    _maxBufferedBytes = maxBufferedBytes;
+  }
+
+  /**
+   * Start the uploads to all destinations.
+   *
+   * @return future of the uploaded objects in the order of the destinations, with null for
+   * destinations that failed
+   */
+  public synchronized ListenableFuture<List<StoreFile>> start()
+    throws IOException
+  {
+    if(_uploads != null)
+    {
+      throw new IllegalStateException("Fan-out upload has already been started");
+    }
+    else if(!_file.isFile())
+    {
+      throw new FileNotFoundException(_file.getPath());
+    }
+
+    // all destinations use the same part size, so that their parts read the same blocks
+    long length = _file.length();
+    long chunkSize = (_chunkSize > 0) ? _chunkSize : Utils.getDefaultChunkSize(length);
+    _source = new SharedFileSource(_file, chunkSize, _destinations.size(), _maxBufferedBytes);
+
+    List<ListenableFuture<StoreFile>> uploads = new ArrayList<>();
+    for(int i = 0; i < _destinations.size(); ++i)
+    {
+      ListenableFuture<StoreFile> upload = startUpload(_destinations.get(i), i, chunkSize);
+      final int view = i;
+      Futures.addCallback(upload, new FutureCallback<StoreFile>()
+      {
+        public void onSuccess(StoreFile f)
+        {
+          _source.detach(view);
+        }
+
+        public void onFailure(Throwable t)
+        {
+          _source.detach(view);
+        }
+      });
+      uploads.add(upload);
+    }
+    _uploads = Collections.unmodifiableList(uploads);
+    return Futures.successfulAsList(_uploads);
+  }
+
+  /**
+   * Return the future of the upload to every destination, in the order of the destinations.
+   * The future of a destination that failed holds its exception.
+   *
+   * @throws IllegalStateException if the upload has not been started
+   */
+  public synchronized List<ListenableFuture<StoreFile>> getUploads()
+  {
+    if(_uploads == null)
+    {
+      throw new IllegalStateException("Fan-out upload has not been started");
+    }
+    return _uploads;
+  }
+
+  /**
+   * Return the number of bytes that were read from the file.  This is the length of the file,
+   * unless parts were retried after every destination had read them, or destinations fell
+   * behind by more than the buffer.
+   */
+  public synchronized long getBytesRead()
+  {
+    return (_source == null) ? 0 : _source.getBytesRead();
+  }
+
+  private ListenableFuture<StoreFile> startUpload(
+    FanOutUploadBuilder.Destination destination, int view, long chunkSize)
+  {
+    try
+    {
+      CloudStoreClient client = destination.getClient();
+      UploadOptionsBuilder builder = client.getOptionsBuilderFactory()
+        .newUploadOptionsBuilder()
+        .setSource(_source.getView(view))
+        .setBucketName(destination.getBucketName())
+        .setObjectKey(destination.getObjectKey())
+        .setChunkSize(chunkSize);
+      if(destination.getEncKey() != null)
+      {
+        builder.setEncKey(destination.getEncKey());
+      }
+      if(destination.getCannedAcl() != null)
+      {
+        builder.setCannedAcl(destination.getCannedAcl());
+      }
+      return client.upload(builder.createOptions());
+    }
+    catch(IOException | RuntimeException exc)
+    {
+      // a destination that cannot be started must not stop the others
+      return Futures.immediateFailedFuture(exc);
+    }
+  }
+}
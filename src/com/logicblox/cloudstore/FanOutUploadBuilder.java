@@ -0,0 +1,156 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a {@link FanOutUpload} of a file to one or more destinations.
+ */
+public class FanOutUploadBuilder
+{
+  public static final long DEFAULT_MAX_BUFFERED_BYTES = 128 * 1024 * 1024;
+
+  private File _file;
+  private final List<Destination> _destinations = new ArrayList<>();
+  private long _chunkSize = -1;
+  private long _maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+
+  public FanOutUploadBuilder setFile(File file)
+  {
+    _file = file;
+    return this;
+  }
+
+  public FanOutUploadBuilder addDestination(
+    CloudStoreClient client, String bucket, String objectKey)
+  {
+    return addDestination(client, bucket, objectKey, null, null);
+  }
+
+  /**
+   * Add a destination.
+   *
+   * @param client    client of the storage service of the destination
+   * @param encKey    name of the key to encrypt the object with, or null
+   * @param cannedAcl canned ACL of the object, or null for the default of the client
+   */
+  public FanOutUploadBuilder addDestination(
+    CloudStoreClient client, String bucket, String objectKey, String encKey, String cannedAcl)
+  {
+    _destinations.add(new Destination(client, bucket, objectKey, encKey, cannedAcl));
+    return this;
+  }
+
+  /**
+   * Set the part size of all uploads.  By default it depends on the size of the file.
+   */
+  public FanOutUploadBuilder setChunkSize(long chunkSize)
+  {
+    _chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Set how many bytes of the file may be kept in memory for destinations that have not read
+   * them yet.  Parts beyond that are read from disk by every destination.  The default is 128
+   * MB.
+   */
+  public FanOutUploadBuilder setMaxBufferedBytes(long maxBufferedBytes)
+  {
+    _maxBufferedBytes = maxBufferedBytes;
+    return this;
+  }
+
+  public FanOutUpload createFanOutUpload()
+  {
+    if(_file == null)
+    {
+      throw new UsageException("File has to be set");
+    }
+    else if(_destinations.isEmpty())
+    {
+      throw new UsageException("At least one destination has to be added");
+    }
+    else if(_maxBufferedBytes < 0)
+    {
+      throw new UsageException("Buffer size cannot be negative");
+    }
+    for(Destination d : _destinations)
+    {
+      if(d._client == null)
+      {
+        throw new UsageException("Client of destination has to be set");
+      }
+      else if(d._bucket == null || d._objectKey == null)
+      {
+        throw new UsageException("Bucket and object key of destination have to be set");
+      }
+    }
+    return new FanOutUpload(_file, new ArrayList<>(_destinations), _chunkSize,
+      _maxBufferedBytes);
+  }
+
+  /**
+   * A destination of a fan-out upload.
+   */
+  static class Destination
+  {
+    private final CloudStoreClient _client;
+    private final String _bucket;
+    private final String _objectKey;
+    private final String _encKey;
+    private final String _cannedAcl;
+
+    Destination(
+      CloudStoreClient client, String bucket, String objectKey, String encKey, String cannedAcl)
+    {
+      _client = client;
+      _bucket = bucket;
+      _objectKey = objectKey;
+      _encKey = encKey;
+      _cannedAcl = cannedAcl;
+    }
+
+    CloudStoreClient getClient()
+    {
+      return _client;
+    }
+
+    String getBucketName()
+    {
+      return _bucket;
+    }
+
+    String getObjectKey()
+    {
+      return _objectKey;
+    }
+
+    String getEncKey()
+    {
+      return _encKey;
+    }
+
+    String getCannedAcl()
+    {
+      return _cannedAcl;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link UploadSource} for a local file.
+ */
+class FileUploadSource
+  implements UploadSource
+{
+  private final File _file;
+
+  FileUploadSource(File file)
+  {
+    _file = file;
+  }
+
+  public long getLength()
+  {
+    return _file.length();
+  }
+
+  public InputStream open(long position)
+    throws IOException
+  {
+    FileInputStream fs = new FileInputStream(_file);
+    long skipped = fs.skip(position);
+    while(skipped < position)
+    {
+      skipped += fs.skip(position - skipped);
+    }
+    return new BufferedInputStream(fs);
+  }
+
+  public String getDescription()
+  {
+    return _file.getAbsolutePath();
+  }
+}
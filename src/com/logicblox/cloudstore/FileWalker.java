@@ -0,0 +1,171 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Walks a directory tree in parallel and passes every file to a {@link Visitor} as soon as it
+ * is found, so that work on the first files overlaps with walking the rest of the tree, and the
+ * tree never has to be held in memory.
+ * <p>
+ * Every directory is listed by its own fork/join task.  Symbolic links are skipped, to files as
+ * well as to directories.  Paths relative to the root are selected by a {@link PathFilter}, and
+ * excluded directories are not walked at all.
+ * <p>
+ * The visitor is called concurrently from the threads of the walk.  The walk stops at the
+ * first exception, of the visitor or of listing a directory, and rethrows it.
+ */
+class FileWalker
+{
+  /**
+   * Receives the files found by a walk.
+   */
+  interface Visitor
+  {
+    /**
+     * @param file    file that was found
+     * @param relPath path of the file relative to the root of the walk
+     */
+    void visit(File file, String relPath)
+      throws IOException;
+  }
+
+  private final PathFilter _filter;
+  private final int _parallelism;
+
+  /**
+   * @param filter      selects the files to visit
+   * @param parallelism number of directories that are listed at the same time
+   */
+  FileWalker(PathFilter filter, int parallelism)
+  {
+    _filter = filter;
+    _parallelism = parallelism;
+  }
+
+  /**
+   * Walk the tree below {@code root} and return when every file has been visited.
+   */
+  void walk(File root, Visitor visitor)
+    throws IOException
+  {
+    Walk walk = new Walk(root.toPath(), visitor);
+    ForkJoinPool pool = new ForkJoinPool(_parallelism);
+    try
+    {
+      pool.invoke(walk.new DirectoryTask(walk._root));
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+
+    Throwable failure = walk._failure.get();
+    if(failure instanceof IOException)
+    {
+      throw (IOException) failure;
+    }
+    else if(failure != null)
+    {
+      throw (RuntimeException) failure;
+    }
+  }
+
+  private class Walk
+  {
+    final Path _root;
+    final Visitor _visitor;
+    final AtomicReference<Throwable> _failure = new AtomicReference<>();
+
+    Walk(Path root, Visitor visitor)
+    {
+      _root = root;
+      _visitor = visitor;
+    }
+
+    class DirectoryTask
+      extends RecursiveAction
+    {
+      private static final long serialVersionUID = 1L;
+
+      private final Path _dir;
+
+      DirectoryTask(Path dir)
+      {
+        _dir = dir;
+      }
+
+      @Override
+      protected void compute()
+      {
+        List<DirectoryTask> subdirs = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(_dir))
+        {
+          for(Path path : stream)
+          {
+            if(_failure.get() != null)
+            {
+              break;
+            }
+            Path relPath = _root.relativize(path);
+            if(_filter.isExcluded(relPath))
+            {
+              continue;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class,
+              LinkOption.NOFOLLOW_LINKS);
+            if(attrs.isSymbolicLink())
+            {
+              continue;
+            }
+            else if(attrs.isDirectory())
+            {
+              DirectoryTask task = new DirectoryTask(path);
+              task.fork();
+              subdirs.add(task);
+            }
+            else if(_filter.isIncluded(relPath))
+            {
+              _visitor.visit(path.toFile(), relPath.toString());
+            }
+          }
+        }
+        catch(IOException | RuntimeException exc)
+        {
+          _failure.compareAndSet(null, exc);
+        }
+
+        for(DirectoryTask task : subdirs)
+        {
+          task.join();
+        }
+      }
+    }
+  }
+}
@@ -26,11 +26,15 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -45,7 +49,7 @@ import java.util.concurrent.ExecutionException;
 public class GCSClient
   implements CloudStoreClient
 {
-  private static final String _GCS_XML_API_ENDPOINT = "https://storage.googleapis.com";
+  static final String GCS_XML_API_ENDPOINT = "https://storage.googleapis.com";
 
 
   private final Storage _gcsClient;
@@ -59,15 +63,21 @@ public class GCSClient
    * @param apiExecutor       Executor for executing GCS API calls
    * @param internalExecutor  Executor for internally initiating uploads
    * @param keyProvider       Provider of encryption keys
+   * @param resources         Resources shared with other clients, or null
    */
   GCSClient(
     Storage internalGCSClient, AmazonS3 internalS3Client,
     ListeningExecutorService apiExecutor, ListeningScheduledExecutorService internalExecutor,
-    KeyProvider keyProvider)
+    KeyProvider keyProvider, ClientResources resources)
   {
-    _s3Client = new S3ClientDelegatee(internalS3Client, apiExecutor, internalExecutor, keyProvider);
+    _s3Client = new S3ClientDelegatee(internalS3Client, apiExecutor, internalExecutor, keyProvider,
+      resources);
     _gcsClient = internalGCSClient;
-    setEndpoint(_GCS_XML_API_ENDPOINT);
+    // a shared internal client already has its endpoint, and others may be using it
+    if(resources == null)
+    {
+      setEndpoint(GCS_XML_API_ENDPOINT);
+    }
     _aclHandler = new GCSAclHandler(_gcsClient, internalS3Client);
     _storageClassHandler = new GCSStorageClassHandler();
   }
@@ -87,6 +97,18 @@ public class GCSClient
     "choose one of: projectPrivate, private, publicRead, publicReadWrite," +
     " authenticatedRead, allAuthenticatedUsers, bucketOwnerRead, bucketOwnerFullControl.";
 
+  /**
+   * Set how long the result of {@link #exists(ExistsOptions)} is reused.
+   *
+   * @param ttl  time to reuse metadata for
+   * @param unit unit of {@code ttl}
+   * @see S3Client#setMetadataCacheTtl(long, TimeUnit)
+   */
+  public void setMetadataCacheTtl(long ttl, TimeUnit unit)
+  {
+    _s3Client.setMetadataCacheTtl(ttl, unit);
+  }
+
   @Override
   public void setRetryCount(int retryCount)
   {
@@ -105,6 +127,24 @@ public class GCSClient
     _s3Client.setEndpoint(endpoint);
   }
 
+  @Override
+  public void setOutput(PrintStream out, PrintStream err)
+  {
+    _s3Client.setOutput(out, err);
+  }
+
+  @Override
+  public PrintStream getOutput()
+  {
+    return _s3Client.getOutput();
+  }
+
+  @Override
+  public PrintStream getErrorOutput()
+  {
+    return _s3Client.getErrorOutput();
+  }
+
   @Override
   public String getScheme()
   {
@@ -135,6 +175,12 @@ public class GCSClient
     return _s3Client.getKeyProvider();
   }
 
+  @Override
+  public ClientMetrics getMetrics()
+  {
+    return _s3Client.getMetrics();
+  }
+
   @Override
   public AclHandler getAclHandler()
   {
@@ -229,6 +275,27 @@ public class GCSClient
     return _s3Client.download(options);
   }
 
+  @Override
+  public ListenableFuture<byte[]> read(ReadOptions options)
+    throws IOException
+  {
+    return _s3Client.read(options);
+  }
+
+  @Override
+  public ListenableFuture<List<ByteBuffer>> readVectored(VectoredReadOptions options)
+    throws IOException
+  {
+    return _s3Client.readVectored(options);
+  }
+
+  @Override
+  public ListenableFuture<SeekableByteChannel> open(OpenOptions options)
+    throws IOException
+  {
+    return _s3Client.open(options);
+  }
+
   @Override
   public ListenableFuture<List<StoreFile>> downloadRecursively(DownloadOptions options)
     throws IOException, ExecutionException, InterruptedException
@@ -249,6 +316,12 @@ public class GCSClient
     return _s3Client.copyRecursively(options);
   }
 
+  @Override
+  public ListenableFuture<StoreFile> concat(ConcatOptions options)
+  {
+    return _s3Client.concat(options);
+  }
+
   @Override
   public ListenableFuture<StoreFile> rename(RenameOptions options)
   {
@@ -262,6 +335,20 @@ public class GCSClient
     return _s3Client.renameRecursively(options);
   }
 
+  @Override
+  public ListenableFuture<List<StoreFile>> sync(SyncOptions options)
+    throws IOException, ExecutionException, InterruptedException
+  {
+    return _s3Client.sync(options);
+  }
+
+  @Override
+  public ListenableFuture<List<VerifyResult>> verify(VerifyOptions options)
+    throws IOException
+  {
+    return _s3Client.verify(options);
+  }
+
   @Override
   public ListenableFuture<List<StoreFile>> listObjects(ListOptions lsOptions)
   {
@@ -305,9 +392,10 @@ public class GCSClient
   {
     public S3ClientDelegatee(
       AmazonS3 internalS3Client, ListeningExecutorService apiExecutor,
-      ListeningScheduledExecutorService internalExecutor, KeyProvider keyProvider)
+      ListeningScheduledExecutorService internalExecutor, KeyProvider keyProvider,
+      ClientResources resources)
     {
-      super(internalS3Client, apiExecutor, internalExecutor, keyProvider);
+      super(internalS3Client, apiExecutor, internalExecutor, keyProvider, resources);
     }
 
     void configure(Command cmd)
@@ -330,7 +418,8 @@ public class GCSClient
     {
       GCSUploadCommand cmd = new GCSUploadCommand(options);
       _s3Client.configure(cmd);
-      return cmd.run();
+      return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+        options.getObjectKey(), false);
     }
 
     /**
@@ -344,7 +433,8 @@ public class GCSClient
     {
       UploadRecursivelyCommand cmd = new UploadRecursivelyCommand(options);
       _s3Client.configure(cmd);
-      return cmd.run();
+      return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+        options.getObjectKey(), true);
     }
 
     @Override
@@ -360,7 +450,8 @@ public class GCSClient
     {
       GCSCopyCommand cmd = new GCSCopyCommand(options);
       configure(cmd);
-      return cmd.run();
+      return _metadataCache.invalidateAfter(cmd.run(), options.getDestinationBucketName(),
+        options.getDestinationObjectKey(), false);
     }
 
     @Override
@@ -369,7 +460,17 @@ public class GCSClient
     {
       GCSCopyRecursivelyCommand cmd = new GCSCopyRecursivelyCommand(options);
       configure(cmd);
-      return cmd.run();
+      return _metadataCache.invalidateAfter(cmd.run(), options.getDestinationBucketName(),
+        options.getDestinationObjectKey(), true);
+    }
+
+    @Override
+    public ListenableFuture<StoreFile> concat(ConcatOptions options)
+    {
+      GCSConcatCommand cmd = new GCSConcatCommand(options);
+      configure(cmd);
+      return _metadataCache.invalidateAfter(cmd.run(), options.getDestinationBucketName(),
+        options.getDestinationObjectKey(), false);
     }
 
     @Override
@@ -62,8 +62,11 @@ public class GCSClientBuilder
   private ClientConfiguration _s3ClientCfg;
   private ListeningExecutorService _apiExecutor;
   private ListeningScheduledExecutorService _internalExecutor;
+  private int _maxConnections = 0;
   private KeyProvider _keyProvider;
   private AWSCredentialsProvider _awsCredentialsProvider;
+  private String _endpoint;
+  private ClientResources _resources;
 
   private final String _APPLICATION_NAME = "LogicBlox-cloud-store/1.0";
   private final JsonFactory _jsonFactory = JacksonFactory.getDefaultInstance();
@@ -117,6 +120,38 @@ public class GCSClientBuilder
     return this;
   }
 
+  /**
+   * Make sure the HTTP connection pool of the default client configuration has room for at
+   * least {@code maxConnections} connections, so that it does not limit the concurrency of the
+   * API executor.  Ignored if a client configuration is set explicitly.
+   */
+  public GCSClientBuilder setMaxConnections(int maxConnections)
+  {
+    _maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * Set the endpoint of the S3-compatible XML API.  Unlike {@link GCSClient#setEndpoint(String)}
+   * this also works for clients that share resources.
+   */
+  public GCSClientBuilder setEndpoint(String endpoint)
+  {
+    _endpoint = endpoint;
+    return this;
+  }
+
+  /**
+   * Build the client on resources shared with other clients.  Executors, the internal S3
+   * client, the HTTP transport and credentials that are not set explicitly are taken from
+   * {@code resources}, and the client releases its reference to them when it is shut down.
+   */
+  public GCSClientBuilder setResources(ClientResources resources)
+  {
+    _resources = resources;
+    return this;
+  }
+
   public GCSClientBuilder setKeyProvider(KeyProvider keyProvider)
   {
     _keyProvider = keyProvider;
@@ -189,8 +224,15 @@ public class GCSClientBuilder
 
   private ClientConfiguration getDefaultInternalS3ClientConfiguration()
     throws MalformedURLException
+  {
+    return createClientConfiguration(_maxConnections);
+  }
+
+  static ClientConfiguration createClientConfiguration(int maxConnections)
+    throws MalformedURLException
   {
     ClientConfiguration clientCfg = new ClientConfiguration();
+    clientCfg.setMaxConnections(Math.max(clientCfg.getMaxConnections(), maxConnections));
     if (Utils.viaProxy())
       S3ClientBuilder.setHttpProxy(clientCfg);
     // use V2 signatures for authentication to GCS's S3-compatible XML API
@@ -204,7 +246,7 @@ public class GCSClientBuilder
     return new XMLEnvCredentialsProvider();
   }
 
-  private static HttpTransport getDefaultHttpTransport()
+  static HttpTransport getDefaultHttpTransport()
     throws GeneralSecurityException, IOException
   {
     HttpTransport httpTransport;
@@ -251,7 +293,7 @@ public class GCSClientBuilder
     return builder.build();
   }
 
-  private static GoogleCredential getDefaultCredential()
+  static GoogleCredential getDefaultCredential()
     throws IOException
   {
     GoogleCredential credential0 = null;
@@ -322,7 +364,8 @@ public class GCSClientBuilder
         // used (e.g. in lb-web).
         if(_credential == null)
         {
-          setCredential(getDefaultCredential());
+          setCredential(
+            (_resources != null) ? _resources.getGoogleCredential() : getDefaultCredential());
         }
         _credential.initialize(request);
         request.setIOExceptionHandler(
@@ -385,7 +428,8 @@ public class GCSClientBuilder
   {
     if(_httpTransport == null)
     {
-      setHttpTransport(getDefaultHttpTransport());
+      setHttpTransport((_resources != null) ? _resources.getHttpTransport() :
+        getDefaultHttpTransport());
     }
     if(_requestInitializer == null)
     {
@@ -395,6 +439,10 @@ public class GCSClientBuilder
     {
       setInternalGCSClient(getDefaultInternalGCSClient());
     }
+    if(_resources != null)
+    {
+      return createSharedGCSClient();
+    }
     if(_awsCredentialsProvider == null)
     {
       setAWSCredentialsProvider(getDefaultAWSCredentialsProvider());
@@ -419,6 +467,40 @@ public class GCSClientBuilder
     {
       setKeyProvider(Utils.createKeyProvider(Utils.getDefaultKeyDirectory()));
     }
-    return new GCSClient(_gcsClient, _s3Client, _apiExecutor, _internalExecutor, _keyProvider);
+    GCSClient client = new GCSClient(_gcsClient, _s3Client, _apiExecutor, _internalExecutor,
+      _keyProvider, null);
+    if(_endpoint != null)
+    {
+      client.setEndpoint(_endpoint);
+    }
+    return client;
+  }
+
+  private GCSClient createSharedGCSClient()
+    throws MalformedURLException
+  {
+    if(_awsCredentialsProvider == null)
+    {
+      setAWSCredentialsProvider(_resources.getGCSCredentialsProvider());
+    }
+    if(_s3Client == null)
+    {
+      setInternalS3Client(_resources.getS3Client(Utils.StorageService.GCS, _endpoint,
+        _awsCredentialsProvider));
+    }
+    if(_apiExecutor == null)
+    {
+      setApiExecutor(_resources.getApiExecutor());
+    }
+    if(_internalExecutor == null)
+    {
+      setInternalExecutor(_resources.getInternalExecutor());
+    }
+    if(_keyProvider == null)
+    {
+      setKeyProvider(Utils.createKeyProvider(Utils.getDefaultKeyDirectory()));
+    }
+    return new GCSClient(_gcsClient, _s3Client, _apiExecutor, _internalExecutor, _keyProvider,
+      _resources);
   }
 }
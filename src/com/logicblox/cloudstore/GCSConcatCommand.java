@@ -0,0 +1,209 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.ComposeRequest;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Concatenate objects with the compose operation of GCS.  A compose request takes at most
+ * {@link #MAX_COMPOSE_SOURCES} sources, so longer lists are composed in rounds, each of which
+ * appends the next sources to the result of the previous one.  Each round only applies to the
+ * generation of the destination written by the previous round, so a retried round cannot append
+ * its sources twice and a concurrent write of the destination fails the concatenation.
+ */
+class GCSConcatCommand
+  extends Command
+{
+  static final int MAX_COMPOSE_SOURCES = 32;
+
+  private ConcatOptions _options;
+  private String _contentType;
+
+  public GCSConcatCommand(ConcatOptions options)
+  {
+    super(options);
+    _options = options;
+  }
+
+  public ListenableFuture<StoreFile> run()
+  {
+    if(!_options.getSourceBucketName().equals(_options.getDestinationBucketName()))
+    {
+      throw new UsageException("GCS can only concatenate objects into the bucket they are in");
+    }
+
+    if(_options.isDryRun())
+    {
+      _client.getOutput().println("<DRYRUN> concatenating " +
+        _options.getSourceObjectKeys().size() + " objects of '" +
+        getUri(_options.getSourceBucketName(), "") + "' to '" +
+        getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey()) + "'");
+      return Futures.immediateFuture(null);
+    }
+
+    List<ListenableFuture<Metadata>> sources = new ArrayList<>();
+    for(String key : _options.getSourceObjectKeys())
+    {
+      ExistsOptions opts = _client.getOptionsBuilderFactory()
+        .newExistsOptionsBuilder()
+        .setBucketName(_options.getSourceBucketName())
+        .setObjectKey(key)
+        .createOptions();
+      sources.add(_client.exists(opts));
+    }
+    return Futures.transform(Futures.allAsList(sources), startComposeAsyncFunction());
+  }
+
+  private AsyncFunction<List<Metadata>, StoreFile> startComposeAsyncFunction()
+  {
+    return new AsyncFunction<List<Metadata>, StoreFile>()
+    {
+      public ListenableFuture<StoreFile> apply(List<Metadata> sources)
+      {
+        for(int i = 0; i < sources.size(); ++i)
+        {
+          String uri = getUri(_options.getSourceBucketName(),
+            _options.getSourceObjectKeys().get(i));
+          Metadata mdata = sources.get(i);
+          if(mdata == null)
+          {
+            throw new UsageException("Source object not found at " + uri);
+          }
+          if(mdata.getUserMetadata().containsKey("s3tool-key-name"))
+          {
+            throw new UsageException("Encrypted object " + uri + " cannot be concatenated");
+          }
+          if(mdata.getUserMetadata().containsKey("s3tool-compression"))
+          {
+            throw new UsageException("Compressed object " + uri + " cannot be concatenated");
+          }
+          fileLength += mdata.getContentLength();
+        }
+        _contentType = sources.get(0).getContentType();
+        return Futures.transform(compose(0, null), new Function<StorageObject, StoreFile>()
+        {
+          public StoreFile apply(StorageObject resp)
+          {
+            StoreFile f = new StoreFile();
+            f.setObjectKey(resp.getName());
+            f.setETag(resp.getEtag());
+            f.setBucketName(resp.getBucket());
+            f.setSize(resp.getSize().longValue());
+            return f;
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * Compose the sources from {@code offset} on, appended to generation {@code generation} of the
+   * destination if {@code offset} is not 0.
+   */
+  private ListenableFuture<StorageObject> compose(final int offset, final Long generation)
+  {
+    ListenableFuture<StorageObject> composed = executeWithRetry(_client.getInternalExecutor(),
+      new Callable<ListenableFuture<StorageObject>>()
+      {
+        public ListenableFuture<StorageObject> call()
+        {
+          return composeActual(offset, generation);
+        }
+
+        public String toString()
+        {
+          return "composing " + getUri(_options.getDestinationBucketName(),
+            _options.getDestinationObjectKey());
+        }
+      });
+
+    final int next = nextOffset(offset);
+    if(next >= _options.getSourceObjectKeys().size())
+    {
+      return composed;
+    }
+    return Futures.transform(composed, new AsyncFunction<StorageObject, StorageObject>()
+    {
+      public ListenableFuture<StorageObject> apply(StorageObject previous)
+      {
+        return compose(next, previous.getGeneration());
+      }
+    });
+  }
+
+  private int nextOffset(int offset)
+  {
+    // after the first round, one source is the destination itself
+    int sources = (offset == 0) ? MAX_COMPOSE_SOURCES : MAX_COMPOSE_SOURCES - 1;
+    return Math.min(offset + sources, _options.getSourceObjectKeys().size());
+  }
+
+  private ListenableFuture<StorageObject> composeActual(final int offset, final Long generation)
+  {
+    return _client.getApiExecutor().submit(new Callable<StorageObject>()
+    {
+      public StorageObject call()
+        throws IOException
+      {
+        List<ComposeRequest.SourceObjects> sources = new ArrayList<>();
+        if(offset > 0)
+        {
+          sources.add(new ComposeRequest.SourceObjects().setName(
+            _options.getDestinationObjectKey()).setGeneration(generation));
+        }
+        for(String key : _options.getSourceObjectKeys().subList(offset, nextOffset(offset)))
+        {
+          sources.add(new ComposeRequest.SourceObjects().setName(key));
+        }
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("s3tool-version", String.valueOf(Version.CURRENT));
+        metadata.put("s3tool-chunk-size", Long.toString(Utils.getDefaultChunkSize(fileLength)));
+        metadata.put("s3tool-file-length", Long.toString(fileLength));
+        metadata.put("s3tool-concatenated", "true");
+        StorageObject destination = new StorageObject().setMetadata(metadata)
+          .setContentType(_contentType);
+        ComposeRequest req = new ComposeRequest().setSourceObjects(sources)
+          .setDestination(destination);
+
+        Storage.Objects.Compose cmd = getGCSClient().objects()
+          .compose(_options.getDestinationBucketName(), _options.getDestinationObjectKey(), req);
+        _options.getCannedAcl().ifPresent(cmd::setDestinationPredefinedAcl);
+        if(offset > 0)
+        {
+          // a retry of a round that did succeed must not append the same sources again
+          cmd.setIfGenerationMatch(generation);
+        }
+
+        return _client.getMetrics().execute(ClientMetrics.COMPOSE, cmd);
+      }
+    });
+  }
+}
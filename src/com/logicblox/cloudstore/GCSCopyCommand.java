@@ -50,7 +50,7 @@ class GCSCopyCommand
 
     if(_options.isDryRun())
     {
-      System.out.println("<DRYRUN> copying '" +
+      _client.getOutput().println("<DRYRUN> copying '" +
         getUri(_options.getSourceBucketName(), _options.getSourceObjectKey()) + "' to '" +
         getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey()) + "'");
       return Futures.immediateFuture(null);
@@ -121,7 +121,7 @@ class GCSCopyCommand
         {
           Storage.Objects.Get get = getGCSClient().objects()
             .get(_options.getSourceBucketName(), _options.getSourceObjectKey());
-          StorageObject sourceObject = get.execute();
+          StorageObject sourceObject = _client.getMetrics().execute(ClientMetrics.HEAD, get);
           // Map<String,String> sourceUserMetadata = sourceObject.getMetadata();
 
           objectMetadata = new StorageObject().setMetadata(ImmutableMap.copyOf(userMetadata))
@@ -142,7 +142,7 @@ class GCSCopyCommand
 
         _options.getCannedAcl().ifPresent(cmd::setDestinationPredefinedAcl);
 
-        StorageObject resp = cmd.execute();
+        StorageObject resp = _client.getMetrics().execute(ClientMetrics.COPY, cmd);
         return createStoreFile(resp, false);
       }
     });
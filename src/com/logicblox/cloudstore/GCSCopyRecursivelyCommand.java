@@ -95,7 +95,7 @@ class GCSCopyRecursivelyCommand
       final String destKey = _options.getDestinationObjectKey() + destKeyLastPart;
       if(_options.isDryRun())
       {
-        System.out.println(
+        _client.getOutput().println(
           "<DRYRUN> copying '" + getUri(_options.getSourceBucketName(), src.getObjectKey()) + "' to '" +
             getUri(_options.getDestinationBucketName(), destKey) + "'");
       }
@@ -135,7 +135,7 @@ class GCSCopyRecursivelyCommand
     Storage.Objects.Copy cmd = getGCSClient().objects()
       .copy(_options.getSourceBucketName(), src.getObjectKey(), _options.getDestinationBucketName(),
         destKey, null);
-    StorageObject resp = cmd.execute();
+    StorageObject resp = _client.getMetrics().execute(ClientMetrics.COPY, cmd);
     return createStoreFile(resp, false);
   }
 
@@ -81,7 +81,7 @@ class GCSListCommand
         Objects objs;
         do
         {
-          objs = cmd.execute();
+          objs = _client.getMetrics().execute(ClientMetrics.LIST, cmd);
           List<StorageObject> items = objs.getItems();
           if(items != null)
           {
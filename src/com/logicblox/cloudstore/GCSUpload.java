@@ -168,7 +168,9 @@ class GCSUpload
         insertObject.getMediaHttpUploader().setProgressListener(gcspl);
       }
 
-      StorageObject res = insertObject.execute();
+      ClientMetrics metrics = _options.getCloudStoreClient().getMetrics();
+      StorageObject res = metrics.execute(ClientMetrics.PUT, insertObject);
+      metrics.addBytesUploaded(_partSize);
 
       // GCS supports MD5 integrity check at server-sid. Since we are computing
       // MD5 on-the-fly, we can only do the check at the client-side.
@@ -29,8 +29,6 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,6 +54,7 @@ class GCSUploadCommand
 
   private OverallProgressListenerFactory _progressListenerFactory;
   private String _pubKeyHash;
+  private UploadSource _source;
 
 
   public GCSUploadCommand(UploadOptions options)
@@ -65,8 +64,9 @@ class GCSUploadCommand
     _options = options;
 
     this.file = _options.getFile();
+    _source = _options.getSource();
     setChunkSize(_options.getChunkSize());
-    setFileLength(this.file.length());
+    setFileLength(_source.getLength());
     _encKeyName = _options.getEncKey().orElse(null);
 
     _bucketName = _options.getBucketName();
@@ -122,21 +122,27 @@ class GCSUploadCommand
   public ListenableFuture<StoreFile> run()
     throws FileNotFoundException
   {
-    if(file.isDirectory())
+    if(file != null && file.isDirectory())
     {
       throw new UsageException(
         "Directory upload is supported only by the recursive variant: " + file.getPath());
     }
 
-    if(!file.exists())
+    if(_options.getCompression().isPresent())
+    {
+      throw new UsageException("Compressed uploads need multipart uploads, which GCS does " +
+        "not support");
+    }
+
+    if(file != null && !file.exists())
     {
       throw new FileNotFoundException(file.getPath());
     }
 
     if(_options.isDryRun())
     {
-      System.out.println(
-        "<DRYRUN> uploading '" + this.file.getAbsolutePath() + "' to '" + getUri(_bucketName, _objectKey) +
+      _client.getOutput().println(
+        "<DRYRUN> uploading '" + _source.getDescription() + "' to '" + getUri(_bucketName, _objectKey) +
           "'");
       return Futures.immediateFuture(null);
     }
@@ -303,9 +309,7 @@ class GCSUploadCommand
       public InputStream call()
         throws Exception
       {
-        FileInputStream fs = new FileInputStream(file);
-
-        BufferedInputStream bs = new BufferedInputStream(fs);
+        InputStream bs = _source.open(0);
         InputStream in;
         if(cipher != null)
         {
@@ -0,0 +1,163 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ * <p>
+ * Values are recorded in microseconds.  Values below 128 are counted exactly; larger values
+ * are counted in buckets that are 1/64th of their power of two wide, so every reported
+ * percentile is within about 1.6% of the recorded value.  Values above roughly 25 days are
+ * clamped.
+ */
+public class LatencyHistogram
+{
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  private static final int MAX_SHIFT = 34;
+  private static final long MAX_VALUE = (((long) SUB_BUCKET_COUNT) << MAX_SHIFT) - 1;
+  private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF;
+
+  private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong _count = new AtomicLong();
+  private final AtomicLong _sum = new AtomicLong();
+  private final AtomicLong _max = new AtomicLong();
+
+  LatencyHistogram()
+  {
+  }
+
+  /**
+   * Record one observation.
+   *
+   * @param micros observed latency in microseconds
+   */
+  void record(long micros)
+  {
+    long value = Math.min(Math.max(0, micros), MAX_VALUE);
+    _counts.incrementAndGet(indexOf(value));
+    _count.incrementAndGet();
+    _sum.addAndGet(value);
+
+    long max = _max.get();
+    while(value > max && !_max.compareAndSet(max, value))
+    {
+      max = _max.get();
+    }
+  }
+
+  void reset()
+  {
+    for(int i = 0; i < BUCKET_COUNT; ++i)
+    {
+      _counts.set(i, 0);
+    }
+    _count.set(0);
+    _sum.set(0);
+    _max.set(0);
+  }
+
+  /**
+   * Return the number of recorded observations.
+   *
+   * @return observation count
+   */
+  public long getCount()
+  {
+    return _count.get();
+  }
+
+  /**
+   * Return the mean of the recorded observations.
+   *
+   * @return mean latency in microseconds, 0 if nothing was recorded
+   */
+  public double getMean()
+  {
+    long count = _count.get();
+    return (count == 0) ? 0 : (double) _sum.get() / count;
+  }
+
+  /**
+   * Return the largest recorded observation.
+   *
+   * @return max latency in microseconds
+   */
+  public long getMax()
+  {
+    return _max.get();
+  }
+
+  /**
+   * Return the value below which the given percentage of observations fall.
+   *
+   * @param percentile percentile between 0 and 100, e.g. 99.9
+   * @return latency in microseconds, 0 if nothing was recorded
+   */
+  public long getPercentile(double percentile)
+  {
+    long count = 0;
+    long[] counts = new long[BUCKET_COUNT];
+    for(int i = 0; i < BUCKET_COUNT; ++i)
+    {
+      counts[i] = _counts.get(i);
+      count += counts[i];
+    }
+    if(count == 0)
+    {
+      return 0;
+    }
+
+    long target = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+    long seen = 0;
+    for(int i = 0; i < BUCKET_COUNT; ++i)
+    {
+      seen += counts[i];
+      if(seen >= target)
+      {
+        return Math.min(highestValueAt(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  static int indexOf(long value)
+  {
+    if(value < SUB_BUCKET_COUNT)
+    {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF +
+      (int) ((value >> shift) - SUB_BUCKET_HALF);
+  }
+
+  static long highestValueAt(int index)
+  {
+    if(index < SUB_BUCKET_COUNT)
+    {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -24,14 +24,21 @@ import com.beust.jcommander.Parameters;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -40,11 +47,20 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 class Main
 {
   JCommander _commander = new JCommander();
 
+  // set when commands are run by a daemon on behalf of a client
+  private final ClientResources _resources;
+  private final File _workingDirectory;
+  private final InputStream _in;
+  private final PrintStream _out;
+  private final PrintStream _err;
+  private ClientMetrics _dumpingMetrics;
+
   public static void main(String[] args)
   {
     Utils.initLogging();
@@ -52,7 +68,11 @@ class Main
     try
     {
       Main main = new Main();
-      main.execute(args);
+      int status = main.execute(args);
+      if(status != 0)
+      {
+        System.exit(status);
+      }
     }
     catch(Exception exc)
     {
@@ -64,11 +84,34 @@ class Main
 
   public Main()
   {
+    this(null, null, System.in, System.out, System.err);
+  }
+
+  /**
+   * @param resources        resources of the clients that commands create, or null to create
+   *                         a client with its own resources for every command
+   * @param workingDirectory directory that relative file names are resolved against, or null
+   *                         for the working directory of the process
+   * @param in               stream that commands read standard input from
+   * @param out              stream that commands print their output to
+   * @param err              stream that commands print errors and warnings to
+   */
+  Main(ClientResources resources, File workingDirectory, InputStream in, PrintStream out,
+    PrintStream err)
+  {
+    _resources = resources;
+    _workingDirectory = workingDirectory;
+    _in = in;
+    _out = out;
+    _err = err;
     _commander = new JCommander(new MainCommand());
     _commander.setProgramName("cloud-store");
     _commander.addCommand("upload", new UploadCommandOptions());
     _commander.addCommand("download", new DownloadCommandOptions());
+    _commander.addCommand("sync", new SyncCommandOptions());
+    _commander.addCommand("verify", new VerifyCommandOptions());
     _commander.addCommand("copy", new CopyCommandOptions());
+    _commander.addCommand("concat", new ConcatCommandOptions());
     _commander.addCommand("rename", new RenameCommandOptions());
     _commander.addCommand("delete", new DeleteCommandOptions());
     _commander.addCommand("ls", new ListCommandOptions());
@@ -76,14 +119,50 @@ class Main
     _commander.addCommand("list-pending-uploads", new ListPendingUploadsCommandOptions());
     _commander.addCommand("abort-pending-uploads", new AbortPendingUploadsCommandOptions());
     _commander.addCommand("exists", new ExistsCommandOptions());
+    _commander.addCommand("read", new ReadCommandOptions());
     _commander.addCommand("list-buckets", new ListBucketsCommandOptions());
     _commander.addCommand("add-encryption-key", new AddEncryptionKeyCommandOptions());
     _commander.addCommand("remove-encryption-key", new RemoveEncryptionKeyCommandOptions());
     _commander.addCommand("keygen", new KeyGenCommandOptions());
+    _commander.addCommand("bench", new BenchCommandOptions());
+    _commander.addCommand("batch", new BatchCommandOptions());
+    _commander.addCommand("daemon", new DaemonCommandOptions());
     _commander.addCommand("version", new VersionCommand());
     _commander.addCommand("help", new HelpCommand());
   }
 
+  /**
+   * Thrown by commands to end with an exit status instead of calling {@link System#exit(int)},
+   * which would also end a daemon.
+   */
+  static class ExitException
+    extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    final int _status;
+
+    ExitException(int status)
+    {
+      super("exit status " + status);
+      _status = status;
+    }
+  }
+
+  /**
+   * Return the file with the given name, resolving relative names against the working
+   * directory of the command.
+   */
+  File getFile(String name)
+  {
+    File file = new File(name);
+    if(_workingDirectory == null || file.isAbsolute())
+    {
+      return file;
+    }
+    return new File(_workingDirectory, name);
+  }
+
   class MainCommand
   {
     @Parameter(names = {"-h", "--help"}, description = "Print usage information", help = true)
@@ -130,6 +209,18 @@ class Main
       "ec2-metadata-service\".", validateValueWith = S3ClientBuilder.CredentialProvidersValidator.class)
     List<String> credentialProvidersS3;
 
+    @Parameter(names = "--metrics-json", description = "Periodically write request metrics " +
+      "(latencies, bytes, retries, errors) as JSON to this file")
+    String metricsJson = null;
+
+    @Parameter(names = "--metrics-interval", description = "Seconds between metrics dumps")
+    long metricsInterval = 10;
+
+    @Parameter(names = "--virtual-threads", description = "Run storage service calls on " +
+      "virtual threads (Java 21 or later), so that --max-concurrent-connections is not limited " +
+      "by the cost of platform threads")
+    boolean virtualThreads = false;
+
     protected URI getURI()
       throws URISyntaxException
     {
@@ -142,11 +233,44 @@ class Main
       return null;
     }
 
+    /**
+     * Start the operation of this command on {@code client}.  Commands that implement this can
+     * also be an operation of a {@code batch} manifest.
+     */
+    ListenableFuture<?> start(CloudStoreClient client)
+      throws Exception
+    {
+      throw new UsageException("This command cannot be run as an operation");
+    }
+
     protected CloudStoreClient createCloudStoreClient()
       throws URISyntaxException, IOException, GeneralSecurityException
     {
-      return Utils.createCloudStoreClient(getScheme(), endpoint, maxConcurrentConnections,
-        encKeyDirectory, credentialProvidersS3, _stubborn, _retryCount);
+      CloudStoreClient client;
+      String keyDirectory = getFile(encKeyDirectory).getPath();
+      if(_resources != null)
+      {
+        // executors and connections are the ones of the daemon, so --virtual-threads and
+        // --max-concurrent-connections of the command do not apply
+        client = Utils.createCloudStoreClient(getScheme(), endpoint, _resources, keyDirectory,
+          credentialProvidersS3, _stubborn, _retryCount);
+      }
+      else
+      {
+        if(virtualThreads)
+        {
+          Utils.setVirtualThreads(true);
+        }
+        client = Utils.createCloudStoreClient(getScheme(), endpoint, maxConcurrentConnections,
+          keyDirectory, credentialProvidersS3, _stubborn, _retryCount);
+      }
+      client.setOutput(_out, _err);
+      if(metricsJson != null)
+      {
+        client.getMetrics().startJsonDump(getFile(metricsJson), metricsInterval, TimeUnit.SECONDS);
+        _dumpingMetrics = client.getMetrics();
+      }
+      return client;
     }
   }
 
@@ -323,7 +447,7 @@ class Main
 
       for(final String[] row : table)
       {
-        System.out.format("%-" + (max[2] + 3) + "s%-" + (max[1] + 3) + "s%-" + (max[0] + 3) + "s\n",
+        _out.format("%-" + (max[2] + 3) + "s%-" + (max[1] + 3) + "s%-" + (max[0] + 3) + "s\n",
           row[2], row[1], row[0]);
       }
 
@@ -339,28 +463,32 @@ class Main
       "metadata if object exists")
     boolean _verbose = false;
 
-    public void invoke()
+    ListenableFuture<Metadata> start(CloudStoreClient client)
       throws Exception
     {
-      CloudStoreClient client = createCloudStoreClient();
-      String bucket = getBucketName();
-      String key = getObjectKey();
-
       ExistsOptions opts = client.getOptionsBuilderFactory()
         .newExistsOptionsBuilder()
-        .setBucketName(bucket)
-        .setObjectKey(key)
+        .setBucketName(getBucketName())
+        .setObjectKey(getObjectKey())
         .createOptions();
 
-      ListenableFuture<Metadata> result = client.exists(opts);
+      return client.exists(opts);
+    }
+
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
+      String bucket = getBucketName();
+      String key = getObjectKey();
 
       boolean exists = false;
-      Metadata metadata = result.get();
+      Metadata metadata = start(client).get();
       if(metadata == null)
       {
         if(_verbose)
         {
-          System.err.println(
+          _err.println(
             "Object " + Utils.getURI(client.getScheme(), bucket, key) + " does not exist.");
         }
       }
@@ -370,7 +498,7 @@ class Main
 
         if(_verbose)
         {
-          metadata.print(System.out);
+          metadata.print(_out);
         }
       }
 
@@ -378,12 +506,53 @@ class Main
 
       if(!exists)
       {
-        System.exit(1);
+        throw new ExitException(1);
       }
     }
 
   }
 
+  @Parameters(commandDescription = "Write a range of bytes of an object to standard output")
+  class ReadCommandOptions
+    extends S3ObjectCommandOptions
+  {
+    @Parameter(names = "--offset", description = "Offset of the first byte to read")
+    long offset = 0;
+
+    @Parameter(names = "--length", description = "Number of bytes to read", required = true)
+    long length;
+
+    @Parameter(names = {"--version-id"}, description = "Read a specific version of a file")
+    String version = null;
+
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
+
+      ReadOptions opts = client.getOptionsBuilderFactory()
+        .newReadOptionsBuilder()
+        .setBucketName(getBucketName())
+        .setObjectKey(getObjectKey())
+        .setVersion(version)
+        .setOffset(offset)
+        .setLength(length)
+        .createOptions();
+
+      try
+      {
+        _out.write(client.read(opts).get());
+        _out.flush();
+      }
+      catch(ExecutionException exc)
+      {
+        rethrow(exc.getCause());
+      }
+
+      client.shutdown();
+    }
+  }
+
   @Parameters(commandDescription = "Copy an object or prefix to the same storage service")
   class CopyCommandOptions
     extends TwoObjectsCommandOptions
@@ -404,11 +573,9 @@ class Main
     @Parameter(names = "--dry-run", description = "Display operations but do not execute them")
     boolean dryRun = false;
 
-    public void invoke()
+    ListenableFuture<?> start(CloudStoreClient client)
       throws Exception
     {
-      CloudStoreClient client = createCloudStoreClient();
-
       CopyOptions options = client.getOptionsBuilderFactory()
         .newCopyOptionsBuilder()
         .setSourceBucketName(getSourceBucket())
@@ -419,6 +586,13 @@ class Main
         .setStorageClass(storageClass)
         .setDryRun(dryRun)
         .createOptions();
+      return recursive ? client.copyRecursively(options) : client.copy(options);
+    }
+
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
 
       try
       {
@@ -435,16 +609,88 @@ class Main
             "Bucket not found at " + Utils.getURI(client.getScheme(), getDestinationBucket(), ""));
         }
 
-        if(recursive)
+        Object result = start(client).get();
+        if(recursive && ((List<?>) result).isEmpty())
         {
-          List<StoreFile> storeFiles = client.copyRecursively(options).get();
-          if(storeFiles.isEmpty())
-            System.err.println("warning: No objects found for " + getURI());
+          _err.println("warning: No objects found for " + getURI());
         }
-        else
+      }
+      catch(ExecutionException exc)
+      {
+        rethrow(exc.getCause());
+      }
+      finally
+      {
+        client.shutdown();
+      }
+    }
+  }
+
+
+  @Parameters(commandDescription = "Concatenate objects into a new object on the storage service")
+  class ConcatCommandOptions
+    extends S3CommandOptions
+  {
+    @Parameter(description = "source-url... destination-url", required = true)
+    List<String> urls;
+
+    @Parameter(names = "--canned-acl", description = "The canned ACL to use. " +
+      S3Client.CANNED_ACLS_DESC_CONST)
+    String cannedAcl;
+
+    @Parameter(names = "--dry-run", description = "Display operations but do not execute them")
+    boolean dryRun = false;
+
+    protected URI getURI()
+      throws URISyntaxException
+    {
+      if(urls.size() < 2)
+      {
+        throw new UsageException("At least one source URL and a destination URL are required");
+      }
+      return Utils.getURI(urls.get(urls.size() - 1));
+    }
+
+    protected String getScheme()
+      throws URISyntaxException
+    {
+      return getURI().getScheme();
+    }
+
+    public void invoke()
+      throws Exception
+    {
+      URI destination = getURI();
+      String sourceBucket = null;
+      List<String> sourceKeys = new ArrayList<>();
+      for(String url : urls.subList(0, urls.size() - 1))
+      {
+        URI source = Utils.getURI(url);
+        if(!source.getScheme().equals(destination.getScheme()))
+        {
+          throw new UsageException("Sources and destination must be on the same storage service");
+        }
+        if(sourceBucket != null && !sourceBucket.equals(Utils.getBucketName(source)))
         {
-          client.copy(options).get();
+          throw new UsageException("All sources must be in the same bucket");
         }
+        sourceBucket = Utils.getBucketName(source);
+        sourceKeys.add(Utils.getObjectKey(source));
+      }
+
+      CloudStoreClient client = createCloudStoreClient();
+      try
+      {
+        ConcatOptions options = client.getOptionsBuilderFactory()
+          .newConcatOptionsBuilder()
+          .setSourceBucketName(sourceBucket)
+          .setSourceObjectKeys(sourceKeys)
+          .setDestinationBucketName(Utils.getBucketName(destination))
+          .setDestinationObjectKey(Utils.getObjectKey(destination))
+          .setCannedAcl(cannedAcl)
+          .setDryRun(dryRun)
+          .createOptions();
+        client.concat(options).get();
       }
       catch(ExecutionException exc)
       {
@@ -473,11 +719,9 @@ class Main
     @Parameter(names = "--dry-run", description = "Display operations but do not execute them")
     boolean dryRun = false;
 
-    public void invoke()
+    ListenableFuture<?> start(CloudStoreClient client)
       throws Exception
     {
-      CloudStoreClient client = createCloudStoreClient();
-
       RenameOptions options = client.getOptionsBuilderFactory()
         .newRenameOptionsBuilder()
         .setSourceBucketName(getSourceBucket())
@@ -487,18 +731,20 @@ class Main
         .setCannedAcl(cannedAcl)
         .setDryRun(dryRun)
         .createOptions();
+      return recursive ? client.renameRecursively(options) : client.rename(options);
+    }
+
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
 
       try
       {
-        if(recursive)
-        {
-          List<StoreFile> storeFiles = client.renameRecursively(options).get();
-          if(storeFiles.isEmpty())
-            System.err.println("warning: No objects found for " + getURI());
-        }
-        else
+        Object result = start(client).get();
+        if(recursive && ((List<?>) result).isEmpty())
         {
-          client.rename(options).get();
+          _err.println("warning: No objects found for " + getURI());
         }
       }
       catch(ExecutionException exc)
@@ -540,11 +786,33 @@ class Main
       "The size of each chunk read from the file. Determined " + "automatically if not set.")
     long chunkSize = -1;
 
-    public void invoke()
+    @Parameter(names = "--delta", description = "Copy the chunks that did not change since " +
+      "the previous upload of the object on the server instead of uploading them (S3 only, " +
+      "not with --key)")
+    boolean delta = false;
+
+    @Parameter(names = "--compress", description = "Compress every chunk with this codec before " +
+      "it is encrypted and uploaded: gzip or deflate (S3 only). Downloads decompress " +
+      "automatically.")
+    String compression = null;
+
+    @Parameter(names = "--include", description = "With --recursive, only upload files whose " +
+      "path relative to the directory matches this glob, e.g. '**.csv'. Can be repeated.")
+    List<String> includes = new ArrayList<>();
+
+    @Parameter(names = "--exclude", description = "With --recursive, skip files and " +
+      "directories whose path relative to the directory matches this glob. Can be repeated.")
+    List<String> excludes = new ArrayList<>();
+
+    @Parameter(names = "--pack-size", description = "With --recursive, pack files smaller " +
+      "than this many bytes into tar archives of about this size, plus an index object. " +
+      "Recursive downloads unpack them.")
+    long packSize = 0;
+
+    ListenableFuture<?> start(CloudStoreClient client)
       throws Exception
     {
-      CloudStoreClient client = createCloudStoreClient();
-      File f = new File(file);
+      File f = getFile(file);
 
       UploadOptionsBuilder uob = client.getOptionsBuilderFactory()
         .newUploadOptionsBuilder()
@@ -554,11 +822,20 @@ class Main
         .setChunkSize(chunkSize)
         .setEncKey(encKeyName)
         .setCannedAcl(cannedAcl)
+        .setDelta(delta)
+        .setCompression(compression)
+        .setIncludes(includes)
+        .setExcludes(excludes)
+        .setPackSize(packSize)
         .setDryRun(dryRun);
 
-      if(progress)
+      if(progress && recursive)
+      {
+        uob.setTransferProgressListener(new ConsoleTransferProgressListener(_out));
+      }
+      else if(progress)
       {
-        OverallProgressListenerFactory cplf = new ConsoleProgressListenerFactory();
+        OverallProgressListenerFactory cplf = new ConsoleProgressListenerFactory().setOutput(_out);
         uob.setOverallProgressListenerFactory(cplf);
       }
 
@@ -567,14 +844,18 @@ class Main
 
       if(recursive)
       {
-        client.uploadRecursively(uob.createOptions()).get();
-      }
-      else
-      {
-        if(getObjectKey().endsWith("/"))
-          uob.setObjectKey(getObjectKey() + f.getName());
-        client.upload(uob.createOptions()).get();
+        return client.uploadRecursively(uob.createOptions());
       }
+      if(getObjectKey().endsWith("/"))
+        uob.setObjectKey(getObjectKey() + f.getName());
+      return client.upload(uob.createOptions());
+    }
+
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
+      start(client).get();
       client.shutdown();
     }
   }
@@ -609,7 +890,9 @@ class Main
         .setExcludeDirs(excludeDirs);
       try
       {
-        List<StoreFile> listCommandResults = client.listObjects(lob.createOptions()).get();
+        // part manifests of delta uploads are shown only if their object is gone
+        List<StoreFile> listCommandResults = PartManifest.withoutAttachedManifests(
+          client.listObjects(lob.createOptions()).get());
         if(includeVersions)
         {
           String[][] table = new String[listCommandResults.size()][4];
@@ -641,7 +924,7 @@ class Main
           }
           for(final String[] row : table)
           {
-            System.out.format(
+            _out.format(
               "%-" + (max[0] + 4) + "s%-" + (max[1] + 4) + "s%-" + (max[2] + 3) + "s%-" +
                 (max[3] + 3) + "s\n", row[0], row[1], row[2], row[3]);
           }
@@ -650,7 +933,7 @@ class Main
         {
           for(StoreFile obj : listCommandResults)
           {
-            System.out.println(
+            _out.println(
               Utils.getURI(client.getScheme(), obj.getBucketName(), "") + obj.getObjectKey());
           }
         }
@@ -674,29 +957,29 @@ class Main
     @Parameter(names = "--dry-run", description = "Display operations but do not execute them")
     boolean dryRun = false;
 
-    @Override
-    public void invoke()
+    ListenableFuture<?> start(CloudStoreClient client)
       throws Exception
     {
-      CloudStoreClient client = createCloudStoreClient();
       DeleteOptions opts = client.getOptionsBuilderFactory()
         .newDeleteOptionsBuilder()
         .setBucketName(getBucketName())
         .setObjectKey(getObjectKey())
         .setDryRun(dryRun)
         .createOptions();
+      return recursive ? client.deleteRecursively(opts) : client.delete(opts);
+    }
 
+    @Override
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
       try
       {
-        if(recursive)
-        {
-          List<StoreFile> storeFiles = client.deleteRecursively(opts).get();
-          if(storeFiles.isEmpty())
-            System.err.println("warning: No objects found for " + getURI());
-        }
-        else
+        Object result = start(client).get();
+        if(recursive && ((List<?>) result).isEmpty())
         {
-          client.delete(opts).get();
+          _err.println("warning: No objects found for " + getURI());
         }
       }
       catch(ExecutionException exc)
@@ -819,7 +1102,7 @@ class Main
         {
           du = Long.toString(totalSize);
         }
-        System.out.format("%-15s %d objects %s %n", du, numberOfFiles, getURI().toString());
+        _out.format("%-15s %d objects %s %n", du, numberOfFiles, getURI().toString());
         if(dirs.size() > 0)
         {
           printTree(dirs, humanReadble, all, getObjectKey());
@@ -897,7 +1180,7 @@ class Main
     }
     for(final String[] row : table)
     {
-      System.out.format("%-" + (max[0] + 4) + "s%-" + (max[1] + 4) + "s\n", row[0], row[1]);
+      _out.format("%-" + (max[0] + 4) + "s%-" + (max[1] + 4) + "s\n", row[0], row[1]);
     }
   }
 
@@ -962,7 +1245,7 @@ class Main
 
         for(final String[] row : table)
         {
-          System.out.format(
+          _out.format(
             "%-" + (max[0] + 3) + "s%-" + (max[1] + 3) + "s%-" + (max[2] + 3) + "s\n", row[0],
             row[1], row[2]);
         }
@@ -1059,16 +1342,16 @@ class Main
     public void invoke()
       throws Exception
     {
-      try
+      String pemfp = name + ".pem";
+      File pemf = new File(getFile(encKeyDirectory), pemfp);
+      if(pemf.exists())
       {
-        String pemfp = name + ".pem";
-        File pemf = new File(encKeyDirectory, pemfp);
-        if(pemf.exists())
-        {
-          System.err.println("File " + pemf.getPath() + " already exists.");
-          System.exit(1);
-        }
+        _err.println("File " + pemf.getPath() + " already exists.");
+        throw new ExitException(1);
+      }
 
+      try
+      {
         KeyGenCommand kgc = new KeyGenCommand("RSA", 2048);
         kgc.savePemKeypair(pemf);
       }
@@ -1102,13 +1385,64 @@ class Main
     @Parameter(names = "--dry-run", description = "Display operations but do not execute them")
     boolean dryRun = false;
 
+    @Parameter(names = "--cache-dir", description = "Keep downloaded files in this directory " +
+      "and copy them from there while the objects do not change")
+    String cacheDir = null;
+
+    @Parameter(names = "--cache-max-bytes", description = "Largest total size of the files in " +
+      "the cache directory")
+    long cacheMaxBytes = CachingClientBuilder.DEFAULT_MAX_BYTES;
+
+    @Parameter(names = "--cache-ttl", description = "Seconds for which a cached file is used " +
+      "without checking whether the object changed")
+    long cacheTtl = 0;
+
+    @Parameter(names = "--include", description = "With --recursive, only download objects " +
+      "whose key relative to the prefix matches this glob, e.g. '**.csv'. Can be repeated.")
+    List<String> includes = new ArrayList<>();
+
+    @Parameter(names = "--exclude", description = "With --recursive, skip objects and " +
+      "directories whose key relative to the prefix matches this glob. Can be repeated.")
+    List<String> excludes = new ArrayList<>();
+
     @Override
     public void invoke()
       throws Exception
     {
       CloudStoreClient client = createCloudStoreClient();
+      if(cacheDir != null)
+      {
+        client = new CachingClientBuilder().setClient(client)
+          .setDirectory(getFile(cacheDir))
+          .setMaxBytes(cacheMaxBytes)
+          .setTtl(cacheTtl, TimeUnit.SECONDS)
+          .createCachingClient();
+      }
+
+      try
+      {
+        Object result = start(client).get();
+        if(recursive && ((List<?>) result).isEmpty())
+        {
+          _err.println("warning: No objects found for " + getURI());
+        }
+      }
+      catch(ExecutionException exc)
+      {
+        rethrow(exc.getCause());
+      }
+
+      client.shutdown();
+    }
 
-      File output = new File(file);
+    /**
+     * Start the download on {@code client}.  The caching client of {@code --cache-dir} is
+     * created by {@link #invoke()}, so operations of a batch manifest do not use it.
+     */
+    ListenableFuture<?> start(CloudStoreClient client)
+      throws Exception
+    {
+      File output = getFile(file);
 
       DownloadOptionsBuilder dob = client.getOptionsBuilderFactory()
         .newDownloadOptionsBuilder()
@@ -1117,39 +1451,390 @@ class Main
         .setObjectKey(getObjectKey())
         .setVersion(version)
         .setOverwrite(overwrite)
+        .setIncludes(includes)
+        .setExcludes(excludes)
         .setDryRun(dryRun);
 
-      if(progress)
+      if(progress && recursive)
+      {
+        dob.setTransferProgressListener(new ConsoleTransferProgressListener(_out));
+      }
+      else if(progress)
       {
-        OverallProgressListenerFactory cplf = new ConsoleProgressListenerFactory();
+        OverallProgressListenerFactory cplf = new ConsoleProgressListenerFactory().setOutput(_out);
         dob.setOverallProgressListenerFactory(cplf);
       }
 
+      if(recursive)
+      {
+        return client.downloadRecursively(dob.createOptions());
+      }
+      if(output.isDirectory())
+        output = new File(output, getObjectKey().substring(getObjectKey().lastIndexOf("/") + 1));
+      dob.setFile(output);
+      return client.download(dob.createOptions());
+    }
+  }
+
+  @Parameters(commandDescription = "Synchronize a local directory with a storage service " +
+    "prefix, transferring only the files that differ")
+  class SyncCommandOptions
+    extends S3CommandOptions
+  {
+    @Parameter(description = "source destination (one a local directory, the other a " +
+      "storage service prefix)", required = true)
+    List<String> paths;
+
+    @Parameter(names = "--delete", description = "Delete files that exist only at the " +
+      "destination")
+    boolean delete = false;
+
+    @Parameter(names = "--checksum", description = "Compare the content of files even if " +
+      "their size and modification time agree")
+    boolean checksum = false;
+
+    @Parameter(names = "--key", description = "The name of the encryption key to use for " +
+      "uploaded files")
+    String encKeyName = null;
+
+    @Parameter(names = "--canned-acl", description = "The canned ACL to use for uploaded " +
+      "files. " + S3Client.CANNED_ACLS_DESC_CONST + " " + GCSClient.CANNED_ACLS_DESC_CONST)
+    String cannedAcl;
+
+    @Parameter(names = {"--chunk-size"}, description = "The size of each chunk read from " +
+      "uploaded files. Determined automatically if not set.")
+    long chunkSize = -1;
+
+    @Parameter(names = "--progress", description = "Enable progress indicator")
+    boolean progress = false;
+
+    @Parameter(names = "--dry-run", description = "Display operations but do not execute them")
+    boolean dryRun = false;
+
+    private boolean isUpload()
+    {
+      if(paths.size() != 2)
+      {
+        throw new UsageException("A source and a destination are required");
+      }
+      boolean sourceIsURL = Utils.isStorageServiceURL(paths.get(0));
+      boolean destinationIsURL = Utils.isStorageServiceURL(paths.get(1));
+      if(sourceIsURL == destinationIsURL)
+      {
+        throw new UsageException("One of source and destination must be a local directory " +
+          "and the other a storage service URL");
+      }
+      return destinationIsURL;
+    }
+
+    protected URI getURI()
+      throws URISyntaxException
+    {
+      return Utils.getURI(paths.get(isUpload() ? 1 : 0));
+    }
+
+    protected String getScheme()
+      throws URISyntaxException
+    {
+      return getURI().getScheme();
+    }
+
+    @Override
+    public void invoke()
+      throws Exception
+    {
+      boolean upload = isUpload();
+      File dir = getFile(paths.get(upload ? 0 : 1));
+      String key = Utils.getObjectKey(getURI());
+      if(!key.isEmpty() && !key.endsWith("/"))
+      {
+        key = key + "/";
+      }
+
+      CloudStoreClient client = createCloudStoreClient();
+      SyncOptionsBuilder sob = client.getOptionsBuilderFactory()
+        .newSyncOptionsBuilder()
+        .setFile(dir)
+        .setBucketName(Utils.getBucketName(getURI()))
+        .setObjectKey(key)
+        .setDirection(upload ? SyncOptions.Direction.UPLOAD : SyncOptions.Direction.DOWNLOAD)
+        .setDelete(delete)
+        .setChecksum(checksum)
+        .setEncKey(encKeyName)
+        .setCannedAcl(cannedAcl)
+        .setChunkSize(chunkSize)
+        .setDryRun(dryRun);
+      if(progress)
+      {
+        sob.setTransferProgressListener(new ConsoleTransferProgressListener(_out));
+      }
+
       try
       {
-        if(recursive)
+        client.sync(sob.createOptions()).get();
+      }
+      catch(ExecutionException exc)
+      {
+        rethrow(exc.getCause());
+      }
+      client.shutdown();
+    }
+  }
+
+  @Parameters(commandDescription = "Verify that local files match storage service objects " +
+    "by ETag, without downloading the objects")
+  class VerifyCommandOptions
+    extends S3ObjectCommandOptions
+  {
+    @Parameter(names = "-i", description = "File or directory to verify", required = true)
+    String file;
+
+    @Parameter(names = {"-r", "--recursive"}, description = "Verify a directory against all " +
+      "objects under the prefix")
+    boolean recursive = false;
+
+    @Override
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
+      File f = getFile(file);
+      String key = getObjectKey();
+      if(!recursive && key.endsWith("/"))
+      {
+        key = key + f.getName();
+      }
+
+      VerifyOptions opts = client.getOptionsBuilderFactory()
+        .newVerifyOptionsBuilder()
+        .setFile(f)
+        .setBucketName(getBucketName())
+        .setObjectKey(key)
+        .setRecursive(recursive)
+        .createOptions();
+
+      List<VerifyResult> results;
+      try
+      {
+        results = client.verify(opts).get();
+      }
+      catch(ExecutionException exc)
+      {
+        rethrow(exc.getCause());
+        return;
+      }
+      finally
+      {
+        client.shutdown();
+      }
+
+      int matched = 0;
+      int failed = 0;
+      for(VerifyResult result : results)
+      {
+        if(result.isMatch())
         {
-          List<StoreFile> storeFiles = client.downloadRecursively(dob.createOptions()).get();
-          if(storeFiles.isEmpty())
-            System.err.println("warning: No objects found for " + getURI());
+          ++matched;
+          continue;
         }
-        else
+        if(result.getStatus() != VerifyResult.Status.UNVERIFIABLE)
         {
-          if(output.isDirectory())
-            output = new File(output, getObjectKey().substring(getObjectKey().lastIndexOf("/") + 1));
-          dob.setFile(output);
-          client.download(dob.createOptions()).get();
+          ++failed;
         }
+        _out.println(result.getStatus() + " " + result.getFile().getPath() + " " +
+          Utils.getURI(client.getScheme(), result.getBucketName(), result.getObjectKey()) +
+          ": " + result.getMessage());
       }
-      catch(ExecutionException exc)
+      _out.println(results.size() + " verified, " + matched + " matched, " + failed +
+        " failed, " + (results.size() - matched - failed) + " unverifiable");
+      if(failed > 0)
       {
-        rethrow(exc.getCause());
+        throw new ExitException(1);
       }
+    }
+  }
+
+  @Parameters(commandDescription = "Measure the throughput of the storage service")
+  class BenchCommandOptions
+    extends S3ObjectCommandOptions
+  {
+    @Parameter(names = "--workloads", description = "Comma-separated workloads to report: " +
+      "upload, download, copy, list and delete")
+    String workloads = String.join(",", EndpointBenchmark.WORKLOADS);
+
+    @Parameter(names = "--objects", description = "Number of objects to transfer")
+    int objects = 100;
+
+    @Parameter(names = "--object-size", description = "Size of the objects, or a distribution " +
+      "of sizes with weights, e.g. \"4KB:50,1MB:40,64MB:10\"")
+    String objectSize = "1MB";
+
+    @Parameter(names = "--concurrency", description = "Number of objects transferred at the " +
+      "same time")
+    int concurrency = 4;
+
+    @Parameter(names = {"--chunk-size"}, description =
+      "The size of each uploaded part. Determined automatically if not set.")
+    long chunkSize = -1;
+
+    @Parameter(names = "--list-repeat", description = "Number of times to list the objects")
+    int listRepeat = 10;
+
+    @Parameter(names = "--seed", description = "Seed for object sizes and data")
+    long seed = 0;
+
+    @Parameter(names = "--keep", description = "Do not delete the benchmark objects")
+    boolean keep = false;
 
+    @Override
+    public void invoke()
+      throws Exception
+    {
+      CloudStoreClient client = createCloudStoreClient();
+      EndpointBenchmark bench = new EndpointBenchmark(client, getBucketName(), getObjectKey(),
+        Arrays.asList(workloads.split(",")), objects,
+        EndpointBenchmark.SizeDistribution.parse(objectSize), concurrency, chunkSize, listRepeat,
+        seed, keep);
+      bench.run(_out);
       client.shutdown();
     }
   }
 
+  @Parameters(commandDescription = "Run the upload, download, copy, delete, rename and exists " +
+    "operations of a manifest through one client")
+  class BatchCommandOptions
+    extends S3CommandOptions
+  {
+    @Parameter(description = "manifest-file (standard input if not set or '-')")
+    List<String> manifest;
+
+    @Parameter(names = "--max-concurrent-operations", description = "Maximum number of " +
+      "operations in flight")
+    int maxConcurrentOperations = 16;
+
+    @Parameter(names = "--fail-fast", description = "Do not start new operations after an " +
+      "operation has failed")
+    boolean failFast = false;
+
+    private BatchManifest _parsed;
+
+    private BatchManifest getManifest()
+      throws IOException
+    {
+      if(_parsed == null)
+      {
+        if(manifest != null && manifest.size() > 1)
+        {
+          throw new UsageException("Only one manifest file may be specified");
+        }
+        if(manifest == null || manifest.get(0).equals("-"))
+        {
+          _parsed = BatchManifest.parse(
+            new InputStreamReader(_in, StandardCharsets.UTF_8), Main.this);
+        }
+        else
+        {
+          try(Reader reader = new InputStreamReader(
+            new FileInputStream(getFile(manifest.get(0))), StandardCharsets.UTF_8))
+          {
+            _parsed = BatchManifest.parse(reader, Main.this);
+          }
+        }
+      }
+      return _parsed;
+    }
+
+    protected String getScheme()
+    {
+      try
+      {
+        return getManifest().getScheme();
+      }
+      catch(IOException exc)
+      {
+        throw new UsageException("Cannot read manifest: " + exc.getMessage());
+      }
+    }
+
+    @Override
+    public void invoke()
+      throws Exception
+    {
+      if(maxConcurrentOperations < 1)
+      {
+        throw new UsageException("--max-concurrent-operations must be positive");
+      }
+      BatchManifest parsed = getManifest();
+      if(parsed.getOperations().isEmpty())
+      {
+        _err.println("warning: No operations found in manifest");
+        return;
+      }
+
+      CloudStoreClient client = createCloudStoreClient();
+      List<BatchManifest.Result> results;
+      try
+      {
+        results = parsed.run(client, maxConcurrentOperations, failFast, _out);
+      }
+      finally
+      {
+        client.shutdown();
+      }
+      for(BatchManifest.Result result : results)
+      {
+        if(result == null || !result.isSuccess())
+        {
+          throw new ExitException(1);
+        }
+      }
+    }
+  }
+
+  @Parameters(commandDescription = "Run a daemon that executes commands forwarded by the " +
+    "cloud-store script when CLOUDSTORE_DAEMON is set")
+  class DaemonCommandOptions
+    extends CommandOptions
+  {
+    @Parameter(names = {"--max-concurrent-connections"}, description = "The " +
+      "maximum number of concurrent HTTP connections to the storage service, shared by all " +
+      "commands")
+    int maxConcurrentConnections = Utils.getDefaultMaxConcurrentConnections();
+
+    @Parameter(names = "--virtual-threads", description = "Run storage service calls on " +
+      "virtual threads (Java 21 or later)")
+    boolean virtualThreads = false;
+
+    @Parameter(names = "--state-file", description = "File to write the port and access token " +
+      "of the daemon to")
+    String stateFile = CloudStoreDaemon.getDefaultStateFile();
+
+    @Parameter(names = "--port", description = "Loopback port to listen on, any free port if " +
+      "not set")
+    int port = 0;
+
+    @Parameter(names = "--idle-timeout", description = "Stop after this many seconds without " +
+      "commands, never if 0")
+    long idleTimeout = 0;
+
+    @Override
+    public void invoke()
+      throws Exception
+    {
+      if(_resources != null)
+      {
+        throw new UsageException("A cloud-store daemon is already running");
+      }
+      if(virtualThreads)
+      {
+        Utils.setVirtualThreads(true);
+      }
+      CloudStoreDaemon daemon = new CloudStoreDaemon(
+        new ClientResources(maxConcurrentConnections), getFile(stateFile), port, idleTimeout);
+      daemon.run();
+    }
+  }
+
   @Parameters(commandDescription = "Add new encryption key")
   class AddEncryptionKeyCommandOptions
     extends S3ObjectCommandOptions
@@ -1261,7 +1946,7 @@ class Main
   {
     public void invoke()
     {
-      System.out.println(S3Client.version());
+      _out.println(S3Client.version());
     }
   }
 
@@ -1291,7 +1976,12 @@ class Main
     }
   }
 
-  public void execute(String[] args)
+  /**
+   * Run the command of {@code args}.
+   *
+   * @return exit status
+   */
+  public int execute(String[] args)
   {
     try
     {
@@ -1306,7 +1996,7 @@ class Main
         if(cmd.help)
         {
           printCommandUsage(command);
-          System.exit(1);
+          return 1;
         }
 
         cmd.invoke();
@@ -1315,50 +2005,64 @@ class Main
       {
         printUsage();
       }
+      return 0;
+    }
+    catch(ExitException exc)
+    {
+      return exc._status;
     }
     catch(ParameterException exc)
     {
-      System.err.println("error: " + exc.getMessage());
-      System.err.println("");
+      _err.println("error: " + exc.getMessage());
+      _err.println("");
       printUsage();
-      System.exit(1);
+      return 1;
     }
     catch(UsageException exc)
     {
-      System.err.println("error: " + exc.getMessage());
-      System.exit(1);
+      _err.println("error: " + exc.getMessage());
+      return 1;
     }
     catch(AmazonServiceException exc)
     {
       if(exc.getStatusCode() == 404)
       {
-        System.err.println("error: Storage service object not found: " + exc.getMessage());
+        _err.println("error: Storage service object not found: " + exc.getMessage());
       }
       else if(exc.getStatusCode() == 403)
       {
-        System.err.println(
+        _err.println(
           "error: Access to storage service object denied " + "with current credentials: " +
             exc.getMessage());
       }
       else
       {
-        System.err.println("error: " + exc.getMessage());
-        exc.printStackTrace();
+        _err.println("error: " + exc.getMessage());
+        exc.printStackTrace(_err);
       }
 
-      System.exit(1);
+      return 1;
     }
     catch(UnsupportedOperationException exc)
     {
-      System.err.println("error: " + exc.getMessage());
-      System.exit(1);
+      _err.println("error: " + exc.getMessage());
+      return 1;
     }
     catch(Exception exc)
     {
-      System.err.println("error: " + exc.getMessage());
-      System.err.println("");
-      exc.printStackTrace();
-      System.exit(1);
+      _err.println("error: " + exc.getMessage());
+      _err.println("");
+      exc.printStackTrace(_err);
+      return 1;
+    }
+    finally
+    {
+      if(_dumpingMetrics != null)
+      {
+        // the metrics outlive the command in a daemon, so write the final numbers now
+        _dumpingMetrics.stopJsonDump();
+        _dumpingMetrics = null;
+      }
     }
   }
 
@@ -1375,15 +2079,15 @@ class Main
     tmp.usage(builder);
     String usage = builder.toString();
     String options = usage.substring(usage.indexOf('\n'));
-    System.err.println(options);
+    _err.println(options);
   }
 
   private void printUsage()
   {
-    System.err.println("Usage: cloud-store [options] command [command options]");
+    _err.println("Usage: cloud-store [options] command [command options]");
     printOptions();
 
-    System.err.println("   Commands: ");
+    _err.println("   Commands: ");
     for(String cmd : _commander.getCommands().keySet())
     {
       String indentStr = "     ";
@@ -1392,7 +2096,7 @@ class Main
 
       String wrapDesc = wrapDescription(indentStr.length() + padding,
         _commander.getCommandDescription(cmd), column);
-      System.out.println(indentStr + padRight(padding, ' ', cmd) + wrapDesc);
+      _out.println(indentStr + padRight(padding, ' ', cmd) + wrapDesc);
     }
   }
 
@@ -1441,7 +2145,7 @@ class Main
   {
     StringBuilder builder = new StringBuilder();
     _commander.usage(command, builder);
-    System.err.println(builder.toString());
+    _err.println(builder.toString());
   }
 
   private static void rethrow(Throwable thrown)
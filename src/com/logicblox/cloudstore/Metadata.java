@@ -37,6 +37,12 @@ public class Metadata
   }
 
 
+  ObjectMetadata getObjectMetadata()
+  {
+    return _s3Metadata;
+  }
+
+
   /**
    * Gets the optional Cache-Control HTTP header which allows the user to specify caching behavior
    * along the HTTP request/reply chain.
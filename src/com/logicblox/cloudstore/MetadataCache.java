@@ -0,0 +1,265 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Short-lived cache of object metadata, so that the existence checks that commands make
+ * implicitly, often several for the same object within milliseconds, cost one request.
+ * <p>
+ * Concurrent lookups of the same bucket, key and version share one in-flight request.  Its
+ * result, including "not found", is kept for the TTL after it arrives; failed lookups are not
+ * kept.  Every caller gets a future of its own, so a caller that cancels its future does not
+ * cancel the lookup of the others.  Writes through the client invalidate the entries of the objects they change, before
+ * their futures complete.  Changes made by other clients go unnoticed for at most the TTL.
+ * <p>
+ * With a TTL of 0, lookups are still coalesced while they are in flight.  This class is
+ * thread-safe.
+ */
+class MetadataCache
+{
+  static final long DEFAULT_TTL_MILLIS = 1000;
+
+  // expired entries are removed after this many lookups
+  private static final int SWEEP_INTERVAL = 1024;
+
+  private final ConcurrentMap<String, ConcurrentMap<String, Entry>> _entries =
+    new ConcurrentHashMap<>();
+  private final AtomicInteger _lookups = new AtomicInteger();
+  private volatile long _ttlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+
+  void setTtl(long ttl, TimeUnit unit)
+  {
+    _ttlNanos = unit.toNanos(ttl);
+  }
+
+  /**
+   * Return the metadata of an object, calling {@code loader} unless a lookup of the same
+   * object is in flight or completed less than the TTL ago.
+   *
+   * @param version version of the object, or null for the latest version
+   */
+  ListenableFuture<Metadata> get(
+    String bucket, String key, String version, Callable<ListenableFuture<Metadata>> loader)
+  {
+    if(_lookups.incrementAndGet() % SWEEP_INTERVAL == 0)
+    {
+      sweep();
+    }
+
+    ConcurrentMap<String, Entry> versions = getVersions(bucket, key);
+    String v = (version == null) ? "" : version;
+    final Entry entry = new Entry();
+    while(true)
+    {
+      Entry cached = versions.get(v);
+      if(cached != null && !cached.isExpired(System.nanoTime()))
+      {
+        return view(cached._future);
+      }
+      boolean inserted = (cached == null) ? versions.putIfAbsent(v, entry) == null :
+        versions.replace(v, cached, entry);
+      if(inserted)
+      {
+        break;
+      }
+    }
+
+    ListenableFuture<Metadata> lookup;
+    try
+    {
+      lookup = loader.call();
+    }
+    catch(Exception exc)
+    {
+      lookup = Futures.immediateFailedFuture(exc);
+    }
+    final ConcurrentMap<String, Entry> map = versions;
+    final String mapKey = v;
+    Futures.addCallback(lookup, new FutureCallback<Metadata>()
+    {
+      public void onSuccess(Metadata metadata)
+      {
+        entry._expires = System.nanoTime() + _ttlNanos;
+        entry._future.set(metadata);
+      }
+
+      public void onFailure(Throwable t)
+      {
+        map.remove(mapKey, entry);
+        entry._future.setException(t);
+      }
+    });
+    return view(entry._future);
+  }
+
+  /**
+   * Return a future that completes like the shared {@code lookup}, and whose cancellation does
+   * not reach the lookup.
+   */
+  private static ListenableFuture<Metadata> view(ListenableFuture<Metadata> lookup)
+  {
+    final SettableFuture<Metadata> view = SettableFuture.create();
+    Futures.addCallback(lookup, new FutureCallback<Metadata>()
+    {
+      public void onSuccess(Metadata metadata)
+      {
+        view.set(metadata);
+      }
+
+      public void onFailure(Throwable t)
+      {
+        view.setException(t);
+      }
+    });
+    return view;
+  }
+
+  /**
+   * Forget the metadata of all versions of an object and of its part manifest, which is copied
+   * and deleted along with the object.
+   */
+  void invalidate(String bucket, String key)
+  {
+    _entries.remove(getId(bucket, key));
+    _entries.remove(getId(bucket, PartManifest.getKey(key)));
+  }
+
+  /**
+   * Forget the metadata of all objects whose key starts with {@code prefix}.
+   */
+  void invalidatePrefix(String bucket, String prefix)
+  {
+    String idPrefix = getId(bucket, prefix);
+    for(Iterator<String> it = _entries.keySet().iterator(); it.hasNext(); )
+    {
+      if(it.next().startsWith(idPrefix))
+      {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Return a future that completes like {@code write}, after the metadata of the object that
+   * it changes has been invalidated, so that a lookup made once the write is complete does not
+   * return stale metadata.  Failed writes invalidate as well, since they may have changed the
+   * object.
+   */
+  <T> ListenableFuture<T> invalidateAfter(
+    ListenableFuture<T> write, final String bucket, final String key, final boolean prefix)
+  {
+    ListenableFuture<T> result = Futures.transform(write, new Function<T, T>()
+    {
+      public T apply(T value)
+      {
+        invalidate(bucket, key, prefix);
+        return value;
+      }
+    });
+    return Futures.withFallback(result, new FutureFallback<T>()
+    {
+      public ListenableFuture<T> create(Throwable t)
+      {
+        invalidate(bucket, key, prefix);
+        return Futures.immediateFailedFuture(t);
+      }
+    });
+  }
+
+  private void invalidate(String bucket, String key, boolean prefix)
+  {
+    if(prefix)
+    {
+      invalidatePrefix(bucket, key);
+    }
+    else
+    {
+      invalidate(bucket, key);
+    }
+  }
+
+  private ConcurrentMap<String, Entry> getVersions(String bucket, String key)
+  {
+    String id = getId(bucket, key);
+    ConcurrentMap<String, Entry> versions = _entries.get(id);
+    if(versions == null)
+    {
+      versions = new ConcurrentHashMap<>();
+      ConcurrentMap<String, Entry> previous = _entries.putIfAbsent(id, versions);
+      if(previous != null)
+      {
+        versions = previous;
+      }
+    }
+    return versions;
+  }
+
+  private void sweep()
+  {
+    long now = System.nanoTime();
+    for(Iterator<ConcurrentMap<String, Entry>> it = _entries.values().iterator(); it.hasNext(); )
+    {
+      ConcurrentMap<String, Entry> versions = it.next();
+      for(Map.Entry<String, Entry> e : versions.entrySet())
+      {
+        if(e.getValue().isExpired(now))
+        {
+          versions.remove(e.getKey(), e.getValue());
+        }
+      }
+      if(versions.isEmpty())
+      {
+        it.remove();
+      }
+    }
+  }
+
+  private static String getId(String bucket, String key)
+  {
+    return bucket + "/" + key;
+  }
+
+  /**
+   * A lookup that is in flight until {@code _future} completes, and expires at {@code
+   * _expires} after that.
+   */
+  private static class Entry
+  {
+    final SettableFuture<Metadata> _future = SettableFuture.create();
+    volatile long _expires = Long.MAX_VALUE;
+
+    boolean isExpired(long now)
+    {
+      return _future.isDone() && now - _expires >= 0;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteVersionRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Records every request sent by an AWS S3 client in {@link ClientMetrics}.
+ * <p>
+ * The handler hooks into the AWS SDK instead of wrapping each call site, so all requests are
+ * covered, including the ones sent by the GCS client through its S3-compatible API.
+ */
+class MetricsRequestHandler
+  extends RequestHandler2
+{
+  private static final HandlerContextKey<Long> START_TIME = new HandlerContextKey<>(
+    "cloudstore-start-time");
+
+  private final ClientMetrics _metrics;
+
+  MetricsRequestHandler(ClientMetrics metrics)
+  {
+    _metrics = metrics;
+  }
+
+  /**
+   * Install a handler for {@code metrics} on {@code client}, if the client supports it.  The AWS
+   * SDK only accepts request handlers when a client is built, so the S3 clients created by
+   * cloud-store get their handler from the client builder.  Only the GCS client registers
+   * handlers after construction; other clients are left alone.
+   */
+  static void install(AmazonS3 client, ClientMetrics metrics)
+  {
+    if(client instanceof AmazonS3ClientForGCS)
+    {
+      ((AmazonS3ClientForGCS) client).registerRequestHandler(new MetricsRequestHandler(metrics));
+    }
+  }
+
+  @Override
+  public void beforeRequest(Request<?> request)
+  {
+    String type = getRequestType(request.getOriginalRequest());
+    request.addHandlerContext(START_TIME, _metrics.requestStarted(type));
+  }
+
+  @Override
+  public void afterResponse(Request<?> request, Response<?> response)
+  {
+    Long start = request.getHandlerContext(START_TIME);
+    if(start == null)
+    {
+      return;
+    }
+    AmazonWebServiceRequest original = request.getOriginalRequest();
+    _metrics.requestCompleted(getRequestType(original), start, null);
+
+    if(original instanceof UploadPartRequest)
+    {
+      _metrics.addBytesUploaded(((UploadPartRequest) original).getPartSize());
+    }
+    else if(original instanceof PutObjectRequest)
+    {
+      PutObjectRequest put = (PutObjectRequest) original;
+      if(put.getFile() != null)
+      {
+        _metrics.addBytesUploaded(put.getFile().length());
+      }
+      else if(put.getMetadata() != null)
+      {
+        _metrics.addBytesUploaded(put.getMetadata().getContentLength());
+      }
+    }
+    else if(original instanceof CopyPartRequest)
+    {
+      CopyPartRequest copy = (CopyPartRequest) original;
+      if(copy.getFirstByte() != null && copy.getLastByte() != null)
+      {
+        _metrics.addBytesCopied(copy.getLastByte() - copy.getFirstByte() + 1);
+      }
+    }
+    else if(response != null && response.getAwsResponse() instanceof S3Object)
+    {
+      // count the bytes that are actually read: the caller may read only part of the content
+      S3Object object = (S3Object) response.getAwsResponse();
+      S3ObjectInputStream content = object.getObjectContent();
+      if(content != null)
+      {
+        object.setObjectContent(new S3ObjectInputStream(new CountingInputStream(content),
+          content.getHttpRequest()));
+      }
+    }
+  }
+
+  @Override
+  public void afterError(Request<?> request, Response<?> response, Exception e)
+  {
+    Long start = request.getHandlerContext(START_TIME);
+    if(start != null)
+    {
+      _metrics.requestCompleted(getRequestType(request.getOriginalRequest()), start, e);
+    }
+  }
+
+  static String getRequestType(AmazonWebServiceRequest request)
+  {
+    if(request instanceof GetObjectMetadataRequest)
+    {
+      return ClientMetrics.HEAD;
+    }
+    if(request instanceof GetObjectRequest)
+    {
+      return (((GetObjectRequest) request).getRange() != null) ? ClientMetrics.GET_RANGE :
+        ClientMetrics.GET;
+    }
+    if(request instanceof PutObjectRequest)
+    {
+      return ClientMetrics.PUT;
+    }
+    if(request instanceof InitiateMultipartUploadRequest)
+    {
+      return ClientMetrics.INITIATE;
+    }
+    if(request instanceof UploadPartRequest)
+    {
+      return ClientMetrics.UPLOAD_PART;
+    }
+    if(request instanceof CopyPartRequest)
+    {
+      return ClientMetrics.COPY_PART;
+    }
+    if(request instanceof CompleteMultipartUploadRequest)
+    {
+      return ClientMetrics.COMPLETE;
+    }
+    if(request instanceof AbortMultipartUploadRequest)
+    {
+      return ClientMetrics.ABORT;
+    }
+    if(request instanceof CopyObjectRequest)
+    {
+      return ClientMetrics.COPY;
+    }
+    if(request instanceof DeleteObjectRequest || request instanceof DeleteObjectsRequest ||
+      request instanceof DeleteVersionRequest)
+    {
+      return ClientMetrics.DELETE;
+    }
+    if(request instanceof ListObjectsRequest || request instanceof ListObjectsV2Request ||
+      request instanceof ListVersionsRequest || request instanceof ListMultipartUploadsRequest ||
+      request instanceof ListPartsRequest)
+    {
+      return ClientMetrics.LIST;
+    }
+
+    String name = (request == null) ? "Unknown" : request.getClass().getSimpleName();
+    return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+  }
+
+  /**
+   * Adds the bytes read from an object to the downloaded bytes of the metrics.
+   */
+  private class CountingInputStream
+    extends FilterInputStream
+  {
+    CountingInputStream(InputStream in)
+    {
+      super(in);
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      int b = super.read();
+      if(b != -1)
+      {
+        _metrics.addBytesDownloaded(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      int n = super.read(b, off, len);
+      if(n > 0)
+      {
+        _metrics.addBytesDownloaded(n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n)
+      throws IOException
+    {
+      long skipped = super.skip(n);
+      if(skipped > 0)
+      {
+        _metrics.addBytesDownloaded(skipped);
+      }
+      return skipped;
+    }
+  }
+}
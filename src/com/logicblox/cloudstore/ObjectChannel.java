@@ -0,0 +1,236 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Functions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Read-only channel over an object, backed by an LRU cache of fixed-size blocks.
+ * <p>
+ * Every block is fetched with a ranged read of the opened download, so encrypted objects are
+ * decrypted and compressed objects decompressed per chunk, and only the chunks, or segments,
+ * that overlap the block are fetched.  When a read moves on to the block right after the
+ * previous one, the following blocks are fetched in the background, so a sequential reader
+ * rarely waits for a request.  Blocks that are being fetched count towards the cache size.
+ * <p>
+ * The channel is thread-safe, but reads and position changes are serialized.
+ */
+class ObjectChannel
+  implements SeekableByteChannel
+{
+  private final S3DownloadCommand _command;
+  private final S3Download _download;
+  private final long _size;
+  private final int _blockSize;
+  private final int _readAheadBlocks;
+  private final Map<Long, ListenableFuture<byte[]>> _blocks;
+
+  private long _position = 0;
+  private long _lastBlock = -1;
+  private boolean _open = true;
+
+  ObjectChannel(
+    S3DownloadCommand command, S3Download download, long size, int blockSize,
+    int readAheadBlocks, final int maxCachedBlocks)
+  {
+    _command = command;
+    _download = download;
+    _size = size;
+    _blockSize = blockSize;
+    _readAheadBlocks = readAheadBlocks;
+    _blocks = new LinkedHashMap<Long, ListenableFuture<byte[]>>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, ListenableFuture<byte[]>> eldest)
+      {
+        return size() > maxCachedBlocks;
+      }
+    };
+  }
+
+  @Override
+  public synchronized int read(ByteBuffer dst)
+    throws IOException
+  {
+    checkOpen();
+    if(_position >= _size)
+    {
+      return -1;
+    }
+
+    int count = 0;
+    while(dst.hasRemaining() && _position < _size)
+    {
+      long block = _position / _blockSize;
+      ListenableFuture<byte[]> future = getBlock(block);
+      if(count > 0 && !future.isDone())
+      {
+        // return what we have rather than wait for the next request
+        break;
+      }
+      byte[] bytes = await(block, future);
+      int inBlock = (int) (_position - block * _blockSize);
+      int length = Math.min(dst.remaining(), bytes.length - inBlock);
+      dst.put(bytes, inBlock, length);
+      _position += length;
+      count += length;
+    }
+    return count;
+  }
+
+  @Override
+  public int write(ByteBuffer src)
+  {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public synchronized long position()
+    throws IOException
+  {
+    checkOpen();
+    return _position;
+  }
+
+  @Override
+  public synchronized SeekableByteChannel position(long newPosition)
+    throws IOException
+  {
+    checkOpen();
+    if(newPosition < 0)
+    {
+      throw new IllegalArgumentException("Negative position: " + newPosition);
+    }
+    _position = newPosition;
+    return this;
+  }
+
+  @Override
+  public long size()
+    throws IOException
+  {
+    checkOpen();
+    return _size;
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size)
+  {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public synchronized boolean isOpen()
+  {
+    return _open;
+  }
+
+  /**
+   * Close the channel and drop the cached blocks.  Blocks that are being fetched are not
+   * cancelled, but their data is discarded.
+   */
+  @Override
+  public synchronized void close()
+  {
+    _open = false;
+    _blocks.clear();
+  }
+
+  private void checkOpen()
+    throws ClosedChannelException
+  {
+    if(!_open)
+    {
+      throw new ClosedChannelException();
+    }
+  }
+
+  /**
+   * Return the block at index {@code block}, fetching it if it is not cached, and start
+   * read-ahead if the reader has moved on to the next block.
+   */
+  private ListenableFuture<byte[]> getBlock(long block)
+    throws IOException
+  {
+    ListenableFuture<byte[]> future = fetch(block);
+    if(block != _lastBlock)
+    {
+      boolean sequential = block == _lastBlock + 1;
+      _lastBlock = block;
+      if(sequential)
+      {
+        for(long next = block + 1;
+            next <= block + _readAheadBlocks && next * _blockSize < _size;
+            ++next)
+        {
+          fetch(next);
+        }
+      }
+    }
+    return future;
+  }
+
+  private ListenableFuture<byte[]> fetch(long block)
+    throws IOException
+  {
+    ListenableFuture<byte[]> future = _blocks.get(block);
+    if(future == null)
+    {
+      long offset = block * _blockSize;
+      byte[] bytes = new byte[(int) Math.min(_blockSize, _size - offset)];
+      future = Futures.transform(
+        _command.read(_download, Collections.singletonList(new ByteRange(offset, bytes.length)),
+          new ByteArraySink(bytes)), Functions.constant(bytes));
+      _blocks.put(block, future);
+    }
+    return future;
+  }
+
+  private byte[] await(long block, ListenableFuture<byte[]> future)
+    throws IOException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch(InterruptedException exc)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading block " + block);
+    }
+    catch(ExecutionException exc)
+    {
+      // a later read fetches the block again
+      _blocks.remove(block);
+      throw new IOException("Error reading " + _command.getUri(_download.getBucketName(),
+        _download.getObjectKey()) + " at offset " + block * _blockSize, exc.getCause());
+    }
+  }
+}
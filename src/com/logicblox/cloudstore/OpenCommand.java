@@ -0,0 +1,68 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Opens an object as a {@link SeekableByteChannel}.  The metadata of the object, and the
+ * index of a compressed object, are loaded once, after which the channel reads blocks of the
+ * object with ranged downloads that do not look up the metadata again.
+ */
+class OpenCommand
+  extends Command
+{
+  private OpenOptions _options;
+
+  public OpenCommand(OpenOptions options)
+  {
+    super(options);
+    _options = options;
+  }
+
+  public ListenableFuture<SeekableByteChannel> run()
+    throws IOException
+  {
+    // the sink is never used: every block read passes its own
+    DownloadOptions options = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setSink(DownloadSink.NULL)
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(_options.getObjectKey())
+      .setVersion(_options.getVersion().orElse(null))
+      .createOptions();
+    final S3DownloadCommand command = new S3DownloadCommand(options);
+    command.setRetryCount(_retryCount);
+    command.setRetryClientException(_stubborn);
+    command.setS3Client(getS3Client());
+    command.setScheme(getScheme());
+
+    return Futures.transform(command.open(), new Function<S3Download, SeekableByteChannel>()
+    {
+      public SeekableByteChannel apply(S3Download download)
+      {
+        return new ObjectChannel(command, download, command.getFileLength(),
+          _options.getBlockSize(), _options.getReadAheadBlocks(), _options.getMaxCachedBlocks());
+      }
+    });
+  }
+}
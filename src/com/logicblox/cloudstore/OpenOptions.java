@@ -0,0 +1,119 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.util.Optional;
+
+/**
+ * {@code OpenOptions} contains all the details needed by the open operation, which returns a
+ * {@link java.nio.channels.SeekableByteChannel} that reads an object in place.
+ * <p>
+ * The channel reads the object in blocks of {@code _blockSize} bytes and keeps at most {@code
+ * _maxCachedBlocks} of them.  When it is read sequentially it fetches the next {@code
+ * _readAheadBlocks} blocks in the background.
+ * <p>
+ * {@code OpenOptions} objects are meant to be built by {@code OpenOptionsBuilder}. This class
+ * provides only public accessor methods.
+ *
+ * @see OpenOptionsBuilder
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#open(OpenOptions)
+ * @see OptionsBuilderFactory#newOpenOptionsBuilder()
+ */
+public class OpenOptions
+  extends CommandOptions
+{
+  private final String _bucketName;
+  private final String _objectKey;
+  private final String _version;
+  private final int _blockSize;
+  private final int _readAheadBlocks;
+  private final int _maxCachedBlocks;
+
+  OpenOptions(
+    CloudStoreClient cloudStoreClient, String bucketName, String objectKey, String version,
+    int blockSize, int readAheadBlocks, int maxCachedBlocks)
+  {
+    super(cloudStoreClient);
+    _bucketName = bucketName;
+    _objectKey = objectKey;
+    _version = version;
+    _blockSize = blockSize;
+    _readAheadBlocks = readAheadBlocks;
+    _maxCachedBlocks = maxCachedBlocks;
+  }
+
+  /**
+   * Return the name of the bucket containing the object to open.
+   *
+   * @return bucket name
+   */
+  public String getBucketName()
+  {
+    return _bucketName;
+  }
+
+  /**
+   * Return the key of the object to open.
+   *
+   * @return object key
+   */
+  public String getObjectKey()
+  {
+    return _objectKey;
+  }
+
+  /**
+   * Return the version of the object to open.
+   *
+   * @return optional version of the object
+   */
+  public Optional<String> getVersion()
+  {
+    return Optional.ofNullable(_version);
+  }
+
+  /**
+   * Return the number of bytes fetched with one request.
+   *
+   * @return block size in bytes
+   */
+  public int getBlockSize()
+  {
+    return _blockSize;
+  }
+
+  /**
+   * Return the number of blocks fetched ahead of a sequential reader.
+   *
+   * @return read-ahead in blocks
+   */
+  public int getReadAheadBlocks()
+  {
+    return _readAheadBlocks;
+  }
+
+  /**
+   * Return the largest number of blocks the channel keeps in memory.
+   *
+   * @return cache size in blocks
+   */
+  public int getMaxCachedBlocks()
+  {
+    return _maxCachedBlocks;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+/**
+ * {@code OpenOptionsBuilder} is used to create and set properties for {@code OpenOptions}
+ * objects used to control behavior of the cloud-store open command.
+ * <p>
+ * Setting {@code bucketName} and {@code objectKey} is mandatory.  The defaults cache up to 16
+ * blocks of 1 MB and read 4 blocks ahead.
+ *
+ * @see OpenOptions
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#open(OpenOptions)
+ * @see OptionsBuilderFactory#newOpenOptionsBuilder()
+ */
+public class OpenOptionsBuilder
+  extends CommandOptionsBuilder
+{
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+  public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+  public static final int DEFAULT_MAX_CACHED_BLOCKS = 16;
+
+  private String _bucketName;
+  private String _objectKey;
+  private String _version;
+  private int _blockSize = DEFAULT_BLOCK_SIZE;
+  private int _readAheadBlocks = DEFAULT_READ_AHEAD_BLOCKS;
+  private int _maxCachedBlocks = DEFAULT_MAX_CACHED_BLOCKS;
+
+  OpenOptionsBuilder(CloudStoreClient client)
+  {
+    _cloudStoreClient = client;
+  }
+
+  /**
+   * Set the name of the bucket containing the object to open.
+   *
+   * @param bucket name of bucket
+   * @return this builder
+   */
+  public OpenOptionsBuilder setBucketName(String bucket)
+  {
+    _bucketName = bucket;
+    return this;
+  }
+
+  /**
+   * Set the key of the object to open.
+   *
+   * @param objectKey key of object to open
+   * @return this builder
+   */
+  public OpenOptionsBuilder setObjectKey(String objectKey)
+  {
+    _objectKey = objectKey;
+    return this;
+  }
+
+  /**
+   * Set the version of the object to open.
+   *
+   * @param version version of object to open
+   * @return this builder
+   */
+  public OpenOptionsBuilder setVersion(String version)
+  {
+    _version = version;
+    return this;
+  }
+
+  /**
+   * Set the number of bytes fetched with one request.  Blocks do not have to line up with the
+   * chunks of the object.
+   *
+   * @param blockSize block size in bytes
+   * @return this builder
+   */
+  public OpenOptionsBuilder setBlockSize(int blockSize)
+  {
+    _blockSize = blockSize;
+    return this;
+  }
+
+  /**
+   * Set the number of blocks fetched ahead of a sequential reader, or 0 to disable read-ahead.
+   *
+   * @param readAheadBlocks read-ahead in blocks
+   * @return this builder
+   */
+  public OpenOptionsBuilder setReadAheadBlocks(int readAheadBlocks)
+  {
+    _readAheadBlocks = readAheadBlocks;
+    return this;
+  }
+
+  /**
+   * Set the largest number of blocks the channel keeps in memory.  The least recently used
+   * block is dropped first.
+   *
+   * @param maxCachedBlocks cache size in blocks
+   * @return this builder
+   */
+  public OpenOptionsBuilder setMaxCachedBlocks(int maxCachedBlocks)
+  {
+    _maxCachedBlocks = maxCachedBlocks;
+    return this;
+  }
+
+  private void validateOptions()
+  {
+    if(_cloudStoreClient == null)
+    {
+      throw new UsageException("CloudStoreClient has to be set");
+    }
+    else if(_bucketName == null)
+    {
+      throw new UsageException("Bucket has to be set");
+    }
+    else if(_objectKey == null)
+    {
+      throw new UsageException("Object key has to be set");
+    }
+    else if(_blockSize <= 0)
+    {
+      throw new UsageException("Block size has to be positive");
+    }
+    else if(_readAheadBlocks < 0)
+    {
+      throw new UsageException("Read-ahead cannot be negative");
+    }
+    else if(_maxCachedBlocks <= _readAheadBlocks)
+    {
+      throw new UsageException("Cache has to hold more blocks than are read ahead");
+    }
+  }
+
+  /**
+   * Validate that all required parameters are set and if so return a new {@link OpenOptions}
+   * object.
+   *
+   * @return immutable options object with values from this builder
+   */
+  @Override
+  public OpenOptions createOptions()
+  {
+    validateOptions();
+
+    return new OpenOptions(_cloudStoreClient, _bucketName, _objectKey, _version, _blockSize,
+      _readAheadBlocks, _maxCachedBlocks);
+  }
+}
@@ -36,6 +36,16 @@ public class OptionsBuilderFactory
     _client = client;
   }
 
+  /**
+   * Return a new builder for {@link ConcatOptions}.
+   * 
+   * @return builder for ConcatOptions
+   */
+  public ConcatOptionsBuilder newConcatOptionsBuilder()
+  {
+    return new ConcatOptionsBuilder(_client);
+  }
+
   /**
    * Return a new builder for {@link CopyOptions}.
    * 
@@ -96,6 +106,16 @@ public class OptionsBuilderFactory
     return new ListOptionsBuilder(_client);
   }
 
+  /**
+   * Return a new builder for {@link OpenOptions}.
+   * 
+   * @return builder for OpenOptions
+   */
+  public OpenOptionsBuilder newOpenOptionsBuilder()
+  {
+    return new OpenOptionsBuilder(_client);
+  }
+
   /**
    * Return a new builder for {@link PendingUploadsOptions}.
    * 
@@ -106,6 +126,26 @@ public class OptionsBuilderFactory
     return new PendingUploadsOptionsBuilder(_client);
   }
 
+  /**
+   * Return a new builder for {@link ReadOptions}.
+   * 
+   * @return builder for ReadOptions
+   */
+  public ReadOptionsBuilder newReadOptionsBuilder()
+  {
+    return new ReadOptionsBuilder(_client);
+  }
+
+  /**
+   * Return a new builder for {@link VectoredReadOptions}.
+   * 
+   * @return builder for VectoredReadOptions
+   */
+  public VectoredReadOptionsBuilder newVectoredReadOptionsBuilder()
+  {
+    return new VectoredReadOptionsBuilder(_client);
+  }
+
   /**
    * Return a new builder for {@link RenameOptions}.
    * 
@@ -116,6 +156,16 @@ public class OptionsBuilderFactory
     return new RenameOptionsBuilder(_client);
   }
 
+  /**
+   * Return a new builder for {@link SyncOptions}.
+   * 
+   * @return builder for SyncOptions
+   */
+  public SyncOptionsBuilder newSyncOptionsBuilder()
+  {
+    return new SyncOptionsBuilder(_client);
+  }
+
   /**
    * Return a new builder for {@link UploadOptions}.
    * 
@@ -125,4 +175,14 @@ public class OptionsBuilderFactory
   {
     return new UploadOptionsBuilder(_client);
   }
+
+  /**
+   * Return a new builder for {@link VerifyOptions}.
+   * 
+   * @return builder for VerifyOptions
+   */
+  public VerifyOptionsBuilder newVerifyOptionsBuilder()
+  {
+    return new VerifyOptionsBuilder(_client);
+  }
 }
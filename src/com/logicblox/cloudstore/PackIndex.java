@@ -0,0 +1,211 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Index of the files that a packed recursive upload bundled into tar archives.
+ * <p>
+ * A packed upload to prefix {@code p} stores its archives as {@code p.cloud-store-pack/0.tar},
+ * {@code p.cloud-store-pack/1.tar} and so on, and this index as {@code
+ * p.cloud-store-pack/index}.  The index is uploaded after all archives, so an index never
+ * refers to archives that are missing.
+ * <p>
+ * The index is gzip-compressed text: a header line followed by one line per file with the
+ * number of the archive, the offset and length of the data of the file in the archive, and
+ * the path of the file relative to {@code p}, separated by tabs.  Backslashes, tabs and line
+ * breaks in paths are escaped with a backslash.
+ */
+class PackIndex
+{
+  static final String DIRECTORY = ".cloud-store-pack/";
+
+  private static final String INDEX_NAME = "index";
+  private static final String HEADER = "cloud-store-pack 1";
+
+  private final List<Entry> _entries = new ArrayList<>();
+
+  static String getIndexKey(String prefix)
+  {
+    return prefix + DIRECTORY + INDEX_NAME;
+  }
+
+  static String getArchiveKey(String prefix, int archive)
+  {
+    return prefix + DIRECTORY + archive + ".tar";
+  }
+
+  /**
+   * Return true if {@code key} is an archive or index of a packed upload.
+   */
+  static boolean isPackKey(String key)
+  {
+    return key.startsWith(DIRECTORY) || key.contains("/" + DIRECTORY);
+  }
+
+  static boolean isIndexKey(String key)
+  {
+    return isPackKey(key) && key.endsWith(DIRECTORY + INDEX_NAME);
+  }
+
+  /**
+   * Return the prefix of the packed upload that {@code indexKey} belongs to.
+   */
+  static String getPrefix(String indexKey)
+  {
+    return indexKey.substring(0, indexKey.length() - (DIRECTORY + INDEX_NAME).length());
+  }
+
+  synchronized void add(String path, int archive, long offset, long length)
+  {
+    _entries.add(new Entry(path, archive, offset, length));
+  }
+
+  synchronized List<Entry> getEntries()
+  {
+    return Collections.unmodifiableList(new ArrayList<>(_entries));
+  }
+
+  synchronized boolean isEmpty()
+  {
+    return _entries.isEmpty();
+  }
+
+  synchronized byte[] toBytes()
+    throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes),
+      StandardCharsets.UTF_8))
+    {
+      out.write(HEADER + "\n");
+      for(Entry e : _entries)
+      {
+        out.write(e._archive + "\t" + e._offset + "\t" + e._length + "\t" + escape(e._path) +
+          "\n");
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  static PackIndex parse(byte[] bytes)
+    throws IOException
+  {
+    PackIndex index = new PackIndex();
+    try(BufferedReader in = new BufferedReader(new InputStreamReader(
+      new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8)))
+    {
+      if(!HEADER.equals(in.readLine()))
+      {
+        throw new IOException("Not an index of packed files");
+      }
+      String line;
+      while((line = in.readLine()) != null)
+      {
+        String[] fields = line.split("\t", 4);
+        if(fields.length != 4)
+        {
+          throw new IOException("Invalid line in index of packed files: " + line);
+        }
+        try
+        {
+          index.add(unescape(fields[3]), Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+            Long.parseLong(fields[2]));
+        }
+        catch(NumberFormatException exc)
+        {
+          throw new IOException("Invalid line in index of packed files: " + line);
+        }
+      }
+    }
+    return index;
+  }
+
+  private static String escape(String path)
+  {
+    return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n")
+      .replace("\r", "\\r");
+  }
+
+  private static String unescape(String path)
+  {
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < path.length(); ++i)
+    {
+      char c = path.charAt(i);
+      if(c == '\\' && i + 1 < path.length())
+      {
+        c = path.charAt(++i);
+        c = (c == 't') ? '\t' : (c == 'n') ? '\n' : (c == 'r') ? '\r' : c;
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A file in an archive.
+   */
+  static class Entry
+  {
+    private final String _path;
+    private final int _archive;
+    private final long _offset;
+    private final long _length;
+
+    Entry(String path, int archive, long offset, long length)
+    {
+      _path = path;
+      _archive = archive;
+      _offset = offset;
+      _length = length;
+    }
+
+    String getPath()
+    {
+      return _path;
+    }
+
+    int getArchive()
+    {
+      return _archive;
+    }
+
+    long getOffset()
+    {
+      return _offset;
+    }
+
+    long getLength()
+    {
+      return _length;
+    }
+  }
+}
@@ -0,0 +1,271 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * MD5 digests of the parts of an object, stored in an object next to it by delta uploads.
+ * <p>
+ * A delta upload compares the digests of the parts of the local file with the manifest of the
+ * object it replaces, and copies the unchanged parts from that object on the server instead of
+ * uploading them.  The manifest records the ETag of the object it describes, so a manifest that
+ * is out of date because the object was replaced by another upload is detected and ignored.
+ * <p>
+ * The manifest is a small text object: a header line, the ETag, the chunk size and the file
+ * length of the object, followed by one hex digest per part.
+ */
+class PartManifest
+{
+  /**
+   * Suffix of the key of the manifest, appended to the key of the object it describes.
+   */
+  static final String SUFFIX = ".s3tool-parts";
+
+  /**
+   * User metadata of an object that records that it was uploaded with a manifest, so only
+   * those objects pay for deleting one.
+   */
+  static final String METADATA_KEY = "s3tool-part-manifest";
+
+  private static final String HEADER = "s3tool-parts 1";
+
+  private final String _etag;
+  private final long _chunkSize;
+  private final long _fileLength;
+  private final List<byte[]> _digests;
+
+  PartManifest(String etag, long chunkSize, long fileLength, List<byte[]> digests)
+  {
+    _etag = etag;
+    _chunkSize = chunkSize;
+    _fileLength = fileLength;
+    _digests = Collections.unmodifiableList(new ArrayList<>(digests));
+  }
+
+  static String getKey(String objectKey)
+  {
+    return objectKey + SUFFIX;
+  }
+
+  static boolean isManifestKey(String key)
+  {
+    return key.endsWith(SUFFIX);
+  }
+
+  String getETag()
+  {
+    return _etag;
+  }
+
+  long getChunkSize()
+  {
+    return _chunkSize;
+  }
+
+  long getFileLength()
+  {
+    return _fileLength;
+  }
+
+  List<byte[]> getDigests()
+  {
+    return _digests;
+  }
+
+  /**
+   * Return the size of part {@code partNumber} (0-based) of the object.
+   */
+  long getPartSize(int partNumber)
+  {
+    return Math.min(_chunkSize, _fileLength - partNumber * _chunkSize);
+  }
+
+  byte[] toBytes()
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append('\n');
+    sb.append(_etag).append('\n');
+    sb.append(_chunkSize).append('\n');
+    sb.append(_fileLength).append('\n');
+    for(byte[] digest : _digests)
+    {
+      sb.append(Hex.encodeHexString(digest)).append('\n');
+    }
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse a manifest, or return null if it is not one.
+   */
+  static PartManifest parse(byte[] bytes)
+  {
+    String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\n");
+    if(lines.length < 4 || !lines[0].equals(HEADER))
+    {
+      return null;
+    }
+    try
+    {
+      List<byte[]> digests = new ArrayList<>();
+      for(int i = 4; i < lines.length; ++i)
+      {
+        digests.add(Hex.decodeHex(lines[i].toCharArray()));
+      }
+      return new PartManifest(lines[1], Long.parseLong(lines[2]), Long.parseLong(lines[3]),
+        digests);
+    }
+    catch(NumberFormatException | DecoderException exc)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Read the manifest of an object.  The future contains null if the object has no manifest.
+   */
+  static ListenableFuture<PartManifest> load(
+    final AmazonS3 client, ListeningExecutorService executor, final String bucket,
+    final String objectKey)
+  {
+    return executor.submit(new Callable<PartManifest>()
+    {
+      public PartManifest call()
+        throws IOException
+      {
+        S3Object object;
+        try
+        {
+          object = client.getObject(bucket, getKey(objectKey));
+        }
+        catch(AmazonS3Exception exc)
+        {
+          if(exc.getStatusCode() == 404)
+          {
+            return null;
+          }
+          throw exc;
+        }
+        try(InputStream in = object.getObjectContent())
+        {
+          return parse(IOUtils.toByteArray(in));
+        }
+      }
+    });
+  }
+
+  /**
+   * Write this manifest next to the object {@code objectKey}.
+   */
+  ListenableFuture<Void> store(
+    final AmazonS3 client, ListeningExecutorService executor, final String bucket,
+    final String objectKey, final String cannedAcl)
+  {
+    return executor.submit(new Callable<Void>()
+    {
+      public Void call()
+      {
+        byte[] bytes = toBytes();
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        metadata.setContentType("text/plain");
+        PutObjectRequest req = new PutObjectRequest(bucket, getKey(objectKey),
+          new ByteArrayInputStream(bytes), metadata);
+        req.setCannedAcl(S3Client.getCannedAcl(cannedAcl));
+        client.putObject(req);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Copy the manifest of the object {@code sourceKey}, if it has one, next to the object
+   * {@code destinationKey}.
+   */
+  static ListenableFuture<Void> copy(
+    final AmazonS3 client, ListeningExecutorService executor, final String sourceBucket,
+    final String sourceKey, final String destinationBucket, final String destinationKey,
+    final String cannedAcl)
+  {
+    return executor.submit(new Callable<Void>()
+    {
+      public Void call()
+      {
+        CopyObjectRequest req = new CopyObjectRequest(sourceBucket, getKey(sourceKey),
+          destinationBucket, getKey(destinationKey));
+        req.setCannedAccessControlList(S3Client.getCannedAcl(cannedAcl));
+        try
+        {
+          client.copyObject(req);
+        }
+        catch(AmazonS3Exception exc)
+        {
+          if(exc.getStatusCode() != 404)
+          {
+            throw exc;
+          }
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Drop the manifests of listed objects from a listing.  Copying, renaming or deleting an
+   * object takes its manifest along, so only manifests without their object are left.
+   */
+  static List<StoreFile> withoutAttachedManifests(List<StoreFile> files)
+  {
+    Set<String> keys = new HashSet<>();
+    for(StoreFile f : files)
+    {
+      keys.add(f.getBucketName() + "/" + f.getObjectKey());
+    }
+    List<StoreFile> result = new ArrayList<>();
+    for(StoreFile f : files)
+    {
+      String key = f.getObjectKey();
+      if(!isManifestKey(key) || !keys.contains(
+        f.getBucketName() + "/" + key.substring(0, key.length() - SUFFIX.length())))
+      {
+        result.add(f);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Selects files of a recursive transfer by include and exclude globs over their paths relative
+ * to the root of the transfer.  Files and directories that match an exclude glob are skipped,
+ * and if there are include globs, only files that match one of them are selected.
+ *
+ * @see FileSystem#getPathMatcher(String)
+ */
+class PathFilter
+{
+  private final List<PathMatcher> _includes;
+  private final List<PathMatcher> _excludes;
+
+  PathFilter(List<String> includes, List<String> excludes)
+  {
+    _includes = compile(includes);
+    _excludes = compile(excludes);
+  }
+
+  /**
+   * Throw a {@link UsageException} if one of the globs is not valid.
+   */
+  static void validate(List<String> globs)
+  {
+    for(String glob : globs)
+    {
+      try
+      {
+        FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      }
+      catch(PatternSyntaxException exc)
+      {
+        throw new UsageException("Invalid glob '" + glob + "': " + exc.getDescription());
+      }
+    }
+  }
+
+  /**
+   * Return true if the file or directory itself matches an exclude glob.
+   */
+  boolean isExcluded(Path relPath)
+  {
+    return matches(_excludes, relPath);
+  }
+
+  /**
+   * Return true if a file that is not excluded itself matches the include globs.
+   */
+  boolean isIncluded(Path relPath)
+  {
+    return _includes.isEmpty() || matches(_includes, relPath);
+  }
+
+  /**
+   * Return true if neither the file nor any directory above it is excluded, and the file is
+   * included.  Walks skip excluded directories instead.
+   */
+  boolean accepts(Path relPath)
+  {
+    for(Path path = relPath; path != null; path = path.getParent())
+    {
+      if(isExcluded(path))
+      {
+        return false;
+      }
+    }
+    return isIncluded(relPath);
+  }
+
+  private static List<PathMatcher> compile(List<String> globs)
+  {
+    FileSystem fs = FileSystems.getDefault();
+    List<PathMatcher> matchers = new ArrayList<>();
+    for(String glob : globs)
+    {
+      matchers.add(fs.getPathMatcher("glob:" + glob));
+    }
+    return matchers;
+  }
+
+  private static boolean matches(List<PathMatcher> matchers, Path path)
+  {
+    for(PathMatcher matcher : matchers)
+    {
+      if(matcher.matches(path))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+
+/**
+ * Reads a range of an object into memory with a ranged download whose sink is a byte array.
+ */
+class ReadCommand
+  extends Command
+{
+  private ReadOptions _options;
+
+  public ReadCommand(ReadOptions options)
+  {
+    super(options);
+    _options = options;
+  }
+
+  public ListenableFuture<byte[]> run()
+    throws IOException
+  {
+    final byte[] bytes = new byte[_options.getLength()];
+    DownloadSink sink = new ByteArraySink(bytes);
+
+    DownloadOptions options = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setSink(sink)
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(_options.getObjectKey())
+      .setVersion(_options.getVersion().orElse(null))
+      .setRange(_options.getOffset(), _options.getLength())
+      .createOptions();
+    return Futures.transform(_client.download(options), new Function<StoreFile, byte[]>()
+    {
+      public byte[] apply(StoreFile f)
+      {
+        return bytes;
+      }
+    });
+  }
+}
@@ -0,0 +1,103 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.util.Optional;
+
+/**
+ * {@code ReadOptions} contains all the details needed by the read operation, which returns
+ * {@code _length} bytes of an object, starting at {@code _offset}, in memory.
+ * <p>
+ * {@code ReadOptions} objects are meant to be built by {@code ReadOptionsBuilder}. This class
+ * provides only public accessor methods.
+ *
+ * @see ReadOptionsBuilder
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#read(ReadOptions)
+ * @see OptionsBuilderFactory#newReadOptionsBuilder()
+ */
+public class ReadOptions
+  extends CommandOptions
+{
+  private final String _bucketName;
+  private final String _objectKey;
+  private final String _version;
+  private final long _offset;
+  private final int _length;
+
+  ReadOptions(
+    CloudStoreClient cloudStoreClient, String bucketName, String objectKey, String version,
+    long offset, int length)
+  {
+    super(cloudStoreClient);
+    _bucketName = bucketName;
+    _objectKey = objectKey;
+    _version = version;
+    _offset = offset;
+    _length = length;
+  }
+
+  /**
+   * Return the name of the bucket containing the object to read.
+   *
+   * @return bucket name
+   */
+  public String getBucketName()
+  {
+    return _bucketName;
+  }
+
+  /**
+   * Return the key of the object to read.
+   *
+   * @return object key
+   */
+  public String getObjectKey()
+  {
+    return _objectKey;
+  }
+
+  /**
+   * Return the version of the object to read.
+   *
+   * @return optional version of the object
+   */
+  public Optional<String> getVersion()
+  {
+    return Optional.ofNullable(_version);
+  }
+
+  /**
+   * Return the offset of the first byte to read.
+   *
+   * @return offset in the (decrypted) object
+   */
+  public long getOffset()
+  {
+    return _offset;
+  }
+
+  /**
+   * Return the number of bytes to read.
+   *
+   * @return length of the range
+   */
+  public int getLength()
+  {
+    return _length;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+/**
+ * {@code ReadOptionsBuilder} is used to create and set properties for {@code ReadOptions}
+ * objects used to control behavior of the cloud-store read command.
+ * <p>
+ * Setting {@code bucketName}, {@code objectKey}, {@code offset} and {@code length} is
+ * mandatory.
+ *
+ * @see ReadOptions
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#read(ReadOptions)
+ * @see OptionsBuilderFactory#newReadOptionsBuilder()
+ */
+public class ReadOptionsBuilder
+  extends CommandOptionsBuilder
+{
+  private String _bucketName;
+  private String _objectKey;
+  private String _version;
+  private long _offset = -1;
+  private long _length = -1;
+
+  ReadOptionsBuilder(CloudStoreClient client)
+  {
+    _cloudStoreClient = client;
+  }
+
+  /**
+   * Set the name of the bucket containing the object to read.
+   *
+   * @param bucket name of bucket
+   * @return this builder
+   */
+  public ReadOptionsBuilder setBucketName(String bucket)
+  {
+    _bucketName = bucket;
+    return this;
+  }
+
+  /**
+   * Set the key of the object to read.
+   *
+   * @param objectKey key of object to read
+   * @return this builder
+   */
+  public ReadOptionsBuilder setObjectKey(String objectKey)
+  {
+    _objectKey = objectKey;
+    return this;
+  }
+
+  /**
+   * Set the version of the object to read.
+   *
+   * @param version version of object to read
+   * @return this builder
+   */
+  public ReadOptionsBuilder setVersion(String version)
+  {
+    _version = version;
+    return this;
+  }
+
+  /**
+   * Set the offset of the first byte to read.  Offsets of encrypted or compressed objects
+   * refer to the original file, not to the stored object.
+   *
+   * @param offset offset of the first byte
+   * @return this builder
+   */
+  public ReadOptionsBuilder setOffset(long offset)
+  {
+    _offset = offset;
+    return this;
+  }
+
+  /**
+   * Set the number of bytes to read.
+   *
+   * @param length number of bytes, at most {@link Integer#MAX_VALUE}
+   * @return this builder
+   */
+  public ReadOptionsBuilder setLength(long length)
+  {
+    _length = length;
+    return this;
+  }
+
+  private void validateOptions()
+  {
+    if(_cloudStoreClient == null)
+    {
+      throw new UsageException("CloudStoreClient has to be set");
+    }
+    else if(_bucketName == null)
+    {
+      throw new UsageException("Bucket has to be set");
+    }
+    else if(_objectKey == null)
+    {
+      throw new UsageException("Object key has to be set");
+    }
+    else if(_offset < 0)
+    {
+      throw new UsageException("Offset has to be set and cannot be negative");
+    }
+    else if(_length < 0)
+    {
+      throw new UsageException("Length has to be set and cannot be negative");
+    }
+    else if(_length > Integer.MAX_VALUE)
+    {
+      throw new UsageException("Length cannot be larger than " + Integer.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Validate that all required parameters are set and if so return a new {@link ReadOptions}
+   * object.
+   *
+   * @return immutable options object with values from this builder
+   */
+  @Override
+  public ReadOptions createOptions()
+  {
+    validateOptions();
+
+    return new ReadOptions(_cloudStoreClient, _bucketName, _objectKey, _version, _offset,
+      (int) _length);
+  }
+}
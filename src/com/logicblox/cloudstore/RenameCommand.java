@@ -46,7 +46,8 @@ class RenameCommand
 
     if(_options.isDryRun())
     {
-      System.out.println("<DRYRUN> renaming '" + getSourceUri() + "' to '" + getDestUri() + "'");
+      _client.getOutput().println("<DRYRUN> renaming '" + getSourceUri() + "' to '" +
+        getDestUri() + "'");
       return Futures.immediateFuture(null);
     }
 
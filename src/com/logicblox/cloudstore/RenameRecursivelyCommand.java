@@ -177,7 +177,7 @@ class RenameRecursivelyCommand
 
     List<ListenableFuture<StoreFile>> futures = new ArrayList<ListenableFuture<StoreFile>>();
 
-    for(StoreFile src : matches)
+    for(StoreFile src : PartManifest.withoutAttachedManifests(matches))
     {
       DeleteOptions opts = _client.getOptionsBuilderFactory()
         .newDeleteOptionsBuilder()
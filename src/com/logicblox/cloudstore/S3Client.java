@@ -29,11 +29,16 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -75,12 +80,25 @@ public class S3Client
   S3AclHandler _aclHandler;
   private S3StorageClassHandler _storageClassHandler;
 
+  /** Metrics of the requests sent by {@code _client}. */
+  ClientMetrics _metrics;
+
+  /** Resources shared with other clients, or null if the client owns its resources. */
+  ClientResources _resources;
+
+  /** Recently looked up metadata, invalidated by writes through this client. */
+  MetadataCache _metadataCache = new MetadataCache();
+
   /** Whether or not to retry client side exception unconditionally. */
   boolean _retryClientException = false;
 
   /** The number of times we want to retry in case of an error. */
   int _retryCount = 15;
 
+  /** Streams that commands print to, or null for the standard streams. */
+  private volatile PrintStream _out;
+  private volatile PrintStream _err;
+
   /**
    * Constructs a new high-level S3 client to invoke operations on S3 or compatible service.
    * <p>
@@ -152,6 +170,7 @@ public class S3Client
     {
       _client = new AmazonS3Client();
     }
+    initMetrics();
   }
 
   /**
@@ -178,6 +197,84 @@ public class S3Client
     _client = s3Client;
     _aclHandler = new S3AclHandler(_client);
     _storageClassHandler = new S3StorageClassHandler();
+    initMetrics();
+  }
+
+  /**
+   * Constructs a new high-level S3 client whose low-level client already records its requests
+   * in {@code metrics}.
+   *
+   * @param s3Client    Low-level AWS S3 client, built with a handler for {@code metrics}
+   * @param s3Executor  Responsible for executing S3 HTTP API calls asynchronously.
+   * @param executor    Responsible for executing internal cloud-store tasks asynchronously.
+   * @param keyProvider The provider of key-pairs used to encrypt/decrypt files during
+   *                    upload/download.
+   * @param metrics     Metrics of the client, see {@link #createMetrics}
+   */
+  S3Client(
+    AmazonS3 s3Client, ListeningExecutorService s3Executor,
+    ListeningScheduledExecutorService executor, KeyProvider keyProvider, ClientMetrics metrics)
+  {
+    _executor = executor;
+    _s3Executor = s3Executor;
+    _keyProvider = keyProvider;
+    _client = s3Client;
+    _aclHandler = new S3AclHandler(_client);
+    _storageClassHandler = new S3StorageClassHandler();
+    _metrics = metrics;
+  }
+
+  /**
+   * Constructs a new high-level S3 client on resources shared with other clients.  The client
+   * takes a reference to the resources, which it releases when it is shut down.
+   *
+   * @param s3Client    Low-level AWS S3 client, usually shared through {@code resources}
+   * @param s3Executor  Responsible for executing S3 HTTP API calls asynchronously.
+   * @param executor    Responsible for executing internal cloud-store tasks asynchronously.
+   * @param keyProvider The provider of key-pairs used to encrypt/decrypt files during
+   *                    upload/download.
+   * @param resources   Shared resources, or null if the client owns its executors
+   * @see S3Client#S3Client(AmazonS3, ListeningExecutorService, ListeningScheduledExecutorService, KeyProvider)
+   */
+  S3Client(
+    AmazonS3 s3Client, ListeningExecutorService s3Executor,
+    ListeningScheduledExecutorService executor, KeyProvider keyProvider,
+    ClientResources resources)
+  {
+    _executor = executor;
+    _s3Executor = s3Executor;
+    _keyProvider = keyProvider;
+    _client = s3Client;
+    _aclHandler = new S3AclHandler(_client);
+    _storageClassHandler = new S3StorageClassHandler();
+    if(resources == null)
+    {
+      initMetrics();
+    }
+    else
+    {
+      _resources = resources.retain();
+      _metrics = resources.getMetrics();
+      resources.instrument(_client);
+    }
+  }
+
+  private void initMetrics()
+  {
+    _metrics = createMetrics(_s3Executor, _executor);
+    MetricsRequestHandler.install(_client, _metrics);
+  }
+
+  /**
+   * Create the metrics of a client that owns its executors.
+   */
+  static ClientMetrics createMetrics(
+    ListeningExecutorService s3Executor, ListeningScheduledExecutorService executor)
+  {
+    ClientMetrics metrics = new ClientMetrics(executor);
+    metrics.registerExecutor("api", s3Executor);
+    metrics.registerExecutor("internal", executor);
+    return metrics;
   }
 
   /**
@@ -217,6 +314,21 @@ public class S3Client
     _retryCount = retryCount;
   }
 
+  /**
+   * Set how long the result of {@link #exists(ExistsOptions)} is reused.  Commands check the
+   * existence of objects implicitly, often several times for the same object, and concurrent
+   * checks of an object always share one request.  Writes through this client invalidate the
+   * objects they change, but changes made by others go unnoticed for up to {@code ttl}.  The
+   * default is one second; 0 only shares requests that are in flight.
+   *
+   * @param ttl  time to reuse metadata for
+   * @param unit unit of {@code ttl}
+   */
+  public void setMetadataCacheTtl(long ttl, TimeUnit unit)
+  {
+    _metadataCache.setTtl(ttl, unit);
+  }
+
   @Override
   public void setRetryClientException(boolean retry)
   {
@@ -229,6 +341,27 @@ public class S3Client
     _client.setEndpoint(endpoint);
   }
 
+  @Override
+  public void setOutput(PrintStream out, PrintStream err)
+  {
+    _out = out;
+    _err = err;
+  }
+
+  @Override
+  public PrintStream getOutput()
+  {
+    PrintStream out = _out;
+    return (out == null) ? System.out : out;
+  }
+
+  @Override
+  public PrintStream getErrorOutput()
+  {
+    PrintStream err = _err;
+    return (err == null) ? System.err : err;
+  }
+
   @Override
   public String getScheme()
   {
@@ -303,7 +436,8 @@ public class S3Client
   {
     S3UploadCommand cmd = new S3UploadCommand(options);
     configure(cmd);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+      options.getObjectKey(), false);
   }
 
   @Override
@@ -312,7 +446,8 @@ public class S3Client
   {
     UploadRecursivelyCommand cmd = new UploadRecursivelyCommand(options);
     configure(cmd);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+      options.getObjectKey(), true);
   }
 
   @Override
@@ -321,7 +456,8 @@ public class S3Client
   {
     DeleteRecursivelyCommand cmd = new DeleteRecursivelyCommand(options);
     configure(cmd);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+      options.getObjectKey(), true);
   }
 
   @Override
@@ -329,7 +465,8 @@ public class S3Client
   {
     S3DeleteCommand cmd = new S3DeleteCommand(options);
     configure(cmd);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+      options.getObjectKey(), false);
   }
 
   @Override
@@ -360,11 +497,18 @@ public class S3Client
   }
 
   @Override
-  public ListenableFuture<Metadata> exists(ExistsOptions options)
+  public ListenableFuture<Metadata> exists(final ExistsOptions options)
   {
-    S3ExistsCommand cmd = new S3ExistsCommand(options);
-    configure(cmd);
-    return cmd.run();
+    return _metadataCache.get(options.getBucketName(), options.getObjectKey(),
+      options.getVersion().orElse(null), new Callable<ListenableFuture<Metadata>>()
+      {
+        public ListenableFuture<Metadata> call()
+        {
+          S3ExistsCommand cmd = new S3ExistsCommand(options);
+          configure(cmd);
+          return cmd.run();
+        }
+      });
   }
 
   @Override
@@ -376,6 +520,33 @@ public class S3Client
     return cmd.run();
   }
 
+  @Override
+  public ListenableFuture<byte[]> read(ReadOptions options)
+    throws IOException
+  {
+    ReadCommand cmd = new ReadCommand(options);
+    configure(cmd);
+    return cmd.run();
+  }
+
+  @Override
+  public ListenableFuture<List<ByteBuffer>> readVectored(VectoredReadOptions options)
+    throws IOException
+  {
+    VectoredReadCommand cmd = new VectoredReadCommand(options);
+    configure(cmd);
+    return cmd.run();
+  }
+
+  @Override
+  public ListenableFuture<SeekableByteChannel> open(OpenOptions options)
+    throws IOException
+  {
+    OpenCommand cmd = new OpenCommand(options);
+    configure(cmd);
+    return cmd.run();
+  }
+
   @Override
   public ListenableFuture<List<StoreFile>> downloadRecursively(DownloadOptions options)
     throws IOException, ExecutionException, InterruptedException
@@ -390,7 +561,8 @@ public class S3Client
   {
     S3CopyCommand cmd = new S3CopyCommand(options);
     configure(cmd);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getDestinationBucketName(),
+      options.getDestinationObjectKey(), false);
   }
 
   @Override
@@ -399,7 +571,17 @@ public class S3Client
   {
     S3CopyRecursivelyCommand cmd = new S3CopyRecursivelyCommand(options);
     configure(cmd);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getDestinationBucketName(),
+      options.getDestinationObjectKey(), true);
+  }
+
+  @Override
+  public ListenableFuture<StoreFile> concat(ConcatOptions options)
+  {
+    S3ConcatCommand cmd = new S3ConcatCommand(options);
+    configure(cmd);
+    return _metadataCache.invalidateAfter(cmd.run(), options.getDestinationBucketName(),
+      options.getDestinationObjectKey(), false);
   }
 
   @Override
@@ -407,7 +589,10 @@ public class S3Client
   {
     RenameCommand cmd = new RenameCommand(options);
     configure(cmd);
-    return cmd.run();
+    ListenableFuture<StoreFile> result = _metadataCache.invalidateAfter(cmd.run(),
+      options.getSourceBucketName(), options.getSourceObjectKey(), false);
+    return _metadataCache.invalidateAfter(result, options.getDestinationBucketName(),
+      options.getDestinationObjectKey(), false);
   }
 
   @Override
@@ -416,6 +601,27 @@ public class S3Client
   {
     RenameRecursivelyCommand cmd = new RenameRecursivelyCommand(options);
     configure(cmd);
+    ListenableFuture<List<StoreFile>> result = _metadataCache.invalidateAfter(cmd.run(),
+      options.getSourceBucketName(), options.getSourceObjectKey(), true);
+    return _metadataCache.invalidateAfter(result, options.getDestinationBucketName(),
+      options.getDestinationObjectKey(), true);
+  }
+
+  @Override
+  public ListenableFuture<List<StoreFile>> sync(SyncOptions options)
+    throws IOException, ExecutionException, InterruptedException
+  {
+    SyncCommand cmd = new SyncCommand(options);
+    configure(cmd);
+    return cmd.run();
+  }
+
+  @Override
+  public ListenableFuture<List<VerifyResult>> verify(VerifyOptions options)
+    throws IOException
+  {
+    VerifyCommand cmd = new VerifyCommand(options);
+    configure(cmd);
     return cmd.run();
   }
 
@@ -459,7 +665,8 @@ public class S3Client
     throws IOException
   {
     S3AddEncryptionKeyCommand cmd = createAddKeyCommand(options);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+      options.getObjectKey(), false);
   }
 
   protected S3AddEncryptionKeyCommand createAddKeyCommand(EncryptionKeyOptions options)
@@ -475,7 +682,8 @@ public class S3Client
     throws IOException
   {
     S3RemoveEncryptionKeyCommand cmd = createRemoveKeyCommand(options);
-    return cmd.run();
+    return _metadataCache.invalidateAfter(cmd.run(), options.getBucketName(),
+      options.getObjectKey(), false);
   }
 
   protected S3RemoveEncryptionKeyCommand createRemoveKeyCommand(EncryptionKeyOptions options)
@@ -502,9 +710,26 @@ public class S3Client
     return v;
   }
 
+  @Override
+  public ClientMetrics getMetrics()
+  {
+    return _metrics;
+  }
+
   @Override
   public void shutdown()
   {
+    if(_resources != null)
+    {
+      // the resources are shut down when the last client releases them
+      ClientResources resources = _resources;
+      _resources = null;
+      resources.release();
+      return;
+    }
+
+    _metrics.close();
+
     try
     {
       _s3Executor.shutdown();
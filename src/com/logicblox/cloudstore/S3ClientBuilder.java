@@ -25,8 +25,10 @@ import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
 import com.amazonaws.auth.InstanceProfileCredentialsProvider;
 import com.amazonaws.auth.SystemPropertiesCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.beust.jcommander.IValueValidator;
 import com.beust.jcommander.ParameterException;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -44,8 +46,12 @@ public class S3ClientBuilder
   private ClientConfiguration _clientCfg;
   private ListeningExecutorService _apiExecutor;
   private ListeningScheduledExecutorService _internalExecutor;
+  private int _maxConnections = 0;
   private KeyProvider _keyProvider;
   private AWSCredentialsProvider _credentialsProvider;
+  private List<String> _credentialProviderNames;
+  private String _endpoint;
+  private ClientResources _resources;
 
   public S3ClientBuilder setInternalS3Client(AmazonS3 s3Client)
   {
@@ -71,6 +77,39 @@ public class S3ClientBuilder
     return this;
   }
 
+  /**
+   * Make sure the HTTP connection pool of the default client configuration has room for at
+   * least {@code maxConnections} connections, so that it does not limit the concurrency of the
+   * API executor.  Ignored if a client configuration is set explicitly.
+   */
+  public S3ClientBuilder setMaxConnections(int maxConnections)
+  {
+    _maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * Set the endpoint of the storage service, e.g. "http://127.0.0.1:9000/".  Unlike {@link
+   * S3Client#setEndpoint(String)} this also works for clients whose internal S3 client is
+   * created by this builder or shared through resources.
+   */
+  public S3ClientBuilder setEndpoint(String endpoint)
+  {
+    _endpoint = endpoint;
+    return this;
+  }
+
+  /**
+   * Build the client on resources shared with other clients.  Executors, the internal S3
+   * client and the credentials provider that are not set explicitly are taken from {@code
+   * resources}, and the client releases its reference to them when it is shut down.
+   */
+  public S3ClientBuilder setResources(ClientResources resources)
+  {
+    _resources = resources;
+    return this;
+  }
+
   public S3ClientBuilder setKeyProvider(KeyProvider keyProvider)
   {
     _keyProvider = keyProvider;
@@ -80,36 +119,63 @@ public class S3ClientBuilder
   public S3ClientBuilder setAWSCredentialsProvider(AWSCredentialsProvider credentialsProvider)
   {
     _credentialsProvider = credentialsProvider;
+    _credentialProviderNames = null;
     return this;
   }
 
   public S3ClientBuilder setAWSCredentialsProvider(List<String> credentialProviders)
   {
-    setAWSCredentialsProvider(getCredentialsProvider(credentialProviders));
+    // resolved when the client is created, so that shared resources can reuse the provider
+    _credentialsProvider = null;
+    _credentialProviderNames = credentialProviders;
     return this;
   }
 
-  private AmazonS3 getDefaultInternalS3Client()
+  /**
+   * Create a low-level S3 client that records its requests in {@code metrics}.  The client is
+   * immutable, so its endpoint is fixed here.
+   *
+   * @param endpoint endpoint of the service, or null for the default endpoint
+   */
+  static AmazonS3 createInternalS3Client(
+    AWSCredentialsProvider credentialsProvider, ClientConfiguration clientCfg, String endpoint,
+    ClientMetrics metrics)
   {
-    return new AmazonS3Client(_credentialsProvider, _clientCfg);
+    AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+      .withCredentials(credentialsProvider)
+      .withClientConfiguration(clientCfg)
+      .withRequestHandlers(new MetricsRequestHandler(metrics));
+    if(endpoint == null)
+    {
+      // like the client constructors, use the global endpoint and follow buckets to their region
+      builder.withRegion(Regions.US_EAST_1).withForceGlobalBucketAccessEnabled(true);
+    }
+    else
+    {
+      builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint,
+        Regions.US_EAST_1.getName()));
+    }
+    return builder.build();
   }
 
   private ClientConfiguration getDefaultInternalS3ClientConfiguration()
     throws MalformedURLException
+  {
+    return createClientConfiguration(_maxConnections);
+  }
+
+  static ClientConfiguration createClientConfiguration(int maxConnections)
+    throws MalformedURLException
   {
     ClientConfiguration clientCfg = new ClientConfiguration();
+    clientCfg.setMaxConnections(Math.max(clientCfg.getMaxConnections(), maxConnections));
     if (Utils.viaProxy())
       setHttpProxy(clientCfg);
 
     return clientCfg;
   }
 
-  private static AWSCredentialsProvider getDefaultAWSCredentialsProvider()
-  {
-    return getCredentialsProvider(new ArrayList<>());
-  }
-
-  private static AWSCredentialsProvider getCredentialsProvider(List<String> credentialsProviders)
+  static AWSCredentialsProvider getCredentialsProvider(List<String> credentialsProviders)
   {
     if(credentialsProviders == null || credentialsProviders.size() == 0)
     {
@@ -196,30 +262,64 @@ public class S3ClientBuilder
   public S3Client createS3Client()
     throws MalformedURLException
   {
+    if(_resources != null)
+    {
+      return createSharedS3Client();
+    }
     if(_credentialsProvider == null)
     {
-      setAWSCredentialsProvider(getDefaultAWSCredentialsProvider());
+      _credentialsProvider = getCredentialsProvider(_credentialProviderNames);
     }
     if(_clientCfg == null)
     {
       setInternalS3ClientConfiguration(getDefaultInternalS3ClientConfiguration());
     }
+    if(_apiExecutor == null)
+    {
+      setApiExecutor(Utils.createApiExecutor(10));
+    }
+    if(_internalExecutor == null)
+    {
+      setInternalExecutor(Utils.createInternalExecutor(50));
+    }
+    if(_keyProvider == null)
+    {
+      setKeyProvider(Utils.createKeyProvider(Utils.getDefaultKeyDirectory()));
+    }
+    if(_client != null)
+    {
+      return new S3Client(_client, _apiExecutor, _internalExecutor, _keyProvider);
+    }
+    ClientMetrics metrics = S3Client.createMetrics(_apiExecutor, _internalExecutor);
+    AmazonS3 client = createInternalS3Client(_credentialsProvider, _clientCfg, _endpoint,
+      metrics);
+    return new S3Client(client, _apiExecutor, _internalExecutor, _keyProvider, metrics);
+  }
+
+  private S3Client createSharedS3Client()
+    throws MalformedURLException
+  {
+    if(_credentialsProvider == null)
+    {
+      _credentialsProvider = _resources.getCredentialsProvider(_credentialProviderNames);
+    }
     if(_client == null)
     {
-      setInternalS3Client(getDefaultInternalS3Client());
+      setInternalS3Client(_resources.getS3Client(Utils.StorageService.S3, _endpoint,
+        _credentialsProvider));
     }
     if(_apiExecutor == null)
     {
-      setApiExecutor(Utils.createApiExecutor(10));
+      setApiExecutor(_resources.getApiExecutor());
     }
     if(_internalExecutor == null)
     {
-      setInternalExecutor(Utils.createInternalExecutor(50));
+      setInternalExecutor(_resources.getInternalExecutor());
     }
     if(_keyProvider == null)
     {
       setKeyProvider(Utils.createKeyProvider(Utils.getDefaultKeyDirectory()));
     }
-    return new S3Client(_client, _apiExecutor, _internalExecutor, _keyProvider);
+    return new S3Client(_client, _apiExecutor, _internalExecutor, _keyProvider, _resources);
   }
 }
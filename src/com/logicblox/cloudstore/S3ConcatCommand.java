@@ -0,0 +1,570 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.base.Function;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Concatenate objects into a new object with a multipart upload whose parts are copied from
+ * the sources on the server.
+ * <p>
+ * All parts but the last one of a multipart upload must be at least {@link #MIN_PART_SIZE}
+ * bytes.  Sources that are too small to be a part of their own are combined with their
+ * neighbours into a part that is downloaded and uploaded again, so only those bytes pass
+ * through the client.
+ * <p>
+ * If the response to initiating the upload is lost and the request is retried, the upload
+ * that the lost request started stays pending.  The pending uploads of a key cannot be told
+ * apart from those of other writers, so it is left for {@code abort-pending-uploads}.
+ */
+class S3ConcatCommand
+  extends Command
+{
+  static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+  static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+  static final int MAX_PARTS = 10000;
+
+  private ConcatOptions _options;
+  private List<Metadata> _sources;
+  private List<Part> _parts;
+  private String _uploadId;
+
+  public S3ConcatCommand(ConcatOptions options)
+  {
+    super(options);
+    _options = options;
+  }
+
+  public ListenableFuture<StoreFile> run()
+  {
+    if(_options.isDryRun())
+    {
+      _client.getOutput().println("<DRYRUN> concatenating " +
+        _options.getSourceObjectKeys().size() + " objects of '" +
+        getUri(_options.getSourceBucketName(), "") + "' to '" +
+        getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey()) + "'");
+      return Futures.immediateFuture(null);
+    }
+
+    List<ListenableFuture<Metadata>> sources = new ArrayList<>();
+    for(String key : _options.getSourceObjectKeys())
+    {
+      ExistsOptions opts = _client.getOptionsBuilderFactory()
+        .newExistsOptionsBuilder()
+        .setBucketName(_options.getSourceBucketName())
+        .setObjectKey(key)
+        .createOptions();
+      sources.add(_client.exists(opts));
+    }
+
+    final ListenableFuture<String> started = Futures.transform(Futures.allAsList(sources),
+      startConcatAsyncFunction());
+    ListenableFuture<List<PartETag>> parts = Futures.transform(started, startPartsAsyncFunction());
+    ListenableFuture<String> completed = Futures.transform(parts, completeAsyncFunction());
+    ListenableFuture<StoreFile> res = Futures.transform(completed, new Function<String, StoreFile>()
+    {
+      public StoreFile apply(String etag)
+      {
+        StoreFile f = new StoreFile();
+        f.setLocalFile(null);
+        f.setETag(etag);
+        f.setBucketName(_options.getDestinationBucketName());
+        f.setObjectKey(_options.getDestinationObjectKey());
+        f.setSize(fileLength);
+        return f;
+      }
+    });
+
+    return Futures.withFallback(res, new FutureFallback<StoreFile>()
+    {
+      public ListenableFuture<StoreFile> create(final Throwable t)
+      {
+        if(_uploadId == null)
+        {
+          return Futures.immediateFailedFuture(t);
+        }
+        return Futures.transform(abort(), new AsyncFunction<Void, StoreFile>()
+        {
+          public ListenableFuture<StoreFile> apply(Void v)
+          {
+            return Futures.immediateFailedFuture(t);
+          }
+        });
+      }
+    }, _client.getInternalExecutor());
+  }
+
+  /**
+   * Step 1: Check the sources, plan the parts and start the multipart upload.
+   */
+  private AsyncFunction<List<Metadata>, String> startConcatAsyncFunction()
+  {
+    return new AsyncFunction<List<Metadata>, String>()
+    {
+      public ListenableFuture<String> apply(List<Metadata> sources)
+      {
+        List<Long> sizes = new ArrayList<>();
+        for(int i = 0; i < sources.size(); ++i)
+        {
+          String uri = getUri(_options.getSourceBucketName(),
+            _options.getSourceObjectKeys().get(i));
+          Metadata mdata = sources.get(i);
+          if(mdata == null)
+          {
+            throw new UsageException("Source object not found at " + uri);
+          }
+          if(mdata.getUserMetadata().containsKey("s3tool-key-name"))
+          {
+            throw new UsageException("Encrypted object " + uri + " cannot be concatenated");
+          }
+          if(mdata.getUserMetadata().containsKey("s3tool-compression"))
+          {
+            throw new UsageException("Compressed object " + uri + " cannot be concatenated");
+          }
+          sizes.add(mdata.getContentLength());
+          fileLength += mdata.getContentLength();
+        }
+        _sources = sources;
+        _parts = planParts(sizes, MIN_PART_SIZE, MAX_PART_SIZE);
+        if(_parts.size() > MAX_PARTS)
+        {
+          throw new UsageException("Concatenation of " + sources.size() + " objects to " +
+            getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey()) +
+            " needs " + _parts.size() + " parts, more than the maximum of " + MAX_PARTS);
+        }
+        return startConcat();
+      }
+    };
+  }
+
+  private ListenableFuture<String> startConcat()
+  {
+    return executeWithRetry(_client.getInternalExecutor(), new Callable<ListenableFuture<String>>()
+    {
+      public ListenableFuture<String> call()
+      {
+        return _client.getApiExecutor().submit(new Callable<String>()
+        {
+          public String call()
+          {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.addUserMetadata("s3tool-version", String.valueOf(Version.CURRENT));
+            metadata.addUserMetadata("s3tool-chunk-size",
+              Long.toString(Utils.getDefaultChunkSize(fileLength)));
+            metadata.addUserMetadata("s3tool-file-length", Long.toString(fileLength));
+            metadata.addUserMetadata("s3tool-concatenated", "true");
+            String contentType = _sources.get(0).getContentType();
+            if(contentType != null)
+            {
+              metadata.setContentType(contentType);
+            }
+            InitiateMultipartUploadRequest req = new InitiateMultipartUploadRequest(
+              _options.getDestinationBucketName(), _options.getDestinationObjectKey(), metadata);
+            if(_options.getCannedAcl().isPresent())
+            {
+              req.setCannedACL(S3Client.getCannedAcl(_options.getCannedAcl().get()));
+            }
+            InitiateMultipartUploadResult res = getS3Client().initiateMultipartUpload(req);
+            _uploadId = res.getUploadId();
+            return _uploadId;
+          }
+        });
+      }
+
+      public String toString()
+      {
+        return "starting concatenation to " +
+          getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey());
+      }
+    });
+  }
+
+  /**
+   * Step 2: Copy or upload the parts.
+   */
+  private AsyncFunction<String, List<PartETag>> startPartsAsyncFunction()
+  {
+    return new AsyncFunction<String, List<PartETag>>()
+    {
+      public ListenableFuture<List<PartETag>> apply(String uploadId)
+      {
+        List<ListenableFuture<PartETag>> parts = new ArrayList<>();
+        for(int i = 0; i < _parts.size(); ++i)
+        {
+          parts.add(startPart(i));
+        }
+        return Futures.allAsList(parts);
+      }
+    };
+  }
+
+  private ListenableFuture<PartETag> startPart(final int partNumber)
+  {
+    final Part part = _parts.get(partNumber);
+    return executeWithRetry(_client.getInternalExecutor(),
+      new Callable<ListenableFuture<PartETag>>()
+      {
+        public ListenableFuture<PartETag> call()
+        {
+          return _client.getApiExecutor().submit(new Callable<PartETag>()
+          {
+            public PartETag call()
+              throws IOException, BadHashException
+            {
+              return part.isCopy() ? copyPart(partNumber, part) : uploadPart(partNumber, part);
+            }
+          });
+        }
+
+        public String toString()
+        {
+          return (part.isCopy() ? "copying" : "uploading") + " part " + (partNumber + 1) +
+            " of " + getUri(_options.getDestinationBucketName(),
+            _options.getDestinationObjectKey());
+        }
+      });
+  }
+
+  private PartETag copyPart(int partNumber, Part part)
+    throws BadHashException
+  {
+    Segment segment = part.getSegments().get(0);
+    Metadata source = _sources.get(segment.getSource());
+    CopyPartRequest req = new CopyPartRequest().withSourceBucketName(
+      _options.getSourceBucketName())
+      .withSourceKey(_options.getSourceObjectKeys().get(segment.getSource()))
+      .withDestinationBucketName(_options.getDestinationBucketName())
+      .withDestinationKey(_options.getDestinationObjectKey())
+      .withUploadId(_uploadId)
+      .withMatchingETagConstraint(source.getETag())
+      .withPartNumber(partNumber + 1);
+    if(segment.getLength() > 0)
+    {
+      req.setFirstByte(segment.getStart());
+      req.setLastByte(segment.getStart() + segment.getLength() - 1);
+    }
+    CopyPartResult res = getS3Client().copyPart(req);
+    if(res == null)
+    {
+      throw new BadHashException(getSourceUri(segment) + " changed during concatenation");
+    }
+    return res.getPartETag();
+  }
+
+  private PartETag uploadPart(int partNumber, Part part)
+    throws IOException, BadHashException
+  {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) part.getLength());
+    for(Segment segment : part.getSegments())
+    {
+      GetObjectRequest req = new GetObjectRequest(_options.getSourceBucketName(),
+        _options.getSourceObjectKeys().get(segment.getSource())).withMatchingETagConstraint(
+        _sources.get(segment.getSource()).getETag());
+      req.setRange(segment.getStart(), segment.getStart() + segment.getLength() - 1);
+      S3Object object = getS3Client().getObject(req);
+      if(object == null)
+      {
+        throw new BadHashException(getSourceUri(segment) + " changed during concatenation");
+      }
+      try(InputStream in = object.getObjectContent())
+      {
+        ByteStreams.copy(ByteStreams.limit(in, segment.getLength()), buffer);
+      }
+    }
+    byte[] data = buffer.toByteArray();
+    if(data.length != part.getLength())
+    {
+      throw new IOException("Read " + data.length + " bytes for part " + (partNumber + 1) +
+        " instead of " + part.getLength());
+    }
+
+    byte[] digest = DigestUtils.md5(data);
+    UploadPartRequest req = new UploadPartRequest();
+    req.setBucketName(_options.getDestinationBucketName());
+    req.setKey(_options.getDestinationObjectKey());
+    req.setUploadId(_uploadId);
+    req.setPartNumber(partNumber + 1);
+    req.setPartSize(data.length);
+    req.setInputStream(new ByteArrayInputStream(data));
+    req.setMd5Digest(Base64.encodeBase64String(digest));
+    UploadPartResult res = getS3Client().uploadPart(req);
+    String calculatedMD5 = DatatypeConverter.printHexBinary(digest).toLowerCase();
+    if(!calculatedMD5.equals(res.getETag()))
+    {
+      throw new BadHashException(
+        "Failed checksum validation for part " + (partNumber + 1) + " of " +
+          getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey()) +
+          ". Calculated MD5: " + calculatedMD5 + ", Expected MD5: " + res.getETag());
+    }
+    return res.getPartETag();
+  }
+
+  private String getSourceUri(Segment segment)
+  {
+    return getUri(_options.getSourceBucketName(),
+      _options.getSourceObjectKeys().get(segment.getSource()));
+  }
+
+  /**
+   * Step 3: Complete the multipart upload.
+   */
+  private AsyncFunction<List<PartETag>, String> completeAsyncFunction()
+  {
+    return new AsyncFunction<List<PartETag>, String>()
+    {
+      public ListenableFuture<String> apply(final List<PartETag> etags)
+      {
+        return executeWithRetry(_client.getInternalExecutor(),
+          new Callable<ListenableFuture<String>>()
+          {
+            public ListenableFuture<String> call()
+            {
+              return _client.getApiExecutor().submit(new Callable<String>()
+              {
+                public String call()
+                  throws BadHashException
+                {
+                  return complete(etags);
+                }
+              });
+            }
+
+            public String toString()
+            {
+              return "completing concatenation";
+            }
+          });
+      }
+    };
+  }
+
+  private String complete(List<PartETag> etags)
+    throws BadHashException
+  {
+    List<byte[]> partDigests = new ArrayList<>();
+    for(PartETag etag : etags)
+    {
+      partDigests.add(DatatypeConverter.parseHexBinary(etag.getETag()));
+    }
+    String multipartDigest = Utils.getMultipartETag(partDigests);
+    CompleteMultipartUploadRequest req = new CompleteMultipartUploadRequest(
+      _options.getDestinationBucketName(), _options.getDestinationObjectKey(), _uploadId, etags);
+    CompleteMultipartUploadResult res = getS3Client().completeMultipartUpload(req);
+    if(!res.getETag().equals(multipartDigest))
+    {
+      throw new BadHashException(
+        "Failed checksum validation for " + getUri(_options.getDestinationBucketName(),
+          _options.getDestinationObjectKey()) + ". Calculated MD5: " + multipartDigest +
+          ", Expected MD5: " + res.getETag());
+    }
+    return res.getETag();
+  }
+
+  /**
+   * Abort the multipart upload if something goes wrong.
+   */
+  private ListenableFuture<Void> abort()
+  {
+    return executeWithRetry(_client.getInternalExecutor(), new Callable<ListenableFuture<Void>>()
+    {
+      public ListenableFuture<Void> call()
+      {
+        return _client.getApiExecutor().submit(new Callable<Void>()
+        {
+          public Void call()
+          {
+            getS3Client().abortMultipartUpload(new AbortMultipartUploadRequest(
+              _options.getDestinationBucketName(), _options.getDestinationObjectKey(),
+              _uploadId));
+            return null;
+          }
+        });
+      }
+
+      public String toString()
+      {
+        return "aborting concatenation";
+      }
+    });
+  }
+
+  /**
+   * Split sources of the given sizes into parts.  Sources of at least {@code minPartSize}
+   * bytes are copied in parts of at most {@code maxPartSize} bytes.  Smaller sources, and the
+   * bytes of the next source that are needed to reach {@code minPartSize}, form parts that are
+   * uploaded, except for the last part, which may be small and is copied if it comes from a
+   * single source.
+   */
+  static List<Part> planParts(List<Long> sizes, long minPartSize, long maxPartSize)
+  {
+    List<Part> parts = new ArrayList<>();
+    List<Segment> pending = new ArrayList<>();
+    long pendingSize = 0;
+    for(int i = 0; i < sizes.size(); ++i)
+    {
+      long size = sizes.get(i);
+      long start = 0;
+      if(pendingSize > 0)
+      {
+        long needed = minPartSize - pendingSize;
+        if(size - needed < minPartSize)
+        {
+          pending.add(new Segment(i, 0, size));
+          pendingSize += size;
+          if(pendingSize >= minPartSize)
+          {
+            parts.add(new Part(pending, false));
+            pending = new ArrayList<>();
+            pendingSize = 0;
+          }
+          continue;
+        }
+        pending.add(new Segment(i, 0, needed));
+        parts.add(new Part(pending, false));
+        pending = new ArrayList<>();
+        pendingSize = 0;
+        start = needed;
+      }
+
+      long rest = size - start;
+      if(rest < minPartSize)
+      {
+        if(rest > 0)
+        {
+          pending.add(new Segment(i, start, rest));
+          pendingSize += rest;
+        }
+        continue;
+      }
+      long count = (rest + maxPartSize - 1) / maxPartSize;
+      long partSize = (rest + count - 1) / count;
+      for(long position = start; position < size; position += partSize)
+      {
+        parts.add(new Part(Collections.singletonList(
+          new Segment(i, position, Math.min(partSize, size - position))), true));
+      }
+    }
+
+    if(pending.size() == 1)
+    {
+      parts.add(new Part(pending, true));
+    }
+    else if(!pending.isEmpty() || parts.isEmpty())
+    {
+      parts.add(new Part(pending, false));
+    }
+    return parts;
+  }
+
+  /**
+   * A range of bytes of a source object.
+   */
+  static class Segment
+  {
+    private final int _source;
+    private final long _start;
+    private final long _length;
+
+    Segment(int source, long start, long length)
+    {
+      _source = source;
+      _start = start;
+      _length = length;
+    }
+
+    int getSource()
+    {
+      return _source;
+    }
+
+    long getStart()
+    {
+      return _start;
+    }
+
+    long getLength()
+    {
+      return _length;
+    }
+  }
+
+  /**
+   * A part of the new object: either one segment that is copied, or the contents of several
+   * segments that are uploaded.
+   */
+  static class Part
+  {
+    private final List<Segment> _segments;
+    private final boolean _copy;
+
+    Part(List<Segment> segments, boolean copy)
+    {
+      _segments = segments;
+      _copy = copy;
+    }
+
+    List<Segment> getSegments()
+    {
+      return _segments;
+    }
+
+    boolean isCopy()
+    {
+      return _copy;
+    }
+
+    long getLength()
+    {
+      long length = 0;
+      for(Segment segment : _segments)
+      {
+        length += segment.getLength();
+      }
+      return length;
+    }
+  }
+}
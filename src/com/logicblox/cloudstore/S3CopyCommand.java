@@ -20,6 +20,7 @@ package com.logicblox.cloudstore;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -55,7 +56,7 @@ class S3CopyCommand
 
     if(_options.isDryRun())
     {
-      System.out.println("<DRYRUN> copying '" +
+      _client.getOutput().println("<DRYRUN> copying '" +
         getUri(_options.getSourceBucketName(), _options.getSourceObjectKey()) + "' to '" +
         getUri(_options.getDestinationBucketName(), _options.getDestinationObjectKey()) + "'");
       return Futures.immediateFuture(null);
@@ -71,6 +72,10 @@ class S3CopyCommand
       ListenableFuture<Copy> copy = Futures.transform(sourceExists, startCopyAsyncFunction());
       copy = Futures.transform(copy, startPartsAsyncFunction());
       ListenableFuture<String> result = Futures.transform(copy, completeAsyncFunction());
+      if(!PartManifest.isManifestKey(_options.getSourceObjectKey()))
+      {
+        result = Futures.transform(result, copyManifestAsyncFunction());
+      }
       return Futures.transform(result, new Function<String, StoreFile>()
       {
         public StoreFile apply(String etag)
@@ -157,10 +162,10 @@ class S3CopyCommand
     // cloudstore-specific metadata should already be set by factory.startCopy
     String objectVersion = meta.get("s3tool-version");
 
-    if(!String.valueOf(Version.CURRENT).equals(objectVersion))
+    if(!Version.isSupported(objectVersion))
     {
       throw new UsageException(
-        errPrefix + "unsupported version: " + objectVersion + ", should be " + Version.CURRENT);
+        errPrefix + "unsupported version: " + objectVersion + ", should be " + Version.SUPPORTED);
     }
 
     setFileLength(Long.valueOf(meta.get("s3tool-file-length")));
@@ -176,9 +181,11 @@ class S3CopyCommand
         .createProgressOptions());
     }
 
+    // compressed objects are copied as they are stored, index included
+    long length = meta.containsKey("s3tool-compression") ? copy.getObjectSize() : fileLength;
     List<ListenableFuture<Void>> parts = new ArrayList<>();
 
-    for(long position = 0; position < fileLength || (position == 0 && fileLength == 0);
+    for(long position = 0; position < length || (position == 0 && length == 0);
         position += chunkSize)
     {
       parts.add(startPartCopy(copy, position, opl));
@@ -217,7 +224,19 @@ class S3CopyCommand
     Long end;
     long partSize;
 
-    if(copy.getMeta().containsKey("s3tool-key-name"))
+    if(copy.getMeta().containsKey("s3tool-compression"))
+    {
+      start = position;
+      partSize = Math.min(copy.getObjectSize() - position, chunkSize);
+    }
+    else if(copy.getMeta().containsKey("s3tool-segment-size"))
+    {
+      int segmentSize = Integer.parseInt(copy.getMeta().get("s3tool-segment-size"));
+      long postCryptSize = Math.min(fileLength - position, chunkSize);
+      start = SegmentedCipherInputStream.getEncryptedOffset(position, chunkSize, segmentSize);
+      partSize = SegmentedCipherInputStream.getEncryptedLength(postCryptSize, segmentSize);
+    }
+    else if(copy.getMeta().containsKey("s3tool-key-name"))
     {
       long blockSize;
       try
@@ -288,4 +307,46 @@ class S3CopyCommand
   {
     return copy.completeCopy();
   }
+
+  /**
+   * Step 4: Copy the part manifest of a delta upload, if the source object has one.
+   */
+  private AsyncFunction<String, String> copyManifestAsyncFunction()
+  {
+    return new AsyncFunction<String, String>()
+    {
+      public ListenableFuture<String> apply(final String etag)
+      {
+        final String srcUri = getUri(_options.getSourceBucketName(),
+          _options.getSourceObjectKey());
+        ListenableFuture<Void> copied = executeWithRetry(_client.getInternalExecutor(),
+          new Callable<ListenableFuture<Void>>()
+          {
+            public ListenableFuture<Void> call()
+            {
+              return PartManifest.copy(getS3Client(), _client.getApiExecutor(),
+                _options.getSourceBucketName(), _options.getSourceObjectKey(),
+                _options.getDestinationBucketName(), _options.getDestinationObjectKey(),
+                _options.getCannedAcl().orElse(null));
+            }
+
+            public String toString()
+            {
+              return "copying part manifest of " + srcUri;
+            }
+          });
+        return Futures.withFallback(Futures.transform(copied, Functions.constant(etag)),
+          new FutureFallback<String>()
+          {
+            public ListenableFuture<String> create(Throwable t)
+            {
+              // the copy is complete, the next delta upload just uploads every part
+              _client.getErrorOutput().println(
+                "Warning: Could not copy the part manifest of " + srcUri + ": " + t);
+              return Futures.immediateFuture(etag);
+            }
+          });
+      }
+    };
+  }
 }
@@ -82,7 +82,8 @@ class S3CopyRecursivelyCommand
 
     for(S3ObjectSummary obj : lst)
     {
-      if(!obj.getKey().endsWith("/"))
+      // part manifests are copied along with their objects
+      if(!obj.getKey().endsWith("/") && !PartManifest.isManifestKey(obj.getKey()))
       {
         String destKeyLastPart = obj.getKey().substring(baseDirPath.length());
         String destKey = _options.getDestinationObjectKey() + destKeyLastPart;
@@ -98,7 +99,7 @@ class S3CopyRecursivelyCommand
 
         if(_options.isDryRun())
         {
-          System.out.println(
+          _client.getOutput().println(
             "<DRYRUN> copying '" + getUri(_options.getSourceBucketName(), obj.getKey()) + "' to '" +
               getUri(_options.getDestinationBucketName(), destKey) + "'");
         }
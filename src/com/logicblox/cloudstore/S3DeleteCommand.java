@@ -16,6 +16,7 @@
 
 package com.logicblox.cloudstore;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.model.DeleteObjectRequest;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
@@ -66,7 +67,9 @@ class S3DeleteCommand
           {
             throw new UsageException("Object not found at " + getUri(bucket, key));
           }
-          return getDeleteFuture();
+          // only delta uploads store a part manifest next to their object
+          return getDeleteFuture(
+            mdata.getUserMetadata().containsKey(PartManifest.METADATA_KEY));
         }
       });
 
@@ -74,7 +77,7 @@ class S3DeleteCommand
   }
 
 
-  private ListenableFuture<StoreFile> getDeleteFuture()
+  private ListenableFuture<StoreFile> getDeleteFuture(final boolean withManifest)
   {
     final String bucket = _options.getBucketName();
     final String key = _options.getObjectKey();
@@ -84,7 +87,7 @@ class S3DeleteCommand
       {
         public ListenableFuture<StoreFile> call()
         {
-          return runActual();
+          return runActual(withManifest);
         }
 
         public String toString()
@@ -96,12 +99,12 @@ class S3DeleteCommand
   }
 
 
-  private ListenableFuture<StoreFile> runActual()
+  private ListenableFuture<StoreFile> runActual(final boolean withManifest)
   {
     final String srcUri = getUri(_options.getBucketName(), _options.getObjectKey());
     if(_options.isDryRun())
     {
-      System.out.println("<DRYRUN> deleting '" + srcUri + "'");
+      _client.getOutput().println("<DRYRUN> deleting '" + srcUri + "'");
       return Futures.immediateFuture(null);
     }
     else
@@ -117,6 +120,20 @@ class S3DeleteCommand
           String key = _options.getObjectKey();
           DeleteObjectRequest req = new DeleteObjectRequest(bucket, key);
           getS3Client().deleteObject(req);
+          if(withManifest)
+          {
+            try
+            {
+              getS3Client().deleteObject(
+                new DeleteObjectRequest(bucket, PartManifest.getKey(key)));
+            }
+            catch(AmazonClientException exc)
+            {
+              // a left over manifest does not match the ETag of a later object at that key
+              _client.getErrorOutput().println("Warning: Could not delete the part manifest " +
+                "of " + srcUri + ": " + exc.getMessage());
+            }
+          }
           StoreFile file = new StoreFile();
           file.setBucketName(bucket);
           file.setObjectKey(key);
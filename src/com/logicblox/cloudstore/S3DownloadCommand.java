@@ -17,6 +17,7 @@
 package com.logicblox.cloudstore;
 
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.util.concurrent.AsyncFunction;
@@ -31,17 +32,19 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -51,11 +54,25 @@ import java.util.concurrent.ConcurrentSkipListMap;
 class S3DownloadCommand
   extends Command
 {
+  static final int COPY_BUFFER_SIZE = 8192;
+
+  /**
+   * Block size of AES, which is also the length of the inline IV of a CBC-encrypted chunk.
+   */
+  private static final int AES_BLOCK_SIZE = 16;
+
   private DownloadOptions _options;
   private KeyProvider _encKeyProvider;
   private boolean _dryRun;
   private ConcurrentMap<Integer, byte[]> _etags = new ConcurrentSkipListMap<>();
   private OverallProgressListenerFactory _progressListenerFactory;
+  private DownloadSink _sink;
+  private CompressionCodec _codec;
+  private CompressedChunkIndex _index;
+  // segment size of objects encrypted in segments, 0 for the CBC format
+  private int _segmentSize = 0;
+  // metadata found by the existence check, which saves looking it up again
+  private volatile ObjectMetadata _metadata;
 
   public S3DownloadCommand(DownloadOptions options)
     throws IOException
@@ -65,8 +82,12 @@ class S3DownloadCommand
     _encKeyProvider = _client.getKeyProvider();
     _dryRun = _options.isDryRun();
 
-    this.file = _options.getFile();
-    createNewFile();
+    _sink = _options.getSink().orElse(null);
+    if(_sink == null)
+    {
+      this.file = _options.getFile();
+      createNewFile();
+    }
     _progressListenerFactory = _options.getOverallProgressListenerFactory().orElse(null);
   }
 
@@ -81,7 +102,8 @@ class S3DownloadCommand
       if(_dryRun)
       {
         for(File f : newDirs)
-          System.out.println("<DRYRUN> creating missing directory '" + f.getAbsolutePath() + "'");
+          _client.getOutput().println("<DRYRUN> creating missing directory '" +
+            f.getAbsolutePath() + "'");
       }
     }
 
@@ -91,7 +113,8 @@ class S3DownloadCommand
       {
         if(_dryRun)
         {
-          System.out.println("<DRYRUN> overwrite existing file '" + file.getAbsolutePath() + "'");
+          _client.getOutput().println("<DRYRUN> overwrite existing file '" +
+            file.getAbsolutePath() + "'");
         }
         else
         {
@@ -129,35 +152,91 @@ class S3DownloadCommand
 
     if(_dryRun)
     {
-      System.out.println(
+      _client.getOutput().println(
         "<DRYRUN> downloading '" + getUri(_options.getBucketName(), _options.getObjectKey()) +
-          "' to '" + this.file.getAbsolutePath() + "'");
+          "' to '" + ((_sink == null) ? this.file.getAbsolutePath() : "<sink>") + "'");
       return Futures.immediateFuture(null);
     }
 
+    return Futures.transform(checkExists(), new AsyncFunction<Void, StoreFile>()
+    {
+      public ListenableFuture<StoreFile> apply(Void v)
+      {
+        return scheduleExecution();
+      }
+    });
+  }
+
+  /**
+   * Look up the metadata of the object and load what is needed to read ranges of it with
+   * {@link #read(S3Download, List, DownloadSink)}, which can then be called many times
+   * without further metadata requests.
+   */
+  ListenableFuture<S3Download> open()
+  {
+    ListenableFuture<S3Download> download = Futures.transform(checkExists(),
+      new AsyncFunction<Void, S3Download>()
+      {
+        public ListenableFuture<S3Download> apply(Void v)
+        {
+          return startDownload();
+        }
+      });
+    return Futures.transform(download, new AsyncFunction<S3Download, S3Download>()
+    {
+      public ListenableFuture<S3Download> apply(S3Download download)
+      {
+        if(_codec == null)
+        {
+          return Futures.immediateFuture(download);
+        }
+        return Futures.transform(loadIndex(download), Functions.constant(download));
+      }
+    });
+  }
+
+  /**
+   * Read {@code ranges} of an object opened with {@link #open()} into {@code sink}, one after
+   * another starting at position 0 of the sink.  The checksum of the object is not validated.
+   */
+  ListenableFuture<Void> read(S3Download download, List<ByteRange> ranges, DownloadSink sink)
+    throws IOException
+  {
+    return Futures.transform(startRanges(download, ranges, true, sink),
+      Functions.<Void>constant(null));
+  }
+
+  /**
+   * Return the length of the original file, which is known once {@link #open()} completes.
+   */
+  long getFileLength()
+  {
+    return fileLength;
+  }
+
+  private ListenableFuture<Void> checkExists()
+  {
     ExistsOptions opts = _client.getOptionsBuilderFactory()
       .newExistsOptionsBuilder()
       .setBucketName(_options.getBucketName())
       .setObjectKey(_options.getObjectKey())
+      .setVersion(_options.getVersion().orElse(null))
       .createOptions();
 
-    ListenableFuture<Metadata> existsFuture = _client.exists(opts);
-    ListenableFuture<StoreFile> result = Futures.transform(existsFuture,
-      new AsyncFunction<Metadata, StoreFile>()
+    return Futures.transform(_client.exists(opts), new AsyncFunction<Metadata, Void>()
+    {
+      public ListenableFuture<Void> apply(Metadata mdata)
+        throws UsageException
       {
-        public ListenableFuture<StoreFile> apply(Metadata mdata)
-          throws UsageException
+        if(mdata == null)
         {
-          if(mdata == null)
-          {
-            throw new UsageException(
-              "Object not found at " + getUri(_options.getBucketName(), _options.getObjectKey()));
-          }
-          return scheduleExecution();
+          throw new UsageException(
+            "Object not found at " + getUri(_options.getBucketName(), _options.getObjectKey()));
         }
-      });
-
-    return result;
+        _metadata = mdata.getObjectMetadata();
+        return Futures.immediateFuture(null);
+      }
+    });
   }
 
 
@@ -184,7 +263,7 @@ class S3DownloadCommand
     {
       public ListenableFuture<StoreFile> create(Throwable t)
       {
-        if(S3DownloadCommand.this.file.exists())
+        if(S3DownloadCommand.this.file != null && S3DownloadCommand.this.file.exists())
         {
           S3DownloadCommand.this.file.delete();
         }
@@ -241,11 +320,24 @@ class S3DownloadCommand
         {
           String objectVersion = meta.get("s3tool-version");
 
-          if(!String.valueOf(Version.CURRENT).equals(objectVersion))
+          if(!Version.isSupported(objectVersion))
           {
             throw new UsageException(
               errPrefix + "file uploaded with unsupported version: " + objectVersion +
-                ", should be " + Version.CURRENT);
+                ", should be " + Version.SUPPORTED);
+          }
+          if(meta.containsKey("s3tool-compression"))
+          {
+            _codec = CompressionCodec.forName(meta.get("s3tool-compression"));
+            if(_codec == null)
+            {
+              throw new UsageException(
+                errPrefix + "unsupported compression: " + meta.get("s3tool-compression"));
+            }
+          }
+          if(meta.containsKey("s3tool-segment-size"))
+          {
+            _segmentSize = Integer.parseInt(meta.get("s3tool-segment-size"));
           }
           if(meta.containsKey("s3tool-key-name"))
           {
@@ -394,7 +486,7 @@ class S3DownloadCommand
       }
     };
     S3DownloadFactory factory = new S3DownloadFactory(_options, getS3Client(),
-      _client.getApiExecutor());
+      _client.getApiExecutor(), _metadata);
     return Futures.transform(factory.startDownload(), initDownload);
   }
 
@@ -413,31 +505,104 @@ class S3DownloadCommand
     };
   }
 
-  private ListenableFuture<S3Download> startParts(S3Download download)
+  private ListenableFuture<S3Download> startParts(final S3Download download)
     throws IOException, UsageException
   {
+    if(_codec != null && _index == null)
+    {
+      // the ranges of compressed chunks are in the index at the end of the object
+      return Futures.transform(loadIndex(download), new AsyncFunction<Void, S3Download>()
+      {
+        public ListenableFuture<S3Download> apply(Void v)
+          throws Exception
+        {
+          return startParts(download);
+        }
+      });
+    }
+
+    return startRanges(download, _options.getRanges()
+        .orElse(Collections.singletonList(new ByteRange(0, fileLength))),
+      _options.getRanges().isPresent(), _sink);
+  }
+
+  private ListenableFuture<S3Download> startRanges(
+    S3Download download, List<ByteRange> ranges, boolean ranged, DownloadSink sink)
+    throws UsageException
+  {
+    long totalLength = 0;
+    for(ByteRange range : ranges)
+    {
+      if(range.getEnd() > fileLength)
+      {
+        throw new UsageException(getUri(download.getBucketName(), download.getObjectKey()) +
+          ": range " + range + " extends beyond the end of the file (" + fileLength + " bytes)");
+      }
+      totalLength += range.getLength();
+    }
+
     OverallProgressListener opl = null;
     if(_progressListenerFactory != null)
     {
       opl = _progressListenerFactory.create(
         new ProgressOptionsBuilder().setObjectUri(getUri(download.getBucketName(), download.getObjectKey()))
           .setOperation("download")
-          .setFileSizeInBytes(fileLength)
+          .setFileSizeInBytes(totalLength)
           .createProgressOptions());
     }
 
+    // only the chunks that overlap a range, but the single chunk of an empty file
     List<ListenableFuture<Integer>> parts = new ArrayList<ListenableFuture<Integer>>();
-    for(long position = 0; position < fileLength || (position == 0 && fileLength == 0);
-        position += chunkSize)
+    long base = 0;
+    for(ByteRange range : ranges)
     {
-      parts.add(startPartDownload(download, position, opl));
+      for(long position = range.getOffset() / chunkSize * chunkSize;
+          (position < range.getEnd() && range.getLength() > 0) ||
+            (!ranged && position == 0 && fileLength == 0);
+          position += chunkSize)
+      {
+        parts.add(startPartDownload(download, position, range, base, sink, opl));
+      }
+      base += range.getLength();
     }
 
     return Futures.transform(Futures.allAsList(parts), Functions.constant(download));
   }
 
+  private ListenableFuture<Void> loadIndex(final S3Download download)
+  {
+    final int chunkCount = CompressedChunkIndex.getChunkCount(fileLength, chunkSize);
+    final long indexLength = CompressedChunkIndex.getIndexLength(fileLength, chunkSize);
+    return executeWithRetry(_client.getInternalExecutor(), new Callable<ListenableFuture<Void>>()
+    {
+      public ListenableFuture<Void> call()
+      {
+        ListenableFuture<InputStream> stream = download.getPart(
+          download.getLength() - indexLength, download.getLength() - 1);
+        return Futures.transform(stream, new AsyncFunction<InputStream, Void>()
+        {
+          public ListenableFuture<Void> apply(InputStream in)
+            throws IOException
+          {
+            try(InputStream index = in)
+            {
+              _index = CompressedChunkIndex.read(index, chunkCount, download.getLength());
+            }
+            return Futures.immediateFuture(null);
+          }
+        });
+      }
+
+      public String toString()
+      {
+        return "downloading index of compressed chunks";
+      }
+    });
+  }
+
   private ListenableFuture<Integer> startPartDownload(
-    final S3Download download, final long position, final OverallProgressListener opl)
+    final S3Download download, final long position, final ByteRange range, final long base,
+    final DownloadSink sink, final OverallProgressListener opl)
   {
     final int partNumber = (int) (position / chunkSize);
 
@@ -445,7 +610,7 @@ class S3DownloadCommand
     {
       public ListenableFuture<Integer> call()
       {
-        return startPartDownloadActual(download, position, opl);
+        return startPartDownloadActual(download, position, range, base, sink, opl);
       }
 
       public String toString()
@@ -455,37 +620,67 @@ class S3DownloadCommand
     });
   }
 
+  /**
+   * Download the bytes of {@code range} that are in the chunk at {@code position}.  The file,
+   * or {@code sink} if it is not null, receives {@code range} at offset {@code base}.
+   */
   private ListenableFuture<Integer> startPartDownloadActual(
-    final S3Download download, final long position, OverallProgressListener opl)
+    final S3Download download, final long position, final ByteRange range, final long base,
+    final DownloadSink sink, OverallProgressListener opl)
   {
     final int partNumber = (int) (position / chunkSize);
+    final long postCryptSize = Math.min(fileLength - position, chunkSize);
+    // bytes of this chunk that are in the range
+    final long from = Math.max(range.getOffset(), position);
+    final long to = Math.min(range.getEnd(), position + postCryptSize);
+    final long outPosition = base + from - range.getOffset();
+    final int segment;
+    final long skip;
     long start;
     long partSize;
 
-    if(encKey != null)
+    if(_index != null)
     {
-      long blockSize;
-      try
-      {
-        blockSize = Cipher.getInstance("AES/CBC/PKCS5Padding").getBlockSize();
-      }
-      catch(NoSuchAlgorithmException e)
+      segment = 0;
+      skip = from - position;
+      start = _index.getStart(partNumber);
+      partSize = _index.getSize(partNumber);
+    }
+    else if(encKey != null && _segmentSize > 0)
+    {
+      // fetch only the segments that overlap the range
+      segment = (int) ((from - position) / _segmentSize);
+      skip = from - position - (long) segment * _segmentSize;
+      long chunkStart = SegmentedCipherInputStream.getEncryptedOffset(position, chunkSize,
+        _segmentSize);
+      long end;
+      if(to == position + postCryptSize)
       {
-        throw new RuntimeException(e);
+        end = chunkStart + SegmentedCipherInputStream.getEncryptedLength(postCryptSize,
+          _segmentSize);
       }
-      catch(NoSuchPaddingException e)
+      else
       {
-        throw new RuntimeException(e);
+        long segments = (to - position + _segmentSize - 1) / _segmentSize;
+        end = chunkStart + segments * (_segmentSize + SegmentedCipherInputStream.TAG_LENGTH);
       }
-
-      long postCryptSize = Math.min(fileLength - position, chunkSize);
+      start = chunkStart + segment * (long) (_segmentSize + SegmentedCipherInputStream.TAG_LENGTH);
+      partSize = end - start;
+    }
+    else if(encKey != null)
+    {
+      segment = 0;
+      skip = from - position;
+      long blockSize = AES_BLOCK_SIZE;
       start = partNumber * blockSize * (chunkSize / blockSize + 2);
       partSize = blockSize * (postCryptSize / blockSize + 2);
     }
     else
     {
-      start = position;
-      partSize = Math.min(fileLength - position, chunkSize);
+      segment = 0;
+      skip = 0;
+      start = from;
+      partSize = to - from;
     }
 
     ListenableFuture<InputStream> getPartFuture = download.getPart(start, start + partSize - 1,
@@ -499,7 +694,7 @@ class S3DownloadCommand
       {
         try
         {
-          readDownload(download, stream, position, partNumber);
+          readDownload(stream, position, partNumber, segment, skip, from, to, outPosition, sink);
           return Futures.immediateFuture(partNumber);
         }
         finally
@@ -519,29 +714,42 @@ class S3DownloadCommand
     return Futures.transform(getPartFuture, readDownloadFunction);
   }
 
+  /**
+   * Write bytes {@code from} to {@code to} of the chunk at {@code position} from {@code
+   * inStream}, which starts at segment {@code segment} of the chunk and has {@code skip} bytes
+   * before {@code from} once it is decrypted and decompressed.  The bytes are written at
+   * {@code outPosition} of the file, or of {@code sink} if it is not null.
+   */
   private void readDownload(
-    S3Download download, InputStream inStream, long position, int partNumber)
+    InputStream inStream, long position, int partNumber, int segment, long skip, long from,
+    long to, long outPosition, DownloadSink sink)
     throws Exception
   {
     HashingInputStream stream = new HashingInputStream(inStream);
-    RandomAccessFile out = new RandomAccessFile(file, "rw");
-    out.seek(position);
+    OutputStream out = openPart(sink, outPosition);
 
-    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    long postCryptSize = Math.min(fileLength - position, chunkSize);
 
     InputStream in;
-    if(encKey != null)
+    if(encKey != null && _segmentSize > 0)
+    {
+      in = new SegmentedCipherInputStream(stream, Cipher.DECRYPT_MODE, encKey, partNumber,
+        segment, postCryptSize - (long) segment * _segmentSize, _segmentSize, fileLength,
+        position + postCryptSize == fileLength);
+    }
+    else if(encKey != null)
     {
+      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       in = new CipherWithInlineIVInputStream(stream, cipher, Cipher.DECRYPT_MODE, encKey);
     }
     else
     {
       in = stream;
     }
-
-    long postCryptSize = Math.min(fileLength - position, chunkSize);
-    int bufSize = 8192;
-    byte[] buf = new byte[bufSize];
+    if(_codec != null)
+    {
+      in = _codec.decompress(in);
+    }
 
     Runnable cleanup = () -> {
       try
@@ -554,8 +762,50 @@ class S3DownloadCommand
       }
     };
 
-    // Handle empty encrypted file, offset == postCryptSize is implied
-    if(encKey != null && postCryptSize == 0)
+    // reaching the end checks the checksum of a compressed chunk, which is fetched whole, or
+    // authenticates the empty segment of an empty file
+    boolean checkEnd = _codec != null || (_segmentSize > 0 && to == position + postCryptSize);
+    byte[] buf = new byte[COPY_BUFFER_SIZE];
+    skipPart(in, skip, buf, cleanup);
+    copyPart(in, out, to - from, encKey != null && !checkEnd, buf, cleanup);
+    if(checkEnd)
+    {
+      skipPart(in, position + postCryptSize - to, buf, cleanup);
+      if(readSafe(in, buf, 0, 1, cleanup) != -1)
+      {
+        cleanup.run();
+        throw new IOException("Chunk " + (partNumber + 1) + " is longer than expected");
+      }
+    }
+
+    cleanup.run();
+    _etags.put(partNumber, stream.getDigest());
+  }
+
+  private OutputStream openPart(DownloadSink sink, long position)
+    throws IOException
+  {
+    if(sink != null)
+    {
+      return sink.open(position);
+    }
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    out.seek(position);
+    return Channels.newOutputStream(out.getChannel());
+  }
+
+  /**
+   * Copy the {@code length} (decrypted) bytes of a part from {@code in} to {@code out}, which
+   * starts at the offset of the part.  {@code cleanup} is run before any exception
+   * is thrown, but it is left to the caller on success.
+   */
+  static void copyPart(
+    InputStream in, OutputStream out, long length, boolean encrypted, byte[] buf,
+    Runnable cleanup)
+    throws IOException
+  {
+    // Handle empty encrypted file, offset == length is implied
+    if(encrypted && length == 0)
     {
       int result = readSafe(in, buf, 0, 0, cleanup);
       if(result != -1)
@@ -569,17 +819,17 @@ class S3DownloadCommand
     else // Not necessary, just for easier reading
     {
       long offset = 0;
-      while(offset < postCryptSize)
+      while(offset < length)
       {
         int unreadSize = Integer.MAX_VALUE;
         try
         {
-          unreadSize = Math.toIntExact(postCryptSize - offset);
+          unreadSize = Math.toIntExact(length - offset);
         }
         catch(ArithmeticException ignored)
         {
         }
-        int len = Math.min(bufSize, unreadSize);
+        int len = Math.min(buf.length, unreadSize);
         int result = readSafe(in, buf, 0, len, cleanup);
         if(result == -1)
         {
@@ -591,12 +841,25 @@ class S3DownloadCommand
         offset += result;
       }
     }
+  }
 
-    cleanup.run();
-    _etags.put(partNumber, stream.getDigest());
+  private static void skipPart(InputStream in, long length, byte[] buf, Runnable cleanup)
+    throws IOException
+  {
+    // read rather than skip, so that the skipped data is decrypted and checked as well
+    while(length > 0)
+    {
+      int result = readSafe(in, buf, 0, (int) Math.min(buf.length, length), cleanup);
+      if(result == -1)
+      {
+        cleanup.run();
+        throw new IOException("unexpected EOF");
+      }
+      length -= result;
+    }
   }
 
-  private int readSafe(InputStream in, byte[] buf, int offset, int len, Runnable cleanup)
+  private static int readSafe(InputStream in, byte[] buf, int offset, int len, Runnable cleanup)
     throws IOException
   {
     int result;
@@ -612,7 +875,7 @@ class S3DownloadCommand
     return result;
   }
 
-  private void writeSafe(RandomAccessFile out, byte[] buf, int offset, int len, Runnable cleanup)
+  private static void writeSafe(OutputStream out, byte[] buf, int offset, int len, Runnable cleanup)
     throws IOException
   {
     try
@@ -649,9 +912,15 @@ class S3DownloadCommand
           String localDigest = "";
           String fn = "'s3://" + download.getBucketName() + "/" + download.getObjectKey() + "'";
 
+          if(_options.getRanges().isPresent())
+          {
+            // the checksum covers the whole file
+            return download;
+          }
+
           if(null == remoteEtag)
           {
-            System.err.println(
+            _client.getErrorOutput().println(
               "Warning: Skipped checksum validation for " + fn + ".  No etag attached to object.");
             return download;
           }
@@ -668,32 +937,39 @@ class S3DownloadCommand
             Map<String, String> meta = download.getMeta();
             if(!meta.containsKey("s3tool-version"))
             {
-              System.err.println(
+              _client.getErrorOutput().println(
                 "Warning: Skipped checksum " + "validation for " + fn + ". It was uploaded using " +
                   "other tool's multipart protocol.");
               return download;
             }
 
+            // the parts of concatenated objects have the sizes of their sources
+            if(meta.containsKey("s3tool-concatenated"))
+            {
+              return download;
+            }
+
+            // the parts of compressed objects do not match the chunks, which are checked by
+            // the checksums of the compression format instead
+            if(_codec != null)
+            {
+              return download;
+            }
+
             int expectedPartsNum = fileLength == 0 ? 1
               : (int) Math.ceil(fileLength / (double) chunkSize);
             int actualPartsNum = Integer.parseInt(remoteEtag.substring(33));
 
             if(expectedPartsNum != actualPartsNum)
             {
-              System.err.println(
+              _client.getErrorOutput().println(
                 "Warning: Skipped checksum validation for " + fn + ". Actual number of parts: " +
                   actualPartsNum + ", Expected number of parts: " + expectedPartsNum +
                   ". Probably the ETag was changed by using another tool.");
               return download;
             }
 
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            for(Integer pNum : _etags.keySet())
-            {
-              os.write(_etags.get(pNum));
-            }
-
-            localDigest = DigestUtils.md5Hex(os.toByteArray()) + "-" + _etags.size();
+            localDigest = Utils.getMultipartETag(_etags.values());
           }
           else
           {
@@ -709,7 +985,7 @@ class S3DownloadCommand
             else
             {
               // Multi-part download (>1 range GETs).
-              System.err.println("Warning: Skipped checksum validation for " + fn +
+              _client.getErrorOutput().println("Warning: Skipped checksum validation for " + fn +
                 ". No efficient way to compute MD5 on multipart downloads of files with " +
                 "singlepart ETag.");
               return download;
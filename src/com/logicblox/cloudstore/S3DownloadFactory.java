@@ -19,6 +19,7 @@ package com.logicblox.cloudstore;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
@@ -29,17 +30,26 @@ class S3DownloadFactory
   final private DownloadOptions _options;
   final private ListeningExecutorService _executor;
   final private AmazonS3 _client;
+  final private ObjectMetadata _metadata;
 
+  /**
+   * @param metadata metadata of the object if it is known already, or null to look it up
+   */
   public S3DownloadFactory(DownloadOptions options, AmazonS3 client, ListeningExecutorService
-    executor)
+    executor, ObjectMetadata metadata)
   {
     _options = options;
     _client = client;
     _executor = executor;
+    _metadata = metadata;
   }
 
   ListenableFuture<S3Download> startDownload()
   {
+    if(_metadata != null)
+    {
+      return Futures.immediateFuture(new S3Download(_options, _client, _executor, _metadata));
+    }
     return _executor.submit(new StartCallable());
   }
 
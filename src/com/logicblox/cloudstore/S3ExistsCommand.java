@@ -18,6 +18,7 @@ package com.logicblox.cloudstore;
 
 
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -84,8 +85,9 @@ class S3ExistsCommand
         // to make sure that the retry facility works when the
         // --stubborn option is used, which retries client
         // exceptions as well.
-        return new Metadata(
-          getS3Client().getObjectMetadata(_options.getBucketName(), _options.getObjectKey()));
+        return new Metadata(getS3Client().getObjectMetadata(
+          new GetObjectMetadataRequest(_options.getBucketName(), _options.getObjectKey(),
+            _options.getVersion().orElse(null))));
       }
     });
   }
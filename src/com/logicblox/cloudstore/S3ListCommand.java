@@ -129,6 +129,7 @@ class S3ListCommand
     of.setETag(o.getETag());
     of.setBucketName(o.getBucketName());
     of.setSize(o.getSize());
+    of.setTimestamp(o.getLastModified());
     return of;
   }
 
@@ -26,11 +26,10 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PartETag;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import org.apache.commons.codec.digest.DigestUtils;
 
 import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
@@ -110,13 +109,13 @@ class S3MultipartCopy
 
       req = new CompleteMultipartUploadRequest(getDestinationBucketName(),
         getDestinationObjectKey(), _uploadId, new ArrayList<PartETag>(_etags.values()));
-      ByteArrayOutputStream os = new ByteArrayOutputStream();
-      for(Integer pNum : _etags.keySet())
+      List<byte[]> partDigests = new ArrayList<>();
+      for(PartETag etag : _etags.values())
       {
-        os.write(DatatypeConverter.parseHexBinary(_etags.get(pNum).getETag()));
+        partDigests.add(DatatypeConverter.parseHexBinary(etag.getETag()));
       }
 
-      multipartDigest = DigestUtils.md5Hex(os.toByteArray()) + "-" + _etags.size();
+      multipartDigest = Utils.getMultipartETag(partDigests);
 
       CompleteMultipartUploadResult res = _client.completeMultipartUpload(req);
 
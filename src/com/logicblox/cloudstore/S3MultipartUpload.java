@@ -21,20 +21,21 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import org.apache.commons.codec.digest.DigestUtils;
 
 import javax.xml.bind.DatatypeConverter;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -67,6 +68,19 @@ class S3MultipartUpload
     return _executor.submit(new UploadCallable(partNumber, partSize, stream, progressListener));
   }
 
+  /**
+   * Fill part {@code partNumber} with bytes {@code startByte} to {@code endByte}, inclusive, of
+   * the object {@code sourceKey} in the same bucket, provided the object still has ETag
+   * {@code sourceETag}.
+   */
+  public ListenableFuture<Void> copyPart(
+    int partNumber, String sourceKey, String sourceETag, long startByte, long endByte,
+    OverallProgressListener progressListener)
+  {
+    return _executor.submit(new CopyCallable(partNumber, sourceKey, sourceETag, startByte,
+      endByte, progressListener));
+  }
+
   public ListenableFuture<String> completeUpload()
   {
     return _executor.submit(new CompleteCallable());
@@ -121,13 +135,13 @@ class S3MultipartUpload
 
       req = new CompleteMultipartUploadRequest(getBucketName(), getObjectKey(), _uploadId,
         new ArrayList<>(_etags.values()));
-      ByteArrayOutputStream os = new ByteArrayOutputStream();
-      for(Integer pNum : _etags.keySet())
+      List<byte[]> partDigests = new ArrayList<>();
+      for(PartETag etag : _etags.values())
       {
-        os.write(DatatypeConverter.parseHexBinary(_etags.get(pNum).getETag()));
+        partDigests.add(DatatypeConverter.parseHexBinary(etag.getETag()));
       }
 
-      multipartDigest = DigestUtils.md5Hex(os.toByteArray()) + "-" + _etags.size();
+      multipartDigest = Utils.getMultipartETag(partDigests);
 
       CompleteMultipartUploadResult res = _client.completeMultipartUpload(req);
 
@@ -224,4 +238,59 @@ class S3MultipartUpload
       }
     }
   }
+
+  private class CopyCallable
+    implements Callable<Void>
+  {
+    private int _partNumber;
+    private String _sourceKey;
+    private String _sourceETag;
+    private long _startByte;
+    private long _endByte;
+    private OverallProgressListener _progressListener;
+
+    public CopyCallable(
+      int partNumber, String sourceKey, String sourceETag, long startByte, long endByte,
+      OverallProgressListener progressListener)
+    {
+      _partNumber = partNumber;
+      _sourceKey = sourceKey;
+      _sourceETag = sourceETag;
+      _startByte = startByte;
+      _endByte = endByte;
+      _progressListener = progressListener;
+    }
+
+    public Void call()
+      throws Exception
+    {
+      CopyPartRequest req = new CopyPartRequest().withSourceBucketName(getBucketName())
+        .withSourceKey(_sourceKey)
+        .withDestinationBucketName(getBucketName())
+        .withDestinationKey(getObjectKey())
+        .withUploadId(_uploadId)
+        .withFirstByte(_startByte)
+        .withLastByte(_endByte)
+        .withPartNumber(_partNumber + 1)
+        .withMatchingETagConstraint(_sourceETag);
+
+      if(_progressListener != null)
+      {
+        PartProgressEvent ppe = new PartProgressEvent(Integer.toString(_partNumber));
+        ProgressListener s3pl = new S3ProgressListener(_progressListener, ppe);
+        req.setGeneralProgressListener(s3pl);
+      }
+
+      CopyPartResult res = _client.copyPart(req);
+      if(res == null)
+      {
+        // the SDK returns null if the ETag constraint did not hold
+        throw new BadHashException("Part " + (_partNumber + 1) + " of " + getBucketName() +
+          "/" + getObjectKey() + " could not be copied, because " + _sourceKey +
+          " changed during the upload");
+      }
+      _etags.put(_partNumber, new PartETag(res.getPartNumber(), res.getETag()));
+      return null;
+    }
+  }
 }
@@ -18,10 +18,13 @@ package com.logicblox.cloudstore;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import javax.crypto.BadPaddingException;
@@ -30,16 +33,18 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -48,10 +53,20 @@ import java.util.concurrent.Callable;
 class S3UploadCommand
   extends Command
 {
+  // chunks that are compressed ahead of the part they are appended to
+  private static final int COMPRESSION_WINDOW = 4;
+  // compressed parts that are uploaded concurrently, bounding the memory of compressed uploads
+  private static final int MAX_PENDING_PARTS = 4;
+
   private String _encKeyName;
   private String _encryptedSymmetricKeyString;
   private OverallProgressListenerFactory _progressListenerFactory;
   private String _pubKeyHash;
+  private UploadSource _source;
+  private boolean _delta;
+  private List<byte[]> _partDigests;
+  private PartManifest _previous;
+  private CompressionCodec _codec;
 
   private UploadOptions _options;
 
@@ -63,8 +78,9 @@ class S3UploadCommand
     _options = options;
 
     this.file = _options.getFile();
+    _source = _options.getSource();
     setChunkSize(_options.getChunkSize());
-    setFileLength(this.file.length());
+    setFileLength(_source.getLength());
     _encKeyName = _options.getEncKey().orElse(null);
 
     if(_encKeyName != null)
@@ -115,6 +131,8 @@ class S3UploadCommand
     }
 
     _progressListenerFactory = _options.getOverallProgressListenerFactory().orElse(null);
+    _delta = _options.isDelta() && file != null && _encKeyName == null;
+    _codec = CompressionCodec.forName(_options.getCompression().orElse(null));
   }
 
   /**
@@ -123,20 +141,20 @@ class S3UploadCommand
   public ListenableFuture<StoreFile> run()
     throws FileNotFoundException
   {
-    if(file.isDirectory())
+    if(file != null && file.isDirectory())
     {
       throw new UsageException(
         "Directory upload is supported only by the recursive variant: " + file.getPath());
     }
 
-    if(!file.exists())
+    if(file != null && !file.exists())
     {
       throw new FileNotFoundException(file.getPath());
     }
 
     if(_options.isDryRun())
     {
-      System.out.println("<DRYRUN> uploading '" + this.file.getAbsolutePath() + "' to '" +
+      _client.getOutput().println("<DRYRUN> uploading '" + _source.getDescription() + "' to '" +
         getUri(_options.getBucketName(), _options.getObjectKey()) + "'");
       return Futures.immediateFuture(null);
     }
@@ -149,9 +167,27 @@ class S3UploadCommand
 
   private ListenableFuture<StoreFile> scheduleExecution()
   {
-    final ListenableFuture<Upload> started = startUpload();
+    final ListenableFuture<Upload> started;
+    if(_delta)
+    {
+      started = Futures.transform(prepareDelta(), new AsyncFunction<Void, Upload>()
+      {
+        public ListenableFuture<Upload> apply(Void v)
+        {
+          return startUpload();
+        }
+      });
+    }
+    else
+    {
+      started = startUpload();
+    }
     ListenableFuture<Upload> uploaded = Futures.transform(started, startPartsAsyncFunction());
     ListenableFuture<String> completed = Futures.transform(uploaded, completeAsyncFunction());
+    if(_delta)
+    {
+      completed = Futures.transform(completed, storeManifestAsyncFunction());
+    }
     ListenableFuture<StoreFile> res = Futures.transform(completed, new Function<String, StoreFile>()
     {
       public StoreFile apply(String etag)
@@ -184,6 +220,54 @@ class S3UploadCommand
     }, _client.getInternalExecutor());
   }
 
+  /**
+   * Step 0 of delta uploads: digest the parts of the file, and load the manifest of the object
+   * that is replaced.  Parts are only copied from that object if the manifest still describes
+   * it and was made with the same chunk size.
+   */
+  private ListenableFuture<Void> prepareDelta()
+  {
+    final ListenableFuture<List<byte[]>> digests = ETagCalculator.computePartDigests(file,
+      chunkSize, _client.getInternalExecutor());
+    ExistsOptions existsOptions = _client.getOptionsBuilderFactory()
+      .newExistsOptionsBuilder()
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(_options.getObjectKey())
+      .createOptions();
+    final ListenableFuture<Metadata> previous = _client.exists(existsOptions);
+    final ListenableFuture<PartManifest> manifest = Futures.withFallback(
+      PartManifest.load(getS3Client(), _client.getApiExecutor(), _options.getBucketName(),
+        _options.getObjectKey()), new FutureFallback<PartManifest>()
+      {
+        public ListenableFuture<PartManifest> create(Throwable t)
+        {
+          // without a manifest all parts are uploaded
+          return Futures.immediateFuture(null);
+        }
+      });
+
+    List<ListenableFuture<?>> all = new ArrayList<>();
+    all.add(digests);
+    all.add(previous);
+    all.add(manifest);
+    return Futures.transform(Futures.allAsList(all), new Function<List<Object>, Void>()
+    {
+      public Void apply(List<Object> ignored)
+      {
+        _partDigests = Futures.getUnchecked(digests);
+        Metadata metadata = Futures.getUnchecked(previous);
+        PartManifest parts = Futures.getUnchecked(manifest);
+        if(parts != null && metadata != null && parts.getETag().equals(metadata.getETag()) &&
+          parts.getChunkSize() == chunkSize &&
+          !metadata.getUserMetadata().containsKey("s3tool-key-name"))
+        {
+          _previous = parts;
+        }
+        return null;
+      }
+    });
+  }
+
   /**
    * Step 1: Returns a future upload that is internally retried.
    */
@@ -206,7 +290,21 @@ class S3UploadCommand
   private ListenableFuture<Upload> startUploadActual()
   {
     Map<String, String> meta = new HashMap<>();
-    meta.put("s3tool-version", String.valueOf(Version.CURRENT));
+    if(_codec != null)
+    {
+      meta.put("s3tool-version", String.valueOf(Version.COMPRESSED));
+      meta.put("s3tool-compression", _codec.getName());
+    }
+    else if(_encKeyName != null)
+    {
+      meta.put("s3tool-version", String.valueOf(Version.SEGMENTED));
+      meta.put("s3tool-segment-size",
+        String.valueOf(SegmentedCipherInputStream.DEFAULT_SEGMENT_SIZE));
+    }
+    else
+    {
+      meta.put("s3tool-version", String.valueOf(Version.CURRENT));
+    }
     if(_encKeyName != null)
     {
       meta.put("s3tool-key-name", _encKeyName);
@@ -215,6 +313,10 @@ class S3UploadCommand
     }
     meta.put("s3tool-chunk-size", Long.toString(chunkSize));
     meta.put("s3tool-file-length", Long.toString(fileLength));
+    if(_delta)
+    {
+      meta.put(PartManifest.METADATA_KEY, "true");
+    }
 
     S3MultipartUploadFactory factory = new S3MultipartUploadFactory(_options, getS3Client(),
       _client.getApiExecutor(), meta);
@@ -230,22 +332,31 @@ class S3UploadCommand
     {
       public ListenableFuture<Upload> apply(Upload upload)
       {
+        if(_codec != null)
+        {
+          return new CompressedParts(upload, createProgressListener(upload)).start();
+        }
         return startParts(upload);
       }
     };
   }
 
-  private ListenableFuture<Upload> startParts(final Upload upload)
+  private OverallProgressListener createProgressListener(Upload upload)
   {
-    OverallProgressListener opl = null;
-    if(_progressListenerFactory != null)
-    {
-      opl = _progressListenerFactory.create(
-        new ProgressOptionsBuilder().setObjectUri(getUri(upload.getBucketName(), upload.getObjectKey()))
-          .setOperation("upload")
-          .setFileSizeInBytes(fileLength)
-          .createProgressOptions());
+    if(_progressListenerFactory == null)
+    {
+      return null;
     }
+    return _progressListenerFactory.create(
+      new ProgressOptionsBuilder().setObjectUri(getUri(upload.getBucketName(), upload.getObjectKey()))
+        .setOperation("upload")
+        .setFileSizeInBytes(fileLength)
+        .createProgressOptions());
+  }
+
+  private ListenableFuture<Upload> startParts(final Upload upload)
+  {
+    OverallProgressListener opl = createProgressListener(upload);
 
     List<ListenableFuture<Void>> parts = new ArrayList<ListenableFuture<Void>>();
     for(long position = 0; position < fileLength || (position == 0 && fileLength == 0);
@@ -303,21 +414,48 @@ class S3UploadCommand
     throws Exception
   {
     final int partNumber = (int) (position / chunkSize);
-    final Cipher cipher;
+    long size = Math.min(fileLength - position, chunkSize);
+    if(_previous != null && upload instanceof S3MultipartUpload &&
+      isUnchangedPart(partNumber, size))
+    {
+      ListenableFuture<Void> copied = ((S3MultipartUpload) upload).copyPart(partNumber,
+        _options.getObjectKey(), _previous.getETag(), position, position + size - 1, opl);
+      return Futures.withFallback(copied, new FutureFallback<Void>()
+      {
+        public ListenableFuture<Void> create(Throwable t)
+          throws Exception
+        {
+          // the previous object could have been replaced meanwhile
+          return uploadPart(upload, position, opl);
+        }
+      });
+    }
+    return uploadPart(upload, position, opl);
+  }
+
+  private boolean isUnchangedPart(int partNumber, long size)
+  {
+    return size > 0 && partNumber < _previous.getDigests().size() &&
+      _previous.getPartSize(partNumber) == size &&
+      Arrays.equals(_previous.getDigests().get(partNumber), _partDigests.get(partNumber));
+  }
+
+  private ListenableFuture<Void> uploadPart(
+    final Upload upload, final long position, final OverallProgressListener opl)
+    throws Exception
+  {
+    final int partNumber = (int) (position / chunkSize);
+    final long preCryptSize = Math.min(fileLength - position, chunkSize);
 
     long partSize;
     if(_encKeyName != null)
     {
-      cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-
-      long preCryptSize = Math.min(fileLength - position, chunkSize);
-      long blockSize = cipher.getBlockSize();
-      partSize = blockSize * (preCryptSize / blockSize + 2);
+      partSize = SegmentedCipherInputStream.getEncryptedLength(preCryptSize,
+        SegmentedCipherInputStream.DEFAULT_SEGMENT_SIZE);
     }
     else
     {
-      cipher = null;
-      partSize = Math.min(fileLength - position, chunkSize);
+      partSize = preCryptSize;
     }
 
     Callable<InputStream> inputStreamCallable = new Callable<InputStream>()
@@ -325,18 +463,13 @@ class S3UploadCommand
       public InputStream call()
         throws Exception
       {
-        FileInputStream fs = new FileInputStream(file);
-        long skipped = fs.skip(position);
-        while(skipped < position)
-        {
-          skipped += fs.skip(position - skipped);
-        }
-
-        BufferedInputStream bs = new BufferedInputStream(fs);
+        InputStream bs = _source.open(position);
         InputStream in;
-        if(cipher != null)
+        if(_encKeyName != null)
         {
-          in = new CipherWithInlineIVInputStream(bs, cipher, Cipher.ENCRYPT_MODE, encKey);
+          in = new SegmentedCipherInputStream(bs, Cipher.ENCRYPT_MODE, encKey, partNumber,
+            preCryptSize, SegmentedCipherInputStream.DEFAULT_SEGMENT_SIZE, fileLength,
+            position + preCryptSize == fileLength);
         }
         else
         {
@@ -350,6 +483,179 @@ class S3UploadCommand
     return upload.uploadPart(partNumber, partSize, inputStreamCallable, opl);
   }
 
+  /**
+   * Step 2 of compressed uploads.  Every chunk of the source is compressed, and encrypted if a
+   * key is used, on its own, so that downloads can still fetch and decompress the chunks in
+   * parallel.  Compressed chunks are much smaller than S3's minimum part size, so they are
+   * appended in order to a buffer that is uploaded as a part whenever it reaches the chunk
+   * size.  The last part ends with the {@link CompressedChunkIndex}.
+   * <p>
+   * Chunks are compressed {@link #COMPRESSION_WINDOW} ahead on the internal executor, and no
+   * more chunks are appended while {@link #MAX_PENDING_PARTS} parts are being uploaded, so the
+   * memory used is a small multiple of the chunk size.
+   */
+  private class CompressedParts
+  {
+    private final Upload _upload;
+    private final OverallProgressListener _opl;
+    private final int _chunkCount;
+    private final long[] _sizes;
+    private final List<ListenableFuture<byte[]>> _chunks = new ArrayList<>();
+    private final List<ListenableFuture<Void>> _parts = new ArrayList<>();
+    private final SettableFuture<Upload> _result = SettableFuture.create();
+    private ByteArrayOutputStream _buffer = new ByteArrayOutputStream();
+
+    CompressedParts(Upload upload, OverallProgressListener opl)
+    {
+      _upload = upload;
+      _opl = opl;
+      _chunkCount = CompressedChunkIndex.getChunkCount(fileLength, chunkSize);
+      _sizes = new long[_chunkCount];
+    }
+
+    ListenableFuture<Upload> start()
+    {
+      for(int i = 0; i < Math.min(COMPRESSION_WINDOW, _chunkCount); ++i)
+      {
+        _chunks.add(compressChunk(i));
+      }
+      append(0);
+      return _result;
+    }
+
+    /**
+     * Append chunk {@code chunkNumber} once it is compressed.  The next chunk is appended by a
+     * callback on the internal executor, so the stack does not grow with the number of chunks.
+     */
+    private void append(final int chunkNumber)
+    {
+      if(chunkNumber == _chunkCount)
+      {
+        finish();
+        return;
+      }
+
+      Futures.addCallback(_chunks.get(chunkNumber), new FutureCallback<byte[]>()
+      {
+        public void onSuccess(byte[] chunk)
+        {
+          _chunks.set(chunkNumber, null);
+          if(chunkNumber + COMPRESSION_WINDOW < _chunkCount)
+          {
+            _chunks.add(compressChunk(chunkNumber + COMPRESSION_WINDOW));
+          }
+          _sizes[chunkNumber] = chunk.length;
+          _buffer.write(chunk, 0, chunk.length);
+
+          ListenableFuture<?> ready = Futures.immediateFuture(null);
+          if(_buffer.size() >= chunkSize)
+          {
+            uploadBuffer();
+            if(_parts.size() > MAX_PENDING_PARTS)
+            {
+              ready = _parts.get(_parts.size() - 1 - MAX_PENDING_PARTS);
+            }
+          }
+          Futures.addCallback(ready, new FutureCallback<Object>()
+          {
+            public void onSuccess(Object ignored)
+            {
+              append(chunkNumber + 1);
+            }
+
+            public void onFailure(Throwable t)
+            {
+              _result.setException(t);
+            }
+          }, _client.getInternalExecutor());
+        }
+
+        public void onFailure(Throwable t)
+        {
+          _result.setException(t);
+        }
+      }, _client.getInternalExecutor());
+    }
+
+    private void finish()
+    {
+      byte[] index = new CompressedChunkIndex(_sizes).toBytes();
+      _buffer.write(index, 0, index.length);
+      uploadBuffer();
+      Futures.addCallback(Futures.allAsList(_parts), new FutureCallback<List<Void>>()
+      {
+        public void onSuccess(List<Void> ignored)
+        {
+          _result.set(_upload);
+        }
+
+        public void onFailure(Throwable t)
+        {
+          _result.setException(t);
+        }
+      });
+    }
+
+    private void uploadBuffer()
+    {
+      final byte[] bytes = _buffer.toByteArray();
+      _buffer = new ByteArrayOutputStream();
+      final int partNumber = _parts.size();
+      _parts.add(executeWithRetry(_client.getInternalExecutor(),
+        new Callable<ListenableFuture<Void>>()
+        {
+          public ListenableFuture<Void> call()
+          {
+            return _upload.uploadPart(partNumber, bytes.length, new Callable<InputStream>()
+            {
+              public InputStream call()
+              {
+                return new ByteArrayInputStream(bytes);
+              }
+            }, _opl);
+          }
+
+          public String toString()
+          {
+            return "uploading part " + (partNumber + 1);
+          }
+        }));
+    }
+
+    private ListenableFuture<byte[]> compressChunk(final int chunkNumber)
+    {
+      return _client.getInternalExecutor().submit(new Callable<byte[]>()
+      {
+        public byte[] call()
+          throws Exception
+        {
+          long position = chunkNumber * chunkSize;
+          long size = Math.min(fileLength - position, chunkSize);
+          ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+          try(InputStream in = ByteStreams.limit(_source.open(position), size);
+              OutputStream out = _codec.compress(compressed))
+          {
+            if(ByteStreams.copy(in, out) != size)
+            {
+              throw new IOException("Unexpected end of " + _source.getDescription());
+            }
+          }
+          if(_encKeyName == null)
+          {
+            return compressed.toByteArray();
+          }
+          Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+          try(InputStream in = new CipherWithInlineIVInputStream(
+            new ByteArrayInputStream(compressed.toByteArray()), cipher, Cipher.ENCRYPT_MODE,
+            encKey))
+          {
+            return ByteStreams.toByteArray(in);
+          }
+        }
+      });
+    }
+  }
+
   /**
    * Step 3: Complete parts
    */
@@ -388,6 +694,55 @@ class S3UploadCommand
     return upload.completeUpload();
   }
 
+  /**
+   * Step 4 of delta uploads: store the manifest of the new object for the next delta upload.
+   */
+  private AsyncFunction<String, String> storeManifestAsyncFunction()
+  {
+    return new AsyncFunction<String, String>()
+    {
+      public ListenableFuture<String> apply(final String etag)
+      {
+        if(!Utils.getMultipartETag(_partDigests).equals(etag))
+        {
+          // the file changed during the upload, so the digests do not describe the object
+          _client.getErrorOutput().println("Warning: Not storing the part manifest of " +
+            getUri(_options.getBucketName(), _options.getObjectKey()) +
+            ", because the file changed during the upload");
+          return Futures.immediateFuture(etag);
+        }
+
+        final PartManifest manifest = new PartManifest(etag, chunkSize, fileLength,
+          _partDigests);
+        ListenableFuture<Void> stored = executeWithRetry(_client.getInternalExecutor(),
+          new Callable<ListenableFuture<Void>>()
+          {
+            public ListenableFuture<Void> call()
+            {
+              return manifest.store(getS3Client(), _client.getApiExecutor(),
+                _options.getBucketName(), _options.getObjectKey(), _options.getCannedAcl());
+            }
+
+            public String toString()
+            {
+              return "storing part manifest";
+            }
+          });
+        return Futures.withFallback(Futures.transform(stored, Functions.constant(etag)),
+          new FutureFallback<String>()
+          {
+            public ListenableFuture<String> create(Throwable t)
+            {
+              // the object is complete, the next delta upload just uploads every part
+              _client.getErrorOutput().println("Warning: Could not store the part manifest of " +
+                getUri(_options.getBucketName(), _options.getObjectKey()) + ": " + t);
+              return Futures.immediateFuture(etag);
+            }
+          });
+      }
+    };
+  }
+
   /**
    * Abort upload if something goes wrong
    */
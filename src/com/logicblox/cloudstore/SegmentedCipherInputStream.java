@@ -0,0 +1,222 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * Encrypts or decrypts one chunk of an object in the segmented format of {@link
+ * Version#SEGMENTED}.  The chunk is split into segments of {@code segmentSize} bytes, and every
+ * segment is encrypted on its own with AES/GCM and stored as its ciphertext followed by a
+ * {@link #TAG_LENGTH}-byte authentication tag.  The last segment of a chunk is shorter, and an
+ * empty chunk is stored as one empty segment.
+ * <p>
+ * The nonce of a segment is the chunk number followed by the segment number within the chunk.
+ * The data key is random for every upload, so nonces are never reused with the same key, and
+ * segments that are swapped or moved fail authentication.  The additional authenticated data of
+ * a segment is the length of the file followed by a flag that is set only for the last segment
+ * of the last chunk, so an object that is truncated at a segment or chunk boundary fails
+ * authentication too, even if its file length metadata is changed to match.  Unlike the inline IV of the CBC
+ * format the nonce is not stored, so offsets in the file map arithmetically to offsets in the
+ * object, see {@link #getEncryptedOffset(long, long, int)}, and a range of the file can be read
+ * by decrypting only the segments that overlap it.
+ */
+class SegmentedCipherInputStream
+  extends InputStream
+{
+  static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+  static final int TAG_LENGTH = 16;
+
+  private final InputStream _in;
+  private final int _opmode;
+  private final Key _key;
+  private final long _chunkNumber;
+  private final int _segmentSize;
+  private final long _fileLength;
+  private final boolean _lastChunk;
+  private final Cipher _cipher;
+  private long _remaining;
+  private int _segment;
+  private boolean _started = false;
+  private byte[] _buffer = new byte[0];
+  private int _position = 0;
+
+  /**
+   * @param in          stream of plain text when encrypting, or of the stored segments when
+   *                    decrypting
+   * @param opmode      {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+   * @param key         data key of the object
+   * @param chunkNumber number of the chunk, starting at 0
+   * @param segment     number of the first segment to process within the chunk
+   * @param length      number of plain text bytes from the start of that segment to the end of
+   *                    the chunk
+   * @param segmentSize plain text bytes per segment
+   * @param fileLength  plain text bytes of the whole file
+   * @param lastChunk   whether this is the last chunk of the file
+   */
+  SegmentedCipherInputStream(
+    InputStream in, int opmode, Key key, long chunkNumber, int segment, long length,
+    int segmentSize, long fileLength, boolean lastChunk)
+    throws GeneralSecurityException
+  {
+    if(opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE)
+    {
+      throw new IllegalArgumentException(SegmentedCipherInputStream.class.getCanonicalName() +
+        " can only be constructed in DECRYPT_MODE or ENCRYPT_MODE");
+    }
+    _in = in;
+    _opmode = opmode;
+    _key = key;
+    _chunkNumber = chunkNumber;
+    _segment = segment;
+    _remaining = length;
+    _segmentSize = segmentSize;
+    _fileLength = fileLength;
+    _lastChunk = lastChunk;
+    _cipher = Cipher.getInstance("AES/GCM/NoPadding");
+  }
+
+  /**
+   * Process a whole chunk of {@code length} plain text bytes.
+   */
+  SegmentedCipherInputStream(
+    InputStream in, int opmode, Key key, long chunkNumber, long length, int segmentSize,
+    long fileLength, boolean lastChunk)
+    throws GeneralSecurityException
+  {
+    this(in, opmode, key, chunkNumber, 0, length, segmentSize, fileLength, lastChunk);
+  }
+
+  /**
+   * Return the stored length of a chunk of {@code length} plain text bytes.
+   */
+  static long getEncryptedLength(long length, int segmentSize)
+  {
+    long segments = (length == 0) ? 1 : (length + segmentSize - 1) / segmentSize;
+    return length + segments * TAG_LENGTH;
+  }
+
+  /**
+   * Return the offset in the object of the segment that contains byte {@code position} of the
+   * file.
+   */
+  static long getEncryptedOffset(long position, long chunkSize, int segmentSize)
+  {
+    long chunkNumber = position / chunkSize;
+    long segment = (position % chunkSize) / segmentSize;
+    return chunkNumber * getEncryptedLength(chunkSize, segmentSize) +
+      segment * (segmentSize + TAG_LENGTH);
+  }
+
+  @Override
+  public int read()
+    throws IOException
+  {
+    byte[] b = new byte[1];
+    int result = read(b, 0, 1);
+    return (result == -1) ? -1 : (b[0] & 0xff);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len)
+    throws IOException
+  {
+    if(len == 0)
+    {
+      return 0;
+    }
+    while(_position == _buffer.length)
+    {
+      if(!nextSegment())
+      {
+        return -1;
+      }
+    }
+    int count = Math.min(len, _buffer.length - _position);
+    System.arraycopy(_buffer, _position, b, off, count);
+    _position += count;
+    return count;
+  }
+
+  @Override
+  public int available()
+  {
+    return _buffer.length - _position;
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    _in.close();
+  }
+
+  private boolean nextSegment()
+    throws IOException
+  {
+    if(_started && _remaining == 0)
+    {
+      return false;
+    }
+    _started = true;
+
+    int plainLength = (int) Math.min(_remaining, _segmentSize);
+    int inputLength = (_opmode == Cipher.ENCRYPT_MODE) ? plainLength : plainLength + TAG_LENGTH;
+    byte[] input = new byte[inputLength];
+    int offset = 0;
+    while(offset < inputLength)
+    {
+      int result = _in.read(input, offset, inputLength - offset);
+      if(result == -1)
+      {
+        throw new IOException("Segment " + _segment + " of chunk " + _chunkNumber +
+          " is truncated");
+      }
+      offset += result;
+    }
+
+    byte[] nonce = ByteBuffer.allocate(12).putLong(_chunkNumber).putInt(_segment).array();
+    boolean last = _lastChunk && _remaining == plainLength;
+    byte[] aad = ByteBuffer.allocate(9).putLong(_fileLength).put((byte) (last ? 1 : 0)).array();
+    try
+    {
+      _cipher.init(_opmode, _key, new GCMParameterSpec(8 * TAG_LENGTH, nonce));
+      _cipher.updateAAD(aad);
+      _buffer = _cipher.doFinal(input);
+    }
+    catch(AEADBadTagException exc)
+    {
+      throw new IOException("Segment " + _segment + " of chunk " + _chunkNumber +
+        " failed authentication", exc);
+    }
+    catch(GeneralSecurityException exc)
+    {
+      throw new IOException(exc);
+    }
+    _position = 0;
+    _remaining -= plainLength;
+    _segment++;
+    return true;
+  }
+}
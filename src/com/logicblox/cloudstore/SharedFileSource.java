@@ -0,0 +1,279 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A file that several uploads read at the same time, through one {@link UploadSource} view
+ * per upload, while every block of the file is read from disk only once.
+ * <p>
+ * The file is divided into blocks of the part size of the uploads.  The first view that reads
+ * a block loads it into memory, and the block stays there until every view that has not been
+ * detached has read it to the end.  Parts that are retried read the block again if it is still
+ * in memory, and from disk otherwise.  If more than {@code maxBufferedBytes} would be in
+ * memory, for instance because one upload is much slower than the others, the block is not
+ * kept, and every view reads it from disk itself.  Views that are detached, because their
+ * upload has completed or failed, no longer hold on to blocks.
+ * <p>
+ * This class is thread-safe.
+ */
+class SharedFileSource
+{
+  private final File _file;
+  private final long _length;
+  private final long _blockSize;
+  private final long _maxBufferedBytes;
+
+  private final BitSet _attached = new BitSet();
+  private final Map<Long, Block> _blocks = new HashMap<>();
+  private final Set<Long> _unbuffered = new HashSet<>();
+  private long _bufferedBytes = 0;
+  private final AtomicLong _bytesRead = new AtomicLong();
+
+  /**
+   * @param blockSize part size of the uploads, so that every part reads whole blocks
+   * @param views     number of uploads that read the file
+   */
+  SharedFileSource(File file, long blockSize, int views, long maxBufferedBytes)
+  {
+    _file = file;
+    _length = file.length();
+    _blockSize = blockSize;
+    _maxBufferedBytes = maxBufferedBytes;
+    _attached.set(0, views);
+  }
+
+  long getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Return the number of bytes that were read from disk.
+   */
+  long getBytesRead()
+  {
+    return _bytesRead.get();
+  }
+
+  /**
+   * Return the source of upload {@code view}.
+   */
+  UploadSource getView(final int view)
+  {
+    return new UploadSource()
+    {
+      public long getLength()
+      {
+        return _length;
+      }
+
+      public InputStream open(long position)
+      {
+        return new ViewStream(view, position);
+      }
+
+      public String getDescription()
+      {
+        return _file.getAbsolutePath();
+      }
+    };
+  }
+
+  /**
+   * Release the blocks that {@code view} still holds, and do not keep new blocks for it.
+   */
+  synchronized void detach(int view)
+  {
+    _attached.clear(view);
+    Iterator<Map.Entry<Long, Block>> it = _blocks.entrySet().iterator();
+    while(it.hasNext())
+    {
+      Block block = it.next().getValue();
+      block._pending.clear(view);
+      if(block._pending.isEmpty())
+      {
+        it.remove();
+        _bufferedBytes -= block._length;
+        _unbuffered.add(block._index);
+      }
+    }
+  }
+
+  /**
+   * Return the block shared by the views, or null if it is read by every view itself.
+   */
+  private synchronized Block getBlock(long index)
+  {
+    Block block = _blocks.get(index);
+    if(block == null && !_unbuffered.contains(index))
+    {
+      int length = (int) Math.min(_blockSize, _length - index * _blockSize);
+      if(_bufferedBytes + length > _maxBufferedBytes)
+      {
+        _unbuffered.add(index);
+      }
+      else
+      {
+        block = new Block(index, length, (BitSet) _attached.clone());
+        _blocks.put(index, block);
+        _bufferedBytes += length;
+      }
+    }
+    return block;
+  }
+
+  /**
+   * Record that {@code view} has read a block to the end, and drop the block if no other view
+   * needs it.
+   */
+  private synchronized void finished(int view, Block block)
+  {
+    block._pending.clear(view);
+    if(block._pending.isEmpty() && _blocks.remove(block._index) != null)
+    {
+      // only retried parts read the block again
+      _bufferedBytes -= block._length;
+      _unbuffered.add(block._index);
+    }
+  }
+
+  private byte[] read(long index)
+    throws IOException
+  {
+    long position = index * _blockSize;
+    ByteBuffer buf = ByteBuffer.allocate((int) Math.min(_blockSize, _length - position));
+    try(FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+    {
+      while(buf.hasRemaining())
+      {
+        if(channel.read(buf, position + buf.position()) == -1)
+        {
+          throw new IOException("File '" + _file + "' changed while it was uploaded");
+        }
+      }
+    }
+    _bytesRead.addAndGet(buf.capacity());
+    return buf.array();
+  }
+
+  /**
+   * A block of the file that views share.  It is loaded by the first view that reads it.
+   */
+  private class Block
+  {
+    private final long _index;
+    private final int _length;
+    private final BitSet _pending;
+    private byte[] _data;
+
+    Block(long index, int length, BitSet pending)
+    {
+      _index = index;
+      _length = length;
+      _pending = pending;
+    }
+
+    synchronized byte[] getData()
+      throws IOException
+    {
+      if(_data == null)
+      {
+        _data = read(_index);
+      }
+      return _data;
+    }
+  }
+
+  /**
+   * Reads the file from a position for one view.  Only the blocks that are actually read are
+   * loaded, so a stream that is closed at the end of a part does not load the next block.
+   */
+  private class ViewStream
+    extends InputStream
+  {
+    private final int _view;
+    private long _position;
+    private long _index = -1;
+    private Block _block;
+    private byte[] _data;
+
+    ViewStream(int view, long position)
+    {
+      _view = view;
+      _position = position;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if(_position >= _length)
+      {
+        return -1;
+      }
+      else if(len == 0)
+      {
+        return 0;
+      }
+
+      long index = _position / _blockSize;
+      if(index != _index)
+      {
+        _index = index;
+        _block = getBlock(index);
+        _data = (_block == null) ? SharedFileSource.this.read(index) : _block.getData();
+      }
+      int inBlock = (int) (_position - index * _blockSize);
+      int n = Math.min(len, _data.length - inBlock);
+      System.arraycopy(_data, inBlock, b, off, n);
+      _position += n;
+      if(inBlock + n == _data.length)
+      {
+        if(_block != null)
+        {
+          finished(_view, _block);
+        }
+        _index = -1;
+        _block = null;
+        _data = null;
+      }
+      return n;
+    }
+  }
+}
@@ -0,0 +1,478 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Makes the objects under a prefix match a local directory, or the other way around,
+ * transferring only the files that differ.
+ * <p>
+ * The local directory is walked while the objects are being listed.  Then every file that
+ * exists on both sides is compared concurrently: size and modification time first, and if
+ * those are inconclusive a HEAD request for the chunk size and ETag of the object, followed by
+ * the computation of the ETag of the local file by {@link ETagCalculator}.  Once all comparisons
+ * are done the transfers and deletions are started together.
+ * <p>
+ * Comparisons start when the listing is complete, not page by page as it arrives: the list
+ * commands return all objects at once, and a failed listing is retried from the start, so a
+ * page-by-page comparison would see pages twice.  A sync therefore holds a {@link StoreFile}
+ * for every object under the prefix and a {@link File} for every local file, a few hundred
+ * bytes each.  Prefixes with many millions of objects are better synchronized one
+ * subdirectory at a time.
+ */
+class SyncCommand
+  extends Command
+{
+  private SyncOptions _options;
+  private boolean _upload;
+
+  public SyncCommand(SyncOptions options)
+  {
+    super(options);
+    _options = options;
+    _upload = options.getDirection() == SyncOptions.Direction.UPLOAD;
+  }
+
+  public ListenableFuture<List<StoreFile>> run()
+    throws ExecutionException, InterruptedException, IOException
+  {
+    final String prefix = _options.getObjectKey();
+    if(!prefix.endsWith("/") && !prefix.equals(""))
+    {
+      throw new UsageException("Object key should end with a '/': " +
+        getUri(_options.getBucketName(), prefix));
+    }
+
+    final File dir = _options.getFile();
+    if(_upload && !dir.exists())
+    {
+      throw new FileNotFoundException(dir.getPath());
+    }
+    if(dir.exists() && !dir.isDirectory())
+    {
+      throw new UsageException("'" + dir + "' must be a directory");
+    }
+
+    ListOptions listOptions = _client.getOptionsBuilderFactory()
+      .newListOptionsBuilder()
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(prefix)
+      .setRecursive(true)
+      .setIncludeVersions(false)
+      .setExcludeDirs(false)
+      .createOptions();
+    ListenableFuture<List<StoreFile>> listing = _client.listObjects(listOptions);
+
+    // walk the local tree while the objects are being listed
+    final SortedMap<String, File> localFiles = listLocalFiles(dir);
+
+    return Futures.transform(listing, new AsyncFunction<List<StoreFile>, List<StoreFile>>()
+    {
+      public ListenableFuture<List<StoreFile>> apply(List<StoreFile> objects)
+      {
+        SortedMap<String, StoreFile> remoteFiles = new TreeMap<>();
+        for(StoreFile object : objects)
+        {
+          String key = object.getObjectKey();
+          if(!key.endsWith("/") && key.startsWith(prefix) && !PartManifest.isManifestKey(key))
+          {
+            remoteFiles.put(key.substring(prefix.length()), object);
+          }
+        }
+        return compare(localFiles, remoteFiles);
+      }
+    });
+  }
+
+  /**
+   * Return the files under {@code dir} that are not symbolic links, by path relative to
+   * {@code dir} with '/' as separator.
+   */
+  static SortedMap<String, File> listLocalFiles(File dir)
+  {
+    SortedMap<String, File> files = new TreeMap<>();
+    if(!dir.isDirectory())
+    {
+      return files;
+    }
+    String base = dir.getPath();
+    for(File file : FileUtils.listFiles(dir, UploadRecursivelyCommand.NO_SYMLINKS,
+      UploadRecursivelyCommand.NO_SYMLINKS))
+    {
+      String relPath = file.getPath().substring(base.length() + 1);
+      files.put(relPath.replace(File.separatorChar, '/'), file);
+    }
+    return files;
+  }
+
+  /**
+   * Compare the files that exist on both sides concurrently, and then transfer and delete.
+   */
+  private ListenableFuture<List<StoreFile>> compare(
+    SortedMap<String, File> localFiles, SortedMap<String, StoreFile> remoteFiles)
+  {
+    final List<String> transfers = new ArrayList<>();
+    final List<String> deletions = new ArrayList<>();
+    final List<String> compared = new ArrayList<>();
+    List<ListenableFuture<Boolean>> comparisons = new ArrayList<>();
+
+    SortedMap<String, ?> sources = _upload ? localFiles : remoteFiles;
+    SortedMap<String, ?> destinations = _upload ? remoteFiles : localFiles;
+    for(String relPath : sources.keySet())
+    {
+      if(destinations.containsKey(relPath))
+      {
+        compared.add(relPath);
+        comparisons.add(isDifferent(localFiles.get(relPath), remoteFiles.get(relPath)));
+      }
+      else
+      {
+        transfers.add(relPath);
+      }
+    }
+    if(_options.doesDelete())
+    {
+      for(String relPath : destinations.keySet())
+      {
+        if(!sources.containsKey(relPath))
+        {
+          deletions.add(relPath);
+        }
+      }
+    }
+
+    final SortedMap<String, File> local = localFiles;
+    final SortedMap<String, StoreFile> remote = remoteFiles;
+    return Futures.transform(Futures.allAsList(comparisons),
+      new AsyncFunction<List<Boolean>, List<StoreFile>>()
+      {
+        public ListenableFuture<List<StoreFile>> apply(List<Boolean> different)
+          throws IOException
+        {
+          for(int i = 0; i < different.size(); ++i)
+          {
+            if(different.get(i))
+            {
+              transfers.add(compared.get(i));
+            }
+          }
+          return execute(transfers, deletions, local, remote);
+        }
+      });
+  }
+
+  private ListenableFuture<Boolean> isDifferent(final File file, final StoreFile object)
+  {
+    final long localLength = file.length();
+    final long localSeconds = file.lastModified() / 1000;
+    boolean sameSize = object.getSize().isPresent() && object.getSize().get() == localLength;
+    final boolean sameTime;
+    if(!object.getTimestamp().isPresent())
+    {
+      sameTime = false;
+    }
+    else if(_upload)
+    {
+      // uploaded objects get the time of the upload
+      sameTime = localSeconds <= object.getTimestamp().get().getTime() / 1000;
+    }
+    else
+    {
+      // downloaded files get the time of the object, see download()
+      sameTime = localSeconds == object.getTimestamp().get().getTime() / 1000;
+    }
+
+    if(sameSize && sameTime && !_options.doesChecksum())
+    {
+      return Futures.immediateFuture(false);
+    }
+    if(!sameSize && _upload && !_options.getEncKey().isPresent())
+    {
+      // the size of an unencrypted object is the size of its content
+      return Futures.immediateFuture(true);
+    }
+
+    // the listed size of encrypted or compressed objects is not the size of their content, and
+    // the chunk size needed to reproduce the ETag is only in the metadata of the object
+    ExistsOptions existsOptions = _client.getOptionsBuilderFactory()
+      .newExistsOptionsBuilder()
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(object.getObjectKey())
+      .createOptions();
+    return Futures.transform(_client.exists(existsOptions),
+      new AsyncFunction<Metadata, Boolean>()
+      {
+        public ListenableFuture<Boolean> apply(Metadata metadata)
+        {
+          return isDifferent(file, object, metadata, sameTime);
+        }
+      });
+  }
+
+  private ListenableFuture<Boolean> isDifferent(
+    final File file, final StoreFile object, Metadata metadata, boolean sameTime)
+  {
+    if(metadata == null)
+    {
+      // deleted after it was listed
+      return Futures.immediateFuture(true);
+    }
+
+    Map<String, String> meta = metadata.getUserMetadata();
+    boolean encrypted = meta.containsKey("s3tool-key-name");
+    if(_upload && encrypted != _options.getEncKey().isPresent())
+    {
+      return Futures.immediateFuture(true);
+    }
+
+    if(encrypted || meta.containsKey("s3tool-compression"))
+    {
+      // the content of encrypted and compressed objects cannot be compared without
+      // downloading them
+      String fileLength = meta.get("s3tool-file-length");
+      return Futures.immediateFuture(
+        fileLength == null || Long.parseLong(fileLength) != file.length() || !sameTime);
+    }
+
+    if(metadata.getContentLength() != file.length() || metadata.getETag() == null)
+    {
+      return Futures.immediateFuture(true);
+    }
+
+    // multipart ETags can only be reproduced with the chunk size of the upload, which
+    // concatenated objects do not have
+    final String remoteETag = metadata.getETag();
+    String chunkSize = meta.containsKey("s3tool-concatenated") ? null :
+      meta.get("s3tool-chunk-size");
+    ListenableFuture<String> localETag = ETagCalculator.computeETag(file, remoteETag,
+      (chunkSize == null) ? -1 : Long.parseLong(chunkSize), _client.getInternalExecutor());
+    return Futures.transform(localETag, new Function<String, Boolean>()
+    {
+      public Boolean apply(String localETag)
+      {
+        if(localETag == null || !remoteETag.equalsIgnoreCase(localETag))
+        {
+          return true;
+        }
+        if(!_upload && !_options.isDryRun() && object.getTimestamp().isPresent())
+        {
+          // the next sync can skip the content comparison
+          file.setLastModified(object.getTimestamp().get().getTime());
+        }
+        return false;
+      }
+    });
+  }
+
+  private ListenableFuture<List<StoreFile>> execute(
+    List<String> transfers, List<String> deletions, SortedMap<String, File> localFiles,
+    SortedMap<String, StoreFile> remoteFiles)
+    throws IOException
+  {
+    TransferSession session = null;
+    if(_options.getTransferProgressListener().isPresent() && !_options.isDryRun())
+    {
+      long totalBytes = 0;
+      for(String relPath : transfers)
+      {
+        totalBytes += _upload ? localFiles.get(relPath).length() :
+          remoteFiles.get(relPath).getSize().orElse(0L);
+      }
+      session = new TransferSession("sync", totalBytes, transfers.size(),
+        _options.getTransferProgressListener().get(), null, _client.getInternalExecutor(),
+        TransferSession.DEFAULT_INTERVAL_MILLIS);
+      session.start();
+    }
+
+    List<ListenableFuture<StoreFile>> files = new ArrayList<>();
+    try
+    {
+      for(String relPath : transfers)
+      {
+        if(_upload)
+        {
+          upload(files, localFiles.get(relPath), relPath, session);
+        }
+        else
+        {
+          download(files, remoteFiles.get(relPath), relPath, session);
+        }
+      }
+      for(String relPath : deletions)
+      {
+        delete(files, relPath, localFiles.get(relPath));
+      }
+    }
+    catch(IOException | RuntimeException ex)
+    {
+      if(session != null)
+      {
+        session.stop();
+      }
+      throw ex;
+    }
+
+    if(_options.isDryRun())
+    {
+      return Futures.immediateFuture(null);
+    }
+    ListenableFuture<List<StoreFile>> result = Futures.allAsList(files);
+    if(session != null)
+    {
+      session.stopOnCompletion(result);
+    }
+    return result;
+  }
+
+  private void upload(
+    List<ListenableFuture<StoreFile>> files, File file, String relPath, TransferSession session)
+    throws IOException
+  {
+    String key = _options.getObjectKey() + relPath;
+    if(_options.isDryRun())
+    {
+      _client.getOutput().println("<DRYRUN> uploading '" + file.getAbsolutePath() + "' to '" +
+        getUri(_options.getBucketName(), key) + "'");
+      return;
+    }
+
+    UploadOptions options = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(file)
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(key)
+      .setChunkSize(_options.getChunkSize())
+      .setEncKey(_options.getEncKey().orElse(null))
+      .setCannedAcl(_options.getCannedAcl())
+      .setOverallProgressListenerFactory(session)
+      .createOptions();
+    ListenableFuture<StoreFile> upload = _client.upload(options);
+    if(session != null)
+    {
+      session.track(getUri(_options.getBucketName(), key), file.length(), upload);
+    }
+    files.add(upload);
+  }
+
+  private void download(
+    List<ListenableFuture<StoreFile>> files, final StoreFile object, String relPath,
+    TransferSession session)
+    throws IOException
+  {
+    final File file = new File(_options.getFile().getAbsoluteFile(), relPath);
+    if(_options.isDryRun())
+    {
+      _client.getOutput().println("<DRYRUN> downloading '" +
+        getUri(_options.getBucketName(), object.getObjectKey()) + "' to '" +
+        file.getAbsolutePath() + "'");
+      return;
+    }
+
+    try
+    {
+      Utils.mkdirs(file.getParentFile());
+    }
+    catch(IOException ex)
+    {
+      throw new UsageException(
+        "Could not create directory '" + file.getParent() + "': " + ex.getMessage());
+    }
+
+    DownloadOptions options = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(file)
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(object.getObjectKey())
+      .setOverwrite(true)
+      .setOverallProgressListenerFactory(session)
+      .createOptions();
+    ListenableFuture<StoreFile> download = _client.download(options);
+    if(object.getTimestamp().isPresent())
+    {
+      // give the file the time of the object, so that the next sync finds it unchanged
+      // without comparing its content
+      Futures.addCallback(download, new FutureCallback<StoreFile>()
+      {
+        public void onSuccess(StoreFile result)
+        {
+          file.setLastModified(object.getTimestamp().get().getTime());
+        }
+
+        public void onFailure(Throwable t)
+        {
+        }
+      });
+    }
+    if(session != null)
+    {
+      session.track(getUri(_options.getBucketName(), object.getObjectKey()),
+        object.getSize().orElse(0L), download);
+    }
+    files.add(download);
+  }
+
+  private void delete(List<ListenableFuture<StoreFile>> files, String relPath, File file)
+  {
+    if(_upload)
+    {
+      String key = _options.getObjectKey() + relPath;
+      if(_options.isDryRun())
+      {
+        _client.getOutput().println("<DRYRUN> deleting '" +
+          getUri(_options.getBucketName(), key) + "'");
+        return;
+      }
+      DeleteOptions options = _client.getOptionsBuilderFactory()
+        .newDeleteOptionsBuilder()
+        .setBucketName(_options.getBucketName())
+        .setObjectKey(key)
+        .createOptions();
+      files.add(_client.delete(options));
+    }
+    else
+    {
+      if(_options.isDryRun())
+      {
+        _client.getOutput().println("<DRYRUN> deleting '" + file.getAbsolutePath() + "'");
+        return;
+      }
+      if(!file.delete())
+      {
+        throw new UsageException("Could not delete '" + file + "'");
+      }
+      StoreFile deleted = new StoreFile();
+      deleted.setLocalFile(file);
+      files.add(Futures.immediateFuture(deleted));
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * {@code SyncOptions} contains all the details needed by the sync operation.  The local
+ * directory {@code _file} is compared against the objects under the prefix {@code _objectKey}
+ * of bucket {@code _bucketName}, and only the files that differ are transferred in the
+ * {@code _direction} of the sync.
+ * <p>
+ * A file is considered unchanged if its size and modification time agree with the object.  If
+ * they are inconclusive, or if {@code _checksum} is set, the multipart ETag of the local file is
+ * computed with the chunk size the object was uploaded with and compared to the ETag of the
+ * object.  The content of encrypted objects cannot be compared without downloading them, so they
+ * are compared by size and modification time only.
+ * <p>
+ * If {@code _delete} is set, files that exist only at the destination are deleted.
+ * <p>
+ * {@code _chunkSize}, {@code _encKey} and {@code _cannedAcl} apply to the files uploaded by the
+ * sync, like they do for {@link UploadOptions}.
+ * <p>
+ * {@code SyncOptions} objects are meant to be built by {@code SyncOptionsBuilder}. This class
+ * provides only public accessor methods.
+ *
+ * @see SyncOptionsBuilder
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#sync(SyncOptions)
+ * @see OptionsBuilderFactory#newSyncOptionsBuilder()
+ */
+public class SyncOptions
+  extends CommandOptions
+{
+  /**
+   * Direction in which a sync transfers files.
+   */
+  public enum Direction
+  {
+    /**
+     * Make the objects under the prefix match the local directory.
+     */
+    UPLOAD,
+
+    /**
+     * Make the local directory match the objects under the prefix.
+     */
+    DOWNLOAD
+  }
+
+  private File _file;
+  private String _bucketName;
+  private String _objectKey;
+  private Direction _direction;
+  private long _chunkSize = -1;
+  private String _encKey;
+  private String _cannedAcl;
+  private boolean _delete;
+  private boolean _checksum;
+  private boolean _dryRun;
+  private TransferProgressListener _transferProgressListener;
+
+  SyncOptions(
+    CloudStoreClient cloudStoreClient, File file, String bucketName, String objectKey,
+    Direction direction, long chunkSize, String encKey, String cannedAcl, boolean delete,
+    boolean checksum, boolean dryRun, TransferProgressListener transferProgressListener)
+  {
+    super(cloudStoreClient);
+    _file = file;
+    _bucketName = bucketName;
+    _objectKey = objectKey;
+    _direction = direction;
+    _chunkSize = chunkSize;
+    _encKey = encKey;
+    _cannedAcl = cannedAcl;
+    _delete = delete;
+    _checksum = checksum;
+    _dryRun = dryRun;
+    _transferProgressListener = transferProgressListener;
+  }
+
+  /**
+   * Return the local directory to be synchronized.
+   *
+   * @return local directory
+   */
+  public File getFile()
+  {
+    return _file;
+  }
+
+  /**
+   * Return the name of the bucket containing the objects to be synchronized.
+   *
+   * @return bucket name
+   */
+  public String getBucketName()
+  {
+    return _bucketName;
+  }
+
+  /**
+   * Return the prefix of the objects to be synchronized.  It is either empty or ends with a
+   * '/'.
+   *
+   * @return object key prefix
+   */
+  public String getObjectKey()
+  {
+    return _objectKey;
+  }
+
+  /**
+   * Return the direction in which files are transferred.
+   *
+   * @return sync direction
+   */
+  public Direction getDirection()
+  {
+    return _direction;
+  }
+
+  /**
+   * Return the chunk size of uploaded files, or -1 if it is determined from the size of each
+   * file.
+   *
+   * @return size in bytes of upload chunks
+   */
+  public long getChunkSize()
+  {
+    return _chunkSize;
+  }
+
+  /**
+   * Return the name of the encryption key used to encrypt uploaded files.
+   *
+   * @return name of encryption key
+   */
+  public Optional<String> getEncKey()
+  {
+    return Optional.ofNullable(_encKey);
+  }
+
+  /**
+   * Return the name of the access control list given to uploaded files.
+   *
+   * @return name of canned access control list
+   */
+  public String getCannedAcl()
+  {
+    return _cannedAcl;
+  }
+
+  /**
+   * If set to true, files that exist only at the destination are deleted.
+   *
+   * @return delete flag
+   */
+  public boolean doesDelete()
+  {
+    return _delete;
+  }
+
+  /**
+   * If set to true, the content of files is compared even if their size and modification time
+   * agree.
+   *
+   * @return checksum flag
+   */
+  public boolean doesChecksum()
+  {
+    return _checksum;
+  }
+
+  /**
+   * If set to true, print operations that would be executed, but do not perform them.
+   *
+   * @return dry-run flag
+   */
+  public boolean isDryRun()
+  {
+    return _dryRun;
+  }
+
+  /**
+   * Return the optional listener for the aggregate progress of the transfers.
+   *
+   * @return listener for the progress of the whole sync
+   */
+  public Optional<TransferProgressListener> getTransferProgressListener()
+  {
+    return Optional.ofNullable(_transferProgressListener);
+  }
+}
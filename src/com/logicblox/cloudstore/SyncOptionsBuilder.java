@@ -0,0 +1,237 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+
+/**
+ * {@code SyncOptionsBuilder} is used to create and set properties for {@code SyncOptions}
+ * objects that control the behavior of the cloud-store sync command.
+ * <p>
+ * Setting {@code file}, {@code bucketName}, {@code objectKey} and {@code direction} is
+ * mandatory. All the others are optional.
+ *
+ * @see SyncOptions
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#sync(SyncOptions)
+ * @see OptionsBuilderFactory#newSyncOptionsBuilder()
+ */
+public class SyncOptionsBuilder
+  extends CommandOptionsBuilder
+{
+  private File _file;
+  private String _bucketName;
+  private String _objectKey;
+  private SyncOptions.Direction _direction;
+  private long _chunkSize = -1;
+  private String _encKey;
+  private String _cannedAcl;
+  private boolean _delete = false;
+  private boolean _checksum = false;
+  private boolean _dryRun = false;
+  private TransferProgressListener _transferProgressListener;
+
+  SyncOptionsBuilder(CloudStoreClient client)
+  {
+    _cloudStoreClient = client;
+  }
+
+  /**
+   * Set the local directory to be synchronized.
+   *
+   * @param file local directory
+   * @return this builder
+   */
+  public SyncOptionsBuilder setFile(File file)
+  {
+    _file = file;
+    return this;
+  }
+
+  /**
+   * Set the name of the bucket containing the objects to be synchronized.
+   *
+   * @param bucket name of bucket
+   * @return this builder
+   */
+  public SyncOptionsBuilder setBucketName(String bucket)
+  {
+    _bucketName = bucket;
+    return this;
+  }
+
+  /**
+   * Set the prefix of the objects to be synchronized.  It must be empty or end with a '/'.
+   *
+   * @param objectKey object key prefix
+   * @return this builder
+   */
+  public SyncOptionsBuilder setObjectKey(String objectKey)
+  {
+    _objectKey = objectKey;
+    return this;
+  }
+
+  /**
+   * Set the direction in which files are transferred.
+   *
+   * @param direction sync direction
+   * @return this builder
+   */
+  public SyncOptionsBuilder setDirection(SyncOptions.Direction direction)
+  {
+    _direction = direction;
+    return this;
+  }
+
+  /**
+   * Set the chunk size of uploaded files.  If not set, it is determined from the size of each
+   * file.
+   *
+   * @param chunkSize size in bytes of upload chunks
+   * @return this builder
+   */
+  public SyncOptionsBuilder setChunkSize(long chunkSize)
+  {
+    _chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Set the name of the encryption key used to encrypt uploaded files.
+   *
+   * @param encKey name of encryption key
+   * @return this builder
+   */
+  public SyncOptionsBuilder setEncKey(String encKey)
+  {
+    _encKey = encKey;
+    return this;
+  }
+
+  /**
+   * Set the name of the access control list given to uploaded files.
+   *
+   * @param acl name of canned access control list
+   * @return this builder
+   */
+  public SyncOptionsBuilder setCannedAcl(String acl)
+  {
+    _cannedAcl = acl;
+    return this;
+  }
+
+  /**
+   * If set to true, files that exist only at the destination are deleted.
+   *
+   * @param delete true if extraneous files should be deleted
+   * @return this builder
+   */
+  public SyncOptionsBuilder setDelete(boolean delete)
+  {
+    _delete = delete;
+    return this;
+  }
+
+  /**
+   * If set to true, the content of files is compared even if their size and modification time
+   * agree.
+   *
+   * @param checksum true if the content of all files should be compared
+   * @return this builder
+   */
+  public SyncOptionsBuilder setChecksum(boolean checksum)
+  {
+    _checksum = checksum;
+    return this;
+  }
+
+  /**
+   * If set to true, print operations that would be executed, but do not perform them.
+   *
+   * @param dryRun true if operations should be printed but not executed
+   * @return this builder
+   */
+  public SyncOptionsBuilder setDryRun(boolean dryRun)
+  {
+    _dryRun = dryRun;
+    return this;
+  }
+
+  /**
+   * Set a listener for the aggregate progress of the transfers.
+   *
+   * @param listener listener for the progress of the whole sync
+   * @return this builder
+   */
+  public SyncOptionsBuilder setTransferProgressListener(TransferProgressListener listener)
+  {
+    _transferProgressListener = listener;
+    return this;
+  }
+
+  private void validateOptions()
+  {
+    if(_cloudStoreClient == null)
+    {
+      throw new UsageException("CloudStoreClient has to be set");
+    }
+    else if(_file == null)
+    {
+      throw new UsageException("File has to be set");
+    }
+    else if(_bucketName == null)
+    {
+      throw new UsageException("Bucket has to be set");
+    }
+    else if(_objectKey == null)
+    {
+      throw new UsageException("Object key has to be set");
+    }
+    else if(_direction == null)
+    {
+      throw new UsageException("Direction has to be set");
+    }
+
+    if(_cannedAcl != null)
+    {
+      if(!_cloudStoreClient.getAclHandler().isCannedAclValid(_cannedAcl))
+      {
+        throw new UsageException("Invalid canned ACL '" + _cannedAcl + "'");
+      }
+    }
+    else
+    {
+      _cannedAcl = _cloudStoreClient.getAclHandler().getDefaultCannedAcl();
+    }
+  }
+
+  /**
+   * Validate that all required parameters are set and if so return a new {@link SyncOptions}
+   * object.
+   *
+   * @return immutable options object with values from this builder
+   */
+  @Override
+  public SyncOptions createOptions()
+  {
+    validateOptions();
+
+    return new SyncOptions(_cloudStoreClient, _file, _bucketName, _objectKey, _direction,
+      _chunkSize, _encKey, _cannedAcl, _delete, _checksum, _dryRun, _transferProgressListener);
+  }
+}
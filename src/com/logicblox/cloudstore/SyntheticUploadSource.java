@@ -0,0 +1,105 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * {@link UploadSource} that generates incompressible data in memory, so that upload
+ * benchmarks do not depend on the speed of the local disk.
+ * <p>
+ * The data is a random block repeated at an offset that depends on the seed, so generating a
+ * part costs no more than an array copy and objects with different seeds differ.
+ */
+class SyntheticUploadSource
+  implements UploadSource
+{
+  private static final int BLOCK_SIZE = 1024 * 1024;
+  private static final byte[] BLOCK = new byte[BLOCK_SIZE];
+
+  static
+  {
+    new Random(0).nextBytes(BLOCK);
+  }
+
+  private final long _length;
+  private final int _offset;
+
+  SyntheticUploadSource(long length, long seed)
+  {
+    _length = length;
+    _offset = new Random(seed).nextInt(BLOCK_SIZE);
+  }
+
+  public long getLength()
+  {
+    return _length;
+  }
+
+  public InputStream open(final long position)
+  {
+    return new InputStream()
+    {
+      private long _position = position;
+
+      @Override
+      public int read()
+      {
+        if(_position >= _length)
+        {
+          return -1;
+        }
+        return BLOCK[blockOffset(_position++)] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len)
+      {
+        if(len == 0)
+        {
+          return 0;
+        }
+        if(_position >= _length)
+        {
+          return -1;
+        }
+        int offset = blockOffset(_position);
+        int n = (int) Math.min(Math.min(len, BLOCK_SIZE - offset), _length - _position);
+        System.arraycopy(BLOCK, offset, b, off, n);
+        _position += n;
+        return n;
+      }
+
+      @Override
+      public int available()
+      {
+        return (int) Math.min(Integer.MAX_VALUE, _length - _position);
+      }
+    };
+  }
+
+  public String getDescription()
+  {
+    return "<synthetic " + _length + " bytes>";
+  }
+
+  private int blockOffset(long position)
+  {
+    return (int) ((position + _offset) % BLOCK_SIZE);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A sink that unpacks a tar archive of a packed upload while it is downloaded.  The offsets of
+ * the files come from the {@link PackIndex}, so parts can be downloaded concurrently and in any
+ * order: every part writes the file data it contains into the files at the right positions,
+ * and skips the headers and padding.
+ */
+class TarExtractSink
+  implements DownloadSink
+{
+  private final List<PackIndex.Entry> _entries;
+  private final List<File> _files;
+
+  /**
+   * @param entries entries of the archive, sorted by offset
+   * @param files   existing files that receive the entries
+   */
+  TarExtractSink(List<PackIndex.Entry> entries, List<File> files)
+  {
+    _entries = entries;
+    _files = files;
+  }
+
+  public OutputStream open(final long position)
+  {
+    return new OutputStream()
+    {
+      private long _position = position;
+      private int _current = -1;
+      private FileChannel _channel;
+
+      @Override
+      public void write(int b)
+        throws IOException
+      {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len)
+        throws IOException
+      {
+        while(len > 0)
+        {
+          int i = floor(_position);
+          long next = (i + 1 < _entries.size()) ? _entries.get(i + 1).getOffset() :
+            Long.MAX_VALUE;
+          int n;
+          if(i < 0 || _position >= _entries.get(i).getOffset() + _entries.get(i).getLength())
+          {
+            // a header or padding
+            n = (int) Math.min(len, next - _position);
+          }
+          else
+          {
+            PackIndex.Entry entry = _entries.get(i);
+            n = (int) Math.min(len, entry.getOffset() + entry.getLength() - _position);
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, n);
+            long filePosition = _position - entry.getOffset();
+            FileChannel channel = getChannel(i);
+            while(buffer.hasRemaining())
+            {
+              filePosition += channel.write(buffer, filePosition);
+            }
+          }
+          _position += n;
+          off += n;
+          len -= n;
+        }
+      }
+
+      @Override
+      public void close()
+        throws IOException
+      {
+        if(_channel != null)
+        {
+          _channel.close();
+          _channel = null;
+        }
+      }
+
+      private FileChannel getChannel(int i)
+        throws IOException
+      {
+        if(i != _current)
+        {
+          close();
+          _channel = FileChannel.open(_files.get(i).toPath(), StandardOpenOption.WRITE);
+          _current = i;
+        }
+        return _channel;
+      }
+    };
+  }
+
+  /**
+   * Return the index of the last entry whose data starts at or before {@code position}, or -1.
+   */
+  private int floor(long position)
+  {
+    int low = 0;
+    int high = _entries.size() - 1;
+    int result = -1;
+    while(low <= high)
+    {
+      int mid = (low + high) >>> 1;
+      if(_entries.get(mid).getOffset() <= position)
+      {
+        result = mid;
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,387 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link UploadSource} for a tar archive of local files that is generated while it is read, so
+ * that packing files costs no local disk space.
+ * <p>
+ * Entries are POSIX ustar headers.  Paths that do not fit the name and prefix fields of the
+ * header get an extended (pax) header with the full path.  Only regular files are stored, with
+ * mode 0644 and the modification time of the file.  Headers are generated when they are read,
+ * so an archive only keeps the file, path and offsets of its entries in memory.
+ * <p>
+ * The size of every file is recorded when it is added.  Reading fails if a file has a
+ * different size by then, because the offsets in the archive would no longer be right.
+ */
+class TarUploadSource
+  implements UploadSource
+{
+  static final int BLOCK_SIZE = 512;
+
+  // ustar size fields have 11 octal digits
+  static final long MAX_FILE_SIZE = 077777777777L;
+
+  private static final int NAME_LENGTH = 100;
+  private static final int PREFIX_LENGTH = 155;
+
+  private final String _description;
+  private final List<Entry> _entries = new ArrayList<>();
+  // offset of the two empty blocks that end the archive
+  private long _end = 0;
+
+  /**
+   * @param description description of the archive for messages, e.g. its URI
+   */
+  TarUploadSource(String description)
+  {
+    _description = description;
+  }
+
+  /**
+   * Return the number of bytes that adding a file would add to an archive.
+   */
+  static long getEntryLength(String path, long size)
+  {
+    return createHeader(path, size, 0).length + padded(size);
+  }
+
+  /**
+   * Add a file and return the offset of its data in the archive.
+   *
+   * @param file file to add
+   * @param path path of the file in the archive, with '/' as the separator
+   * @param size size of the file
+   * @return offset of the first byte of the file in the archive
+   */
+  synchronized long add(File file, String path, long size)
+  {
+    if(size > MAX_FILE_SIZE)
+    {
+      throw new UsageException("File is too large for a tar archive: " + file);
+    }
+    Entry entry = new Entry(file, path, size, file.lastModified() / 1000, _end);
+    _entries.add(entry);
+    _end = entry._dataOffset + padded(size);
+    return entry._dataOffset;
+  }
+
+  synchronized int getEntryCount()
+  {
+    return _entries.size();
+  }
+
+  public synchronized long getLength()
+  {
+    return _end + 2 * BLOCK_SIZE;
+  }
+
+  public InputStream open(long position)
+  {
+    final List<Entry> entries;
+    final long end;
+    synchronized(this)
+    {
+      entries = new ArrayList<>(_entries);
+      end = _end;
+    }
+    return new TarInputStream(entries, end, position);
+  }
+
+  public String getDescription()
+  {
+    return _description;
+  }
+
+  private static long padded(long size)
+  {
+    return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+  }
+
+  /**
+   * Return the headers of an entry: a ustar header, preceded by a pax header if the path does
+   * not fit.
+   */
+  private static byte[] createHeader(String path, long size, long mtime)
+  {
+    byte[] name = path.getBytes(StandardCharsets.UTF_8);
+    byte[] prefix = new byte[0];
+    if(name.length > NAME_LENGTH)
+    {
+      // split at a '/' so that the rest fits the name field and the start the prefix field
+      for(int i = name.length - NAME_LENGTH - 1; i < name.length - 1; ++i)
+      {
+        if(i >= 0 && name[i] == '/' && i <= PREFIX_LENGTH)
+        {
+          prefix = Arrays.copyOfRange(name, 0, i);
+          name = Arrays.copyOfRange(name, i + 1, name.length);
+          break;
+        }
+      }
+    }
+    if(name.length <= NAME_LENGTH)
+    {
+      return createUstarHeader(name, prefix, size, mtime, '0');
+    }
+
+    byte[] record = createPaxRecord("path", path);
+    byte[] pax = new byte[BLOCK_SIZE + (int) padded(record.length) + BLOCK_SIZE];
+    byte[] paxName = "PaxHeaders/entry".getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(createUstarHeader(paxName, new byte[0], record.length, mtime, 'x'), 0, pax,
+      0, BLOCK_SIZE);
+    System.arraycopy(record, 0, pax, BLOCK_SIZE, record.length);
+    System.arraycopy(
+      createUstarHeader(Arrays.copyOf(name, NAME_LENGTH), new byte[0], size, mtime, '0'), 0,
+      pax, pax.length - BLOCK_SIZE, BLOCK_SIZE);
+    return pax;
+  }
+
+  private static byte[] createPaxRecord(String keyword, String value)
+  {
+    // "<length> <keyword>=<value>\n", where the length includes its own digits
+    int length = (" " + keyword + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+    int total = length + Integer.toString(length).length();
+    if(Integer.toString(total).length() > Integer.toString(length).length())
+    {
+      total = length + Integer.toString(total).length();
+    }
+    return (total + " " + keyword + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] createUstarHeader(
+    byte[] name, byte[] prefix, long size, long mtime, char type)
+  {
+    byte[] header = new byte[BLOCK_SIZE];
+    System.arraycopy(name, 0, header, 0, name.length);
+    putOctal(header, 100, 8, 0644);
+    putOctal(header, 108, 8, 0);
+    putOctal(header, 116, 8, 0);
+    putOctal(header, 124, 12, size);
+    putOctal(header, 136, 12, mtime);
+    header[156] = (byte) type;
+    System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+    header[263] = '0';
+    header[264] = '0';
+    System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+    // the checksum is computed with the checksum field set to spaces
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    long checksum = 0;
+    for(byte b : header)
+    {
+      checksum += b & 0xff;
+    }
+    putOctal(header, 148, 7, checksum);
+    return header;
+  }
+
+  /**
+   * Write {@code value} as zero-padded octal digits followed by a NUL byte.
+   */
+  private static void putOctal(byte[] header, int offset, int length, long value)
+  {
+    String digits = Long.toOctalString(value);
+    for(int i = 0; i < length - 1; ++i)
+    {
+      int d = i - (length - 1 - digits.length());
+      header[offset + i] = (byte) ((d < 0) ? '0' : digits.charAt(d));
+    }
+    header[offset + length - 1] = 0;
+  }
+
+  private static class Entry
+  {
+    final File _file;
+    final String _path;
+    final long _size;
+    final long _mtime;
+    final long _headerOffset;
+    final long _dataOffset;
+
+    Entry(File file, String path, long size, long mtime, long headerOffset)
+    {
+      _file = file;
+      _path = path;
+      _size = size;
+      _mtime = mtime;
+      _headerOffset = headerOffset;
+      _dataOffset = headerOffset + createHeader(path, size, mtime).length;
+    }
+
+    byte[] getHeader()
+    {
+      return createHeader(_path, _size, _mtime);
+    }
+  }
+
+  /**
+   * Reads the archive from a position: headers are generated, file data is read from the
+   * files, and padding and the end of the archive are zeros.
+   */
+  private static class TarInputStream
+    extends InputStream
+  {
+    private final List<Entry> _entries;
+    private final long _end;
+    private final long _length;
+    private long _position;
+
+    private int _current = -1;
+    private byte[] _header;
+    private InputStream _data;
+
+    TarInputStream(List<Entry> entries, long end, long position)
+    {
+      _entries = entries;
+      _end = end;
+      _length = end + 2 * BLOCK_SIZE;
+      _position = position;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return (n == -1) ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if(len == 0)
+      {
+        return 0;
+      }
+      if(_position >= _length)
+      {
+        return -1;
+      }
+
+      int n;
+      if(_position >= _end)
+      {
+        n = (int) Math.min(len, _length - _position);
+        Arrays.fill(b, off, off + n, (byte) 0);
+      }
+      else
+      {
+        Entry entry = seek();
+        long dataEnd = entry._dataOffset + entry._size;
+        if(_position < entry._dataOffset)
+        {
+          int offset = (int) (_position - entry._headerOffset);
+          n = Math.min(len, _header.length - offset);
+          System.arraycopy(_header, offset, b, off, n);
+        }
+        else if(_position < dataEnd)
+        {
+          n = readData(entry, b, off, (int) Math.min(len, dataEnd - _position));
+        }
+        else
+        {
+          n = (int) Math.min(len, entry._dataOffset + padded(entry._size) - _position);
+          Arrays.fill(b, off, off + n, (byte) 0);
+        }
+      }
+      _position += n;
+      return n;
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      if(_data != null)
+      {
+        _data.close();
+        _data = null;
+      }
+    }
+
+    /**
+     * Make the entry that contains the current position the current entry.
+     */
+    private Entry seek()
+      throws IOException
+    {
+      if(_current < 0 || _position < _entries.get(_current)._headerOffset ||
+        (_current + 1 < _entries.size() &&
+          _position >= _entries.get(_current + 1)._headerOffset))
+      {
+        int low = 0;
+        int high = _entries.size() - 1;
+        while(low < high)
+        {
+          int mid = (low + high + 1) >>> 1;
+          if(_entries.get(mid)._headerOffset <= _position)
+          {
+            low = mid;
+          }
+          else
+          {
+            high = mid - 1;
+          }
+        }
+        close();
+        _current = low;
+        _header = _entries.get(low).getHeader();
+      }
+      return _entries.get(_current);
+    }
+
+    private int readData(Entry entry, byte[] b, int off, int len)
+      throws IOException
+    {
+      if(_data == null)
+      {
+        if(entry._file.length() != entry._size)
+        {
+          throw new IOException("File changed while it was packed: " + entry._file);
+        }
+        _data = new FileInputStream(entry._file);
+        long skip = _position - entry._dataOffset;
+        while(skip > 0)
+        {
+          long skipped = _data.skip(skip);
+          if(skipped <= 0)
+          {
+            throw new IOException("File changed while it was packed: " + entry._file);
+          }
+          skip -= skipped;
+        }
+      }
+      int n = _data.read(b, off, len);
+      if(n == -1)
+      {
+        throw new IOException("File changed while it was packed: " + entry._file);
+      }
+      return n;
+    }
+  }
+}
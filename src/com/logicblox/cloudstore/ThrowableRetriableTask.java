@@ -32,6 +32,7 @@ public class ThrowableRetriableTask<V>
   private final Callable<ListenableFuture<V>> _callable;
   private final ListeningScheduledExecutorService _executor;
   private final ThrowableRetryPolicy _retryPolicy;
+  private final ClientMetrics _metrics;
   private int _retryCount;
 
   // for testing
@@ -40,10 +41,18 @@ public class ThrowableRetriableTask<V>
   public ThrowableRetriableTask(
     Callable<ListenableFuture<V>> callable, ListeningScheduledExecutorService executor,
     ThrowableRetryPolicy retryPolicy)
+  {
+    this(callable, executor, retryPolicy, null);
+  }
+
+  public ThrowableRetriableTask(
+    Callable<ListenableFuture<V>> callable, ListeningScheduledExecutorService executor,
+    ThrowableRetryPolicy retryPolicy, ClientMetrics metrics)
   {
     _callable = callable;
     _executor = executor;
     _retryPolicy = retryPolicy;
+    _metrics = metrics;
   }
 
   @Override
@@ -69,6 +78,10 @@ public class ThrowableRetriableTask<V>
           String msg = "Info: Retriable exception: " + _callable.toString() + ": " + t.getMessage();
           System.err.println(msg);
           sendRetryNotifications(_callable.toString(), t);
+          if(_metrics != null)
+          {
+            _metrics.retried(t);
+          }
 
           long delay = _retryPolicy.getDelay(t, _retryCount);
           // TODO: actually use the scheduled executor once Guava 15 is out
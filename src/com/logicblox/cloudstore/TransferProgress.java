@@ -0,0 +1,169 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+/**
+ * Snapshot of the aggregate progress of a recursive transfer (upload or download of many
+ * objects).
+ * <p>
+ * Snapshots are immutable and are handed to a {@link TransferProgressListener} at a fixed
+ * rate while the transfer is running, and once more when it finishes.
+ *
+ * @see TransferProgressListener
+ * @see UploadOptionsBuilder#setTransferProgressListener(TransferProgressListener)
+ * @see DownloadOptionsBuilder#setTransferProgressListener(TransferProgressListener)
+ */
+public class TransferProgress
+{
+  private final String _operation;
+  private final long _totalBytes;
+  private final long _transferredBytes;
+  private final int _totalObjects;
+  private final int _completedObjects;
+  private final double _currentBytesPerSecond;
+  private final double _averageBytesPerSecond;
+  private final long _elapsedMillis;
+  private final boolean _done;
+
+  TransferProgress(
+    String operation, long totalBytes, long transferredBytes, int totalObjects,
+    int completedObjects, double currentBytesPerSecond, double averageBytesPerSecond,
+    long elapsedMillis, boolean done)
+  {
+    _operation = operation;
+    _totalBytes = totalBytes;
+    _transferredBytes = transferredBytes;
+    _totalObjects = totalObjects;
+    _completedObjects = completedObjects;
+    _currentBytesPerSecond = currentBytesPerSecond;
+    _averageBytesPerSecond = averageBytesPerSecond;
+    _elapsedMillis = elapsedMillis;
+    _done = done;
+  }
+
+  /**
+   * Return the name of the transfer operation, e.g. "upload" or "download".
+   *
+   * @return operation name
+   */
+  public String getOperation()
+  {
+    return _operation;
+  }
+
+  /**
+   * Return the number of bytes the whole transfer will move.
+   *
+   * @return total bytes of the transfer
+   */
+  public long getTotalBytes()
+  {
+    return _totalBytes;
+  }
+
+  /**
+   * Return the number of bytes transferred so far, over all objects.
+   *
+   * @return transferred bytes
+   */
+  public long getTransferredBytes()
+  {
+    return _transferredBytes;
+  }
+
+  /**
+   * Return the number of objects the whole transfer will move.
+   *
+   * @return total number of objects
+   */
+  public int getTotalObjects()
+  {
+    return _totalObjects;
+  }
+
+  /**
+   * Return the number of objects that have been transferred completely.
+   *
+   * @return completed objects
+   */
+  public int getCompletedObjects()
+  {
+    return _completedObjects;
+  }
+
+  /**
+   * Return the throughput measured over the last reporting interval.
+   *
+   * @return current throughput in bytes per second
+   */
+  public double getCurrentBytesPerSecond()
+  {
+    return _currentBytesPerSecond;
+  }
+
+  /**
+   * Return an exponentially weighted moving average of the throughput.  This is
+   * less jumpy than {@link #getCurrentBytesPerSecond()} and is what the ETA is based
+   * on.
+   *
+   * @return smoothed throughput in bytes per second
+   */
+  public double getAverageBytesPerSecond()
+  {
+    return _averageBytesPerSecond;
+  }
+
+  /**
+   * Return the time since the transfer started.
+   *
+   * @return elapsed time in milliseconds
+   */
+  public long getElapsedMillis()
+  {
+    return _elapsedMillis;
+  }
+
+  /**
+   * Return the estimated time until the transfer completes, based on the moving average
+   * throughput.
+   *
+   * @return estimated remaining time in milliseconds, or -1 if no estimate is available yet
+   */
+  public long getEtaMillis()
+  {
+    if(_done)
+    {
+      return 0;
+    }
+    if(_averageBytesPerSecond <= 0)
+    {
+      return -1;
+    }
+    long remaining = Math.max(0, _totalBytes - _transferredBytes);
+    return (long) (1000.0 * remaining / _averageBytesPerSecond);
+  }
+
+  /**
+   * Return true if this is the final snapshot of the transfer.
+   *
+   * @return true if the transfer has finished (successfully or not)
+   */
+  public boolean isDone()
+  {
+    return _done;
+  }
+}
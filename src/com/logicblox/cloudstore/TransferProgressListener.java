@@ -0,0 +1,35 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+/**
+ * Listener interface for the aggregate progress of recursive transfers.
+ * <p>
+ * Unlike {@link OverallProgressListener}, which is notified for every chunk of every part of
+ * every object, this listener is called at a fixed rate with a {@link TransferProgress}
+ * snapshot of the whole transfer, plus a final call once the transfer is done.
+ */
+public interface TransferProgressListener
+{
+  /**
+   * Called periodically with the current progress of a recursive transfer.  Calls are made
+   * from a single thread at a time.
+   *
+   * @param progress snapshot of the aggregate transfer progress
+   */
+  public void progress(TransferProgress progress);
+}
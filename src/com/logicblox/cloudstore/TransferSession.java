@@ -0,0 +1,269 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the aggregate progress of a recursive transfer.
+ * <p>
+ * A session is used as the {@link OverallProgressListenerFactory} of every object in the
+ * transfer, so part-level progress events of all objects are summed into one byte counter.
+ * The {@link TransferProgressListener} is not called from those events (which can be very
+ * frequent), but from a task scheduled at a fixed rate that takes a snapshot of the counters
+ * and updates the throughput estimates.
+ */
+class TransferSession
+  implements OverallProgressListenerFactory
+{
+  static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+  // time constant of the moving average throughput
+  private static final double AVERAGE_WINDOW_MILLIS = 10000.0;
+
+  private final String _operation;
+  private final AtomicLong _totalBytes = new AtomicLong();
+  private final AtomicInteger _totalObjects = new AtomicInteger();
+  private final TransferProgressListener _listener;
+  private final OverallProgressListenerFactory _objectListenerFactory;
+  private final ScheduledExecutorService _executor;
+  private final long _intervalMillis;
+
+  private final AtomicLong _transferredBytes = new AtomicLong();
+  private final AtomicInteger _completedObjects = new AtomicInteger();
+  private final Map<String, ObjectProgress> _objects = new HashMap<>();
+
+  private ScheduledFuture<?> _reporter;
+  private long _startTime;
+  private long _lastTime;
+  private long _lastBytes;
+  private double _currentRate;
+  private double _averageRate = -1;
+  private boolean _done = false;
+
+  /**
+   * @param objectListenerFactory optional per-object listener factory that still receives the
+   *                              part-level events of every object, may be null
+   */
+  TransferSession(
+    String operation, long totalBytes, int totalObjects, TransferProgressListener listener,
+    OverallProgressListenerFactory objectListenerFactory, ScheduledExecutorService executor,
+    long intervalMillis)
+  {
+    _operation = operation;
+    _totalBytes.set(totalBytes);
+    _totalObjects.set(totalObjects);
+    _listener = listener;
+    _objectListenerFactory = objectListenerFactory;
+    _executor = executor;
+    _intervalMillis = intervalMillis;
+  }
+
+  synchronized void start()
+  {
+    _startTime = System.currentTimeMillis();
+    _lastTime = _startTime;
+    _reporter = _executor.scheduleAtFixedRate(new Runnable()
+    {
+      public void run()
+      {
+        report(false);
+      }
+    }, _intervalMillis, _intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Add an object to the totals, for transfers that start before all objects are known.
+   */
+  void addObject(long size)
+  {
+    _totalBytes.addAndGet(size);
+    _totalObjects.incrementAndGet();
+  }
+
+  /**
+   * Count the object as completed when {@code future} succeeds, and make sure all of its
+   * bytes are accounted for even if some progress events were never delivered.
+   */
+  void track(final String objectUri, final long size, ListenableFuture<?> future)
+  {
+    final ObjectProgress progress = getObjectProgress(objectUri, size);
+    Futures.addCallback(future, new FutureCallback<Object>()
+    {
+      public void onSuccess(Object result)
+      {
+        progress.complete();
+        _completedObjects.incrementAndGet();
+      }
+
+      public void onFailure(Throwable t)
+      {
+      }
+    });
+  }
+
+  /**
+   * Stop periodic reporting once {@code future} completes, successfully or not.
+   */
+  void stopOnCompletion(ListenableFuture<?> future)
+  {
+    future.addListener(new Runnable()
+    {
+      public void run()
+      {
+        stop();
+      }
+    }, _executor);
+  }
+
+  /**
+   * Stop periodic reporting and send the final snapshot to the listener.
+   */
+  void stop()
+  {
+    synchronized(this)
+    {
+      if(_reporter != null)
+      {
+        _reporter.cancel(false);
+      }
+    }
+    report(true);
+  }
+
+  public OverallProgressListener create(ProgressOptions progressOptions)
+  {
+    final ObjectProgress progress = getObjectProgress(progressOptions.getObjectUri(),
+      progressOptions.getFileSizeInBytes());
+    final OverallProgressListener objectListener = (_objectListenerFactory == null) ? null :
+      _objectListenerFactory.create(progressOptions);
+
+    return new OverallProgressListener()
+    {
+      public void progress(PartProgressEvent partProgressEvent)
+      {
+        progress.update(partProgressEvent.getPartId(), partProgressEvent.getTransferredBytes());
+        if(objectListener != null)
+        {
+          objectListener.progress(partProgressEvent);
+        }
+      }
+    };
+  }
+
+  private ObjectProgress getObjectProgress(String objectUri, long size)
+  {
+    synchronized(_objects)
+    {
+      ObjectProgress progress = _objects.get(objectUri);
+      if(progress == null)
+      {
+        progress = new ObjectProgress(size);
+        _objects.put(objectUri, progress);
+      }
+      return progress;
+    }
+  }
+
+  private synchronized void report(boolean finalReport)
+  {
+    if(_done)
+    {
+      return;
+    }
+    _done = finalReport;
+
+    long now = System.currentTimeMillis();
+    long bytes = _transferredBytes.get();
+    long elapsed = now - _lastTime;
+    if(elapsed > 0)
+    {
+      _currentRate = 1000.0 * (bytes - _lastBytes) / elapsed;
+      if(_averageRate < 0)
+      {
+        _averageRate = _currentRate;
+      }
+      else
+      {
+        double alpha = 1.0 - Math.exp(-elapsed / AVERAGE_WINDOW_MILLIS);
+        _averageRate += alpha * (_currentRate - _averageRate);
+      }
+      _lastTime = now;
+      _lastBytes = bytes;
+    }
+
+    _listener.progress(
+      new TransferProgress(_operation, _totalBytes.get(), bytes, _totalObjects.get(),
+        _completedObjects.get(), Math.max(0, _currentRate), Math.max(0, _averageRate),
+        now - _startTime, finalReport));
+  }
+
+  /**
+   * Progress of a single object.  Parts are tracked by id rather than by summing deltas, so
+   * that a retried part replaces the bytes of the failed attempt instead of adding to them.
+   */
+  private class ObjectProgress
+  {
+    private final long _size;
+    private final Map<String, Long> _parts = new HashMap<>();
+    private long _counted = 0;
+    private boolean _complete = false;
+
+    ObjectProgress(long size)
+    {
+      _size = size;
+    }
+
+    synchronized void update(String partId, long partBytes)
+    {
+      if(_complete)
+      {
+        return;
+      }
+      Long previous = _parts.put(partId, partBytes);
+      long total = _counted + partBytes - (previous == null ? 0 : previous);
+      // transferred bytes can exceed the file size for encrypted objects
+      setCounted(Math.min(total, _size), total);
+    }
+
+    synchronized void complete()
+    {
+      if(!_complete)
+      {
+        setCounted(_size, _size);
+        _complete = true;
+      }
+    }
+
+    private void setCounted(long reported, long total)
+    {
+      long previouslyReported = Math.min(_counted, _size);
+      _counted = total;
+      _transferredBytes.addAndGet(reported - previouslyReported);
+    }
+  }
+}
@@ -17,6 +17,8 @@
 package com.logicblox.cloudstore;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -33,7 +35,24 @@ import java.util.Optional;
  * If the {@code enckey} is present, the {@code keyProvider} will be asked to provide a public key
  * with that name. This key will be used to encrypt the {@code _file} at the client side.
  * <p>
+ * If {@code _delta} is set, the digests of the parts are stored in a manifest next to the
+ * object, and parts whose digest agrees with the manifest of the object being replaced are
+ * copied from it on the server instead of being uploaded.
+ * <p>
+ * If {@code _compression} is set, every chunk is compressed with that codec before it is
+ * encrypted and uploaded.
+ * <p>
+ * Recursive uploads only upload the files whose path relative to the uploaded directory
+ * matches one of the {@code _includes} globs, if there are any, and skip files and
+ * directories that match one of the {@code _excludes} globs.
+ * <p>
+ * If {@code _packSize} is set, a recursive upload bundles the files smaller than that into tar
+ * archives of about that size, described by an index object, instead of uploading an object
+ * per file.  Recursive downloads unpack them again.
+ * <p>
  * If progress listener factory has been set, then progress notifications will be recorded.
+ * If a transfer progress listener has been set, recursive uploads report their aggregate
+ * progress to it.
  * <p>
  * {@code UploadOptions} objects are meant to be built by {@code UploadOptionsBuilder}. This class
  * provides only public accessor methods.
@@ -56,6 +75,13 @@ public class UploadOptions
   private boolean _dryRun;
   private boolean _ignoreAbortInjection;
   private OverallProgressListenerFactory _overallProgressListenerFactory;
+  private TransferProgressListener _transferProgressListener;
+  private UploadSource _source;
+  private boolean _delta;
+  private String _compression;
+  private List<String> _includes;
+  private List<String> _excludes;
+  private long _packSize;
 
   // for testing
   private static AbortCounters _abortCounters = new AbortCounters();
@@ -64,7 +90,9 @@ public class UploadOptions
   UploadOptions(
     CloudStoreClient cloudStoreClient, File file, String bucketName, String objectKey, long chunkSize,
     String encKey, String cannedAcl, boolean dryRun, boolean ignoreAbortInjection,
-    OverallProgressListenerFactory overallProgressListenerFactory)
+    OverallProgressListenerFactory overallProgressListenerFactory,
+    TransferProgressListener transferProgressListener, UploadSource source, boolean delta,
+    String compression, List<String> includes, List<String> excludes, long packSize)
   {
     super(cloudStoreClient);
     _file = file;
@@ -76,6 +104,13 @@ public class UploadOptions
     _dryRun = dryRun;
     _ignoreAbortInjection = ignoreAbortInjection;
     _overallProgressListenerFactory = overallProgressListenerFactory;
+    _transferProgressListener = transferProgressListener;
+    _source = source;
+    _delta = delta;
+    _compression = compression;
+    _includes = includes;
+    _excludes = excludes;
+    _packSize = packSize;
   }
 
 
@@ -103,6 +138,16 @@ public class UploadOptions
     return _file;
   }
 
+  /**
+   * Return the data to be uploaded: the source set on the builder, or the local file.
+   *
+   * @return data to be uploaded
+   */
+  UploadSource getSource()
+  {
+    return (_source != null) ? _source : new FileUploadSource(_file);
+  }
+
   /**
    * Return the name of the bucket to receive the uploaded file.
    *
@@ -130,13 +175,13 @@ public class UploadOptions
    */
   public long getChunkSize()
   {
-    if(_file.isDirectory())
+    if(_source == null && _file.isDirectory())
     {
       return -1;
     }
     if(_chunkSize == -1)
     {
-      return Utils.getDefaultChunkSize(_file.length());
+      return Utils.getDefaultChunkSize(getSource().getLength());
     }
     return _chunkSize;
   }
@@ -162,6 +207,28 @@ public class UploadOptions
     return _dryRun;
   }
 
+  /**
+   * If set to true, parts that did not change since the previous upload of the object are
+   * copied from the previous object on the server.
+   *
+   * @return delta flag
+   */
+  public boolean isDelta()
+  {
+    return _delta;
+  }
+
+  /**
+   * Return the name of the codec that compresses every chunk, e.g. {@code gzip}.
+   *
+   * @return optional compression codec name
+   * @see CompressionCodec
+   */
+  public Optional<String> getCompression()
+  {
+    return Optional.ofNullable(_compression);
+  }
+
   /**
    * Return the name of the encryption key used to encrypt data in the file.
    * The public key for the named key pair must be in the local key directory.
@@ -182,4 +249,50 @@ public class UploadOptions
   {
     return Optional.ofNullable(_overallProgressListenerFactory);
   }
+
+  /**
+   * Return the optional listener for the aggregate progress of a recursive upload.
+   *
+   * @return listener for the progress of the whole transfer
+   */
+  public Optional<TransferProgressListener> getTransferProgressListener()
+  {
+    return Optional.ofNullable(_transferProgressListener);
+  }
+
+  /**
+   * Return the globs that the relative paths of files in a recursive upload have to match.
+   * If the list is empty, all files are uploaded.
+   *
+   * @return include globs
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public List<String> getIncludes()
+  {
+    return Collections.unmodifiableList(_includes);
+  }
+
+  /**
+   * Return the globs of the relative paths of files and directories that a recursive upload
+   * skips.
+   *
+   * @return exclude globs
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public List<String> getExcludes()
+  {
+    return Collections.unmodifiableList(_excludes);
+  }
+
+  /**
+   * Return the size of the archives that a recursive upload packs small files into, or 0 if
+   * files are not packed.
+   *
+   * @return target size of archives in bytes
+   * @see PackIndex
+   */
+  public long getPackSize()
+  {
+    return _packSize;
+  }
 }
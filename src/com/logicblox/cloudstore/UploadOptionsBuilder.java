@@ -17,6 +17,8 @@
 package com.logicblox.cloudstore;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -42,8 +44,15 @@ public class UploadOptionsBuilder
   private String _encKey;
   private String _cannedAcl;
   private OverallProgressListenerFactory _overallProgressListenerFactory;
+  private TransferProgressListener _transferProgressListener;
   private boolean _dryRun = false;
+  private boolean _delta = false;
+  private String _compression;
   private boolean _ignoreAbortInjection = false;
+  private UploadSource _source;
+  private List<String> _includes = new ArrayList<>();
+  private List<String> _excludes = new ArrayList<>();
+  private long _packSize = 0;
 
   UploadOptionsBuilder(CloudStoreClient client)
   {
@@ -62,6 +71,18 @@ public class UploadOptionsBuilder
     return this;
   }
 
+  /**
+   * Upload data from {@code source} instead of a local file.
+   *
+   * @param source data to be uploaded
+   * @return this builder
+   */
+  UploadOptionsBuilder setSource(UploadSource source)
+  {
+    _source = source;
+    return this;
+  }
+
   /**
    * Set the name of the bucket to receive the uploaded file.
    *
@@ -137,6 +158,21 @@ public class UploadOptionsBuilder
     return this;
   }
 
+  /**
+   * Set a listener for the aggregate progress of a recursive upload.  The listener
+   * receives the total bytes and files transferred, the throughput and an ETA at a fixed
+   * rate.  It is ignored by non-recursive uploads.
+   *
+   * @param transferProgressListener listener for the progress of the whole transfer
+   * @return this builder
+   */
+  public UploadOptionsBuilder setTransferProgressListener(
+    TransferProgressListener transferProgressListener)
+  {
+    _transferProgressListener = transferProgressListener;
+    return this;
+  }
+
   /**
    * If set to true, print operations that would be executed, but do not perform them.
    *
@@ -149,6 +185,81 @@ public class UploadOptionsBuilder
     return this;
   }
 
+  /**
+   * If set to true, parts that did not change since the previous upload of the object are
+   * copied from the previous object on the server instead of being uploaded again.  Requires an
+   * unencrypted upload and the chunk size of the previous upload.  Services without multipart
+   * uploads upload the whole file.
+   *
+   * @param delta true if unchanged parts should be copied server-side
+   * @return this builder
+   */
+  public UploadOptionsBuilder setDelta(boolean delta)
+  {
+    _delta = delta;
+    return this;
+  }
+
+  /**
+   * Set the codec that compresses every chunk before it is encrypted and uploaded, e.g. {@code
+   * gzip}.  Chunks are compressed independently, so they can still be downloaded and
+   * decompressed in parallel.  Requires a service with multipart uploads.
+   *
+   * @param compression name of a {@link CompressionCodec}, or null for no compression
+   * @return this builder
+   */
+  public UploadOptionsBuilder setCompression(String compression)
+  {
+    _compression = compression;
+    return this;
+  }
+
+  /**
+   * Set globs, e.g. {@code **.csv}, that the path of a file relative to the uploaded
+   * directory has to match for a recursive upload to upload it.  By default all files are
+   * uploaded.
+   *
+   * @param includes include globs
+   * @return this builder
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public UploadOptionsBuilder setIncludes(List<String> includes)
+  {
+    _includes = (includes == null) ? new ArrayList<String>() : new ArrayList<>(includes);
+    return this;
+  }
+
+  /**
+   * Set globs of the relative paths of files and directories that a recursive upload skips.
+   * A directory that matches is not walked at all.
+   *
+   * @param excludes exclude globs
+   * @return this builder
+   * @see java.nio.file.FileSystem#getPathMatcher(String)
+   */
+  public UploadOptionsBuilder setExcludes(List<String> excludes)
+  {
+    _excludes = (excludes == null) ? new ArrayList<String>() : new ArrayList<>(excludes);
+    return this;
+  }
+
+  /**
+   * Pack the files of a recursive upload that are smaller than {@code packSize} into tar
+   * archives of at most about {@code packSize} bytes, plus an index object that maps paths to
+   * their archive, offset and length.  Trees of many tiny files then take a few large objects
+   * instead of an object per file.  Recursive downloads recognize packed uploads and unpack
+   * them, by streaming whole archives or with ranged reads of the selected files.  Larger files
+   * are uploaded as objects of their own.
+   *
+   * @param packSize target size of archives in bytes, or 0 to upload every file as an object
+   * @return this builder
+   */
+  public UploadOptionsBuilder setPackSize(long packSize)
+  {
+    _packSize = packSize;
+    return this;
+  }
+
   /**
    * Used by test framework to control abort injection behavior.
    *
@@ -167,7 +278,7 @@ public class UploadOptionsBuilder
     {
       throw new UsageException("CloudStoreClient has to be set");
     }
-    else if(_file == null)
+    else if(_file == null && _source == null)
     {
       throw new UsageException("File has to be set");
     }
@@ -179,6 +290,32 @@ public class UploadOptionsBuilder
     {
       throw new UsageException("Object key has to be set");
     }
+    else if(_delta && _encKey != null)
+    {
+      throw new UsageException("Delta upload is not supported for encrypted files");
+    }
+    else if(_delta && _compression != null)
+    {
+      throw new UsageException("Delta upload is not supported for compressed files");
+    }
+    else if(_packSize < 0 || _packSize > TarUploadSource.MAX_FILE_SIZE)
+    {
+      throw new UsageException("Pack size has to be between 0 and " +
+        TarUploadSource.MAX_FILE_SIZE);
+    }
+    else if(_delta && _packSize > 0)
+    {
+      throw new UsageException("Delta upload is not supported for packed files");
+    }
+
+    if(_compression != null && CompressionCodec.forName(_compression) == null)
+    {
+      throw new UsageException("Unknown compression '" + _compression + "', supported: " +
+        CompressionCodec.getNames());
+    }
+
+    PathFilter.validate(_includes);
+    PathFilter.validate(_excludes);
 
     if(_cannedAcl != null)
     {
@@ -205,6 +342,7 @@ public class UploadOptionsBuilder
     validateOptions();
 
     return new UploadOptions(_cloudStoreClient, _file, _bucketName, _objectKey, _chunkSize, _encKey,
-      _cannedAcl, _dryRun, _ignoreAbortInjection, _overallProgressListenerFactory);
+      _cannedAcl, _dryRun, _ignoreAbortInjection, _overallProgressListenerFactory,
+      _transferProgressListener, _source, _delta, _compression, _includes, _excludes, _packSize);
   }
 }
@@ -16,6 +16,7 @@
 
 package com.logicblox.cloudstore;
 
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.io.FileUtils;
@@ -26,15 +27,54 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 class UploadRecursivelyCommand
   extends Command
 {
+  // accepts files and directories that are not symbolic links
+  static final IOFileFilter NO_SYMLINKS = new IOFileFilter()
+  {
+    @Override
+    public boolean accept(File file, String s)
+    {
+      return isSymlink(file);
+    }
+
+    private boolean isSymlink(File file)
+    {
+      try
+      {
+        boolean res = !FileUtils.isSymlink(file);
+        return res;
+      }
+      catch(IOException e)
+      {
+        return false;
+      }
+    }
+
+    @Override
+    public boolean accept(File file)
+    {
+      return isSymlink(file);
+    }
+  };
+
+  // directories listed at the same time; listing is bound by file system latency, not CPU
+  private static final int WALK_PARALLELISM = 8;
+
   private UploadOptions _options;
 
+  // archive that small files are added to when files are packed
+  private final Object _packLock = new Object();
+  private final PackIndex _index = new PackIndex();
+  private final List<ListenableFuture<StoreFile>> _archives = new ArrayList<>();
+  private TarUploadSource _pack;
+  private int _packCount = 0;
+
   public UploadRecursivelyCommand(UploadOptions options)
   {
     super(options);
@@ -55,85 +95,213 @@ class UploadRecursivelyCommand
       throw new FileNotFoundException(_options.getFile().getPath());
     }
 
-    final IOFileFilter noSymlinks = new IOFileFilter()
+    TransferSession session = null;
+    if(_options.getTransferProgressListener().isPresent() && !_options.isDryRun())
     {
-      @Override
-      public boolean accept(File file, String s)
-      {
-        return isSymlink(file);
-      }
+      // the totals grow while the directory is walked
+      session = new TransferSession("upload", 0, 0,
+        _options.getTransferProgressListener().get(),
+        _options.getOverallProgressListenerFactory().orElse(null), _client.getInternalExecutor(),
+        TransferSession.DEFAULT_INTERVAL_MILLIS);
+      session.start();
+    }
 
-      private boolean isSymlink(File file)
+    final List<ListenableFuture<StoreFile>> files =
+      Collections.synchronizedList(new ArrayList<ListenableFuture<StoreFile>>());
+    final TransferSession fileSession = session;
+    try
+    {
+      if(_options.getFile().isDirectory())
       {
-        try
+        // uploads start while the rest of the tree is still being walked
+        FileWalker walker = new FileWalker(
+          new PathFilter(_options.getIncludes(), _options.getExcludes()), WALK_PARALLELISM);
+        walker.walk(_options.getFile(), new FileWalker.Visitor()
+        {
+          public void visit(File file, String relPath)
+            throws IOException
+          {
+            long size = file.length();
+            if(size < _options.getPackSize())
+            {
+              packFile(files, file, relPath.replace(File.separatorChar, '/'), size,
+                fileSession);
+            }
+            else
+            {
+              uploadFile(files, file, Paths.get(_options.getObjectKey(), relPath).toString(),
+                fileSession);
+            }
+          }
+        });
+        synchronized(_packLock)
         {
-          boolean res = !FileUtils.isSymlink(file);
-          return res;
+          if(_pack != null)
+          {
+            uploadPack(files, _pack, _packCount - 1, fileSession);
+            _pack = null;
+          }
         }
-        catch(IOException e)
+        if(!_index.isEmpty() && !_options.isDryRun())
         {
-          return false;
+          files.add(uploadIndex());
         }
       }
-
-      @Override
-      public boolean accept(File file)
+      else
       {
-        return isSymlink(file);
+        uploadFile(files, _options.getFile(),
+          Paths.get(_options.getObjectKey(), _options.getFile().getName()).toString(), session);
       }
-    };
-
-    List<ListenableFuture<StoreFile>> files = new ArrayList<ListenableFuture<StoreFile>>();
-    if(_options.getFile().isDirectory())
+    }
+    catch(IOException | RuntimeException ex)
     {
-      Collection<File> found = FileUtils.listFiles(_options.getFile(), noSymlinks, noSymlinks);
-
-      for(File file : found)
+      if(session != null)
       {
-        String relPath = file.getPath().substring(_options.getFile().getPath().length() + 1);
-        String key = Paths.get(_options.getObjectKey(), relPath).toString();
-        uploadFile(files, file, key);
+        session.stop();
       }
+      throw ex;
+    }
+
+    if(_options.isDryRun())
+    {
+      return Futures.immediateFuture(null);
     }
     else
     {
-      String key = Paths.get(_options.getObjectKey(), _options.getFile().getName()).toString();
-      uploadFile(files, _options.getFile(), key);
+      ListenableFuture<List<StoreFile>> result = Futures.allAsList(files);
+      if(session != null)
+      {
+        session.stopOnCompletion(result);
+      }
+      return result;
     }
+  }
 
+  private void uploadFile(
+    List<ListenableFuture<StoreFile>> files, File file, String key, TransferSession session)
+    throws IOException
+  {
     if(_options.isDryRun())
     {
-      return Futures.immediateFuture(null);
+      _client.getOutput().println("<DRYRUN> uploading '" + file.getAbsolutePath() + "' to '" +
+        getUri(_options.getBucketName(), key) + "'");
+      return;
     }
-    else
+
+    UploadOptionsBuilder builder = newUploadOptionsBuilder(key, session)
+      .setFile(file)
+      .setDelta(_options.isDelta());
+    startUpload(files, builder, key, file.length(), session);
+  }
+
+  /**
+   * Add a file to the current archive, and upload the archive when it is full.
+   */
+  private void packFile(
+    List<ListenableFuture<StoreFile>> files, File file, String path, long size,
+    TransferSession session)
+    throws IOException
+  {
+    synchronized(_packLock)
+    {
+      if(_pack != null && _pack.getEntryCount() > 0 &&
+        _pack.getLength() + TarUploadSource.getEntryLength(path, size) > _options.getPackSize())
+      {
+        uploadPack(files, _pack, _packCount - 1, session);
+        _pack = null;
+      }
+      if(_pack == null)
+      {
+        _pack = new TarUploadSource(getUri(_options.getBucketName(),
+          PackIndex.getArchiveKey(_options.getObjectKey(), _packCount)));
+        _packCount++;
+      }
+      long offset = _pack.add(file, path, size);
+      _index.add(path, _packCount - 1, offset, size);
+      if(_options.isDryRun())
+      {
+        _client.getOutput().println("<DRYRUN> packing '" + file.getAbsolutePath() + "' into '" +
+          _pack.getDescription() + "'");
+      }
+    }
+  }
+
+  private void uploadPack(
+    List<ListenableFuture<StoreFile>> files, TarUploadSource pack, int number,
+    TransferSession session)
+    throws IOException
+  {
+    if(_options.isDryRun())
     {
-      return Futures.allAsList(files);
+      return;
     }
+    String key = PackIndex.getArchiveKey(_options.getObjectKey(), number);
+    UploadOptionsBuilder builder = newUploadOptionsBuilder(key, session).setSource(pack);
+    ListenableFuture<StoreFile> upload = startUpload(files, builder, key, pack.getLength(),
+      session);
+    _archives.add(upload);
   }
 
-  private void uploadFile(List<ListenableFuture<StoreFile>> files, File file, String key)
+  /**
+   * Upload the index once all archives have been uploaded, so that it never refers to archives
+   * that do not exist.
+   */
+  private ListenableFuture<StoreFile> uploadIndex()
     throws IOException
   {
-    UploadOptions options = _client.getOptionsBuilderFactory()
+    final String key = PackIndex.getIndexKey(_options.getObjectKey());
+    final byte[] bytes = _index.toBytes();
+    List<ListenableFuture<StoreFile>> archives;
+    synchronized(_packLock)
+    {
+      archives = new ArrayList<>(_archives);
+    }
+    return Futures.transform(Futures.allAsList(archives),
+      new AsyncFunction<List<StoreFile>, StoreFile>()
+      {
+        public ListenableFuture<StoreFile> apply(List<StoreFile> uploaded)
+          throws IOException
+        {
+          UploadOptions options = _client.getOptionsBuilderFactory()
+            .newUploadOptionsBuilder()
+            .setSource(new ByteArrayUploadSource(bytes, getUri(_options.getBucketName(), key)))
+            .setBucketName(_options.getBucketName())
+            .setObjectKey(key)
+            .setCannedAcl(_options.getCannedAcl())
+            .createOptions();
+          return _client.upload(options);
+        }
+      });
+  }
+
+  private UploadOptionsBuilder newUploadOptionsBuilder(String key, TransferSession session)
+  {
+    OverallProgressListenerFactory progressListenerFactory = (session != null) ? session :
+      _options.getOverallProgressListenerFactory().orElse(null);
+
+    return _client.getOptionsBuilderFactory()
       .newUploadOptionsBuilder()
-      .setFile(file)
       .setBucketName(_options.getBucketName())
       .setObjectKey(key)
       .setChunkSize(_options.getChunkSize())
       .setEncKey(_options.getEncKey().orElse(null))
       .setCannedAcl(_options.getCannedAcl())
-      .setOverallProgressListenerFactory(_options.getOverallProgressListenerFactory().orElse(null))
-      .createOptions();
+      .setCompression(_options.getCompression().orElse(null))
+      .setOverallProgressListenerFactory(progressListenerFactory);
+  }
 
-    if(_options.isDryRun())
-    {
-      System.out.println("<DRYRUN> uploading '" + file.getAbsolutePath() + "' to '" +
-        getUri(_options.getBucketName(), key) + "'");
-    }
-    else
+  private ListenableFuture<StoreFile> startUpload(
+    List<ListenableFuture<StoreFile>> files, UploadOptionsBuilder builder, String key, long size,
+    TransferSession session)
+    throws IOException
+  {
+    ListenableFuture<StoreFile> upload = _client.upload(builder.createOptions());
+    if(session != null)
     {
-      files.add(_client.upload(options));
+      session.addObject(size);
+      session.track(getUri(_options.getBucketName(), key), size, upload);
     }
+    files.add(upload);
+    return upload;
   }
-
 }
@@ -0,0 +1,54 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The data of a single object upload.  Parts are uploaded concurrently and retried
+ * independently, so every part attempt opens its own stream at the offset of the part.
+ *
+ * @see FileUploadSource
+ * @see SyntheticUploadSource
+ */
+interface UploadSource
+{
+  /**
+   * Return the number of bytes to upload.
+   *
+   * @return length in bytes
+   */
+  long getLength();
+
+  /**
+   * Open a stream that starts at {@code position}.  The caller reads at most one part from it
+   * and closes it.
+   *
+   * @param position offset of the first byte to read
+   * @return stream positioned at {@code position}
+   */
+  InputStream open(long position)
+    throws IOException;
+
+  /**
+   * Return a description of the source for messages, e.g. the file path.
+   *
+   * @return description of the source
+   */
+  String getDescription();
+}
@@ -0,0 +1,593 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind uploads: {@link #submit(UploadOptions, int)} records an upload in a journal on
+ * local disk and returns, and the spool uploads the files in the background.  Producers that
+ * write in bursts do not wait for the storage service, and uploads that have been submitted
+ * survive a crash or restart of the process.
+ * <p>
+ * Every upload is a journal entry: a small properties file that is written to a temporary
+ * file, synced and renamed, so it is either complete or absent.  If the spool copies files,
+ * the copy is synced before the entry is written, and the producer may change or delete its
+ * file as soon as {@code submit} returns; otherwise the file must stay unchanged until it is
+ * uploaded.  Entries are deleted when their upload succeeds, and renamed to {@code .failed}
+ * when it fails permanently.  A new spool on the same directory picks up the entries that
+ * are left.
+ * <p>
+ * Up to {@code maxConcurrentUploads} uploads run at a time, higher priorities first and in
+ * submission order otherwise.  Uploads that fail are submitted again after a growing delay,
+ * unless the failure is a {@link UsageException} or they have failed {@code maxRetries} times.
+ * {@link #flush()} returns a barrier that completes when everything submitted before it has
+ * been uploaded.
+ * <p>
+ * Progress listeners, dry runs and delta uploads are not supported.  This class is
+ * thread-safe.
+ *
+ * @see UploadSpoolBuilder
+ */
+public class UploadSpool
+{
+  private static final String ENTRY_SUFFIX = ".entry";
+  private static final String DATA_SUFFIX = ".data";
+  private static final String FAILED_SUFFIX = ".failed";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+  private final CloudStoreClient _client;
+  private final File _directory;
+  private final int _maxConcurrentUploads;
+  private final int _maxRetries;
+  private final boolean _copyFiles;
+
+  private final PriorityQueue<Entry> _queue = new PriorityQueue<>(11, new Comparator<Entry>()
+  {
+    public int compare(Entry a, Entry b)
+    {
+      if(a._priority != b._priority)
+      {
+        return Integer.compare(b._priority, a._priority);
+      }
+      return Long.compare(a._seq, b._seq);
+    }
+  });
+  private final TreeMap<Long, Entry> _unfinished = new TreeMap<>();
+  private final List<Barrier> _barriers = new ArrayList<>();
+  private Throwable _unreportedFailure = null;
+  private long _nextSeq = 0;
+  private int _inFlight = 0;
+  private boolean _paused = false;
+  private boolean _shutdown = false;
+
+  UploadSpool(
+    CloudStoreClient client, File directory, int maxConcurrentUploads, int maxRetries,
+    boolean copyFiles)
+  {
+    _client = client;
+    _directory = directory.getAbsoluteFile();
+    _maxConcurrentUploads = maxConcurrentUploads;
+    _maxRetries = maxRetries;
+    _copyFiles = copyFiles;
+  }
+
+  /**
+   * Load the entries left by a previous spool on the same directory and start uploading them.
+   */
+  void recover()
+    throws IOException
+  {
+    if(!_directory.isDirectory() && !_directory.mkdirs())
+    {
+      throw new IOException("Could not create spool directory '" + _directory + "'");
+    }
+
+    File[] files = _directory.listFiles();
+    List<Entry> recovered = new ArrayList<>();
+    for(File f : (files == null) ? new File[0] : files)
+    {
+      String name = f.getName();
+      if(name.endsWith(TEMP_SUFFIX))
+      {
+        // an entry or copy that was not complete when the process stopped
+        f.delete();
+      }
+      else if(name.endsWith(ENTRY_SUFFIX))
+      {
+        recovered.add(readEntry(f));
+      }
+    }
+    for(File f : (files == null) ? new File[0] : files)
+    {
+      String name = f.getName();
+      if(name.endsWith(DATA_SUFFIX) && !getEntryFile(getSeq(name)).exists() &&
+        !new File(_directory, getSeq(name) + FAILED_SUFFIX).exists())
+      {
+        // copied, but the entry was never written
+        f.delete();
+      }
+    }
+
+    synchronized(this)
+    {
+      for(Entry e : recovered)
+      {
+        _unfinished.put(e._seq, e);
+        _queue.add(e);
+        _nextSeq = Math.max(_nextSeq, e._seq + 1);
+      }
+    }
+    dispatch();
+  }
+
+  /**
+   * Record an upload in the journal and return without waiting for it.
+   *
+   * @param options  upload of a single file
+   * @param priority uploads with higher priorities start first
+   * @return future that completes when the file has been uploaded, or fails when the upload
+   * fails permanently
+   */
+  public ListenableFuture<StoreFile> submit(UploadOptions options, int priority)
+    throws IOException
+  {
+    File file = options.getFile();
+    if(file == null || !file.isFile())
+    {
+      throw new UsageException("Only existing files can be spooled: " + file);
+    }
+    if(options.isDryRun() || options.isDelta() ||
+      options.getOverallProgressListenerFactory().isPresent() ||
+      options.getTransferProgressListener().isPresent())
+    {
+      throw new UsageException(
+        "Dry runs, delta uploads and progress listeners cannot be spooled");
+    }
+
+    Entry e;
+    synchronized(this)
+    {
+      checkNotShutdown();
+      e = new Entry(_nextSeq++, priority);
+      // before the entry is durable, so that a flush that starts now waits for it
+      _unfinished.put(e._seq, e);
+    }
+
+    try
+    {
+      e._file = file.getAbsoluteFile();
+      if(_copyFiles)
+      {
+        File data = getDataFile(e._seq);
+        File temp = new File(data.getPath() + TEMP_SUFFIX);
+        Utils.copyFile(file, temp, true);
+        Files.move(temp.toPath(), data.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        e._file = data;
+        e._copied = true;
+      }
+      e._bucket = options.getBucketName();
+      e._key = options.getObjectKey();
+      e._chunkSize = options.getChunkSize();
+      e._encKey = options.getEncKey().orElse(null);
+      e._cannedAcl = options.getCannedAcl();
+      e._compression = options.getCompression().orElse(null);
+      writeEntry(e);
+    }
+    catch(IOException | RuntimeException exc)
+    {
+      getDataFile(e._seq).delete();
+      synchronized(this)
+      {
+        _unfinished.remove(e._seq);
+        completeBarriers();
+      }
+      throw exc;
+    }
+
+    synchronized(this)
+    {
+      _queue.add(e);
+    }
+    dispatch();
+    return e._future;
+  }
+
+  /**
+   * Return a barrier that completes when every upload submitted before this call has been
+   * uploaded, including the uploads recovered from the journal.  The barrier fails if one of
+   * them failed permanently and no earlier barrier has reported that failure.
+   *
+   * @return barrier future
+   */
+  public synchronized ListenableFuture<Void> flush()
+  {
+    Barrier barrier = new Barrier(_nextSeq - 1);
+    barrier._failure = _unreportedFailure;
+    _unreportedFailure = null;
+    _barriers.add(barrier);
+    completeBarriers();
+    return barrier._future;
+  }
+
+  /**
+   * Stop starting uploads until {@link #resume()} is called.  Uploads in flight continue, and
+   * new uploads are still accepted into the journal.
+   */
+  public synchronized void pause()
+  {
+    _paused = true;
+  }
+
+  /**
+   * Start uploading again after {@link #pause()}.
+   */
+  public void resume()
+  {
+    synchronized(this)
+    {
+      _paused = false;
+    }
+    dispatch();
+  }
+
+  /**
+   * Return the number of uploads that have been submitted, or recovered, and have neither
+   * been uploaded nor failed permanently.
+   *
+   * @return number of pending uploads
+   */
+  public synchronized int getPendingCount()
+  {
+    return _unfinished.size();
+  }
+
+  /**
+   * Stop starting uploads and accepting new ones.  Uploads in flight continue; the others stay
+   * in the journal for the next spool on the directory, and their futures and pending
+   * barriers fail.  The client is not shut down.
+   */
+  public synchronized void shutdown()
+  {
+    if(_shutdown)
+    {
+      return;
+    }
+    _shutdown = true;
+    IllegalStateException exc = new IllegalStateException(
+      "Upload spool was shut down, the upload stays in " + _directory);
+    for(Entry e : _queue)
+    {
+      e._future.setException(exc);
+    }
+    _queue.clear();
+    for(Barrier barrier : _barriers)
+    {
+      barrier._future.setException(exc);
+    }
+    _barriers.clear();
+  }
+
+  private void checkNotShutdown()
+  {
+    if(_shutdown)
+    {
+      throw new IllegalStateException("Upload spool has been shut down");
+    }
+  }
+
+  private void dispatch()
+  {
+    List<Entry> batch = new ArrayList<>();
+    synchronized(this)
+    {
+      while(!_paused && !_shutdown && _inFlight < _maxConcurrentUploads && !_queue.isEmpty())
+      {
+        batch.add(_queue.poll());
+        _inFlight++;
+      }
+    }
+    for(Entry e : batch)
+    {
+      start(e);
+    }
+  }
+
+  private void start(final Entry e)
+  {
+    ListenableFuture<StoreFile> upload;
+    try
+    {
+      UploadOptions options = _client.getOptionsBuilderFactory()
+        .newUploadOptionsBuilder()
+        .setFile(e._file)
+        .setBucketName(e._bucket)
+        .setObjectKey(e._key)
+        .setChunkSize(e._chunkSize)
+        .setEncKey(e._encKey)
+        .setCannedAcl(e._cannedAcl)
+        .setCompression(e._compression)
+        .createOptions();
+      upload = _client.upload(options);
+    }
+    catch(IOException | RuntimeException exc)
+    {
+      upload = Futures.immediateFailedFuture(exc);
+    }
+
+    Futures.addCallback(upload, new FutureCallback<StoreFile>()
+    {
+      public void onSuccess(StoreFile f)
+      {
+        getEntryFile(e._seq).delete();
+        if(e._copied)
+        {
+          e._file.delete();
+        }
+        finish(e);
+        e._future.set(f);
+        dispatch();
+      }
+
+      public void onFailure(Throwable t)
+      {
+        failed(e, t);
+        dispatch();
+      }
+    });
+  }
+
+  private void failed(final Entry e, Throwable t)
+  {
+    boolean retry;
+    synchronized(this)
+    {
+      _inFlight--;
+      if(_shutdown)
+      {
+        e._future.setException(t);
+        return;
+      }
+      retry = !(t instanceof UsageException) && e._attempts < _maxRetries;
+      e._attempts++;
+    }
+
+    if(retry)
+    {
+      long delay = Math.min(1000L << Math.min(e._attempts - 1, 16), MAX_RETRY_DELAY_MILLIS);
+      _client.getErrorOutput().println("Info: Retriable exception: spooled upload of " +
+        _client.getScheme() + e._bucket + "/" + e._key + " (attempt " + e._attempts + "): " +
+        t.getMessage());
+      _client.getInternalExecutor().schedule(new Runnable()
+      {
+        public void run()
+        {
+          synchronized(UploadSpool.this)
+          {
+            if(_shutdown)
+            {
+              return;
+            }
+            _queue.add(e);
+          }
+          dispatch();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    // keep the entry, and the copy, for inspection
+    getEntryFile(e._seq).renameTo(new File(_directory, e._seq + FAILED_SUFFIX));
+    synchronized(this)
+    {
+      _unfinished.remove(e._seq);
+      boolean reported = false;
+      for(Barrier barrier : _barriers)
+      {
+        if(barrier._seq >= e._seq)
+        {
+          reported = true;
+          if(barrier._failure == null)
+          {
+            barrier._failure = t;
+          }
+        }
+      }
+      if(!reported && _unreportedFailure == null)
+      {
+        _unreportedFailure = t;
+      }
+      completeBarriers();
+    }
+    e._future.setException(t);
+  }
+
+  private synchronized void finish(Entry e)
+  {
+    _inFlight--;
+    _unfinished.remove(e._seq);
+    completeBarriers();
+  }
+
+  private synchronized void completeBarriers()
+  {
+    long firstUnfinished = _unfinished.isEmpty() ? Long.MAX_VALUE : _unfinished.firstKey();
+    for(Iterator<Barrier> it = _barriers.iterator(); it.hasNext(); )
+    {
+      Barrier barrier = it.next();
+      if(barrier._seq < firstUnfinished)
+      {
+        it.remove();
+        if(barrier._failure == null)
+        {
+          barrier._future.set(null);
+        }
+        else
+        {
+          barrier._future.setException(barrier._failure);
+        }
+      }
+    }
+  }
+
+  private File getEntryFile(long seq)
+  {
+    return new File(_directory, seq + ENTRY_SUFFIX);
+  }
+
+  private File getDataFile(long seq)
+  {
+    return new File(_directory, seq + DATA_SUFFIX);
+  }
+
+  private static long getSeq(String name)
+  {
+    return Long.parseLong(name.substring(0, name.indexOf('.')));
+  }
+
+  private void writeEntry(Entry e)
+    throws IOException
+  {
+    Properties p = new Properties();
+    p.setProperty("file", e._file.getPath());
+    p.setProperty("copied", Boolean.toString(e._copied));
+    p.setProperty("bucket", e._bucket);
+    p.setProperty("key", e._key);
+    p.setProperty("priority", Integer.toString(e._priority));
+    p.setProperty("chunk-size", Long.toString(e._chunkSize));
+    if(e._encKey != null)
+    {
+      p.setProperty("enc-key", e._encKey);
+    }
+    if(e._cannedAcl != null)
+    {
+      p.setProperty("canned-acl", e._cannedAcl);
+    }
+    if(e._compression != null)
+    {
+      p.setProperty("compression", e._compression);
+    }
+
+    File entry = getEntryFile(e._seq);
+    File temp = new File(entry.getPath() + TEMP_SUFFIX);
+    try(FileOutputStream out = new FileOutputStream(temp))
+    {
+      p.store(out, null);
+      out.getFD().sync();
+    }
+    Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory();
+  }
+
+  private Entry readEntry(File f)
+    throws IOException
+  {
+    Properties p = new Properties();
+    try(InputStream in = new FileInputStream(f))
+    {
+      p.load(in);
+    }
+    Entry e = new Entry(getSeq(f.getName()), Integer.parseInt(p.getProperty("priority")));
+    e._file = new File(p.getProperty("file"));
+    e._copied = Boolean.parseBoolean(p.getProperty("copied"));
+    e._bucket = p.getProperty("bucket");
+    e._key = p.getProperty("key");
+    e._chunkSize = Long.parseLong(p.getProperty("chunk-size"));
+    e._encKey = p.getProperty("enc-key");
+    e._cannedAcl = p.getProperty("canned-acl");
+    e._compression = p.getProperty("compression");
+    return e;
+  }
+
+  /**
+   * Make the renames in the directory durable.  Not every platform can sync a directory, and
+   * there is nothing better to do where it cannot.
+   */
+  private void syncDirectory()
+  {
+    try(FileChannel dir = FileChannel.open(_directory.toPath(), StandardOpenOption.READ))
+    {
+      dir.force(true);
+    }
+    catch(IOException ignored)
+    {
+    }
+  }
+
+  /**
+   * An upload in the journal.  Fields other than the future are written before the entry is
+   * queued, and only read after that.
+   */
+  private static class Entry
+  {
+    final long _seq;
+    final int _priority;
+    final SettableFuture<StoreFile> _future = SettableFuture.create();
+    File _file;
+    boolean _copied;
+    String _bucket;
+    String _key;
+    long _chunkSize;
+    String _encKey;
+    String _cannedAcl;
+    String _compression;
+    int _attempts = 0;
+
+    Entry(long seq, int priority)
+    {
+      _seq = seq;
+      _priority = priority;
+    }
+  }
+
+  /**
+   * Completes when no upload up to {@code _seq} is pending.
+   */
+  private static class Barrier
+  {
+    final long _seq;
+    final SettableFuture<Void> _future = SettableFuture.create();
+    Throwable _failure;
+
+    Barrier(long seq)
+    {
+      _seq = seq;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Builds an {@link UploadSpool} around an existing client.  The client and the spool
+ * directory are mandatory.  Creating the spool recovers the uploads left in the directory by a
+ * previous spool.
+ */
+public class UploadSpoolBuilder
+{
+  public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 4;
+  public static final int DEFAULT_MAX_RETRIES = 10;
+
+  private CloudStoreClient _client;
+  private File _directory;
+  private int _maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+  private int _maxRetries = DEFAULT_MAX_RETRIES;
+  private boolean _copyFiles = false;
+
+  public UploadSpoolBuilder setClient(CloudStoreClient client)
+  {
+    _client = client;
+    return this;
+  }
+
+  /**
+   * Set the directory of the journal.  Only one spool at a time may use a directory.
+   */
+  public UploadSpoolBuilder setDirectory(File directory)
+  {
+    _directory = directory;
+    return this;
+  }
+
+  /**
+   * Set how many files are uploaded at the same time.  Each upload still uploads its parts in
+   * parallel.  The default is 4.
+   */
+  public UploadSpoolBuilder setMaxConcurrentUploads(int maxConcurrentUploads)
+  {
+    _maxConcurrentUploads = maxConcurrentUploads;
+    return this;
+  }
+
+  /**
+   * Set how often an upload is retried before it fails permanently.  The default is 10.
+   */
+  public UploadSpoolBuilder setMaxRetries(int maxRetries)
+  {
+    _maxRetries = maxRetries;
+    return this;
+  }
+
+  /**
+   * Copy files into the spool directory when they are submitted.  Submitting then costs a copy
+   * of the file, but the caller may change or delete the file right away.  By default the
+   * journal only refers to the file.
+   */
+  public UploadSpoolBuilder setCopyFiles(boolean copyFiles)
+  {
+    _copyFiles = copyFiles;
+    return this;
+  }
+
+  public UploadSpool createUploadSpool()
+    throws IOException
+  {
+    if(_client == null)
+    {
+      throw new UsageException("Client has to be set");
+    }
+    else if(_directory == null)
+    {
+      throw new UsageException("Spool directory has to be set");
+    }
+    else if(_maxConcurrentUploads < 1)
+    {
+      throw new UsageException("Number of concurrent uploads has to be positive");
+    }
+    else if(_maxRetries < 0)
+    {
+      throw new UsageException("Number of retries cannot be negative");
+    }
+    UploadSpool spool = new UploadSpool(_client, _directory, _maxConcurrentUploads,
+      _maxRetries, _copyFiles);
+    spool.recover();
+    return spool;
+  }
+}
@@ -19,6 +19,8 @@ package com.logicblox.cloudstore;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -28,13 +30,23 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +55,15 @@ public class Utils
 {
   private static String _defaultKeyDir = null;
 
+  // thread pools behind the listening decorators, so that queue depths can be reported
+  private static final Map<ExecutorService, ThreadPoolExecutor> _backingPools =
+    Collections.synchronizedMap(new WeakHashMap<ExecutorService, ThreadPoolExecutor>());
+  private static final Map<ExecutorService, BoundedExecutorService> _boundedExecutors =
+    Collections.synchronizedMap(new WeakHashMap<ExecutorService, BoundedExecutorService>());
+
+  private static volatile boolean _virtualThreads = Boolean.getBoolean(
+    "cloudstore.virtualThreads");
+
   static void initLogging()
   {
     Logger root = Logger.getRootLogger();
@@ -106,6 +127,24 @@ public class Utils
     return chunkSize;
   }
 
+  /**
+   * Compute the ETag S3 assigns to an object uploaded with the multipart protocol: the hex MD5
+   * of the concatenated binary MD5 digests of its parts, followed by a dash and the number of
+   * parts.
+   *
+   * @param partDigests binary MD5 digests of the parts, in part number order
+   * @return multipart ETag
+   */
+  static String getMultipartETag(Collection<byte[]> partDigests)
+  {
+    MessageDigest md = DigestUtils.getMd5Digest();
+    for(byte[] digest : partDigests)
+    {
+      md.update(digest);
+    }
+    return Hex.encodeHexString(md.digest()) + "-" + partDigests.size();
+  }
+
   public static int getDefaultMaxConcurrentConnections()
   {
     return 10;
@@ -314,14 +353,105 @@ public class Utils
     return path.substring(1);
   }
 
+  /**
+   * Return true if the runtime supports virtual threads (Java 21 or later).
+   *
+   * @return true if {@link #setVirtualThreads(boolean)} can be enabled
+   */
+  public static boolean isVirtualThreadsSupported()
+  {
+    return VirtualThreads.isSupported();
+  }
+
+  /**
+   * Make executors created by {@link #createApiExecutor(int)} and {@link
+   * #createInternalExecutor(int)} from now on run their tasks on virtual threads.  API calls
+   * then each get their own virtual thread and the number of calls in flight is bounded by a
+   * semaphore instead of by the size of a pool of platform threads.  Executors that were
+   * already created are not affected.
+   * <p>
+   * Virtual threads are off by default, and can also be enabled with the system property
+   * {@code cloudstore.virtualThreads=true}.
+   *
+   * @param enabled true to use virtual threads
+   * @throws UsageException if enabled on a runtime without virtual threads
+   */
+  public static void setVirtualThreads(boolean enabled)
+  {
+    if(enabled && !isVirtualThreadsSupported())
+    {
+      throw new UsageException(
+        "Virtual threads require Java 21 or later, this is Java " +
+          System.getProperty("java.version"));
+    }
+    _virtualThreads = enabled;
+  }
+
+  public static boolean getVirtualThreads()
+  {
+    return _virtualThreads && isVirtualThreadsSupported();
+  }
+
   public static ListeningExecutorService createApiExecutor(int nThreads)
   {
-    return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(nThreads));
+    if(getVirtualThreads())
+    {
+      return createVirtualThreadApiExecutor(nThreads);
+    }
+    ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(nThreads);
+    ListeningExecutorService executor = MoreExecutors.listeningDecorator(pool);
+    _backingPools.put(executor, pool);
+    return executor;
+  }
+
+  /**
+   * Create an API executor that runs every task on a new virtual thread, with at most {@code
+   * maxConcurrency} tasks running at the same time.
+   *
+   * @param maxConcurrency maximum number of tasks that run concurrently
+   * @return executor
+   * @throws UnsupportedOperationException if the runtime does not support virtual threads
+   */
+  public static ListeningExecutorService createVirtualThreadApiExecutor(int maxConcurrency)
+  {
+    BoundedExecutorService bounded = new BoundedExecutorService(
+      VirtualThreads.newThreadPerTaskExecutor("cloudstore-api-"), maxConcurrency);
+    ListeningExecutorService executor = MoreExecutors.listeningDecorator(bounded);
+    _boundedExecutors.put(executor, bounded);
+    return executor;
   }
 
   public static ListeningScheduledExecutorService createInternalExecutor(int poolSize)
   {
-    return MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(poolSize));
+    // tasks of the internal executor mostly compose futures, so with virtual threads it keeps
+    // its pool and only the threads of the pool become virtual
+    ScheduledThreadPoolExecutor pool = getVirtualThreads() ?
+      new ScheduledThreadPoolExecutor(poolSize,
+        VirtualThreads.newThreadFactory("cloudstore-internal-")) :
+      new ScheduledThreadPoolExecutor(poolSize);
+    ListeningScheduledExecutorService executor = MoreExecutors.listeningDecorator(pool);
+    _backingPools.put(executor, pool);
+    return executor;
+  }
+
+  /**
+   * Return the number of tasks waiting in the queue of an executor created by {@link
+   * #createApiExecutor(int)} or {@link #createInternalExecutor(int)}.  For the internal
+   * executor this includes scheduled tasks that are not due yet, for a virtual thread API
+   * executor the tasks that wait for a permit.
+   *
+   * @param executor executor to inspect
+   * @return number of queued tasks, or -1 for executors not created by this class
+   */
+  public static int getQueueDepth(ExecutorService executor)
+  {
+    ThreadPoolExecutor pool = _backingPools.get(executor);
+    if(pool != null)
+    {
+      return pool.getQueue().size();
+    }
+    BoundedExecutorService bounded = _boundedExecutors.get(executor);
+    return (bounded == null) ? -1 : bounded.getQueueDepth();
   }
 
   public static KeyProvider createKeyProvider(String encKeyDirectory)
@@ -437,6 +567,8 @@ public class Utils
     {
       client = new GCSClientBuilder()
         .setApiExecutor(uploadExecutor)
+        .setMaxConnections(maxConcurrentConnections)
+        .setEndpoint(endpoint)
         .setKeyProvider(createKeyProvider(encKeyDirectory))
         .createGCSClient();
     }
@@ -445,20 +577,97 @@ public class Utils
       client = new S3ClientBuilder()
         .setAWSCredentialsProvider(credentialProviders)
         .setApiExecutor(uploadExecutor)
+        .setMaxConnections(maxConcurrentConnections)
+        .setEndpoint(endpoint)
         .setKeyProvider(createKeyProvider(encKeyDirectory))
         .createS3Client();
     }
 
     client.setRetryClientException(stubborn);
     client.setRetryCount(retryCount);
-    if(endpoint != null)
+
+    return client;
+  }
+
+  /**
+   * Create and return an object used as the interface to one of the supported cloud store
+   * services, using executors, connection pools and credentials shared with other clients.
+   * Shutting the client down releases its reference to {@code resources}.
+   *
+   * @param scheme Must be either "s3" or "gs" to create an interface to either
+   *   an AWS S3 or GCS cloud store service, respectively.
+   * @param endpoint The endpoint URI, i.e. "http://127.0.0.1:9000/", used to connect
+   *   to the cloud store service.  It may be null, in which case the default endpoint
+   *   for the service will be used.
+   * @param resources Resources shared with other clients.  They determine the maximum number
+   *   of concurrent connections.
+   * @param encKeyDirectory Path to a local directory containing public/private key pair files.
+   * @param credentialProviders Only used for S3 services, see {@link
+   *   #createCloudStoreClient(String, String, int, String, List, boolean, int)}.
+   * @param stubborn If true, client-side errors will be retried in the same
+   *    manner as server-side errors.
+   * @param retryCount Number of times an operation will be retried after failure
+   *    before the operation is cancelled.
+   * @return cloud store interface
+   * @throws URISyntaxException -
+   * @throws GeneralSecurityException -
+   * @throws IOException -
+   */
+  public static CloudStoreClient createCloudStoreClient(
+    String scheme, String endpoint, ClientResources resources, String encKeyDirectory,
+    List<String> credentialProviders, boolean stubborn, int retryCount)
+    throws URISyntaxException, GeneralSecurityException, IOException
+  {
+    StorageService service = detectStorageService(endpoint, scheme);
+
+    CloudStoreClient client;
+    if(service == StorageService.GCS)
     {
-      client.setEndpoint(endpoint);
+      client = new GCSClientBuilder()
+        .setResources(resources)
+        .setEndpoint(endpoint)
+        .setKeyProvider(createKeyProvider(encKeyDirectory))
+        .createGCSClient();
+    }
+    else
+    {
+      client = new S3ClientBuilder()
+        .setResources(resources)
+        .setEndpoint(endpoint)
+        .setAWSCredentialsProvider(credentialProviders)
+        .setKeyProvider(createKeyProvider(encKeyDirectory))
+        .createS3Client();
     }
 
+    client.setRetryClientException(stubborn);
+    client.setRetryCount(retryCount);
+
     return client;
   }
 
+  // copy source to target, replacing its contents, with the channel transfer that the
+  // kernel can do without passing the bytes through the JVM. if sync is true, the copy is
+  // forced to the storage device before returning.
+  static void copyFile(File source, File target, boolean sync)
+    throws IOException
+  {
+    try(FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      long size = in.size();
+      long position = 0;
+      while(position < size)
+      {
+        position += in.transferTo(position, size - position, out);
+      }
+      if(sync)
+      {
+        out.force(true);
+      }
+    }
+  }
+
   public static List<File> mkdirs(File dir)
     throws IOException
   {
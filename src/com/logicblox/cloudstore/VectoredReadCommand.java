@@ -0,0 +1,263 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads many ranges of one object into caller buffers.  Ranges that are close together are
+ * merged, and all merged ranges are fetched with a single download, so the metadata of the
+ * object is looked up once and the chunks of all ranges are fetched concurrently.  The sink of
+ * the download scatters the bytes of every merged range into the buffers that overlap it.
+ */
+class VectoredReadCommand
+  extends Command
+{
+  private VectoredReadOptions _options;
+
+  public VectoredReadCommand(VectoredReadOptions options)
+  {
+    super(options);
+    _options = options;
+  }
+
+  public ListenableFuture<List<ByteBuffer>> run()
+    throws IOException
+  {
+    final List<ByteBuffer> buffers = _options.getBuffers();
+    final List<Target> targets = new ArrayList<>();
+    List<ByteRange> ranges = new ArrayList<>();
+    for(int i = 0; i < buffers.size(); ++i)
+    {
+      ByteBuffer buffer = buffers.get(i);
+      ByteRange range = new ByteRange(_options.getOffsets().get(i), buffer.remaining());
+      ranges.add(range);
+      if(range.getLength() > 0)
+      {
+        targets.add(new Target(range, buffer));
+      }
+    }
+
+    final List<ByteRange> merged = coalesce(ranges, _options.getMaxGap());
+    if(merged.isEmpty())
+    {
+      return Futures.immediateFuture(buffers);
+    }
+
+    final long[] bases = new long[merged.size()];
+    long[] offsets = new long[merged.size()];
+    final List<List<Target>> groups = new ArrayList<>();
+    for(int i = 0; i < bases.length; ++i)
+    {
+      bases[i] = (i == 0) ? 0 : bases[i - 1] + merged.get(i - 1).getLength();
+      offsets[i] = merged.get(i).getOffset();
+      groups.add(new ArrayList<Target>());
+    }
+    for(Target target : targets)
+    {
+      groups.get(floor(offsets, target._range.getOffset())).add(target);
+    }
+
+    DownloadSink sink = new DownloadSink()
+    {
+      public OutputStream open(final long position)
+      {
+        return new ScatterOutputStream(merged, bases, groups, position);
+      }
+    };
+
+    DownloadOptions options = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setSink(sink)
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(_options.getObjectKey())
+      .setVersion(_options.getVersion().orElse(null))
+      .setRanges(merged)
+      .createOptions();
+    return Futures.transform(_client.download(options),
+      new Function<StoreFile, List<ByteBuffer>>()
+      {
+        public List<ByteBuffer> apply(StoreFile f)
+        {
+          for(ByteBuffer buffer : buffers)
+          {
+            buffer.position(buffer.limit());
+          }
+          return buffers;
+        }
+      });
+  }
+
+  /**
+   * Sort {@code ranges} and merge ranges that overlap or are at most {@code maxGap} bytes
+   * apart.  Empty ranges are dropped.
+   */
+  static List<ByteRange> coalesce(List<ByteRange> ranges, long maxGap)
+  {
+    List<ByteRange> sorted = new ArrayList<>();
+    for(ByteRange range : ranges)
+    {
+      if(range.getLength() > 0)
+      {
+        sorted.add(range);
+      }
+    }
+    Collections.sort(sorted, new Comparator<ByteRange>()
+    {
+      public int compare(ByteRange a, ByteRange b)
+      {
+        return Long.compare(a.getOffset(), b.getOffset());
+      }
+    });
+
+    List<ByteRange> merged = new ArrayList<>();
+    ByteRange current = null;
+    for(ByteRange range : sorted)
+    {
+      if(current != null && range.getOffset() - current.getEnd() <= maxGap)
+      {
+        long end = Math.max(current.getEnd(), range.getEnd());
+        current = new ByteRange(current.getOffset(), end - current.getOffset());
+      }
+      else
+      {
+        if(current != null)
+        {
+          merged.add(current);
+        }
+        current = range;
+      }
+    }
+    if(current != null)
+    {
+      merged.add(current);
+    }
+    return merged;
+  }
+
+  /**
+   * Return the index of the last element of the sorted array {@code values} that is at most
+   * {@code value}, or 0 if there is none.
+   */
+  private static int floor(long[] values, long value)
+  {
+    int i = 0;
+    int j = values.length - 1;
+    while(i < j)
+    {
+      int m = (i + j + 1) / 2;
+      if(values[m] <= value)
+      {
+        i = m;
+      }
+      else
+      {
+        j = m - 1;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * A caller buffer and the range of the object it receives.  Writes go through duplicates of
+   * the buffer, so concurrent chunks do not share a position.
+   */
+  private static class Target
+  {
+    final ByteRange _range;
+    final ByteBuffer _buffer;
+    final int _start;
+
+    Target(ByteRange range, ByteBuffer buffer)
+    {
+      _range = range;
+      _buffer = buffer;
+      _start = buffer.position();
+    }
+
+    void write(long offset, byte[] b, int off, int len)
+    {
+      long from = Math.max(offset, _range.getOffset());
+      long to = Math.min(offset + len, _range.getEnd());
+      if(from >= to)
+      {
+        return;
+      }
+      ByteBuffer dup = _buffer.duplicate();
+      dup.position(_start + (int) (from - _range.getOffset()));
+      dup.put(b, off + (int) (from - offset), (int) (to - from));
+    }
+  }
+
+  /**
+   * Stream for the bytes of a download chunk.  The position of the stream is an offset in the
+   * concatenation of the merged ranges, which is mapped back to an offset in the object and
+   * copied to the buffers of the merged range that contains it.
+   */
+  private static class ScatterOutputStream
+    extends OutputStream
+  {
+    private final List<ByteRange> _merged;
+    private final long[] _bases;
+    private final List<List<Target>> _groups;
+    private long _position;
+
+    ScatterOutputStream(
+      List<ByteRange> merged, long[] bases, List<List<Target>> groups, long position)
+    {
+      _merged = merged;
+      _bases = bases;
+      _groups = groups;
+      _position = position;
+    }
+
+    @Override
+    public void write(int b)
+    {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+      while(len > 0)
+      {
+        int i = floor(_bases, _position);
+        long inRange = _position - _bases[i];
+        int n = (int) Math.min(len, _merged.get(i).getLength() - inRange);
+        long offset = _merged.get(i).getOffset() + inRange;
+        for(Target target : _groups.get(i))
+        {
+          target.write(offset, b, off, n);
+        }
+        _position += n;
+        off += n;
+        len -= n;
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * {@code VectoredReadOptions} contains all the details needed by the vectored read operation,
+ * which reads many ranges of one object into caller buffers.
+ * <p>
+ * Ranges that are at most {@code _maxGap} bytes apart are read with one request.
+ * <p>
+ * {@code VectoredReadOptions} objects are meant to be built by {@code
+ * VectoredReadOptionsBuilder}. This class provides only public accessor methods.
+ *
+ * @see VectoredReadOptionsBuilder
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#readVectored(VectoredReadOptions)
+ * @see OptionsBuilderFactory#newVectoredReadOptionsBuilder()
+ */
+public class VectoredReadOptions
+  extends CommandOptions
+{
+  private final String _bucketName;
+  private final String _objectKey;
+  private final String _version;
+  private final List<Long> _offsets;
+  private final List<ByteBuffer> _buffers;
+  private final long _maxGap;
+
+  VectoredReadOptions(
+    CloudStoreClient cloudStoreClient, String bucketName, String objectKey, String version,
+    List<Long> offsets, List<ByteBuffer> buffers, long maxGap)
+  {
+    super(cloudStoreClient);
+    _bucketName = bucketName;
+    _objectKey = objectKey;
+    _version = version;
+    _offsets = offsets;
+    _buffers = buffers;
+    _maxGap = maxGap;
+  }
+
+  /**
+   * Return the name of the bucket containing the object to read.
+   *
+   * @return bucket name
+   */
+  public String getBucketName()
+  {
+    return _bucketName;
+  }
+
+  /**
+   * Return the key of the object to read.
+   *
+   * @return object key
+   */
+  public String getObjectKey()
+  {
+    return _objectKey;
+  }
+
+  /**
+   * Return the version of the object to read.
+   *
+   * @return optional version of the object
+   */
+  public Optional<String> getVersion()
+  {
+    return Optional.ofNullable(_version);
+  }
+
+  /**
+   * Return the offsets of the ranges to read, in the order they were added.
+   *
+   * @return offsets in the (decrypted) object
+   */
+  public List<Long> getOffsets()
+  {
+    return _offsets;
+  }
+
+  /**
+   * Return the buffers that receive the ranges.  Range {@code i} fills the remaining bytes of
+   * buffer {@code i}.
+   *
+   * @return buffers of the ranges
+   */
+  public List<ByteBuffer> getBuffers()
+  {
+    return _buffers;
+  }
+
+  /**
+   * Return the largest number of bytes between two ranges that are read with one request.
+   *
+   * @return gap threshold in bytes
+   */
+  public long getMaxGap()
+  {
+    return _maxGap;
+  }
+}
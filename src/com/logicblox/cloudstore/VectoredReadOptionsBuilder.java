@@ -0,0 +1,171 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@code VectoredReadOptionsBuilder} is used to create and set properties for {@code
+ * VectoredReadOptions} objects used to control behavior of the cloud-store vectored read
+ * command.
+ * <p>
+ * Setting {@code bucketName} and {@code objectKey} is mandatory.  Ranges are added with {@link
+ * #addRange(long, ByteBuffer)}.
+ *
+ * @see VectoredReadOptions
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#readVectored(VectoredReadOptions)
+ * @see OptionsBuilderFactory#newVectoredReadOptionsBuilder()
+ */
+public class VectoredReadOptionsBuilder
+  extends CommandOptionsBuilder
+{
+  /**
+   * Default gap threshold.  Reading this many unneeded bytes costs about as much as the
+   * latency of another request.
+   */
+  public static final long DEFAULT_MAX_GAP = 512 * 1024;
+
+  private String _bucketName;
+  private String _objectKey;
+  private String _version;
+  private List<Long> _offsets = new ArrayList<>();
+  private List<ByteBuffer> _buffers = new ArrayList<>();
+  private long _maxGap = DEFAULT_MAX_GAP;
+
+  VectoredReadOptionsBuilder(CloudStoreClient client)
+  {
+    _cloudStoreClient = client;
+  }
+
+  /**
+   * Set the name of the bucket containing the object to read.
+   *
+   * @param bucket name of bucket
+   * @return this builder
+   */
+  public VectoredReadOptionsBuilder setBucketName(String bucket)
+  {
+    _bucketName = bucket;
+    return this;
+  }
+
+  /**
+   * Set the key of the object to read.
+   *
+   * @param objectKey key of object to read
+   * @return this builder
+   */
+  public VectoredReadOptionsBuilder setObjectKey(String objectKey)
+  {
+    _objectKey = objectKey;
+    return this;
+  }
+
+  /**
+   * Set the version of the object to read.
+   *
+   * @param version version of object to read
+   * @return this builder
+   */
+  public VectoredReadOptionsBuilder setVersion(String version)
+  {
+    _version = version;
+    return this;
+  }
+
+  /**
+   * Read {@code buffer.remaining()} bytes of the object, starting at {@code offset}, into
+   * {@code buffer}.  The bytes are written at the position of the buffer, which is advanced
+   * when the read completes.  Ranges may overlap, but buffers must not be shared.
+   *
+   * @param offset offset of the first byte in the (decrypted) object
+   * @param buffer buffer that receives the bytes
+   * @return this builder
+   */
+  public VectoredReadOptionsBuilder addRange(long offset, ByteBuffer buffer)
+  {
+    _offsets.add(offset);
+    _buffers.add(buffer);
+    return this;
+  }
+
+  /**
+   * Set the largest number of bytes between two ranges that are read with one request.  The
+   * bytes in between are fetched and discarded.  Use 0 to merge only adjacent and overlapping
+   * ranges.
+   *
+   * @param maxGap gap threshold in bytes
+   * @return this builder
+   */
+  public VectoredReadOptionsBuilder setMaxGap(long maxGap)
+  {
+    _maxGap = maxGap;
+    return this;
+  }
+
+  private void validateOptions()
+  {
+    if(_cloudStoreClient == null)
+    {
+      throw new UsageException("CloudStoreClient has to be set");
+    }
+    else if(_bucketName == null)
+    {
+      throw new UsageException("Bucket has to be set");
+    }
+    else if(_objectKey == null)
+    {
+      throw new UsageException("Object key has to be set");
+    }
+    else if(_maxGap < 0)
+    {
+      throw new UsageException("Maximum gap cannot be negative");
+    }
+
+    for(int i = 0; i < _offsets.size(); ++i)
+    {
+      if(_offsets.get(i) < 0)
+      {
+        throw new UsageException("Offset of range " + i + " cannot be negative");
+      }
+      else if(_buffers.get(i) == null || _buffers.get(i).isReadOnly())
+      {
+        throw new UsageException("Buffer of range " + i + " has to be set and writable");
+      }
+    }
+  }
+
+  /**
+   * Validate that all required parameters are set and if so return a new {@link
+   * VectoredReadOptions} object.
+   *
+   * @return immutable options object with values from this builder
+   */
+  @Override
+  public VectoredReadOptions createOptions()
+  {
+    validateOptions();
+
+    return new VectoredReadOptions(_cloudStoreClient, _bucketName, _objectKey, _version,
+      Collections.unmodifiableList(new ArrayList<>(_offsets)),
+      Collections.unmodifiableList(new ArrayList<>(_buffers)), _maxGap);
+  }
+}
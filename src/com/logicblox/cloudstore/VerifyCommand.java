@@ -0,0 +1,206 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * Compares local files with objects by ETag, without transferring object data.
+ * <p>
+ * The metadata of every object is fetched with a HEAD request, and the ETag of the local file
+ * is computed by {@link ETagCalculator} with the chunk size recorded in the metadata.  All files
+ * are verified concurrently.
+ */
+class VerifyCommand
+  extends Command
+{
+  private VerifyOptions _options;
+
+  public VerifyCommand(VerifyOptions options)
+  {
+    super(options);
+    _options = options;
+  }
+
+  public ListenableFuture<List<VerifyResult>> run()
+    throws FileNotFoundException
+  {
+    final File file = _options.getFile();
+    if(!_options.isRecursive())
+    {
+      if(!file.isFile())
+      {
+        throw new FileNotFoundException(file.getPath());
+      }
+      List<ListenableFuture<VerifyResult>> results = new ArrayList<>();
+      results.add(verify(file, _options.getObjectKey()));
+      return Futures.allAsList(results);
+    }
+
+    final String prefix = _options.getObjectKey();
+    if(!prefix.endsWith("/") && !prefix.equals(""))
+    {
+      throw new UsageException("Object key should end with a '/': " +
+        getUri(_options.getBucketName(), prefix));
+    }
+    if(!file.isDirectory())
+    {
+      throw new UsageException("'" + file + "' must be a directory");
+    }
+
+    ListOptions listOptions = _client.getOptionsBuilderFactory()
+      .newListOptionsBuilder()
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(prefix)
+      .setRecursive(true)
+      .setIncludeVersions(false)
+      .setExcludeDirs(false)
+      .createOptions();
+    ListenableFuture<List<StoreFile>> listing = _client.listObjects(listOptions);
+    final SortedMap<String, File> localFiles = SyncCommand.listLocalFiles(file);
+
+    return Futures.transform(listing, new AsyncFunction<List<StoreFile>, List<VerifyResult>>()
+    {
+      public ListenableFuture<List<VerifyResult>> apply(List<StoreFile> objects)
+      {
+        TreeSet<String> remoteFiles = new TreeSet<>();
+        for(StoreFile object : objects)
+        {
+          String key = object.getObjectKey();
+          if(!key.endsWith("/") && key.startsWith(prefix) && !PartManifest.isManifestKey(key))
+          {
+            remoteFiles.add(key.substring(prefix.length()));
+          }
+        }
+
+        TreeSet<String> relPaths = new TreeSet<>(localFiles.keySet());
+        relPaths.addAll(remoteFiles);
+        List<ListenableFuture<VerifyResult>> results = new ArrayList<>();
+        for(String relPath : relPaths)
+        {
+          String key = prefix + relPath;
+          File local = localFiles.get(relPath);
+          if(local == null)
+          {
+            results.add(Futures.immediateFuture(
+              new VerifyResult(VerifyResult.Status.MISSING_LOCAL,
+                new File(file, relPath), _options.getBucketName(), key, null, null,
+                "local file does not exist")));
+          }
+          else if(!remoteFiles.contains(relPath))
+          {
+            results.add(Futures.immediateFuture(
+              new VerifyResult(VerifyResult.Status.MISSING_REMOTE, local,
+                _options.getBucketName(), key, null, null, "object does not exist")));
+          }
+          else
+          {
+            results.add(verify(local, key));
+          }
+        }
+        return Futures.allAsList(results);
+      }
+    });
+  }
+
+  private ListenableFuture<VerifyResult> verify(final File file, final String key)
+  {
+    ExistsOptions existsOptions = _client.getOptionsBuilderFactory()
+      .newExistsOptionsBuilder()
+      .setBucketName(_options.getBucketName())
+      .setObjectKey(key)
+      .createOptions();
+    return Futures.transform(_client.exists(existsOptions),
+      new AsyncFunction<Metadata, VerifyResult>()
+      {
+        public ListenableFuture<VerifyResult> apply(Metadata metadata)
+        {
+          return verify(file, key, metadata);
+        }
+      });
+  }
+
+  private ListenableFuture<VerifyResult> verify(
+    final File file, final String key, Metadata metadata)
+  {
+    final String bucket = _options.getBucketName();
+    if(metadata == null)
+    {
+      return Futures.immediateFuture(new VerifyResult(VerifyResult.Status.MISSING_REMOTE,
+        file, bucket, key, null, null, "object does not exist"));
+    }
+
+    final String remoteETag = metadata.getETag();
+    Map<String, String> meta = metadata.getUserMetadata();
+    if(meta.containsKey("s3tool-key-name"))
+    {
+      return Futures.immediateFuture(new VerifyResult(VerifyResult.Status.UNVERIFIABLE, file,
+        bucket, key, null, remoteETag, "object is encrypted"));
+    }
+    if(meta.containsKey("s3tool-compression"))
+    {
+      return Futures.immediateFuture(new VerifyResult(VerifyResult.Status.UNVERIFIABLE, file,
+        bucket, key, null, remoteETag, "object is compressed"));
+    }
+    if(metadata.getContentLength() != file.length())
+    {
+      return Futures.immediateFuture(new VerifyResult(VerifyResult.Status.MISMATCH, file,
+        bucket, key, null, remoteETag, "size " + file.length() + " differs from object size " +
+        metadata.getContentLength()));
+    }
+    if(remoteETag == null)
+    {
+      return Futures.immediateFuture(new VerifyResult(VerifyResult.Status.UNVERIFIABLE, file,
+        bucket, key, null, null, "object has no ETag"));
+    }
+
+    // the parts of concatenated objects do not follow the chunk size
+    String chunkSize = meta.containsKey("s3tool-concatenated") ? null :
+      meta.get("s3tool-chunk-size");
+    ListenableFuture<String> localETag = ETagCalculator.computeETag(file, remoteETag,
+      (chunkSize == null) ? -1 : Long.parseLong(chunkSize), _client.getInternalExecutor());
+    return Futures.transform(localETag, new Function<String, VerifyResult>()
+    {
+      public VerifyResult apply(String localETag)
+      {
+        if(localETag == null)
+        {
+          return new VerifyResult(VerifyResult.Status.UNVERIFIABLE, file, bucket, key, null,
+            remoteETag, "object was uploaded with an unknown chunk size");
+        }
+        if(localETag.equalsIgnoreCase(remoteETag))
+        {
+          return new VerifyResult(VerifyResult.Status.MATCH, file, bucket, key, localETag,
+            remoteETag, null);
+        }
+        return new VerifyResult(VerifyResult.Status.MISMATCH, file, bucket, key, localETag,
+          remoteETag, "ETag " + localETag + " differs from object ETag " + remoteETag);
+      }
+    });
+  }
+}
@@ -0,0 +1,93 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+
+/**
+ * {@code VerifyOptions} contains all the details needed by the verify operation.  The local
+ * {@code _file} is compared with the object {@code _objectKey} of bucket {@code _bucketName},
+ * or if {@code _recursive} is set, the files under the local directory {@code _file} are
+ * compared with the objects under the prefix {@code _objectKey}.
+ * <p>
+ * {@code VerifyOptions} objects are meant to be built by {@code VerifyOptionsBuilder}. This
+ * class provides only public accessor methods.
+ *
+ * @see VerifyOptionsBuilder
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#verify(VerifyOptions)
+ * @see OptionsBuilderFactory#newVerifyOptionsBuilder()
+ */
+public class VerifyOptions
+  extends CommandOptions
+{
+  private final File _file;
+  private final String _bucketName;
+  private final String _objectKey;
+  private final boolean _recursive;
+
+  VerifyOptions(
+    CloudStoreClient cloudStoreClient, File file, String bucketName, String objectKey,
+    boolean recursive)
+  {
+    super(cloudStoreClient);
+    _file = file;
+    _bucketName = bucketName;
+    _objectKey = objectKey;
+    _recursive = recursive;
+  }
+
+  /**
+   * Return the local file, or directory if recursive, to be verified.
+   *
+   * @return local file or directory
+   */
+  public File getFile()
+  {
+    return _file;
+  }
+
+  /**
+   * Return the name of the bucket containing the objects to verify against.
+   *
+   * @return bucket name
+   */
+  public String getBucketName()
+  {
+    return _bucketName;
+  }
+
+  /**
+   * Return the key of the object, or the prefix of the objects if recursive, to verify against.
+   *
+   * @return object key or prefix
+   */
+  public String getObjectKey()
+  {
+    return _objectKey;
+  }
+
+  /**
+   * If set to true, a directory is compared with the objects under a prefix.
+   *
+   * @return recursive flag
+   */
+  public boolean isRecursive()
+  {
+    return _recursive;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+
+/**
+ * {@code VerifyOptionsBuilder} is used to create and set properties for {@code VerifyOptions}
+ * objects that control the behavior of the cloud-store verify command.
+ * <p>
+ * Setting {@code file}, {@code bucketName} and {@code objectKey} is mandatory. All the others
+ * are optional.
+ *
+ * @see VerifyOptions
+ * @see CloudStoreClient#getOptionsBuilderFactory()
+ * @see CloudStoreClient#verify(VerifyOptions)
+ * @see OptionsBuilderFactory#newVerifyOptionsBuilder()
+ */
+public class VerifyOptionsBuilder
+  extends CommandOptionsBuilder
+{
+  private File _file;
+  private String _bucketName;
+  private String _objectKey;
+  private boolean _recursive = false;
+
+  VerifyOptionsBuilder(CloudStoreClient client)
+  {
+    _cloudStoreClient = client;
+  }
+
+  /**
+   * Set the local file, or directory if recursive, to be verified.
+   *
+   * @param file local file or directory
+   * @return this builder
+   */
+  public VerifyOptionsBuilder setFile(File file)
+  {
+    _file = file;
+    return this;
+  }
+
+  /**
+   * Set the name of the bucket containing the objects to verify against.
+   *
+   * @param bucket name of bucket
+   * @return this builder
+   */
+  public VerifyOptionsBuilder setBucketName(String bucket)
+  {
+    _bucketName = bucket;
+    return this;
+  }
+
+  /**
+   * Set the key of the object, or the prefix of the objects if recursive, to verify against.
+   *
+   * @param objectKey object key or prefix
+   * @return this builder
+   */
+  public VerifyOptionsBuilder setObjectKey(String objectKey)
+  {
+    _objectKey = objectKey;
+    return this;
+  }
+
+  /**
+   * If set to true, compare a directory with the objects under a prefix.
+   *
+   * @param recursive true if a directory should be verified
+   * @return this builder
+   */
+  public VerifyOptionsBuilder setRecursive(boolean recursive)
+  {
+    _recursive = recursive;
+    return this;
+  }
+
+  private void validateOptions()
+  {
+    if(_cloudStoreClient == null)
+    {
+      throw new UsageException("CloudStoreClient has to be set");
+    }
+    else if(_file == null)
+    {
+      throw new UsageException("File has to be set");
+    }
+    else if(_bucketName == null)
+    {
+      throw new UsageException("Bucket has to be set");
+    }
+    else if(_objectKey == null)
+    {
+      throw new UsageException("Object key has to be set");
+    }
+  }
+
+  /**
+   * Validate that all required parameters are set and if so return a new {@link VerifyOptions}
+   * object.
+   *
+   * @return immutable options object with values from this builder
+   */
+  @Override
+  public VerifyOptions createOptions()
+  {
+    validateOptions();
+
+    return new VerifyOptions(_cloudStoreClient, _file, _bucketName, _objectKey, _recursive);
+  }
+}
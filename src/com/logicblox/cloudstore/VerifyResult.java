@@ -0,0 +1,140 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import java.io.File;
+
+/**
+ * Outcome of the verification of one local file against one object.
+ *
+ * @see CloudStoreClient#verify(VerifyOptions)
+ */
+public class VerifyResult
+{
+  /**
+   * Outcome of a verification.
+   */
+  public enum Status
+  {
+    /**
+     * The ETag of the local file is the ETag of the object.
+     */
+    MATCH,
+
+    /**
+     * The size or the ETag of the local file differs from the object.
+     */
+    MISMATCH,
+
+    /**
+     * The object exists, but the local file does not.
+     */
+    MISSING_LOCAL,
+
+    /**
+     * The local file exists, but the object does not.
+     */
+    MISSING_REMOTE,
+
+    /**
+     * The ETag of the object cannot be reproduced locally, because the object is encrypted or
+     * was uploaded with an unknown chunk size.
+     */
+    UNVERIFIABLE
+  }
+
+  private final Status _status;
+  private final File _file;
+  private final String _bucketName;
+  private final String _objectKey;
+  private final String _localETag;
+  private final String _remoteETag;
+  private final String _message;
+
+  VerifyResult(
+    Status status, File file, String bucketName, String objectKey, String localETag,
+    String remoteETag, String message)
+  {
+    _status = status;
+    _file = file;
+    _bucketName = bucketName;
+    _objectKey = objectKey;
+    _localETag = localETag;
+    _remoteETag = remoteETag;
+    _message = message;
+  }
+
+  public Status getStatus()
+  {
+    return _status;
+  }
+
+  /**
+   * Return true if the local file matches the object.
+   *
+   * @return true for {@link Status#MATCH}
+   */
+  public boolean isMatch()
+  {
+    return _status == Status.MATCH;
+  }
+
+  public File getFile()
+  {
+    return _file;
+  }
+
+  public String getBucketName()
+  {
+    return _bucketName;
+  }
+
+  public String getObjectKey()
+  {
+    return _objectKey;
+  }
+
+  /**
+   * Return the ETag computed for the local file, or null if it was not computed.
+   *
+   * @return local ETag
+   */
+  public String getLocalETag()
+  {
+    return _localETag;
+  }
+
+  /**
+   * Return the ETag of the object, or null if the object does not exist.
+   *
+   * @return remote ETag
+   */
+  public String getRemoteETag()
+  {
+    return _remoteETag;
+  }
+
+  /**
+   * Return a description of why the file does not match, or null for a match.
+   *
+   * @return reason of a mismatch
+   */
+  public String getMessage()
+  {
+    return _message;
+  }
+}
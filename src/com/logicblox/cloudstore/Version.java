@@ -21,4 +21,24 @@ class Version
   // Version that is used to indicate the format of S3 objects and its
   // annotations. It is not the version of the software.
   public static final int CURRENT = 3;
+
+  // Version of objects whose chunks are compressed, see CompressedChunkIndex.
+  // Unencrypted uncompressed objects keep using CURRENT, so that older
+  // releases can still read them.
+  public static final int COMPRESSED = 4;
+
+  // Version of objects encrypted in authenticated segments, see
+  // SegmentedCipherInputStream. Objects of version CURRENT with a key are
+  // encrypted with AES/CBC per chunk.
+  public static final int SEGMENTED = 5;
+
+  // Versions that this release can read
+  public static final String SUPPORTED = CURRENT + ", " + COMPRESSED + " or " + SEGMENTED;
+
+  public static boolean isSupported(String version)
+  {
+    return String.valueOf(CURRENT).equals(version) ||
+      String.valueOf(COMPRESSED).equals(version) ||
+      String.valueOf(SEGMENTED).equals(version);
+  }
 }
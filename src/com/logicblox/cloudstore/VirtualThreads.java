@@ -0,0 +1,115 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+
+package com.logicblox.cloudstore;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of JDK 21 and later.
+ * <p>
+ * cloud-store is built for Java 8, so the JDK 21 APIs are looked up by reflection.  On older
+ * runtimes {@link #isSupported()} returns false and the other methods throw {@link
+ * UnsupportedOperationException}.
+ */
+class VirtualThreads
+{
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_FACTORY;
+
+  static
+  {
+    Method newExecutor = null;
+    Method ofVirtual = null;
+    Method name = null;
+    Method factory = null;
+    try
+    {
+      newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      // fails on JDK 19 and 20 unless preview features are enabled
+      ofVirtual.invoke(null);
+    }
+    catch(ReflectiveOperationException | RuntimeException ignored)
+    {
+      newExecutor = null;
+    }
+    NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = name;
+    BUILDER_FACTORY = factory;
+  }
+
+  /**
+   * Return true if the runtime supports virtual threads.
+   */
+  static boolean isSupported()
+  {
+    return NEW_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Return a factory for virtual threads named {@code prefix} followed by a counter.
+   */
+  static ThreadFactory newThreadFactory(String prefix)
+  {
+    checkSupported();
+    try
+    {
+      Object builder = OF_VIRTUAL.invoke(null);
+      builder = BUILDER_NAME.invoke(builder, prefix, 0L);
+      return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+    }
+    catch(ReflectiveOperationException e)
+    {
+      throw new UnsupportedOperationException("Cannot create virtual threads", e);
+    }
+  }
+
+  /**
+   * Return an executor that starts a new virtual thread for every task.
+   */
+  static ExecutorService newThreadPerTaskExecutor(String prefix)
+  {
+    ThreadFactory factory = newThreadFactory(prefix);
+    try
+    {
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    }
+    catch(ReflectiveOperationException e)
+    {
+      throw new UnsupportedOperationException("Cannot create virtual threads", e);
+    }
+  }
+
+  private static void checkSupported()
+  {
+    if(!isSupported())
+    {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later, " +
+        "this is Java " + System.getProperty("java.version"));
+    }
+  }
+}
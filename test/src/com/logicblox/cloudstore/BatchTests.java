@@ -0,0 +1,264 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testManifest()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("batch");
+    File toUpload = TestUtils.createTextFile(1000);
+    File downloaded = new File(TestUtils.createTmpDir(), "downloaded");
+    URI a = TestUtils.getUri(_testBucket, "a", rootPrefix);
+    URI b = TestUtils.getUri(_testBucket, "b", rootPrefix);
+    URI c = TestUtils.getUri(_testBucket, "c", rootPrefix);
+    URI missing = TestUtils.getUri(_testBucket, "missing", rootPrefix);
+
+    String manifest = "# operations run one at a time, in this order\n" +
+      "upload " + a + " -i " + toUpload.getAbsolutePath() + "\n" +
+      "\n" +
+      "download " + a + " -o " + downloaded.getAbsolutePath() + "\n" +
+      "copy " + a + " " + b + "\n" +
+      "exists " + b + "\n" +
+      "exists " + missing + "\n" +
+      "rename " + b + " " + c + "\n" +
+      "delete " + c + "\n";
+    BatchManifest parsed = BatchManifest.parse(new StringReader(manifest), new Main());
+    Assert.assertEquals(7, parsed.getOperations().size());
+    Assert.assertEquals(2, parsed.getOperations().get(0)._line);
+
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    List<BatchManifest.Result> results = parsed.run(_client, 1, false,
+      new PrintStream(report, true, "UTF-8"));
+
+    boolean[] expected = {true, true, true, true, false, true, true};
+    Assert.assertEquals(expected.length, results.size());
+    for(int i = 0; i < expected.length; ++i)
+    {
+      Assert.assertEquals(results.get(i).toString(), expected[i], results.get(i).isSuccess());
+    }
+    Assert.assertTrue(results.get(4).toString().contains("does not exist"));
+
+    String text = new String(report.toByteArray(), StandardCharsets.UTF_8);
+    Assert.assertTrue(text, text.contains("7 operations: 6 succeeded, 1 failed, 0 skipped"));
+
+    Assert.assertTrue(TestUtils.compareFiles(toUpload, downloaded));
+    Assert.assertNotNull(TestUtils.objectExists(_testBucket, Utils.getObjectKey(a)));
+    Assert.assertNull(TestUtils.objectExists(_testBucket, Utils.getObjectKey(b)));
+    Assert.assertNull(TestUtils.objectExists(_testBucket, Utils.getObjectKey(c)));
+  }
+
+
+  @Test
+  public void testFailFast()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("batch-fail-fast");
+    URI missing = TestUtils.getUri(_testBucket, "missing", rootPrefix);
+    URI other = TestUtils.getUri(_testBucket, "other", rootPrefix);
+
+    String manifest = "exists " + missing + "\n" + "delete " + other + "\n";
+    BatchManifest parsed = BatchManifest.parse(new StringReader(manifest), new Main());
+    List<BatchManifest.Result> results = parsed.run(_client, 1, true,
+      new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+
+    Assert.assertFalse(results.get(0).isSuccess());
+    Assert.assertNull(results.get(1));
+  }
+
+
+  @Test
+  public void testStdinManifestThroughDaemon()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("batch-daemon");
+    File toUpload = TestUtils.createTextFile(1000);
+    URI a = TestUtils.getUri(_testBucket, "a", rootPrefix);
+    byte[] manifest = ("upload " + a + " -i " + toUpload.getAbsolutePath() + "\n" +
+      "exists " + a + "\n").getBytes(StandardCharsets.UTF_8);
+
+    final File stateFile = new File(TestUtils.createTmpDir(), "daemon");
+    final CloudStoreDaemon daemon = new CloudStoreDaemon(new ClientResources(4), stateFile, 0, 1);
+    Thread thread = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          daemon.run();
+        }
+        catch(Exception exc)
+        {
+          exc.printStackTrace();
+        }
+      }
+    };
+    thread.start();
+    while(stateFile.length() == 0)
+    {
+      Thread.sleep(10);
+    }
+    String[] state;
+    try(BufferedReader reader = new BufferedReader(
+      new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8)))
+    {
+      state = reader.readLine().split(" ");
+    }
+
+    List<String> args = new ArrayList<String>();
+    args.add("batch");
+    args.add("--max-concurrent-operations");
+    args.add("1");
+    if(TestUtils.getEndpointString() != null)
+    {
+      args.add("--endpoint");
+      args.add(TestUtils.getEndpointString());
+    }
+
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    int status;
+    int stdinRequests = 0;
+    try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(state[0])))
+    {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      out.writeInt(CloudStoreDaemon.PROTOCOL_VERSION);
+      writeString(out, state[1]);
+      writeString(out, new File(".").getAbsolutePath());
+      out.writeInt(args.size());
+      for(String arg : args)
+      {
+        writeString(out, arg);
+      }
+      out.flush();
+
+      // hand out the manifest in small pieces, as a pipe would
+      int sent = 0;
+      while(true)
+      {
+        byte channel = in.readByte();
+        int length = in.readInt();
+        if(channel == CloudStoreDaemon.EXIT)
+        {
+          status = length;
+          break;
+        }
+        if(channel == CloudStoreDaemon.STDIN)
+        {
+          ++stdinRequests;
+          int n = Math.min(Math.min(length, 16), manifest.length - sent);
+          out.writeInt(n);
+          out.write(manifest, sent, n);
+          out.flush();
+          sent += n;
+          continue;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        if(channel == CloudStoreDaemon.STDOUT)
+        {
+          stdout.write(data);
+        }
+      }
+    }
+    thread.join();
+
+    String text = new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+    Assert.assertEquals(text, 0, status);
+    Assert.assertTrue(text, text.contains("2 operations: 2 succeeded, 0 failed, 0 skipped"));
+    Assert.assertTrue(stdinRequests > manifest.length / 16);
+    Assert.assertNotNull(TestUtils.objectExists(_testBucket, Utils.getObjectKey(a)));
+  }
+
+
+  private static void writeString(DataOutputStream out, String s)
+    throws Throwable
+  {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+
+  @Test
+  public void testInvalidLines()
+    throws Throwable
+  {
+    URI a = TestUtils.getUri(_testBucket, "a", "batch-invalid");
+    String[] invalid = {"list " + a, "exists", "exists " + a + " --endpoint http://localhost/",
+      "upload " + a, "copy " + a};
+    for(String line : invalid)
+    {
+      try
+      {
+        BatchManifest.parse(new StringReader("\n" + line + "\n"), new Main());
+        Assert.fail("Expected a usage error for '" + line + "'");
+      }
+      catch(UsageException exc)
+      {
+        Assert.assertTrue(exc.getMessage(), exc.getMessage().startsWith("Line 2 of manifest"));
+      }
+    }
+  }
+}
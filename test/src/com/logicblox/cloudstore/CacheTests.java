@@ -0,0 +1,286 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CacheTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+  private File _cacheDir;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Before
+  public void createCacheDir()
+    throws Throwable
+  {
+    _cacheDir = TestUtils.createTmpDir(true);
+  }
+
+
+  @Test
+  public void testHitAndChangedObject()
+    throws Throwable
+  {
+    CachingCloudStoreClient client = createClient(false, 0);
+    File file = TestUtils.createTextFile(100000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("cache-hit"));
+    TestUtils.uploadFile(file, uri);
+
+    File first = download(client, uri);
+    Assert.assertTrue(TestUtils.compareFiles(file, first));
+    Assert.assertEquals(file.length(), client.getCachedBytes());
+
+    long before = _client.getMetrics().getBytesDownloaded();
+    File second = download(client, uri);
+    Assert.assertEquals(before, _client.getMetrics().getBytesDownloaded());
+    Assert.assertTrue(TestUtils.compareFiles(file, second));
+
+    // a new ETag misses, and the old file stays until it is evicted
+    File changed = TestUtils.createTextFile(100001);
+    TestUtils.uploadFile(changed, uri);
+    File third = download(client, uri);
+    Assert.assertTrue(TestUtils.compareFiles(changed, third));
+    Assert.assertEquals(file.length() + changed.length(), client.getCachedBytes());
+
+    // a second client on the same directory picks up the cached files
+    CachingCloudStoreClient reopened = createClient(false, 0);
+    Assert.assertEquals(client.getCachedBytes(), reopened.getCachedBytes());
+    before = _client.getMetrics().getBytesDownloaded();
+    Assert.assertTrue(TestUtils.compareFiles(changed, download(reopened, uri)));
+    Assert.assertEquals(before, _client.getMetrics().getBytesDownloaded());
+  }
+
+
+  @Test
+  public void testHardLinksAndTtl()
+    throws Throwable
+  {
+    CachingCloudStoreClient client = createClient(true, 3600);
+    File file = TestUtils.createTextFile(1000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("cache-ttl"));
+    TestUtils.uploadFile(file, uri);
+
+    download(client, uri);
+    File linked = download(client, uri);
+    Assert.assertTrue(TestUtils.compareFiles(file, linked));
+    Assert.assertEquals(2, Files.getAttribute(linked.toPath(), "unix:nlink"));
+
+    // within the TTL the old ETag is trusted, so the cached file is served
+    File changed = TestUtils.createTextFile(1000);
+    TestUtils.uploadFile(changed, uri);
+    Assert.assertTrue(TestUtils.compareFiles(file, download(client, uri)));
+  }
+
+
+  @Test
+  public void testReplacedAfterValidation()
+    throws Throwable
+  {
+    CachingCloudStoreClient client = createClient(false, 3600);
+    File file = TestUtils.createTextFile(1000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("cache-replaced"));
+    TestUtils.uploadFile(file, uri);
+
+    // validate the ETag of the first object without caching it
+    DownloadOptions opts = client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(TestUtils.createTmpFile())
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .createOptions();
+    try
+    {
+      client.download(opts).get();
+      Assert.fail("expected exception");
+    }
+    catch(Exception ex)
+    {
+      // expected, the file exists
+    }
+    Assert.assertEquals(0, client.getCachedBytes());
+
+    // the download gets the replacement, which is cached under its own ETag
+    File changed = TestUtils.createTextFile(1000);
+    TestUtils.uploadFile(changed, uri);
+    Assert.assertTrue(TestUtils.compareFiles(changed, download(client, uri)));
+    TestUtils.uploadFile(file, uri);
+    Assert.assertTrue(TestUtils.compareFiles(file, download(createClient(false, 0), uri)));
+  }
+
+
+  @Test
+  public void testEviction()
+    throws Throwable
+  {
+    CachingCloudStoreClient client = new CachingClientBuilder()
+      .setClient(_client)
+      .setDirectory(_cacheDir)
+      .setMaxBytes(2500)
+      .createCachingClient();
+    String prefix = TestUtils.addPrefix("cache-evict");
+    File a = TestUtils.createTextFile(1000);
+    File b = TestUtils.createTextFile(1000);
+    File c = TestUtils.createTextFile(1000);
+    File big = TestUtils.createTextFile(3000);
+    URI uriA = TestUtils.getUri(_testBucket, a, prefix);
+    URI uriB = TestUtils.getUri(_testBucket, b, prefix);
+    URI uriC = TestUtils.getUri(_testBucket, c, prefix);
+    URI uriBig = TestUtils.getUri(_testBucket, big, prefix);
+    TestUtils.uploadFile(a, uriA);
+    TestUtils.uploadFile(b, uriB);
+    TestUtils.uploadFile(c, uriC);
+    TestUtils.uploadFile(big, uriBig);
+
+    download(client, uriA);
+    download(client, uriB);
+    // a is now the most recently used
+    download(client, uriA);
+    download(client, uriC);
+    Assert.assertEquals(2000, client.getCachedBytes());
+    Assert.assertEquals(2, _cacheDir.list().length);
+
+    long before = _client.getMetrics().getBytesDownloaded();
+    download(client, uriA);
+    download(client, uriC);
+    Assert.assertEquals(before, _client.getMetrics().getBytesDownloaded());
+    download(client, uriB);
+    Assert.assertEquals(before + 1000, _client.getMetrics().getBytesDownloaded());
+
+    // larger than the quota
+    Assert.assertTrue(TestUtils.compareFiles(big, download(client, uriBig)));
+    Assert.assertEquals(2000, client.getCachedBytes());
+  }
+
+
+  @Test
+  public void testStaleTempFilesRemoved()
+    throws Throwable
+  {
+    // another process may still be admitting a file through a young temporary file
+    File young = new File(_cacheDir, "admit1.tmp");
+    File stale = new File(_cacheDir, "admit2.tmp");
+    Files.write(young.toPath(), new byte[10]);
+    Files.write(stale.toPath(), new byte[10]);
+    stale.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+
+    CachingCloudStoreClient client = createClient(false, 0);
+    Assert.assertTrue(young.exists());
+    Assert.assertFalse(stale.exists());
+    Assert.assertEquals(0, client.getCachedBytes());
+  }
+
+
+  @Test
+  public void testEncryptedNotCached()
+    throws Throwable
+  {
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+
+    CachingCloudStoreClient client = createClient(false, 0);
+    File file = TestUtils.createTextFile(1000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("cache-encrypted"));
+    TestUtils.uploadEncryptedFile(file, uri, keyName);
+    Assert.assertTrue(TestUtils.compareFiles(file, download(client, uri)));
+    Assert.assertEquals(0, client.getCachedBytes());
+  }
+
+
+  @Test
+  public void testRecursiveDownload()
+    throws Throwable
+  {
+    CachingCloudStoreClient client = createClient(false, 0);
+    File top = TestUtils.createTmpDir(true);
+    TestUtils.createTextFile(top, 100);
+    TestUtils.createTextFile(top, 200);
+    URI uri = TestUtils.getUri(_testBucket, top, TestUtils.addPrefix("cache-recursive"));
+    TestUtils.uploadDir(top, uri);
+
+    DownloadOptions opts = client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(TestUtils.createTmpDir(true))
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .createOptions();
+    List<StoreFile> files = client.downloadRecursively(opts).get();
+    Assert.assertEquals(2, files.size());
+    Assert.assertEquals(300, client.getCachedBytes());
+  }
+
+
+  private CachingCloudStoreClient createClient(boolean hardLinks, long ttl)
+    throws Throwable
+  {
+    return new CachingClientBuilder()
+      .setClient(_client)
+      .setDirectory(_cacheDir)
+      .setHardLinks(hardLinks)
+      .setTtl(ttl, TimeUnit.SECONDS)
+      .createCachingClient();
+  }
+
+
+  private File download(CloudStoreClient client, URI uri)
+    throws Throwable
+  {
+    File dest = TestUtils.createTmpFile();
+    DownloadOptions opts = client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(dest)
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setOverwrite(true)
+      .createOptions();
+    return client.download(opts).get().getLocalFile();
+  }
+
+}
@@ -0,0 +1,240 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class ConcatTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testConcat()
+    throws Throwable
+  {
+    int mb = 1024 * 1024;
+    String rootPrefix = TestUtils.addPrefix("concat");
+    List<File> files = Arrays.asList(TestUtils.createTextFile(6 * mb),
+      TestUtils.createTextFile(1000), TestUtils.createTextFile(6 * mb),
+      TestUtils.createTextFile(2 * mb));
+    List<String> keys = uploadAll(files, rootPrefix);
+    URI dest = TestUtils.getUri(_testBucket, "concatenated", rootPrefix);
+
+    Map<String, Long> before = _client.getMetrics().getRequestCounts();
+    StoreFile f = concat(keys, dest);
+    Assert.assertEquals(Utils.getObjectKey(dest), f.getObjectKey());
+    if(TestUtils.supportsMultiPart())
+    {
+      // the small source is uploaded together with the next one, the others are copied
+      Assert.assertEquals(2, TestUtils.getRequestCount(before, ClientMetrics.COPY_PART));
+      Assert.assertEquals(1, TestUtils.getRequestCount(before, ClientMetrics.UPLOAD_PART));
+      Assert.assertTrue(f.getETag().endsWith("-3"));
+    }
+
+    File dlTemp = TestUtils.createTmpFile();
+    TestUtils.downloadFile(dest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(concatLocally(files), dlTemp));
+    Assert.assertEquals(Long.valueOf(dlTemp.length()), f.getSize().get());
+  }
+
+
+
+  @Test
+  public void testConcatLostInitiateResponse()
+    throws Throwable
+  {
+    FakeS3Server server = TestUtils.getEmbeddedServer();
+    Assume.assumeTrue(server != null && TestUtils.supportsMultiPart());
+
+    String rootPrefix = TestUtils.addPrefix("concat-lost-initiate");
+    List<File> files = Arrays.asList(TestUtils.createTextFile(1000),
+      TestUtils.createTextFile(2000));
+    List<String> keys = uploadAll(files, rootPrefix);
+    URI dest = TestUtils.getUri(_testBucket, "concatenated", rootPrefix);
+
+    // another writer's upload to the same key is never aborted by the concatenation
+    FakeS3Storage.PendingUpload other = new FakeS3Storage.PendingUpload();
+    other.id = server.getStorage().newUploadId();
+    other.key = Utils.getObjectKey(dest);
+    other.metadata = new HashMap<>();
+    server.getStorage().getBucket(_testBucket).uploads.put(other.id, other);
+
+    // the retried initiation still concatenates the objects
+    server.loseResponses(ClientMetrics.INITIATE, 1);
+    concat(keys, dest);
+    Assert.assertTrue(
+      server.getStorage().getBucket(_testBucket).uploads.containsKey(other.id));
+
+    File dlTemp = TestUtils.createTmpFile();
+    TestUtils.downloadFile(dest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(concatLocally(files), dlTemp));
+  }
+
+
+  @Test
+  public void testConcatSmallObjects()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("concat-small");
+    List<File> files = Arrays.asList(TestUtils.createTextFile(100), TestUtils.createTextFile(0),
+      TestUtils.createTextFile(300));
+    List<String> keys = uploadAll(files, rootPrefix);
+    URI dest = TestUtils.getUri(_testBucket, "concatenated", rootPrefix);
+    concat(keys, dest);
+
+    File dlTemp = TestUtils.createTmpFile();
+    TestUtils.downloadFile(dest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(concatLocally(files), dlTemp));
+  }
+
+
+  @Test
+  public void testConcatMissingSource()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("concat-missing");
+    List<String> keys = uploadAll(Arrays.asList(TestUtils.createTextFile(100)), rootPrefix);
+    keys.add(Utils.getObjectKey(TestUtils.getUri(_testBucket, "missing", rootPrefix)));
+    URI dest = TestUtils.getUri(_testBucket, "concatenated", rootPrefix);
+    try
+    {
+      concat(keys, dest);
+      Assert.fail("Exception expected");
+    }
+    catch(ExecutionException exc)
+    {
+      Assert.assertTrue(exc.getCause() instanceof UsageException);
+      Assert.assertTrue(exc.getCause().getMessage().contains("not found"));
+    }
+    Assert.assertNull(TestUtils.objectExists(_testBucket, Utils.getObjectKey(dest)));
+  }
+
+
+  @Test
+  public void testPlanParts()
+  {
+    long min = S3ConcatCommand.MIN_PART_SIZE;
+    long max = S3ConcatCommand.MAX_PART_SIZE;
+    List<S3ConcatCommand.Part> parts = S3ConcatCommand.planParts(
+      Arrays.asList(2 * max + 1, 10L, 3 * min, 10L), min, max);
+
+    // the large source is split in three, the small sources are merged with the bytes of the
+    // next source needed to reach the minimum size, and the tail is copied
+    Assert.assertEquals(6, parts.size());
+    long total = 0;
+    for(int i = 0; i < parts.size(); ++i)
+    {
+      S3ConcatCommand.Part part = parts.get(i);
+      Assert.assertTrue(part.getLength() <= max);
+      if(i < parts.size() - 1)
+      {
+        Assert.assertTrue(part.getLength() >= min);
+      }
+      total += part.getLength();
+    }
+    Assert.assertEquals(2 * max + 1 + 10 + 3 * min + 10, total);
+    Assert.assertFalse(parts.get(3).isCopy());
+    Assert.assertEquals(2, parts.get(3).getSegments().size());
+    Assert.assertTrue(parts.get(4).isCopy());
+    Assert.assertTrue(parts.get(5).isCopy());
+
+    parts = S3ConcatCommand.planParts(Arrays.asList(0L, 0L), min, max);
+    Assert.assertEquals(1, parts.size());
+    Assert.assertEquals(0, parts.get(0).getLength());
+  }
+
+
+  private List<String> uploadAll(List<File> files, String rootPrefix)
+    throws Throwable
+  {
+    List<String> keys = new ArrayList<>();
+    for(File file : files)
+    {
+      URI uri = TestUtils.getUri(_testBucket, file, rootPrefix);
+      TestUtils.uploadFile(file, uri);
+      keys.add(Utils.getObjectKey(uri));
+    }
+    return keys;
+  }
+
+
+  private StoreFile concat(List<String> keys, URI dest)
+    throws Throwable
+  {
+    ConcatOptions opts = _client.getOptionsBuilderFactory()
+      .newConcatOptionsBuilder()
+      .setSourceBucketName(_testBucket)
+      .setSourceObjectKeys(keys)
+      .setDestinationBucketName(Utils.getBucketName(dest))
+      .setDestinationObjectKey(Utils.getObjectKey(dest))
+      .createOptions();
+    return _client.concat(opts).get();
+  }
+
+
+  private File concatLocally(List<File> files)
+    throws Throwable
+  {
+    File result = TestUtils.createTmpFile();
+    try(OutputStream out = new FileOutputStream(result))
+    {
+      for(File file : files)
+      {
+        Files.copy(file.toPath(), out);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,424 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+public class DedupTests
+{
+  private static final int AVERAGE_CHUNK_SIZE = 4096;
+
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testChunkBoundariesFollowContent()
+    throws Throwable
+  {
+    byte[] data = new byte[200000];
+    new Random(1).nextBytes(data);
+    byte[] edited = new byte[data.length + 10];
+    System.arraycopy(data, 0, edited, 0, 100000);
+    System.arraycopy(data, 100000, edited, 100010, data.length - 100000);
+
+    ContentChunker chunker = new ContentChunker(AVERAGE_CHUNK_SIZE);
+    List<String> before = split(chunker, data);
+    List<String> after = split(chunker, edited);
+    Assert.assertTrue(before.size() > 10);
+
+    // only the chunks around the insertion change
+    Set<String> common = new HashSet<>(before);
+    common.retainAll(after);
+    Assert.assertTrue(common.size() >= before.size() - 2);
+    Assert.assertTrue(after.size() - common.size() <= 2);
+  }
+
+
+  @Test
+  public void testChunksIndependentOfLengthHint()
+    throws Throwable
+  {
+    byte[] data = new byte[100000];
+    new Random(7).nextBytes(data);
+    ContentChunker chunker = new ContentChunker(AVERAGE_CHUNK_SIZE);
+    List<String> expected = split(chunker, data, data.length);
+
+    // a file that grows while it is split has more data than its length said
+    Assert.assertEquals(expected, split(chunker, data, 10));
+    Assert.assertEquals(expected, split(chunker, data, 0));
+    Assert.assertEquals(expected, split(chunker, data, Long.MAX_VALUE));
+  }
+
+
+  @Test
+  public void testStoreAndRestoreSnapshots()
+    throws Throwable
+  {
+    File dir = TestUtils.createTmpDir(true);
+    File a = createRandomFile(dir, "a.bin", 100000, 1);
+    createRandomFile(dir, "b.bin", 50000, 2);
+    createRandomFile(dir, "empty.bin", 0, 3);
+    File sub = new File(dir, "sub");
+    sub.mkdir();
+    createRandomFile(sub, "c.bin", 30000, 4);
+
+    DedupStore store = createStore(TestUtils.addPrefix("dedup-chunks/"),
+      TestUtils.createTmpDir(true));
+    String first = TestUtils.addPrefix("dedup-snapshot-1/");
+    List<StoreFile> manifests = store.uploadRecursively(uploadOptions(dir, first, null)).get();
+    Assert.assertEquals(4, manifests.size());
+    Assert.assertEquals(180000, store.getUploadedBytes());
+    Assert.assertEquals(0, store.getDeduplicatedBytes());
+    assertRestored(store, dir, first);
+
+    // insert a few bytes in the middle of one file and store the tree again
+    byte[] data = Files.readAllBytes(a.toPath());
+    try(FileOutputStream out = new FileOutputStream(a))
+    {
+      out.write(data, 0, 50000);
+      out.write(new byte[]{1, 2, 3, 4, 5});
+      out.write(data, 50000, data.length - 50000);
+    }
+    String second = TestUtils.addPrefix("dedup-snapshot-2/");
+    store.uploadRecursively(uploadOptions(dir, second, null)).get();
+    long uploaded = store.getUploadedBytes() - 180000;
+    Assert.assertTrue(uploaded > 0);
+    Assert.assertTrue(uploaded < 4 * 4 * AVERAGE_CHUNK_SIZE);
+    Assert.assertEquals(180005 - uploaded, store.getDeduplicatedBytes());
+    assertRestored(store, dir, second);
+    store.close();
+  }
+
+
+  @Test
+  public void testChunksFoundWithoutLocalIndex()
+    throws Throwable
+  {
+    File dir = TestUtils.createTmpDir(true);
+    createRandomFile(dir, "a.bin", 60000, 5);
+    createRandomFile(dir, "b.bin", 60000, 5);
+    String chunkPrefix = TestUtils.addPrefix("dedup-listed-chunks/");
+    File indexDir = TestUtils.createTmpDir(true);
+
+    // identical files share all their chunks
+    DedupStore store = createStore(chunkPrefix, indexDir);
+    store.uploadRecursively(
+      uploadOptions(dir, TestUtils.addPrefix("dedup-listed-1/"), null)).get();
+    store.close();
+    Assert.assertEquals(60000, store.getUploadedBytes());
+    Assert.assertEquals(60000, store.getDeduplicatedBytes());
+
+    // a store with an empty index finds the chunks by listing them
+    DedupStore listing = createStore(chunkPrefix, TestUtils.createTmpDir(true));
+    listing.uploadRecursively(
+      uploadOptions(dir, TestUtils.addPrefix("dedup-listed-2/"), null)).get();
+    listing.close();
+    Assert.assertEquals(0, listing.getUploadedBytes());
+
+    // a store with the index of the first one knows them already
+    DedupStore indexed = createStore(chunkPrefix, indexDir);
+    indexed.uploadRecursively(
+      uploadOptions(dir, TestUtils.addPrefix("dedup-listed-3/"), null)).get();
+    indexed.close();
+    Assert.assertEquals(0, indexed.getUploadedBytes());
+    Assert.assertEquals(120000, indexed.getDeduplicatedBytes());
+  }
+
+
+  @Test
+  public void testEncryptedSnapshot()
+    throws Throwable
+  {
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+
+    File dir = TestUtils.createTmpDir(true);
+    createRandomFile(dir, "a.bin", 40000, 6);
+    String chunkPrefix = TestUtils.addPrefix("dedup-encrypted-chunks/");
+    DedupStore store = createStore(chunkPrefix, TestUtils.createTmpDir(true));
+    store.uploadRecursively(
+      uploadOptions(dir, TestUtils.addPrefix("dedup-plain/"), null)).get();
+
+    // encrypted chunks are not shared with chunks that are not encrypted
+    String snapshot = TestUtils.addPrefix("dedup-encrypted/");
+    store.uploadRecursively(uploadOptions(dir, snapshot, keyName)).get();
+    Assert.assertEquals(80000, store.getUploadedBytes());
+
+    // encrypted chunks are not named after the hash of their content
+    Set<String> plainNames = getChunkNames(chunkPrefix + "plain/");
+    Set<String> keyedNames = getChunkNames(chunkPrefix + "key-" + keyName + "/");
+    Assert.assertFalse(keyedNames.isEmpty());
+    Assert.assertEquals(plainNames.size(), keyedNames.size());
+    keyedNames.retainAll(plainNames);
+    Assert.assertTrue(keyedNames.isEmpty());
+
+    // and neither is the manifest readable without the key
+    Metadata meta = TestUtils.objectExists(_testBucket,
+      ChunkManifest.getManifestKey(snapshot + "a.bin"));
+    Assert.assertEquals(keyName, meta.getUserMetadata().get("s3tool-key-name"));
+    assertRestored(store, dir, snapshot);
+    store.close();
+  }
+
+
+  @Test
+  public void testRestoreChecksChunks()
+    throws Throwable
+  {
+    File dir = TestUtils.createTmpDir(true);
+    createRandomFile(dir, "a.bin", 30000, 8);
+    String chunkPrefix = TestUtils.addPrefix("dedup-tampered-chunks/");
+    DedupStore store = createStore(chunkPrefix, TestUtils.createTmpDir(true));
+    String snapshot = TestUtils.addPrefix("dedup-tampered/");
+    store.uploadRecursively(uploadOptions(dir, snapshot, null)).get();
+    store.close();
+
+    StoreFile chunk = TestUtils.listObjects(_testBucket, chunkPrefix + "plain/").get(0);
+    int length = (int) (long) chunk.getSize().get();
+    URI chunkUri = new URI(
+      TestUtils.getService() + "://" + _testBucket + "/" + chunk.getObjectKey());
+    File tmp = TestUtils.createTmpDir(true);
+
+    // a truncated chunk
+    TestUtils.uploadFile(createRandomFile(tmp, "short", length - 1, 9), chunkUri);
+    assertRestoreFails(store, snapshot, "bytes instead of");
+
+    // a chunk with other content of the same length
+    TestUtils.uploadFile(createRandomFile(tmp, "other", length, 10), chunkUri);
+    assertRestoreFails(store, snapshot, "does not match its hash");
+  }
+
+
+  @Test
+  public void testInvalidOptions()
+    throws Throwable
+  {
+    try
+    {
+      new DedupStoreBuilder()
+        .setClient(_client)
+        .setBucketName(_testBucket)
+        .setIndexDirectory(TestUtils.createTmpDir(true))
+        .setAverageChunkSize(5000)
+        .createDedupStore();
+      Assert.fail("expected exception");
+    }
+    catch(UsageException exc)
+    {
+      // expected
+    }
+
+    DedupStore store = createStore(TestUtils.addPrefix("dedup-invalid-chunks/"),
+      TestUtils.createTmpDir(true));
+    try
+    {
+      store.uploadRecursively(uploadOptions(TestUtils.createTextFile(10),
+        TestUtils.addPrefix("dedup-invalid/"), null));
+      Assert.fail("expected exception");
+    }
+    catch(UsageException exc)
+    {
+      // expected
+    }
+  }
+
+
+  private DedupStore createStore(String chunkPrefix, File indexDir)
+  {
+    return new DedupStoreBuilder()
+      .setClient(_client)
+      .setBucketName(_testBucket)
+      .setChunkPrefix(chunkPrefix)
+      .setIndexDirectory(indexDir)
+      .setAverageChunkSize(AVERAGE_CHUNK_SIZE)
+      .createDedupStore();
+  }
+
+
+  private UploadOptions uploadOptions(File dir, String prefix, String keyName)
+  {
+    UploadOptionsBuilder builder = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(dir)
+      .setBucketName(_testBucket)
+      .setObjectKey(prefix);
+    if(keyName != null)
+    {
+      builder.setEncKey(keyName);
+    }
+    return builder.createOptions();
+  }
+
+
+  private DownloadOptions downloadOptions(File dir, String prefix)
+  {
+    return _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(dir)
+      .setBucketName(_testBucket)
+      .setObjectKey(prefix)
+      .createOptions();
+  }
+
+
+  private void assertRestored(DedupStore store, File dir, String prefix)
+    throws Throwable
+  {
+    File restoreDir = TestUtils.createTmpDir(true);
+    List<File> restored = store.downloadRecursively(downloadOptions(restoreDir, prefix)).get();
+    Assert.assertEquals(countFiles(dir), restored.size());
+    assertSameTree(dir, restoreDir);
+  }
+
+
+  private void assertRestoreFails(DedupStore store, String prefix, String message)
+    throws Throwable
+  {
+    File restoreDir = TestUtils.createTmpDir(true);
+    try
+    {
+      store.downloadRecursively(downloadOptions(restoreDir, prefix)).get();
+      Assert.fail("expected exception");
+    }
+    catch(ExecutionException exc)
+    {
+      Assert.assertTrue(exc.getCause() instanceof IOException);
+      Assert.assertTrue(exc.getCause().getMessage().contains(message));
+    }
+    Assert.assertEquals(0, countFiles(restoreDir));
+  }
+
+
+  private static Set<String> getChunkNames(String namespace)
+    throws Throwable
+  {
+    Set<String> names = new HashSet<>();
+    for(StoreFile f : TestUtils.listObjects(_testBucket, namespace))
+    {
+      names.add(f.getObjectKey().substring(f.getObjectKey().lastIndexOf('/') + 1));
+    }
+    return names;
+  }
+
+
+  private static int countFiles(File dir)
+  {
+    int count = 0;
+    for(File f : dir.listFiles())
+    {
+      count += f.isDirectory() ? countFiles(f) : 1;
+    }
+    return count;
+  }
+
+
+  private static void assertSameTree(File expected, File actual)
+    throws IOException
+  {
+    for(File f : expected.listFiles())
+    {
+      File other = new File(actual, f.getName());
+      Assert.assertTrue(other.exists());
+      if(f.isDirectory())
+      {
+        assertSameTree(f, other);
+      }
+      else
+      {
+        Assert.assertTrue(TestUtils.compareFiles(f, other));
+      }
+    }
+  }
+
+
+  private static File createRandomFile(File dir, String name, int size, long seed)
+    throws IOException
+  {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    File f = new File(dir, name);
+    try(FileOutputStream out = new FileOutputStream(f))
+    {
+      out.write(data);
+    }
+    return f;
+  }
+
+
+  private static List<String> split(ContentChunker chunker, byte[] data)
+    throws IOException
+  {
+    return split(chunker, data, data.length);
+  }
+
+
+  private static List<String> split(final ContentChunker chunker, byte[] data, long length)
+    throws IOException
+  {
+    final List<String> hashes = new ArrayList<>();
+    chunker.split(new ByteArrayInputStream(data), length, new ContentChunker.Handler()
+    {
+      public void chunk(byte[] buf, int length, long offset)
+      {
+        Assert.assertTrue(length <= chunker.getMaxSize());
+        hashes.add(DigestUtils.sha256Hex(Arrays.copyOf(buf, length)));
+      }
+    });
+    return hashes;
+  }
+}
@@ -0,0 +1,2149 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP server that implements the subset of the S3 REST API used by cloud-store, so
+ * that the full transfer pipeline can be tested and benchmarked without Minio or a real
+ * storage service.
+ * <p>
+ * Supported are buckets, HEAD and (ranged) GET of objects, PUT, copy, multipart uploads
+ * (initiate, upload part, copy part, complete, abort, list parts and list uploads), ListObjects
+ * V1 and V2 with delimiters and continuation, ListVersions, single and multi-object delete, and
+ * object ACLs.  Requests are not authenticated and only path-style addressing is supported,
+ * which is what the AWS SDK uses for an IP address endpoint.
+ * <p>
+ * To model a remote service, every request can be delayed by a fixed latency, request and
+ * response bodies can be throttled to a bandwidth per connection, and a fraction of the
+ * requests can fail with a retriable 500 InternalError, either for all request types or for
+ * specific ones (using the request type names of {@link ClientMetrics}).  Errors are drawn
+ * from a seeded random generator so that runs are reproducible.  Finally, the next requests of
+ * a type can lose their response: they are processed, but the connection is closed before the
+ * response is sent.
+ */
+public class FakeS3Server
+{
+  private static final String XMLNS = "http://s3.amazonaws.com/doc/2006-03-01/";
+  private static final long DEFAULT_MINIMUM_PART_SIZE = 5 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 65536;
+
+  private final FakeS3Storage _storage;
+  private final Map<String, Double> _errorRates = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> _lostResponses = new ConcurrentHashMap<>();
+  private final AtomicLong _requestCount = new AtomicLong();
+  private final AtomicLong _injectedErrorCount = new AtomicLong();
+
+  private volatile long _latencyMillis = 0;
+  private volatile long _bytesPerSecond = 0;
+  private volatile double _errorRate = 0;
+  private volatile long _minimumPartSize = DEFAULT_MINIMUM_PART_SIZE;
+  private Random _random = new Random(0);
+
+  private ServerSocket _serverSocket;
+  private ExecutorService _executor;
+  private final Set<Socket> _connections = Collections.newSetFromMap(
+    new ConcurrentHashMap<Socket, Boolean>());
+
+  /**
+   * Create a server that keeps all data in memory.
+   */
+  public FakeS3Server()
+  {
+    this(new FakeS3Storage());
+  }
+
+  public FakeS3Server(FakeS3Storage storage)
+  {
+    _storage = storage;
+  }
+
+  /**
+   * Start the server on a free port of the loopback interface.
+   */
+  public void start()
+    throws IOException
+  {
+    start(0);
+  }
+
+  public synchronized void start(int port)
+    throws IOException
+  {
+    if(_serverSocket != null)
+    {
+      throw new IllegalStateException("server is already started");
+    }
+    _serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    _executor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("fake-s3-%d").setDaemon(true).build());
+    final ServerSocket serverSocket = _serverSocket;
+    _executor.execute(new Runnable()
+    {
+      public void run()
+      {
+        accept(serverSocket);
+      }
+    });
+  }
+
+  public synchronized void stop()
+  {
+    if(_serverSocket != null)
+    {
+      closeQuietly(_serverSocket);
+      for(Socket socket : _connections)
+      {
+        closeQuietly(socket);
+      }
+      _executor.shutdownNow();
+      _serverSocket = null;
+      _executor = null;
+    }
+  }
+
+  /**
+   * Return the endpoint to pass to {@link CloudStoreClient#setEndpoint}, e.g.
+   * "http://127.0.0.1:40123/".
+   */
+  public synchronized String getEndpoint()
+  {
+    if(_serverSocket == null)
+    {
+      throw new IllegalStateException("server is not started");
+    }
+    return "http://" + _serverSocket.getInetAddress().getHostAddress() + ":" +
+      _serverSocket.getLocalPort() + "/";
+  }
+
+  public FakeS3Storage getStorage()
+  {
+    return _storage;
+  }
+
+  /**
+   * Delay every request by {@code millis} before it is processed.
+   */
+  public void setLatency(long millis)
+  {
+    _latencyMillis = millis;
+  }
+
+  /**
+   * Limit request and response bodies to {@code bytesPerSecond} per connection, or remove the
+   * limit if 0.
+   */
+  public void setBandwidth(long bytesPerSecond)
+  {
+    _bytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * Fail the given fraction (between 0 and 1) of all requests.
+   */
+  public void setErrorRate(double rate)
+  {
+    _errorRate = rate;
+  }
+
+  /**
+   * Fail the given fraction of requests of one type, e.g. {@link ClientMetrics#UPLOAD_PART}.
+   * This overrides {@link #setErrorRate(double)} for that type.
+   */
+  public void setErrorRate(String requestType, double rate)
+  {
+    _errorRates.put(requestType, rate);
+  }
+
+  /**
+   * Process the next {@code count} requests of one type, but close the connection instead of
+   * sending the response, as if the response was lost.
+   */
+  public void loseResponses(String requestType, long count)
+  {
+    _lostResponses.put(requestType, new AtomicLong(count));
+  }
+
+  public synchronized void setRandomSeed(long seed)
+  {
+    _random = new Random(seed);
+  }
+
+  /**
+   * Set the minimum size of all but the last part of a multipart upload.  Defaults to 5 MB
+   * like S3.
+   */
+  public void setMinimumPartSize(long bytes)
+  {
+    _minimumPartSize = bytes;
+  }
+
+  public long getRequestCount()
+  {
+    return _requestCount.get();
+  }
+
+  public long getInjectedErrorCount()
+  {
+    return _injectedErrorCount.get();
+  }
+
+  private void accept(ServerSocket serverSocket)
+  {
+    while(!serverSocket.isClosed())
+    {
+      final Socket socket;
+      try
+      {
+        socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+      }
+      catch(IOException e)
+      {
+        // server socket was closed
+        continue;
+      }
+      _connections.add(socket);
+      _executor.execute(new Runnable()
+      {
+        public void run()
+        {
+          serve(socket);
+        }
+      });
+    }
+  }
+
+  /**
+   * Handle the requests of one persistent connection.
+   */
+  private void serve(Socket socket)
+  {
+    try
+    {
+      InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+      while(true)
+      {
+        Request req = Request.read(in, out);
+        if(req == null)
+        {
+          break;
+        }
+        handle(req);
+        req.finish();
+        if(!req.keepAlive)
+        {
+          break;
+        }
+      }
+    }
+    catch(IOException e)
+    {
+      // client closed the connection or sent garbage
+    }
+    finally
+    {
+      _connections.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  private void handle(Request req)
+  {
+    long requestId = _requestCount.incrementAndGet();
+    req.setResponseHeader("x-amz-request-id", Long.toString(requestId));
+    try
+    {
+      injectFaults(req.getType());
+      if(isLostResponse(req.getType()))
+      {
+        req.loseResponse();
+      }
+      dispatch(req);
+    }
+    catch(FakeS3Storage.S3Error e)
+    {
+      sendError(req, e.status, e.code, e.getMessage());
+    }
+    catch(InterruptedIOException e)
+    {
+      sendError(req, 503, "ServiceUnavailable", "Server is shutting down");
+    }
+    catch(Exception e)
+    {
+      sendError(req, 500, "InternalError", String.valueOf(e));
+    }
+  }
+
+  private void injectFaults(String type)
+    throws InterruptedIOException
+  {
+    long latency = _latencyMillis;
+    if(latency > 0)
+    {
+      sleep(TimeUnit.MILLISECONDS.toNanos(latency));
+    }
+
+    Double rate = _errorRates.get(type);
+    double errorRate = (rate == null) ? _errorRate : rate;
+    if(errorRate > 0)
+    {
+      boolean fail;
+      synchronized(this)
+      {
+        fail = _random.nextDouble() < errorRate;
+      }
+      if(fail)
+      {
+        _injectedErrorCount.incrementAndGet();
+        throw new FakeS3Storage.S3Error(500, "InternalError",
+          "We encountered an internal error. Please try again.");
+      }
+    }
+  }
+
+  private boolean isLostResponse(String type)
+  {
+    AtomicLong remaining = _lostResponses.get(type);
+    return remaining != null && remaining.getAndDecrement() > 0;
+  }
+
+  private void dispatch(Request req)
+    throws Exception
+  {
+    String method = req.method;
+    if(req.bucket == null)
+    {
+      if(method.equals("GET"))
+      {
+        listBuckets(req);
+        return;
+      }
+    }
+    else if(req.key == null)
+    {
+      switch(method)
+      {
+        case "HEAD":
+          _storage.getBucket(req.bucket);
+          sendEmpty(req, 200);
+          return;
+        case "PUT":
+          if(req.query.containsKey("acl"))
+          {
+            _storage.getBucket(req.bucket);
+            sendEmpty(req, 200);
+          }
+          else
+          {
+            _storage.createBucket(req.bucket);
+            req.setResponseHeader("Location", "/" + req.bucket);
+            sendEmpty(req, 200);
+          }
+          return;
+        case "DELETE":
+          _storage.deleteBucket(req.bucket);
+          sendEmpty(req, 204);
+          return;
+        case "POST":
+          if(req.query.containsKey("delete"))
+          {
+            deleteObjects(req);
+            return;
+          }
+          break;
+        case "GET":
+          if(req.query.containsKey("uploads"))
+          {
+            listUploads(req);
+          }
+          else if(req.query.containsKey("versions"))
+          {
+            listVersions(req);
+          }
+          else if(req.query.containsKey("acl"))
+          {
+            _storage.getBucket(req.bucket);
+            sendAcl(req, null);
+          }
+          else if(req.query.containsKey("location"))
+          {
+            _storage.getBucket(req.bucket);
+            sendXml(req, 200, new Xml().raw("<LocationConstraint xmlns=\"" + XMLNS + "\"/>"));
+          }
+          else
+          {
+            listObjects(req);
+          }
+          return;
+      }
+    }
+    else
+    {
+      switch(method)
+      {
+        case "HEAD":
+        case "GET":
+          if(req.query.containsKey("acl"))
+          {
+            sendAcl(req, _storage.getObject(req.bucket, req.key).acl);
+          }
+          else if(req.query.containsKey("uploadId"))
+          {
+            listParts(req);
+          }
+          else
+          {
+            getObject(req);
+          }
+          return;
+        case "PUT":
+          if(req.query.containsKey("acl"))
+          {
+            setObjectAcl(req);
+          }
+          else if(req.query.containsKey("partNumber"))
+          {
+            if(req.header("x-amz-copy-source") != null)
+            {
+              copyPart(req);
+            }
+            else
+            {
+              uploadPart(req);
+            }
+          }
+          else if(req.header("x-amz-copy-source") != null)
+          {
+            copyObject(req);
+          }
+          else
+          {
+            putObject(req);
+          }
+          return;
+        case "POST":
+          if(req.query.containsKey("uploads"))
+          {
+            initiateUpload(req);
+            return;
+          }
+          else if(req.query.containsKey("uploadId"))
+          {
+            completeUpload(req);
+            return;
+          }
+          break;
+        case "DELETE":
+          if(req.query.containsKey("uploadId"))
+          {
+            FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+            if(bucket.uploads.remove(req.query.get("uploadId")) == null)
+            {
+              throw new FakeS3Storage.S3Error(404, "NoSuchUpload",
+                "The specified upload does not exist.");
+            }
+          }
+          else
+          {
+            _storage.getBucket(req.bucket).objects.remove(req.key);
+          }
+          sendEmpty(req, 204);
+          return;
+      }
+    }
+    throw new FakeS3Storage.S3Error(501, "NotImplemented",
+      "A header or query you provided implies functionality that is not implemented.");
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // objects
+  // -------------------------------------------------------------------------------------------
+
+  private void getObject(Request req)
+    throws IOException
+  {
+    FakeS3Storage.StoredObject object = _storage.getObject(req.bucket, req.key);
+    long length = object.blob.length();
+    long start = 0;
+    long end = length - 1;
+    int status = 200;
+
+    long[] range = parseRange(req.header("Range"), length);
+    if(range != null)
+    {
+      if(range[0] >= length)
+      {
+        throw new FakeS3Storage.S3Error(416, "InvalidRange",
+          "The requested range is not satisfiable");
+      }
+      start = range[0];
+      end = range[1];
+      status = 206;
+      req.setResponseHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+    }
+
+    setObjectHeaders(req, object);
+    long count = end - start + 1;
+    if(req.method.equals("HEAD"))
+    {
+      req.setResponseHeader("Content-Length", Long.toString(count));
+      req.sendResponseHeaders(status, -1);
+      return;
+    }
+
+    req.sendResponseHeaders(status, (count == 0) ? -1 : count);
+    if(count > 0)
+    {
+      try(InputStream in = object.blob.open(start, count))
+      {
+        OutputStream out = req.getResponseBody();
+        Throttle throttle = new Throttle();
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while((n = in.read(buf)) != -1)
+        {
+          out.write(buf, 0, n);
+          throttle.transferred(n);
+        }
+      }
+    }
+  }
+
+  private void putObject(Request req)
+    throws IOException
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    FakeS3Storage.Blob blob = readBody(req);
+
+    FakeS3Storage.StoredObject object = new FakeS3Storage.StoredObject();
+    object.key = req.key;
+    object.blob = blob;
+    object.etag = toHex(blob.md5);
+    object.contentType = req.header("Content-Type");
+    object.metadata = req.getUserMetadata();
+    object.storageClass = req.header("x-amz-storage-class");
+    object.acl = requestAcl(req);
+    object.lastModified = new Date();
+    bucket.objects.put(req.key, object);
+
+    req.setResponseHeader("ETag", quote(object.etag));
+    sendEmpty(req, 200);
+  }
+
+  private void copyObject(Request req)
+    throws IOException
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    FakeS3Storage.StoredObject source = getCopySource(req);
+
+    FakeS3Storage.StoredObject object = new FakeS3Storage.StoredObject();
+    object.key = req.key;
+    object.blob = source.blob;
+    object.etag = source.etag.contains("-") ? toHex(digest(source.blob)) : source.etag;
+    if("REPLACE".equals(req.header("x-amz-metadata-directive")))
+    {
+      object.contentType = req.header("Content-Type");
+      object.metadata = req.getUserMetadata();
+    }
+    else
+    {
+      object.contentType = source.contentType;
+      object.metadata = source.metadata;
+    }
+    object.storageClass = req.header("x-amz-storage-class");
+    object.acl = requestAcl(req);
+    object.lastModified = new Date();
+    bucket.objects.put(req.key, object);
+
+    sendXml(req, 200, new Xml().open("CopyObjectResult")
+      .element("LastModified", isoDate(object.lastModified))
+      .element("ETag", quote(object.etag))
+      .close("CopyObjectResult"));
+  }
+
+  private void setObjectAcl(Request req)
+    throws Exception
+  {
+    FakeS3Storage.StoredObject object = _storage.getObject(req.bucket, req.key);
+    List<FakeS3Storage.Grant> acl;
+    if(req.header("x-amz-acl") == null && !hasGrantHeaders(req))
+    {
+      acl = parseAcl(parseXml(req));
+    }
+    else
+    {
+      acl = requestAcl(req);
+    }
+    object.acl = acl;
+    sendEmpty(req, 200);
+  }
+
+  private void deleteObjects(Request req)
+    throws Exception
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    Element root = parseXml(req);
+    boolean quiet = "true".equals(childText(root, "Quiet"));
+
+    Xml xml = new Xml().open("DeleteResult");
+    NodeList objects = root.getElementsByTagName("Object");
+    for(int i = 0; i < objects.getLength(); ++i)
+    {
+      String key = childText((Element) objects.item(i), "Key");
+      bucket.objects.remove(key);
+      if(!quiet)
+      {
+        xml.open("Deleted").element("Key", key).close("Deleted");
+      }
+    }
+    sendXml(req, 200, xml.close("DeleteResult"));
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // multipart uploads
+  // -------------------------------------------------------------------------------------------
+
+  private void initiateUpload(Request req)
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    FakeS3Storage.PendingUpload upload = new FakeS3Storage.PendingUpload();
+    upload.id = _storage.newUploadId();
+    upload.key = req.key;
+    upload.contentType = req.header("Content-Type");
+    upload.metadata = req.getUserMetadata();
+    upload.storageClass = req.header("x-amz-storage-class");
+    upload.acl = requestAcl(req);
+    bucket.uploads.put(upload.id, upload);
+
+    sendXml(req, 200, new Xml().open("InitiateMultipartUploadResult")
+      .element("Bucket", req.bucket)
+      .element("Key", req.key)
+      .element("UploadId", upload.id)
+      .close("InitiateMultipartUploadResult"));
+  }
+
+  private void uploadPart(Request req)
+    throws IOException
+  {
+    FakeS3Storage.PendingUpload upload = _storage.getUpload(req.bucket,
+      req.query.get("uploadId"));
+    int partNumber = getPartNumber(req);
+
+    FakeS3Storage.StoredPart part = new FakeS3Storage.StoredPart();
+    part.number = partNumber;
+    part.blob = readBody(req);
+    part.etag = toHex(part.blob.md5);
+    upload.parts.put(partNumber, part);
+
+    req.setResponseHeader("ETag", quote(part.etag));
+    sendEmpty(req, 200);
+  }
+
+  private void copyPart(Request req)
+    throws IOException
+  {
+    FakeS3Storage.PendingUpload upload = _storage.getUpload(req.bucket,
+      req.query.get("uploadId"));
+    int partNumber = getPartNumber(req);
+    FakeS3Storage.StoredObject source = getCopySource(req);
+
+    long length = source.blob.length();
+    FakeS3Storage.Blob blob = source.blob;
+    String range = req.header("x-amz-copy-source-range");
+    if(range != null)
+    {
+      long[] r = parseRange(range, length);
+      if(r == null || r[0] >= length || r[1] >= length)
+      {
+        throw new FakeS3Storage.S3Error(400, "InvalidArgument",
+          "The x-amz-copy-source-range value must be of the form bytes=first-last where " +
+            "first and last are the zero-based offsets of the first and last bytes to copy");
+      }
+      blob = blob.slice(r[0], r[1] - r[0] + 1);
+    }
+
+    FakeS3Storage.StoredPart part = new FakeS3Storage.StoredPart();
+    part.number = partNumber;
+    part.blob = blob;
+    part.etag = (blob == source.blob && !source.etag.contains("-")) ? source.etag :
+      toHex(digest(blob));
+    upload.parts.put(partNumber, part);
+
+    sendXml(req, 200, new Xml().open("CopyPartResult")
+      .element("LastModified", isoDate(part.lastModified))
+      .element("ETag", quote(part.etag))
+      .close("CopyPartResult"));
+  }
+
+  private void completeUpload(Request req)
+    throws Exception
+  {
+    Element root = parseXml(req);
+    List<Integer> partNumbers = new ArrayList<>();
+    List<String> etags = new ArrayList<>();
+    NodeList parts = root.getElementsByTagName("Part");
+    for(int i = 0; i < parts.getLength(); ++i)
+    {
+      Element part = (Element) parts.item(i);
+      partNumbers.add(Integer.parseInt(childText(part, "PartNumber").trim()));
+      etags.add(childText(part, "ETag").trim());
+    }
+
+    FakeS3Storage.StoredObject object = _storage.complete(req.bucket, req.query.get("uploadId"),
+      partNumbers, etags, _minimumPartSize);
+
+    sendXml(req, 200, new Xml().open("CompleteMultipartUploadResult")
+      .element("Location", "/" + req.bucket + "/" + req.key)
+      .element("Bucket", req.bucket)
+      .element("Key", req.key)
+      .element("ETag", quote(object.etag))
+      .close("CompleteMultipartUploadResult"));
+  }
+
+  private void listParts(Request req)
+  {
+    String uploadId = req.query.get("uploadId");
+    FakeS3Storage.PendingUpload upload = _storage.getUpload(req.bucket, uploadId);
+    int marker = req.intParam("part-number-marker", 0);
+    int maxParts = req.intParam("max-parts", 1000);
+
+    Xml xml = new Xml().open("ListPartsResult")
+      .element("Bucket", req.bucket)
+      .element("Key", upload.key)
+      .element("UploadId", uploadId);
+    owner(xml, "Initiator");
+    owner(xml, "Owner");
+    xml.element("StorageClass", storageClass(upload.storageClass))
+      .element("PartNumberMarker", Integer.toString(marker))
+      .element("MaxParts", Integer.toString(maxParts));
+
+    int count = 0;
+    int last = marker;
+    boolean truncated = false;
+    for(FakeS3Storage.StoredPart part : upload.parts.tailMap(marker, false).values())
+    {
+      if(count == maxParts)
+      {
+        truncated = true;
+        break;
+      }
+      xml.open("Part")
+        .element("PartNumber", Integer.toString(part.number))
+        .element("LastModified", isoDate(part.lastModified))
+        .element("ETag", quote(part.etag))
+        .element("Size", Long.toString(part.blob.length()))
+        .close("Part");
+      last = part.number;
+      ++count;
+    }
+    xml.element("NextPartNumberMarker", Integer.toString(last))
+      .element("IsTruncated", Boolean.toString(truncated));
+    sendXml(req, 200, xml.close("ListPartsResult"));
+  }
+
+  private void listUploads(Request req)
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    String prefix = req.query.get("prefix");
+    String keyMarker = req.query.get("key-marker");
+    String uploadIdMarker = req.query.get("upload-id-marker");
+    int maxUploads = req.intParam("max-uploads", 1000);
+
+    List<FakeS3Storage.PendingUpload> uploads = new ArrayList<>();
+    for(FakeS3Storage.PendingUpload upload : bucket.uploads.values())
+    {
+      if(prefix != null && !upload.key.startsWith(prefix))
+      {
+        continue;
+      }
+      if(keyMarker != null && !keyMarker.isEmpty())
+      {
+        int c = upload.key.compareTo(keyMarker);
+        if(c < 0 || (c == 0 && (uploadIdMarker == null || upload.id.compareTo(uploadIdMarker) <= 0)))
+        {
+          continue;
+        }
+      }
+      uploads.add(upload);
+    }
+    Collections.sort(uploads, (u1, u2) -> {
+      int c = u1.key.compareTo(u2.key);
+      return (c != 0) ? c : u1.id.compareTo(u2.id);
+    });
+
+    boolean truncated = uploads.size() > maxUploads;
+    if(truncated)
+    {
+      uploads = uploads.subList(0, maxUploads);
+    }
+
+    Xml xml = new Xml().open("ListMultipartUploadsResult")
+      .element("Bucket", req.bucket)
+      .element("KeyMarker", keyMarker)
+      .element("UploadIdMarker", uploadIdMarker);
+    if(truncated)
+    {
+      FakeS3Storage.PendingUpload last = uploads.get(uploads.size() - 1);
+      xml.element("NextKeyMarker", last.key).element("NextUploadIdMarker", last.id);
+    }
+    xml.element("Prefix", prefix)
+      .element("MaxUploads", Integer.toString(maxUploads))
+      .element("IsTruncated", Boolean.toString(truncated));
+    for(FakeS3Storage.PendingUpload upload : uploads)
+    {
+      xml.open("Upload").element("Key", upload.key).element("UploadId", upload.id);
+      owner(xml, "Initiator");
+      owner(xml, "Owner");
+      xml.element("StorageClass", storageClass(upload.storageClass))
+        .element("Initiated", isoDate(upload.initiated))
+        .close("Upload");
+    }
+    sendXml(req, 200, xml.close("ListMultipartUploadsResult"));
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // listings
+  // -------------------------------------------------------------------------------------------
+
+  private void listBuckets(Request req)
+  {
+    Xml xml = new Xml().open("ListAllMyBucketsResult");
+    owner(xml, "Owner");
+    xml.open("Buckets");
+    for(FakeS3Storage.StoredBucket bucket : _storage.getBuckets())
+    {
+      xml.open("Bucket")
+        .element("Name", bucket.name)
+        .element("CreationDate", isoDate(bucket.created))
+        .close("Bucket");
+    }
+    sendXml(req, 200, xml.close("Buckets").close("ListAllMyBucketsResult"));
+  }
+
+  private void listObjects(Request req)
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    boolean v2 = "2".equals(req.query.get("list-type"));
+    boolean encode = "url".equals(req.query.get("encoding-type"));
+    String prefix = req.query.get("prefix");
+    String delimiter = req.query.get("delimiter");
+    int maxKeys = req.intParam("max-keys", 1000);
+
+    String marker;
+    String token = null;
+    String startAfter = null;
+    if(v2)
+    {
+      token = req.query.get("continuation-token");
+      startAfter = req.query.get("start-after");
+      marker = (token != null) ?
+        new String(DatatypeConverter.parseBase64Binary(token), StandardCharsets.UTF_8) :
+        startAfter;
+    }
+    else
+    {
+      marker = req.query.get("marker");
+    }
+    FakeS3Storage.Listing listing = bucket.list(prefix, delimiter, marker, maxKeys);
+
+    Xml xml = new Xml().open("ListBucketResult")
+      .element("Name", req.bucket)
+      .element("Prefix", encode(prefix, encode));
+    if(v2)
+    {
+      xml.element("KeyCount", Integer.toString(listing.size()));
+      xml.element("ContinuationToken", token);
+      xml.element("StartAfter", encode(startAfter, encode));
+      if(listing.truncated)
+      {
+        xml.element("NextContinuationToken", DatatypeConverter.printBase64Binary(
+          listing.nextMarker.getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+    else
+    {
+      xml.element("Marker", encode(marker, encode));
+      if(listing.truncated)
+      {
+        xml.element("NextMarker", encode(listing.nextMarker, encode));
+      }
+    }
+    xml.element("MaxKeys", Integer.toString(maxKeys))
+      .element("Delimiter", encode(delimiter, encode))
+      .element("EncodingType", encode ? "url" : null)
+      .element("IsTruncated", Boolean.toString(listing.truncated));
+
+    for(FakeS3Storage.StoredObject object : listing.objects)
+    {
+      xml.open("Contents")
+        .element("Key", encode(object.key, encode))
+        .element("LastModified", isoDate(object.lastModified))
+        .element("ETag", quote(object.etag))
+        .element("Size", Long.toString(object.blob.length()));
+      if(!v2 || "true".equals(req.query.get("fetch-owner")))
+      {
+        owner(xml, "Owner");
+      }
+      xml.element("StorageClass", storageClass(object.storageClass)).close("Contents");
+    }
+    for(String commonPrefix : listing.prefixes)
+    {
+      xml.open("CommonPrefixes")
+        .element("Prefix", encode(commonPrefix, encode))
+        .close("CommonPrefixes");
+    }
+    sendXml(req, 200, xml.close("ListBucketResult"));
+  }
+
+  private void listVersions(Request req)
+  {
+    FakeS3Storage.StoredBucket bucket = _storage.getBucket(req.bucket);
+    boolean encode = "url".equals(req.query.get("encoding-type"));
+    String prefix = req.query.get("prefix");
+    String delimiter = req.query.get("delimiter");
+    String keyMarker = req.query.get("key-marker");
+    int maxKeys = req.intParam("max-keys", 1000);
+    FakeS3Storage.Listing listing = bucket.list(prefix, delimiter, keyMarker, maxKeys);
+
+    Xml xml = new Xml().open("ListVersionsResult")
+      .element("Name", req.bucket)
+      .element("Prefix", encode(prefix, encode))
+      .element("KeyMarker", encode(keyMarker, encode))
+      .element("VersionIdMarker", req.query.get("version-id-marker"));
+    if(listing.truncated)
+    {
+      xml.element("NextKeyMarker", encode(listing.nextMarker, encode))
+        .element("NextVersionIdMarker", "null");
+    }
+    xml.element("MaxKeys", Integer.toString(maxKeys))
+      .element("Delimiter", encode(delimiter, encode))
+      .element("EncodingType", encode ? "url" : null)
+      .element("IsTruncated", Boolean.toString(listing.truncated));
+
+    for(FakeS3Storage.StoredObject object : listing.objects)
+    {
+      xml.open("Version")
+        .element("Key", encode(object.key, encode))
+        .element("VersionId", "null")
+        .element("IsLatest", "true")
+        .element("LastModified", isoDate(object.lastModified))
+        .element("ETag", quote(object.etag))
+        .element("Size", Long.toString(object.blob.length()));
+      owner(xml, "Owner");
+      xml.element("StorageClass", storageClass(object.storageClass)).close("Version");
+    }
+    for(String commonPrefix : listing.prefixes)
+    {
+      xml.open("CommonPrefixes")
+        .element("Prefix", encode(commonPrefix, encode))
+        .close("CommonPrefixes");
+    }
+    sendXml(req, 200, xml.close("ListVersionsResult"));
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // ACLs
+  // -------------------------------------------------------------------------------------------
+
+  private void sendAcl(Request req, List<FakeS3Storage.Grant> acl)
+  {
+    if(acl == null)
+    {
+      acl = cannedAcl("private");
+    }
+    Xml xml = new Xml().open("AccessControlPolicy");
+    owner(xml, "Owner");
+    xml.open("AccessControlList");
+    for(FakeS3Storage.Grant grant : acl)
+    {
+      xml.open("Grant");
+      if(grant.group)
+      {
+        xml.raw("<Grantee xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+          "xsi:type=\"Group\">").element("URI", grant.grantee);
+      }
+      else
+      {
+        xml.raw("<Grantee xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+          "xsi:type=\"CanonicalUser\">").element("ID", grant.grantee);
+        if(grant.grantee.equals(FakeS3Storage.OWNER_ID))
+        {
+          xml.element("DisplayName", FakeS3Storage.OWNER_NAME);
+        }
+      }
+      xml.close("Grantee").element("Permission", grant.permission).close("Grant");
+    }
+    sendXml(req, 200, xml.close("AccessControlList").close("AccessControlPolicy"));
+  }
+
+  private static final String[][] GRANT_HEADERS = {
+    {"x-amz-grant-read", "READ"},
+    {"x-amz-grant-write", "WRITE"},
+    {"x-amz-grant-read-acp", "READ_ACP"},
+    {"x-amz-grant-write-acp", "WRITE_ACP"},
+    {"x-amz-grant-full-control", "FULL_CONTROL"}};
+
+  private static boolean hasGrantHeaders(Request req)
+  {
+    for(String[] header : GRANT_HEADERS)
+    {
+      if(req.header(header[0]) != null)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the ACL requested by the x-amz-grant-* headers or the x-amz-acl canned ACL header of
+   * a request.  Objects are private by default.
+   */
+  private static List<FakeS3Storage.Grant> requestAcl(Request req)
+  {
+    List<FakeS3Storage.Grant> acl = new ArrayList<>();
+    for(String[] header : GRANT_HEADERS)
+    {
+      String value = req.header(header[0]);
+      if(value == null)
+      {
+        continue;
+      }
+      for(String grantee : value.split(","))
+      {
+        String[] kv = grantee.trim().split("=", 2);
+        if(kv.length != 2)
+        {
+          throw new FakeS3Storage.S3Error(400, "InvalidArgument", "Invalid grantee " + grantee);
+        }
+        String id = kv[1].trim().replace("\"", "");
+        acl.add(new FakeS3Storage.Grant(kv[0].trim().equalsIgnoreCase("uri"), id, header[1]));
+      }
+    }
+    if(!acl.isEmpty())
+    {
+      return acl;
+    }
+    String canned = req.header("x-amz-acl");
+    return cannedAcl((canned == null) ? "private" : canned);
+  }
+
+  private static List<FakeS3Storage.Grant> cannedAcl(String canned)
+  {
+    List<FakeS3Storage.Grant> acl = new ArrayList<>();
+    acl.add(new FakeS3Storage.Grant(false, FakeS3Storage.OWNER_ID, "FULL_CONTROL"));
+    switch(canned)
+    {
+      case "private":
+      case "bucket-owner-read":
+      case "bucket-owner-full-control":
+        break;
+      case "public-read":
+        acl.add(new FakeS3Storage.Grant(true, FakeS3Storage.GROUP_ALL_USERS, "READ"));
+        break;
+      case "public-read-write":
+        acl.add(new FakeS3Storage.Grant(true, FakeS3Storage.GROUP_ALL_USERS, "READ"));
+        acl.add(new FakeS3Storage.Grant(true, FakeS3Storage.GROUP_ALL_USERS, "WRITE"));
+        break;
+      case "authenticated-read":
+        acl.add(new FakeS3Storage.Grant(true, FakeS3Storage.GROUP_AUTHENTICATED_USERS, "READ"));
+        break;
+      case "log-delivery-write":
+        acl.add(new FakeS3Storage.Grant(true, FakeS3Storage.GROUP_LOG_DELIVERY, "WRITE"));
+        acl.add(new FakeS3Storage.Grant(true, FakeS3Storage.GROUP_LOG_DELIVERY, "READ_ACP"));
+        break;
+      default:
+        throw new FakeS3Storage.S3Error(400, "InvalidArgument", "Unknown canned ACL " + canned);
+    }
+    return acl;
+  }
+
+  private static List<FakeS3Storage.Grant> parseAcl(Element policy)
+  {
+    List<FakeS3Storage.Grant> acl = new ArrayList<>();
+    NodeList grants = policy.getElementsByTagName("Grant");
+    for(int i = 0; i < grants.getLength(); ++i)
+    {
+      Element grant = (Element) grants.item(i);
+      String uri = childText(grant, "URI");
+      String id = childText(grant, "ID");
+      if(id == null)
+      {
+        id = childText(grant, "EmailAddress");
+      }
+      acl.add(new FakeS3Storage.Grant(uri != null, (uri != null) ? uri : id,
+        childText(grant, "Permission")));
+    }
+    return acl;
+  }
+
+  // -------------------------------------------------------------------------------------------
+  // helpers
+  // -------------------------------------------------------------------------------------------
+
+  private FakeS3Storage.StoredObject getCopySource(Request req)
+    throws UnsupportedEncodingException
+  {
+    String source = URLDecoder.decode(req.header("x-amz-copy-source"), "UTF-8");
+    int version = source.indexOf("?versionId=");
+    if(version >= 0)
+    {
+      source = source.substring(0, version);
+    }
+    if(source.startsWith("/"))
+    {
+      source = source.substring(1);
+    }
+    int slash = source.indexOf('/');
+    if(slash <= 0)
+    {
+      throw new FakeS3Storage.S3Error(400, "InvalidArgument",
+        "Copy Source must mention the source bucket and key: sourcebucket/sourcekey");
+    }
+    FakeS3Storage.StoredObject object = _storage.getObject(source.substring(0, slash),
+      source.substring(slash + 1));
+    String ifMatch = req.header("x-amz-copy-source-if-match");
+    if(ifMatch != null && !ifMatch.replace("\"", "").equals(object.etag))
+    {
+      throw new FakeS3Storage.S3Error(412, "PreconditionFailed",
+        "At least one of the pre-conditions you specified did not hold");
+    }
+    return object;
+  }
+
+  private static int getPartNumber(Request req)
+  {
+    int partNumber = req.intParam("partNumber", 0);
+    if(partNumber < 1 || partNumber > 10000)
+    {
+      throw new FakeS3Storage.S3Error(400, "InvalidArgument",
+        "Part number must be an integer between 1 and 10000, inclusive");
+    }
+    return partNumber;
+  }
+
+  /**
+   * Store the request body and check it against the Content-MD5 header, if any.
+   */
+  private FakeS3Storage.Blob readBody(Request req)
+    throws IOException
+  {
+    InputStream in = req.getRequestBody();
+    String contentSha256 = req.header("x-amz-content-sha256");
+    if(contentSha256 != null && contentSha256.startsWith("STREAMING-"))
+    {
+      in = new ChunkedInputStream(in);
+    }
+    if(_bytesPerSecond > 0)
+    {
+      in = new ThrottledInputStream(in);
+    }
+
+    FakeS3Storage.Blob blob = _storage.write(in);
+    String contentMd5 = req.header("Content-MD5");
+    if(contentMd5 != null && !contentMd5.equals(DatatypeConverter.printBase64Binary(blob.md5)))
+    {
+      throw new FakeS3Storage.S3Error(400, "BadDigest",
+        "The Content-MD5 you specified did not match what we received.");
+    }
+    return blob;
+  }
+
+  private static byte[] digest(FakeS3Storage.Blob blob)
+    throws IOException
+  {
+    MessageDigest md = FakeS3Storage.newMd5();
+    byte[] buf = new byte[BUFFER_SIZE];
+    try(InputStream in = blob.open())
+    {
+      int n;
+      while((n = in.read(buf)) != -1)
+      {
+        md.update(buf, 0, n);
+      }
+    }
+    return md.digest();
+  }
+
+  /**
+   * Parse a "bytes=first-last", "bytes=first-" or "bytes=-suffix" range.  Like S3, a range
+   * that cannot be parsed is ignored and the whole object is returned.
+   *
+   * @return first and last byte offsets, or null for the whole object
+   */
+  static long[] parseRange(String range, long length)
+  {
+    if(range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0)
+    {
+      return null;
+    }
+    String spec = range.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if(dash < 0)
+    {
+      return null;
+    }
+    try
+    {
+      String first = spec.substring(0, dash);
+      String last = spec.substring(dash + 1);
+      if(first.isEmpty())
+      {
+        long suffix = Long.parseLong(last);
+        if(suffix <= 0 || length == 0)
+        {
+          return null;
+        }
+        return new long[]{Math.max(0, length - suffix), length - 1};
+      }
+      long start = Long.parseLong(first);
+      long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+      if(start < 0 || end < start)
+      {
+        return null;
+      }
+      return new long[]{start, Math.min(end, length - 1)};
+    }
+    catch(NumberFormatException e)
+    {
+      return null;
+    }
+  }
+
+  private static void setObjectHeaders(Request req, FakeS3Storage.StoredObject object)
+  {
+    req.setResponseHeader("ETag", quote(object.etag));
+    req.setResponseHeader("Last-Modified", httpDate(object.lastModified));
+    req.setResponseHeader("Accept-Ranges", "bytes");
+    req.setResponseHeader("Content-Type",
+      (object.contentType == null) ? "binary/octet-stream" : object.contentType);
+    if(object.storageClass != null && !object.storageClass.equals("STANDARD"))
+    {
+      req.setResponseHeader("x-amz-storage-class", object.storageClass);
+    }
+    for(Map.Entry<String, String> e : object.metadata.entrySet())
+    {
+      req.setResponseHeader("x-amz-meta-" + e.getKey(), e.getValue());
+    }
+  }
+
+  private static void owner(Xml xml, String tag)
+  {
+    xml.open(tag)
+      .element("ID", FakeS3Storage.OWNER_ID)
+      .element("DisplayName", FakeS3Storage.OWNER_NAME)
+      .close(tag);
+  }
+
+  private static String storageClass(String storageClass)
+  {
+    return (storageClass == null) ? "STANDARD" : storageClass;
+  }
+
+  private static Element parseXml(Request req)
+    throws Exception
+  {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(false);
+    try(InputStream in = req.getRequestBody())
+    {
+      Document doc = factory.newDocumentBuilder().parse(in);
+      return doc.getDocumentElement();
+    }
+    catch(org.xml.sax.SAXException e)
+    {
+      throw new FakeS3Storage.S3Error(400, "MalformedXML",
+        "The XML you provided was not well-formed or did not validate against our " +
+          "published schema");
+    }
+  }
+
+  private static String childText(Element parent, String tag)
+  {
+    NodeList nodes = parent.getElementsByTagName(tag);
+    return (nodes.getLength() == 0) ? null : nodes.item(0).getTextContent();
+  }
+
+  private static String encode(String value, boolean encode)
+  {
+    if(value == null || !encode)
+    {
+      return value;
+    }
+    try
+    {
+      return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+    catch(UnsupportedEncodingException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String quote(String etag)
+  {
+    return "\"" + etag + "\"";
+  }
+
+  private static String toHex(byte[] bytes)
+  {
+    return DatatypeConverter.printHexBinary(bytes).toLowerCase();
+  }
+
+  private static String isoDate(Date date)
+  {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(date);
+  }
+
+  private static String httpDate(Date date)
+  {
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return format.format(date);
+  }
+
+  /**
+   * Read a CRLF terminated line of ASCII text.
+   *
+   * @return line without terminator, or null at end of stream
+   */
+  private static String readLine(InputStream in)
+    throws IOException
+  {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while((c = in.read()) != -1 && c != '\n')
+    {
+      if(c != '\r')
+      {
+        line.append((char) c);
+      }
+    }
+    return (c == -1 && line.length() == 0) ? null : line.toString();
+  }
+
+  private static String reasonPhrase(int status)
+  {
+    switch(status)
+    {
+      case 200:
+        return "OK";
+      case 204:
+        return "No Content";
+      case 206:
+        return "Partial Content";
+      case 400:
+        return "Bad Request";
+      case 403:
+        return "Forbidden";
+      case 404:
+        return "Not Found";
+      case 409:
+        return "Conflict";
+      case 416:
+        return "Requested Range Not Satisfiable";
+      case 501:
+        return "Not Implemented";
+      case 503:
+        return "Service Unavailable";
+      default:
+        return (status >= 500) ? "Internal Server Error" : "Error";
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable)
+  {
+    try
+    {
+      closeable.close();
+    }
+    catch(IOException ignored)
+    {
+    }
+  }
+
+  private static void sleep(long nanos)
+    throws InterruptedIOException
+  {
+    try
+    {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static void sendEmpty(Request req, int status)
+    throws IOException
+  {
+    req.sendResponseHeaders(status, -1);
+  }
+
+  private static void sendXml(Request req, int status, Xml xml)
+  {
+    try
+    {
+      byte[] body = xml.toBytes();
+      req.setResponseHeader("Content-Type", "application/xml");
+      req.sendResponseHeaders(status, body.length);
+      req.getResponseBody().write(body);
+    }
+    catch(IOException e)
+    {
+      // client went away
+    }
+  }
+
+  private static void sendError(Request req, int status, String code, String message)
+  {
+    if(req.isResponseStarted())
+    {
+      // too late for an error response, the client will see a truncated body
+      req.keepAlive = false;
+      return;
+    }
+    try
+    {
+      if(req.method.equals("HEAD"))
+      {
+        req.sendResponseHeaders(status, -1);
+        return;
+      }
+      String resource = "/" + (req.bucket == null ? "" : req.bucket) +
+        (req.key == null ? "" : "/" + req.key);
+      sendXml(req, status, new Xml().raw("<Error>")
+        .element("Code", code)
+        .element("Message", message)
+        .element("Resource", resource)
+        .element("RequestId", req.getResponseHeader("x-amz-request-id"))
+        .close("Error"));
+    }
+    catch(IOException e)
+    {
+      // response was already started
+    }
+  }
+
+  /**
+   * One HTTP/1.1 request on a persistent connection, with its path-style bucket and key,
+   * query parameters and response.  Header names of the response are sent exactly as given,
+   * because the AWS SDK compares some of them case-sensitively.
+   */
+  private static class Request
+  {
+    final String method;
+    final String bucket;
+    final String key;
+    final Map<String, String> query = new HashMap<>();
+    boolean keepAlive;
+
+    private final Map<String, String> _headers;
+    private final InputStream _body;
+    private final OutputStream _out;
+    private final Map<String, String> _responseHeaders = new LinkedHashMap<>();
+    private OutputStream _responseBody = null;
+    private long _responseRemaining = 0;
+    private boolean _lost = false;
+
+    private Request(
+      String method, URI uri, Map<String, String> headers, InputStream in, OutputStream out,
+      boolean keepAlive)
+      throws UnsupportedEncodingException
+    {
+      this.method = method;
+      this.keepAlive = keepAlive;
+      _headers = headers;
+      _out = out;
+
+      String path = uri.getPath();
+      path = (path == null || path.length() <= 1) ? "" : path.substring(1);
+      int slash = path.indexOf('/');
+      if(path.isEmpty())
+      {
+        bucket = null;
+        key = null;
+      }
+      else if(slash < 0 || slash == path.length() - 1)
+      {
+        bucket = (slash < 0) ? path : path.substring(0, slash);
+        key = null;
+      }
+      else
+      {
+        bucket = path.substring(0, slash);
+        key = path.substring(slash + 1);
+      }
+
+      String rawQuery = uri.getRawQuery();
+      if(rawQuery != null)
+      {
+        for(String param : rawQuery.split("&"))
+        {
+          int eq = param.indexOf('=');
+          String name = (eq < 0) ? param : param.substring(0, eq);
+          String value = (eq < 0) ? "" : param.substring(eq + 1);
+          query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+      }
+
+      if("chunked".equalsIgnoreCase(header("Transfer-Encoding")))
+      {
+        _body = new ChunkedInputStream(in);
+      }
+      else
+      {
+        String length = header("Content-Length");
+        _body = new BoundedInputStream(in, (length == null) ? 0 : Long.parseLong(length.trim()));
+      }
+    }
+
+    /**
+     * Read the next request from a connection.
+     *
+     * @return request, or null if the client closed the connection
+     */
+    static Request read(InputStream in, OutputStream out)
+      throws IOException
+    {
+      String requestLine = readLine(in);
+      while(requestLine != null && requestLine.isEmpty())
+      {
+        requestLine = readLine(in);
+      }
+      if(requestLine == null)
+      {
+        return null;
+      }
+      String[] parts = requestLine.split(" ");
+      if(parts.length != 3)
+      {
+        throw new IOException("malformed request line: " + requestLine);
+      }
+
+      Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      String line;
+      while((line = readLine(in)) != null && !line.isEmpty())
+      {
+        int colon = line.indexOf(':');
+        if(colon > 0)
+        {
+          String name = line.substring(0, colon).trim();
+          String value = line.substring(colon + 1).trim();
+          String previous = headers.get(name);
+          headers.put(name, (previous == null) ? value : previous + "," + value);
+        }
+      }
+
+      boolean keepAlive = parts[2].equals("HTTP/1.1") &&
+        !"close".equalsIgnoreCase(headers.get("Connection"));
+      if("100-continue".equalsIgnoreCase(headers.get("Expect")))
+      {
+        out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+      }
+
+      try
+      {
+        return new Request(parts[0].toUpperCase(), new URI(parts[1]), headers, in, out,
+          keepAlive);
+      }
+      catch(URISyntaxException e)
+      {
+        throw new IOException(e);
+      }
+    }
+
+    String header(String name)
+    {
+      return _headers.get(name);
+    }
+
+    InputStream getRequestBody()
+    {
+      return _body;
+    }
+
+    void setResponseHeader(String name, String value)
+    {
+      _responseHeaders.put(name, value);
+    }
+
+    String getResponseHeader(String name)
+    {
+      return _responseHeaders.get(name);
+    }
+
+    /**
+     * Discard the response and close the connection after the request is processed.
+     */
+    void loseResponse()
+    {
+      _lost = true;
+      keepAlive = false;
+    }
+
+    boolean isResponseStarted()
+    {
+      return _responseBody != null;
+    }
+
+    /**
+     * Send the status line and headers.  As with the JDK HttpServer, a negative length means
+     * there is no body.
+     */
+    void sendResponseHeaders(int status, long length)
+      throws IOException
+    {
+      if(isResponseStarted())
+      {
+        throw new IllegalStateException("response headers already sent");
+      }
+      if(length >= 0 || !_responseHeaders.containsKey("Content-Length"))
+      {
+        _responseHeaders.put("Content-Length", Long.toString(Math.max(0, length)));
+      }
+      if(_lost)
+      {
+        _responseRemaining = 0;
+        _responseBody = ByteStreams.nullOutputStream();
+        return;
+      }
+      if(!keepAlive)
+      {
+        _responseHeaders.put("Connection", "close");
+      }
+
+      StringBuilder sb = new StringBuilder();
+      sb.append("HTTP/1.1 ").append(status).append(' ').append(reasonPhrase(status))
+        .append("\r\n");
+      sb.append("Date: ").append(httpDate(new Date())).append("\r\n");
+      sb.append("Server: FakeS3Server\r\n");
+      for(Map.Entry<String, String> e : _responseHeaders.entrySet())
+      {
+        sb.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+      }
+      sb.append("\r\n");
+      _out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+      _responseRemaining = (method.equals("HEAD") || length < 0) ? 0 : length;
+      _responseBody = new FilterOutputStream(_out)
+      {
+        @Override
+        public void write(byte[] b, int off, int len)
+          throws IOException
+        {
+          _responseRemaining -= len;
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void write(int b)
+          throws IOException
+        {
+          _responseRemaining--;
+          out.write(b);
+        }
+
+        @Override
+        public void close()
+        {
+        }
+      };
+    }
+
+    OutputStream getResponseBody()
+    {
+      if(!isResponseStarted())
+      {
+        throw new IllegalStateException("response headers not sent");
+      }
+      return _responseBody;
+    }
+
+    /**
+     * Complete the exchange, leaving the connection ready for the next request.
+     */
+    void finish()
+      throws IOException
+    {
+      if(!isResponseStarted())
+      {
+        keepAlive = false;
+        sendResponseHeaders(500, -1);
+      }
+      if(_responseRemaining != 0)
+      {
+        // the body is incomplete, so the connection cannot be reused
+        keepAlive = false;
+      }
+      _out.flush();
+      if(keepAlive)
+      {
+        byte[] buf = new byte[BUFFER_SIZE];
+        while(_body.read(buf) != -1)
+        {
+        }
+      }
+    }
+
+    int intParam(String name, int defaultValue)
+    {
+      String value = query.get(name);
+      try
+      {
+        return (value == null || value.isEmpty()) ? defaultValue : Integer.parseInt(value);
+      }
+      catch(NumberFormatException e)
+      {
+        throw new FakeS3Storage.S3Error(400, "InvalidArgument", "Invalid " + name + " " + value);
+      }
+    }
+
+    Map<String, String> getUserMetadata()
+    {
+      Map<String, String> metadata = new HashMap<>();
+      for(Map.Entry<String, String> e : _headers.entrySet())
+      {
+        String name = e.getKey().toLowerCase();
+        if(name.startsWith("x-amz-meta-"))
+        {
+          metadata.put(name.substring("x-amz-meta-".length()), e.getValue());
+        }
+      }
+      return metadata;
+    }
+
+    /**
+     * Return the request type, using the names of {@link ClientMetrics} where they apply.
+     */
+    String getType()
+    {
+      if(bucket == null)
+      {
+        return "ListBuckets";
+      }
+      if(key == null)
+      {
+        switch(method)
+        {
+          case "PUT":
+            return "CreateBucket";
+          case "DELETE":
+            return "DeleteBucket";
+          case "HEAD":
+            return "HeadBucket";
+          case "POST":
+            return ClientMetrics.DELETE;
+          default:
+            return ClientMetrics.LIST;
+        }
+      }
+      switch(method)
+      {
+        case "HEAD":
+          return ClientMetrics.HEAD;
+        case "GET":
+          if(query.containsKey("uploadId"))
+          {
+            return ClientMetrics.LIST;
+          }
+          if(query.containsKey("acl"))
+          {
+            return "GetObjectAcl";
+          }
+          return (header("Range") != null) ? ClientMetrics.GET_RANGE : ClientMetrics.GET;
+        case "PUT":
+          if(query.containsKey("acl"))
+          {
+            return "SetObjectAcl";
+          }
+          if(query.containsKey("partNumber"))
+          {
+            return (header("x-amz-copy-source") != null) ? ClientMetrics.COPY_PART :
+              ClientMetrics.UPLOAD_PART;
+          }
+          return (header("x-amz-copy-source") != null) ? ClientMetrics.COPY : ClientMetrics.PUT;
+        case "POST":
+          return query.containsKey("uploads") ? ClientMetrics.INITIATE : ClientMetrics.COMPLETE;
+        case "DELETE":
+          return query.containsKey("uploadId") ? ClientMetrics.ABORT : ClientMetrics.DELETE;
+        default:
+          return method;
+      }
+    }
+  }
+
+  /**
+   * Minimal XML writer for S3 responses.
+   */
+  private static class Xml
+  {
+    private final StringBuilder _sb = new StringBuilder(
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    private boolean _root = true;
+
+    Xml open(String tag)
+    {
+      _sb.append('<').append(tag);
+      if(_root)
+      {
+        _sb.append(" xmlns=\"").append(XMLNS).append('"');
+        _root = false;
+      }
+      _sb.append('>');
+      return this;
+    }
+
+    Xml close(String tag)
+    {
+      _sb.append("</").append(tag).append('>');
+      return this;
+    }
+
+    Xml raw(String xml)
+    {
+      _sb.append(xml);
+      _root = false;
+      return this;
+    }
+
+    /**
+     * Append an element with text content, unless the value is null.
+     */
+    Xml element(String tag, String value)
+    {
+      if(value != null)
+      {
+        _sb.append('<').append(tag).append('>');
+        for(int i = 0; i < value.length(); ++i)
+        {
+          char c = value.charAt(i);
+          switch(c)
+          {
+            case '&':
+              _sb.append("&amp;");
+              break;
+            case '<':
+              _sb.append("&lt;");
+              break;
+            case '>':
+              _sb.append("&gt;");
+              break;
+            case '"':
+              _sb.append("&quot;");
+              break;
+            default:
+              _sb.append(c);
+          }
+        }
+        _sb.append("</").append(tag).append('>');
+      }
+      return this;
+    }
+
+    byte[] toBytes()
+    {
+      return _sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Decodes the chunked transfer coding of HTTP/1.1, which is also the layout of the
+   * aws-chunked content encoding used by SigV4 streaming uploads, where every chunk size is
+   * followed by ";chunk-signature=...".  Trailers are skipped.
+   */
+  private static class ChunkedInputStream
+    extends InputStream
+  {
+    private final InputStream _in;
+    private long _remaining = 0;
+    private boolean _first = true;
+    private boolean _eof = false;
+
+    ChunkedInputStream(InputStream in)
+    {
+      _in = in;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if(_eof)
+      {
+        return -1;
+      }
+      if(_remaining == 0)
+      {
+        if(!_first)
+        {
+          // CRLF after the previous chunk
+          readLine(_in);
+        }
+        _first = false;
+        String header = readLine(_in);
+        if(header == null)
+        {
+          throw new EOFException("unexpected end of chunked stream");
+        }
+        int semicolon = header.indexOf(';');
+        _remaining = Long.parseLong(
+          (semicolon < 0) ? header.trim() : header.substring(0, semicolon).trim(), 16);
+        if(_remaining == 0)
+        {
+          String trailer;
+          while((trailer = readLine(_in)) != null && !trailer.isEmpty())
+          {
+          }
+          _eof = true;
+          return -1;
+        }
+      }
+      int n = _in.read(b, off, (int) Math.min(len, _remaining));
+      if(n == -1)
+      {
+        throw new EOFException("unexpected end of chunked stream");
+      }
+      _remaining -= n;
+      return n;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * Request body of known length, which leaves the connection open when closed.
+   */
+  private static class BoundedInputStream
+    extends InputStream
+  {
+    private final InputStream _in;
+    private long _remaining;
+
+    BoundedInputStream(InputStream in, long length)
+    {
+      _in = in;
+      _remaining = length;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if(_remaining <= 0)
+      {
+        return -1;
+      }
+      int n = _in.read(b, off, (int) Math.min(len, _remaining));
+      if(n == -1)
+      {
+        throw new EOFException("unexpected end of request body");
+      }
+      _remaining -= n;
+      return n;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  private class ThrottledInputStream
+    extends FilterInputStream
+  {
+    private final Throttle _throttle = new Throttle();
+
+    ThrottledInputStream(InputStream in)
+    {
+      super(in);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      int n = in.read(b, off, Math.min(len, BUFFER_SIZE));
+      if(n > 0)
+      {
+        _throttle.transferred(n);
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Sleeps as needed to keep a transfer below the configured bandwidth.
+   */
+  private class Throttle
+  {
+    private final long _start = System.nanoTime();
+    private long _bytes = 0;
+
+    void transferred(int count)
+      throws InterruptedIOException
+    {
+      long bytesPerSecond = _bytesPerSecond;
+      if(bytesPerSecond <= 0)
+      {
+        return;
+      }
+      _bytes += count;
+      long due = _start + (long) (_bytes * 1e9 / bytesPerSecond);
+      long wait = due - System.nanoTime();
+      if(wait > 0)
+      {
+        sleep(wait);
+      }
+    }
+  }
+
+  /**
+   * Run a standalone server, e.g. to benchmark the command line tool.
+   */
+  public static void main(String[] args)
+    throws Exception
+  {
+    int port = 9000;
+    File dataDir = null;
+    FakeS3Server server;
+    long latency = 0;
+    long bandwidth = 0;
+    double errorRate = 0;
+    List<String> buckets = new ArrayList<>();
+    for(int i = 0; i < args.length; ++i)
+    {
+      if(args[i].equals("--port"))
+      {
+        port = Integer.parseInt(args[++i]);
+      }
+      else if(args[i].equals("--data-dir"))
+      {
+        dataDir = new File(args[++i]);
+      }
+      else if(args[i].equals("--latency"))
+      {
+        latency = Long.parseLong(args[++i]);
+      }
+      else if(args[i].equals("--bandwidth"))
+      {
+        bandwidth = Long.parseLong(args[++i]);
+      }
+      else if(args[i].equals("--error-rate"))
+      {
+        errorRate = Double.parseDouble(args[++i]);
+      }
+      else if(args[i].equals("--bucket"))
+      {
+        buckets.add(args[++i]);
+      }
+      else
+      {
+        System.out.println("usage: FakeS3Server [--port PORT] [--data-dir DIR] " +
+          "[--latency MILLIS] [--bandwidth BYTES_PER_SEC] [--error-rate RATE] [--bucket NAME]...");
+        System.exit(1);
+      }
+    }
+
+    server = new FakeS3Server(new FakeS3Storage(dataDir));
+    server.setLatency(latency);
+    server.setBandwidth(bandwidth);
+    server.setErrorRate(errorRate);
+    for(String bucket : buckets)
+    {
+      server.getStorage().createBucket(bucket);
+    }
+    server.start(port);
+    System.out.println("Fake S3 server listening on " + server.getEndpoint());
+
+    // all server threads are daemons
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,610 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Bucket and object storage behind {@link FakeS3Server}.
+ * <p>
+ * Object data is kept in memory, or in files under a data directory for data sets that do not
+ * fit in the heap.  Stored data is never modified, so copies, copied parts and completed
+ * multipart uploads share the data of their sources instead of duplicating it.
+ */
+public class FakeS3Storage
+{
+  static final String OWNER_ID = "75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a";
+  static final String OWNER_NAME = "cloud-store";
+
+  static final String GROUP_ALL_USERS = "http://acs.amazonaws.com/groups/global/AllUsers";
+  static final String GROUP_AUTHENTICATED_USERS =
+    "http://acs.amazonaws.com/groups/global/AuthenticatedUsers";
+  static final String GROUP_LOG_DELIVERY = "http://acs.amazonaws.com/groups/s3/LogDelivery";
+
+  private final File _dataDir;
+  private final AtomicLong _nextId = new AtomicLong();
+  private final ConcurrentMap<String, StoredBucket> _buckets = new ConcurrentHashMap<>();
+
+  /**
+   * Create storage that keeps all data in memory.
+   */
+  public FakeS3Storage()
+  {
+    this(null);
+  }
+
+  /**
+   * Create storage that keeps object data in files under {@code dataDir}, or in memory if
+   * {@code dataDir} is null.  The files are removed by {@link #clear()}.
+   */
+  public FakeS3Storage(File dataDir)
+  {
+    _dataDir = dataDir;
+    if(_dataDir != null)
+    {
+      _dataDir.mkdirs();
+    }
+  }
+
+  /**
+   * Create a bucket, unless it already exists.
+   */
+  public void createBucket(String name)
+  {
+    if(_buckets.putIfAbsent(name, new StoredBucket(name)) != null)
+    {
+      throw new S3Error(409, "BucketAlreadyOwnedByYou",
+        "Your previous request to create the named bucket succeeded and you already own it.");
+    }
+  }
+
+  public void deleteBucket(String name)
+  {
+    StoredBucket bucket = getBucket(name);
+    if(!bucket.objects.isEmpty())
+    {
+      throw new S3Error(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+    }
+    _buckets.remove(name);
+  }
+
+  public boolean hasBucket(String name)
+  {
+    return _buckets.containsKey(name);
+  }
+
+  /**
+   * Remove all buckets and delete the data files.
+   */
+  public void clear()
+  {
+    _buckets.clear();
+    if(_dataDir != null)
+    {
+      File[] files = _dataDir.listFiles();
+      if(files != null)
+      {
+        for(File f : files)
+        {
+          if(f.getName().startsWith("blob-"))
+          {
+            f.delete();
+          }
+        }
+      }
+    }
+  }
+
+  StoredBucket getBucket(String name)
+  {
+    StoredBucket bucket = _buckets.get(name);
+    if(bucket == null)
+    {
+      throw new S3Error(404, "NoSuchBucket", "The specified bucket does not exist");
+    }
+    return bucket;
+  }
+
+  List<StoredBucket> getBuckets()
+  {
+    List<StoredBucket> buckets = new ArrayList<>(_buckets.values());
+    Collections.sort(buckets, (b1, b2) -> b1.name.compareTo(b2.name));
+    return buckets;
+  }
+
+  StoredObject getObject(String bucket, String key)
+  {
+    StoredObject object = getBucket(bucket).objects.get(key);
+    if(object == null)
+    {
+      throw new S3Error(404, "NoSuchKey", "The specified key does not exist.");
+    }
+    return object;
+  }
+
+  PendingUpload getUpload(String bucket, String uploadId)
+  {
+    PendingUpload upload = getBucket(bucket).uploads.get(uploadId);
+    if(upload == null)
+    {
+      throw new S3Error(404, "NoSuchUpload", "The specified upload does not exist.");
+    }
+    return upload;
+  }
+
+  String newUploadId()
+  {
+    return Long.toHexString(System.nanoTime()) + "-" + _nextId.incrementAndGet();
+  }
+
+  /**
+   * Store everything that can be read from {@code in}.
+   *
+   * @return stored data, with its MD5 digest in {@link Blob#md5}
+   */
+  Blob write(InputStream in)
+    throws IOException
+  {
+    MessageDigest md = newMd5();
+    byte[] buf = new byte[65536];
+    Blob blob;
+    if(_dataDir == null)
+    {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      copy(in, out, md, buf);
+      byte[] bytes = out.toByteArray();
+      blob = new BytesBlob(bytes, 0, bytes.length);
+    }
+    else
+    {
+      File file = new File(_dataDir, "blob-" + _nextId.incrementAndGet());
+      try(OutputStream out = new FileOutputStream(file))
+      {
+        copy(in, out, md, buf);
+      }
+      blob = new FileBlob(file, 0, file.length());
+    }
+    blob.md5 = md.digest();
+    return blob;
+  }
+
+  /**
+   * Assemble the parts of a multipart upload into an object and remove the upload.
+   *
+   * @param partNumbers part numbers listed in the complete request
+   * @param etags       ETags listed in the complete request
+   */
+  StoredObject complete(
+    String bucket, String uploadId, List<Integer> partNumbers, List<String> etags,
+    long minimumPartSize)
+  {
+    PendingUpload upload = getUpload(bucket, uploadId);
+    if(partNumbers.isEmpty())
+    {
+      throw new S3Error(400, "MalformedXML", "The XML you provided was not well-formed");
+    }
+
+    List<Blob> blobs = new ArrayList<>();
+    MessageDigest md = newMd5();
+    int previous = 0;
+    for(int i = 0; i < partNumbers.size(); ++i)
+    {
+      int number = partNumbers.get(i);
+      if(number <= previous)
+      {
+        throw new S3Error(400, "InvalidPartOrder",
+          "The list of parts was not in ascending order.");
+      }
+      previous = number;
+
+      StoredPart part = upload.parts.get(number);
+      if(part == null || !part.etag.equals(unquote(etags.get(i))))
+      {
+        throw new S3Error(400, "InvalidPart",
+          "One or more of the specified parts could not be found.");
+      }
+      if(i < partNumbers.size() - 1 && part.blob.length() < minimumPartSize)
+      {
+        throw new S3Error(400, "EntityTooSmall",
+          "Your proposed upload is smaller than the minimum allowed size");
+      }
+      blobs.add(part.blob);
+      md.update(DatatypeConverter.parseHexBinary(part.etag));
+    }
+
+    StoredObject object = new StoredObject();
+    object.key = upload.key;
+    object.blob = (blobs.size() == 1) ? blobs.get(0) : new CompositeBlob(blobs);
+    object.etag = DatatypeConverter.printHexBinary(md.digest()).toLowerCase() + "-" +
+      partNumbers.size();
+    object.contentType = upload.contentType;
+    object.metadata = upload.metadata;
+    object.storageClass = upload.storageClass;
+    object.acl = upload.acl;
+    object.lastModified = new Date();
+
+    StoredBucket b = getBucket(bucket);
+    if(b.uploads.remove(uploadId) == null)
+    {
+      throw new S3Error(404, "NoSuchUpload", "The specified upload does not exist.");
+    }
+    b.objects.put(object.key, object);
+    return object;
+  }
+
+  static String unquote(String etag)
+  {
+    if(etag != null && etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\""))
+    {
+      return etag.substring(1, etag.length() - 1);
+    }
+    return etag;
+  }
+
+  static MessageDigest newMd5()
+  {
+    try
+    {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch(NoSuchAlgorithmException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out, MessageDigest md, byte[] buf)
+    throws IOException
+  {
+    int count;
+    while((count = in.read(buf)) != -1)
+    {
+      md.update(buf, 0, count);
+      out.write(buf, 0, count);
+    }
+  }
+
+  /**
+   * Error reported to the client as an S3 error response.
+   */
+  static class S3Error
+    extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+    final String code;
+
+    S3Error(int status, String code, String message)
+    {
+      super(message);
+      this.status = status;
+      this.code = code;
+    }
+  }
+
+  static class StoredBucket
+  {
+    final String name;
+    final Date created = new Date();
+    final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    final ConcurrentMap<String, PendingUpload> uploads = new ConcurrentHashMap<>();
+
+    StoredBucket(String name)
+    {
+      this.name = name;
+    }
+
+    /**
+     * List keys in the order and with the paging semantics of S3 ListObjects.  Keys that
+     * contain the delimiter after the prefix are rolled up into common prefixes, which count
+     * towards {@code maxKeys} like keys do.
+     */
+    Listing list(String prefix, String delimiter, String marker, int maxKeys)
+    {
+      String p = (prefix == null) ? "" : prefix;
+      String d = (delimiter == null || delimiter.isEmpty()) ? null : delimiter;
+      NavigableMap<String, StoredObject> tail;
+      if(marker != null && marker.compareTo(p) >= 0)
+      {
+        tail = objects.tailMap(marker, false);
+      }
+      else
+      {
+        tail = objects.tailMap(p, true);
+      }
+
+      Listing listing = new Listing();
+      String last = null;
+      for(Map.Entry<String, StoredObject> e : tail.entrySet())
+      {
+        String key = e.getKey();
+        if(!key.startsWith(p))
+        {
+          break;
+        }
+
+        String commonPrefix = null;
+        if(d != null)
+        {
+          int i = key.indexOf(d, p.length());
+          if(i >= 0)
+          {
+            commonPrefix = key.substring(0, i + d.length());
+            if(commonPrefix.equals(last) || commonPrefix.equals(marker))
+            {
+              continue;
+            }
+          }
+        }
+
+        if(listing.size() >= maxKeys)
+        {
+          listing.truncated = true;
+          listing.nextMarker = last;
+          break;
+        }
+        if(commonPrefix != null)
+        {
+          listing.prefixes.add(commonPrefix);
+          last = commonPrefix;
+        }
+        else
+        {
+          listing.objects.add(e.getValue());
+          last = key;
+        }
+      }
+      return listing;
+    }
+  }
+
+  static class Listing
+  {
+    final List<StoredObject> objects = new ArrayList<>();
+    final List<String> prefixes = new ArrayList<>();
+    boolean truncated = false;
+    String nextMarker;
+
+    int size()
+    {
+      return objects.size() + prefixes.size();
+    }
+  }
+
+  static class StoredObject
+  {
+    String key;
+    Blob blob;
+    String etag;
+    String contentType;
+    Map<String, String> metadata = new HashMap<>();
+    String storageClass;
+    List<Grant> acl;
+    Date lastModified;
+  }
+
+  static class PendingUpload
+  {
+    String id;
+    String key;
+    String contentType;
+    Map<String, String> metadata;
+    String storageClass;
+    List<Grant> acl;
+    Date initiated = new Date();
+    final ConcurrentSkipListMap<Integer, StoredPart> parts = new ConcurrentSkipListMap<>();
+  }
+
+  static class StoredPart
+  {
+    int number;
+    Blob blob;
+    String etag;
+    Date lastModified = new Date();
+  }
+
+  static class Grant
+  {
+    final boolean group;
+    final String grantee;
+    final String permission;
+
+    Grant(boolean group, String grantee, String permission)
+    {
+      this.group = group;
+      this.grantee = grantee;
+      this.permission = permission;
+    }
+  }
+
+  /**
+   * Immutable object or part data.
+   */
+  abstract static class Blob
+  {
+    // MD5 of the data, only set for data that was written
+    byte[] md5;
+
+    abstract long length();
+
+    abstract InputStream open(long offset, long length)
+      throws IOException;
+
+    InputStream open()
+      throws IOException
+    {
+      return open(0, length());
+    }
+
+    abstract Blob slice(long offset, long length);
+  }
+
+  static class BytesBlob
+    extends Blob
+  {
+    private final byte[] _bytes;
+    private final int _offset;
+    private final int _length;
+
+    BytesBlob(byte[] bytes, int offset, int length)
+    {
+      _bytes = bytes;
+      _offset = offset;
+      _length = length;
+    }
+
+    long length()
+    {
+      return _length;
+    }
+
+    InputStream open(long offset, long length)
+    {
+      return new ByteArrayInputStream(_bytes, _offset + (int) offset, (int) length);
+    }
+
+    Blob slice(long offset, long length)
+    {
+      return new BytesBlob(_bytes, _offset + (int) offset, (int) length);
+    }
+  }
+
+  static class FileBlob
+    extends Blob
+  {
+    private final File _file;
+    private final long _offset;
+    private final long _length;
+
+    FileBlob(File file, long offset, long length)
+    {
+      _file = file;
+      _offset = offset;
+      _length = length;
+    }
+
+    long length()
+    {
+      return _length;
+    }
+
+    InputStream open(long offset, long length)
+      throws IOException
+    {
+      RandomAccessFile raf = new RandomAccessFile(_file, "r");
+      raf.seek(_offset + offset);
+      return ByteStreams.limit(Channels.newInputStream(raf.getChannel()), length);
+    }
+
+    Blob slice(long offset, long length)
+    {
+      return new FileBlob(_file, _offset + offset, length);
+    }
+  }
+
+  /**
+   * Concatenation of blobs, used for completed multipart uploads and copied ranges.
+   */
+  static class CompositeBlob
+    extends Blob
+  {
+    private final List<Blob> _blobs;
+    private final long _length;
+
+    CompositeBlob(List<Blob> blobs)
+    {
+      _blobs = blobs;
+      long length = 0;
+      for(Blob b : blobs)
+      {
+        length += b.length();
+      }
+      _length = length;
+    }
+
+    long length()
+    {
+      return _length;
+    }
+
+    InputStream open(long offset, long length)
+      throws IOException
+    {
+      Vector<InputStream> streams = new Vector<>();
+      for(Blob b : slices(offset, length))
+      {
+        streams.add(b.open());
+      }
+      return new SequenceInputStream(streams.elements());
+    }
+
+    Blob slice(long offset, long length)
+    {
+      List<Blob> slices = slices(offset, length);
+      return (slices.size() == 1) ? slices.get(0) : new CompositeBlob(slices);
+    }
+
+    private List<Blob> slices(long offset, long length)
+    {
+      List<Blob> slices = new ArrayList<>();
+      long start = 0;
+      for(Blob b : _blobs)
+      {
+        long end = start + b.length();
+        if(end > offset && start < offset + length)
+        {
+          long from = Math.max(offset, start) - start;
+          long to = Math.min(offset + length, end) - start;
+          slices.add((from == 0 && to == b.length()) ? b : b.slice(from, to - from));
+        }
+        start = end;
+      }
+      if(slices.isEmpty())
+      {
+        slices.add(new BytesBlob(new byte[0], 0, 0));
+      }
+      return slices;
+    }
+  }
+}
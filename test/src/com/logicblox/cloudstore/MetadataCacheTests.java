@@ -0,0 +1,193 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MetadataCacheTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testCoalescing()
+    throws Throwable
+  {
+    MetadataCache cache = new MetadataCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final SettableFuture<Metadata> pending = SettableFuture.create();
+    Callable<ListenableFuture<Metadata>> loader = new Callable<ListenableFuture<Metadata>>()
+    {
+      public ListenableFuture<Metadata> call()
+      {
+        loads.incrementAndGet();
+        return pending;
+      }
+    };
+
+    ListenableFuture<Metadata> first = cache.get("b", "k", null, loader);
+    ListenableFuture<Metadata> second = cache.get("b", "k", null, loader);
+    Assert.assertEquals(1, loads.get());
+    Assert.assertFalse(second.isDone());
+    // a caller that gives up does not cancel the lookup of the others
+    cache.get("b", "k", null, loader).cancel(true);
+    Assert.assertFalse(second.isDone());
+    Assert.assertFalse(pending.isCancelled());
+    // other versions and keys are separate
+    cache.get("b", "k", "v1", loader);
+    cache.get("b", "k2", null, loader);
+    Assert.assertEquals(3, loads.get());
+
+    pending.set(null);
+    Assert.assertNull(first.get());
+    Assert.assertNull(second.get());
+    cache.get("b", "k", null, loader);
+    Assert.assertEquals(3, loads.get());
+
+    cache.invalidate("b", "k");
+    cache.get("b", "k", null, loader);
+    cache.get("b", "k", "v1", loader);
+    Assert.assertEquals(5, loads.get());
+
+    cache.invalidatePrefix("b", "k");
+    cache.get("b", "k2", null, loader);
+    Assert.assertEquals(6, loads.get());
+  }
+
+
+  @Test
+  public void testExpiryAndFailure()
+    throws Throwable
+  {
+    MetadataCache cache = new MetadataCache();
+    final AtomicInteger loads = new AtomicInteger();
+    Callable<ListenableFuture<Metadata>> failing = new Callable<ListenableFuture<Metadata>>()
+    {
+      public ListenableFuture<Metadata> call()
+      {
+        loads.incrementAndGet();
+        return Futures.immediateFailedFuture(new RuntimeException("forced failure"));
+      }
+    };
+    try
+    {
+      cache.get("b", "k", null, failing).get();
+      Assert.fail("Exception expected");
+    }
+    catch(ExecutionException exc)
+    {
+      Assert.assertEquals("forced failure", exc.getCause().getMessage());
+    }
+    // failures are not kept
+    Assert.assertTrue(cache.get("b", "k", null, failing).isDone());
+    Assert.assertEquals(2, loads.get());
+
+    Callable<ListenableFuture<Metadata>> missing = new Callable<ListenableFuture<Metadata>>()
+    {
+      public ListenableFuture<Metadata> call()
+      {
+        loads.incrementAndGet();
+        return Futures.immediateFuture(null);
+      }
+    };
+    cache.setTtl(0, TimeUnit.MILLISECONDS);
+    cache.get("b", "k2", null, missing).get();
+    cache.get("b", "k2", null, missing).get();
+    Assert.assertEquals(4, loads.get());
+  }
+
+
+  @Test
+  public void testDownloadHeadsOnce()
+    throws Throwable
+  {
+    File file = TestUtils.createTextFile(1000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("metadata-cache"));
+    TestUtils.uploadFile(file, uri);
+
+    long before = getHeadCount();
+    File dest = TestUtils.createTmpFile();
+    TestUtils.downloadFile(uri, dest);
+    Assert.assertTrue(TestUtils.compareFiles(file, dest));
+    Assert.assertEquals(1, getHeadCount() - before);
+  }
+
+
+  @Test
+  public void testWriteInvalidates()
+    throws Throwable
+  {
+    File file = TestUtils.createTextFile(1000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("metadata-invalidate"));
+    String bucket = Utils.getBucketName(uri);
+    String key = Utils.getObjectKey(uri);
+    Assert.assertNull(TestUtils.objectExists(bucket, key));
+
+    TestUtils.uploadFile(file, uri);
+    Metadata first = TestUtils.objectExists(bucket, key);
+    Assert.assertNotNull(first);
+
+    File changed = TestUtils.createTextFile(2000);
+    TestUtils.uploadFile(changed, uri);
+    Metadata second = TestUtils.objectExists(bucket, key);
+    Assert.assertEquals(2000, second.getContentLength());
+
+    TestUtils.deleteObject(uri);
+    Assert.assertNull(TestUtils.objectExists(bucket, key));
+  }
+
+
+  private static long getHeadCount()
+  {
+    Long count = _client.getMetrics().getRequestCounts().get(ClientMetrics.HEAD);
+    return (count == null) ? 0 : count;
+  }
+}
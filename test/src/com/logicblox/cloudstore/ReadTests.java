@@ -0,0 +1,336 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+public class ReadTests
+{
+  private static final int CHUNK_SIZE = 5 * 1024 * 1024;
+
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+  private File _file;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testReadPlain()
+    throws Throwable
+  {
+    checkRanges(upload("read-plain", null, null), false);
+  }
+
+
+  @Test
+  public void testReadEncrypted()
+    throws Throwable
+  {
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+
+    // segments let small ranges fetch little more than the range itself
+    checkRanges(upload("read-encrypted", keyName, null), TestUtils.supportsMultiPart());
+  }
+
+
+  @Test
+  public void testReadCompressed()
+    throws Throwable
+  {
+    Assume.assumeTrue(TestUtils.supportsMultiPart());
+    checkRanges(upload("read-compressed", null, CompressionCodec.GZIP), false);
+  }
+
+
+  @Test
+  public void testReadBeyondEnd()
+    throws Throwable
+  {
+    File file = TestUtils.createTextFile(100);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("read-beyond-end"));
+    TestUtils.uploadFile(file, uri);
+    Assert.assertEquals(0, read(uri, 100, 0).length);
+    try
+    {
+      read(uri, 50, 51);
+      Assert.fail("Exception expected");
+    }
+    catch(ExecutionException exc)
+    {
+      Assert.assertTrue(exc.getCause() instanceof UsageException);
+      Assert.assertTrue(exc.getCause().getMessage().contains("beyond the end"));
+    }
+  }
+
+
+  @Test
+  public void testCoalesce()
+  {
+    List<ByteRange> ranges = Arrays.asList(new ByteRange(500, 100), new ByteRange(0, 100),
+      new ByteRange(150, 10), new ByteRange(5000, 0), new ByteRange(550, 100),
+      new ByteRange(1000, 10));
+    Assert.assertEquals("[0-160, 500-650, 1000-1010]",
+      VectoredReadCommand.coalesce(ranges, 50).toString());
+    Assert.assertEquals("[0-100, 150-160, 500-650, 1000-1010]",
+      VectoredReadCommand.coalesce(ranges, 0).toString());
+    Assert.assertEquals("[0-1010]", VectoredReadCommand.coalesce(ranges, 1000).toString());
+  }
+
+
+  @Test
+  public void testReadVectored()
+    throws Throwable
+  {
+    checkVectored(upload("read-vectored", null, null));
+  }
+
+
+  @Test
+  public void testReadVectoredEncrypted()
+    throws Throwable
+  {
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+    checkVectored(upload("read-vectored-encrypted", keyName, null));
+  }
+
+
+  @Test
+  public void testOpenPlain()
+    throws Throwable
+  {
+    checkChannel(upload("open-plain", null, null));
+  }
+
+
+  @Test
+  public void testOpenEncrypted()
+    throws Throwable
+  {
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+    checkChannel(upload("open-encrypted", keyName, null));
+  }
+
+
+  @Test
+  public void testOpenCompressed()
+    throws Throwable
+  {
+    Assume.assumeTrue(TestUtils.supportsMultiPart());
+    checkChannel(upload("open-compressed", null, CompressionCodec.GZIP));
+  }
+
+
+  private URI upload(String prefix, String keyName, String compression)
+    throws Throwable
+  {
+    _file = TestUtils.createTextFile(2 * CHUNK_SIZE + 1000000);
+    URI uri = TestUtils.getUri(_testBucket, _file, TestUtils.addPrefix(prefix));
+    UploadOptions opts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(_file)
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setChunkSize(CHUNK_SIZE)
+      .setEncKey(keyName)
+      .setCompression(compression)
+      .createOptions();
+    _client.upload(opts).get();
+    return uri;
+  }
+
+
+  private void checkRanges(URI uri, boolean checkOverRead)
+    throws Throwable
+  {
+    byte[] content = Files.readAllBytes(_file.toPath());
+    long[][] ranges = {{0, 1}, {100, 1000}, {CHUNK_SIZE - 10, 20}, {CHUNK_SIZE, CHUNK_SIZE},
+      {CHUNK_SIZE - 1, CHUNK_SIZE + 2}, {content.length - 100, 100}, {0, content.length},
+      {12345, 0}};
+    for(long[] range : ranges)
+    {
+      int offset = (int) range[0];
+      int length = (int) range[1];
+      long before = _client.getMetrics().getBytesDownloaded();
+      byte[] bytes = read(uri, offset, length);
+      Assert.assertTrue("range " + offset + "+" + length,
+        Arrays.equals(Arrays.copyOfRange(content, offset, offset + length), bytes));
+      if(checkOverRead)
+      {
+        long downloaded = _client.getMetrics().getBytesDownloaded() - before;
+        Assert.assertTrue("range " + offset + "+" + length + " downloaded " + downloaded,
+          downloaded <= length + 2 * (SegmentedCipherInputStream.DEFAULT_SEGMENT_SIZE +
+            SegmentedCipherInputStream.TAG_LENGTH) + length / 1000);
+      }
+    }
+  }
+
+
+  private void checkVectored(URI uri)
+    throws Throwable
+  {
+    byte[] content = Files.readAllBytes(_file.toPath());
+    // unsorted, overlapping, adjacent, empty and far apart ranges, one crossing a chunk
+    long[][] ranges = {{CHUNK_SIZE + 5000, 100}, {10, 100}, {50, 200}, {250, 10}, {300, 0},
+      {CHUNK_SIZE - 10, 20}, {2000, 1}, {content.length - 1, 1}};
+    VectoredReadOptionsBuilder builder = _client.getOptionsBuilderFactory()
+      .newVectoredReadOptionsBuilder()
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setMaxGap(1024);
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for(long[] range : ranges)
+    {
+      // a non-zero position checks that bytes go to the position of the buffer
+      ByteBuffer buffer = ByteBuffer.allocate((int) range[1] + 3);
+      buffer.position(3);
+      buffers.add(buffer);
+      builder.addRange(range[0], buffer);
+    }
+    List<ByteBuffer> result = _client.readVectored(builder.createOptions()).get();
+    Assert.assertEquals(buffers, result);
+    for(int i = 0; i < ranges.length; ++i)
+    {
+      int offset = (int) ranges[i][0];
+      int length = (int) ranges[i][1];
+      ByteBuffer buffer = result.get(i);
+      Assert.assertEquals(0, buffer.remaining());
+      Assert.assertTrue("range " + offset + "+" + length, Arrays.equals(
+        Arrays.copyOfRange(content, offset, offset + length),
+        Arrays.copyOfRange(buffer.array(), 3, 3 + length)));
+    }
+  }
+
+
+  private void checkChannel(URI uri)
+    throws Throwable
+  {
+    byte[] content = Files.readAllBytes(_file.toPath());
+    OpenOptions opts = _client.getOptionsBuilderFactory()
+      .newOpenOptionsBuilder()
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setBlockSize(1000000)
+      .setReadAheadBlocks(3)
+      .setMaxCachedBlocks(5)
+      .createOptions();
+    SeekableByteChannel channel = _client.open(opts).get();
+    Assert.assertEquals(content.length, channel.size());
+
+    // sequentially, through a stream, with reads that cross blocks
+    InputStream in = Channels.newInputStream(channel);
+    byte[] bytes = new byte[content.length];
+    int n = 0;
+    while(n < bytes.length)
+    {
+      int result = in.read(bytes, n, Math.min(bytes.length - n, 777777));
+      Assert.assertTrue(result > 0);
+      n += result;
+    }
+    Assert.assertEquals(-1, in.read());
+    Assert.assertTrue(Arrays.equals(content, bytes));
+
+    // random positions, some in evicted blocks
+    Random random = new Random(42);
+    for(int i = 0; i < 20; ++i)
+    {
+      int position = random.nextInt(content.length);
+      int length = Math.min(random.nextInt(100000) + 1, content.length - position);
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      channel.position(position);
+      while(buffer.hasRemaining())
+      {
+        Assert.assertTrue(channel.read(buffer) > 0);
+      }
+      Assert.assertEquals(position + length, channel.position());
+      Assert.assertTrue("range " + position + "+" + length, Arrays.equals(
+        Arrays.copyOfRange(content, position, position + length), buffer.array()));
+    }
+
+    channel.position(content.length + 10);
+    Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+    channel.close();
+    try
+    {
+      channel.read(ByteBuffer.allocate(1));
+      Assert.fail("Exception expected");
+    }
+    catch(ClosedChannelException exc)
+    {
+      // expected
+    }
+  }
+
+
+  private byte[] read(URI uri, long offset, long length)
+    throws Throwable
+  {
+    ReadOptions opts = _client.getOptionsBuilderFactory()
+      .newReadOptionsBuilder()
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setOffset(offset)
+      .setLength(length)
+      .createOptions();
+    return _client.read(opts).get();
+  }
+}
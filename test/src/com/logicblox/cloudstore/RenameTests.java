@@ -1645,18 +1645,31 @@ public class RenameTests
     // verify metadata
     Metadata destMeta = TestUtils.objectExists(Utils.getBucketName(dest), Utils.getObjectKey(dest));
     Assert.assertNotNull(destMeta);
-    Cipher cipherAES = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    long blockSize = cipherAES.getBlockSize();
-    long partSize = blockSize * (fileSize / blockSize + 2);
-    Assert.assertEquals(destMeta.getContentLength(), partSize);
-
-    // verify user metadata
     Map<String, String> destUserMeta = destMeta.getUserMetadata();
     Assert.assertNotNull(destUserMeta);
-    Assert.assertEquals(destUserMeta.size(), 6);
+    if(TestUtils.supportsMultiPart())
+    {
+      // encrypted in authenticated segments
+      int segmentSize = SegmentedCipherInputStream.DEFAULT_SEGMENT_SIZE;
+      Assert.assertEquals(destMeta.getContentLength(),
+        SegmentedCipherInputStream.getEncryptedLength(fileSize, segmentSize));
+      Assert.assertEquals(destUserMeta.size(), 7);
+      Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-version")), Version.SEGMENTED);
+      Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-segment-size")), segmentSize);
+    }
+    else
+    {
+      Cipher cipherAES = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      long blockSize = cipherAES.getBlockSize();
+      long partSize = blockSize * (fileSize / blockSize + 2);
+      Assert.assertEquals(destMeta.getContentLength(), partSize);
+      Assert.assertEquals(destUserMeta.size(), 6);
+      Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-version")), Version.CURRENT);
+    }
+
+    // verify user metadata
     Assert.assertEquals(Long.parseLong(destUserMeta.get("s3tool-chunk-size")), chunkSize);
     Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-file-length")), fileSize);
-    Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-version")), Version.CURRENT);
     Assert.assertEquals(destUserMeta.get("s3tool-key-name"), keyName);
 
     PrivateKey privKey = _client.getKeyProvider().getPrivateKey(keyName);
@@ -0,0 +1,175 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+public class SpoolTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testSubmitAndFlush()
+    throws Throwable
+  {
+    File spoolDir = TestUtils.createTmpDir(true);
+    UploadSpool spool = new UploadSpoolBuilder()
+      .setClient(_client)
+      .setDirectory(spoolDir)
+      .setMaxConcurrentUploads(2)
+      .createUploadSpool();
+    String prefix = TestUtils.addPrefix("spool-flush");
+
+    List<File> files = new ArrayList<>();
+    List<URI> uris = new ArrayList<>();
+    for(int i = 0; i < 5; ++i)
+    {
+      File file = TestUtils.createTextFile(1000 * (i + 1));
+      URI uri = TestUtils.getUri(_testBucket, file, prefix);
+      spool.submit(options(file, uri), i % 2);
+      files.add(file);
+      uris.add(uri);
+    }
+
+    spool.flush().get();
+    Assert.assertEquals(0, spool.getPendingCount());
+    Assert.assertEquals(0, spoolDir.list().length);
+    for(int i = 0; i < files.size(); ++i)
+    {
+      File dl = TestUtils.createTmpFile();
+      TestUtils.downloadFile(uris.get(i), dl, true);
+      Assert.assertTrue(TestUtils.compareFiles(files.get(i), dl));
+    }
+    spool.shutdown();
+  }
+
+
+  @Test
+  public void testRecoverAfterRestart()
+    throws Throwable
+  {
+    File spoolDir = TestUtils.createTmpDir(true);
+    UploadSpool spool = new UploadSpoolBuilder()
+      .setClient(_client)
+      .setDirectory(spoolDir)
+      .setCopyFiles(true)
+      .createUploadSpool();
+    spool.pause();
+
+    File file = TestUtils.createTextFile(5000);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("spool-restart"));
+    File original = TestUtils.createTmpFile();
+    Files.copy(file.toPath(), original.toPath(),
+      StandardCopyOption.REPLACE_EXISTING);
+    spool.submit(options(file, uri), 0);
+    // the spool has its own copy
+    file.delete();
+    Assert.assertEquals(1, spool.getPendingCount());
+    spool.shutdown();
+    Assert.assertNull(TestUtils.objectExists(Utils.getBucketName(uri), Utils.getObjectKey(uri)));
+
+    UploadSpool recovered = new UploadSpoolBuilder()
+      .setClient(_client)
+      .setDirectory(spoolDir)
+      .createUploadSpool();
+    recovered.flush().get();
+    Assert.assertEquals(0, recovered.getPendingCount());
+    Assert.assertEquals(0, spoolDir.list().length);
+    File dl = TestUtils.createTmpFile();
+    TestUtils.downloadFile(uri, dl, true);
+    Assert.assertTrue(TestUtils.compareFiles(original, dl));
+    recovered.shutdown();
+  }
+
+
+  @Test
+  public void testPermanentFailure()
+    throws Throwable
+  {
+    File spoolDir = TestUtils.createTmpDir(true);
+    UploadSpool spool = new UploadSpoolBuilder()
+      .setClient(_client)
+      .setDirectory(spoolDir)
+      .setMaxRetries(0)
+      .createUploadSpool();
+    spool.pause();
+    File file = TestUtils.createTextFile(100);
+    URI uri = TestUtils.getUri(_testBucket, file, TestUtils.addPrefix("spool-fail"));
+    spool.submit(options(file, uri), 0);
+    // the journal only refers to the file, so the upload cannot succeed
+    file.delete();
+    spool.resume();
+
+    try
+    {
+      spool.flush().get();
+      Assert.fail("Expected an exception");
+    }
+    catch(ExecutionException expected)
+    {
+      // expected
+    }
+    Assert.assertEquals(0, spool.getPendingCount());
+    Assert.assertEquals(1, spoolDir.list().length);
+    Assert.assertTrue(spoolDir.list()[0].endsWith(".failed"));
+    spool.shutdown();
+  }
+
+
+  private UploadOptions options(File file, URI uri)
+  {
+    return _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(file)
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .createOptions();
+  }
+}
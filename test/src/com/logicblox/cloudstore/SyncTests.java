@@ -0,0 +1,185 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+public class SyncTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testSyncUpload()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("sync-upload");
+    File top = TestUtils.createTmpDir(true);
+    File a = TestUtils.createTextFile(top, 100);
+    File b = TestUtils.createTextFile(top, 200);
+    File sub = TestUtils.createTmpDir(top);
+    TestUtils.createTextFile(sub, 300);
+    URI dest = TestUtils.getUri(_testBucket, top, rootPrefix);
+
+    // first sync uploads everything
+    List<StoreFile> files = sync(top, dest, SyncOptions.Direction.UPLOAD, false, false);
+    Assert.assertEquals(3, files.size());
+    Assert.assertEquals(3, TestUtils.listObjects(_testBucket, Utils.getObjectKey(dest)).size());
+
+    // nothing changed
+    files = sync(top, dest, SyncOptions.Direction.UPLOAD, false, false);
+    Assert.assertEquals(0, files.size());
+    files = sync(top, dest, SyncOptions.Direction.UPLOAD, false, true);
+    Assert.assertEquals(0, files.size());
+
+    // a newer file with the same content is not uploaded again
+    a.setLastModified(System.currentTimeMillis() + 3600 * 1000);
+    files = sync(top, dest, SyncOptions.Direction.UPLOAD, false, false);
+    Assert.assertEquals(0, files.size());
+
+    // changed and removed files
+    TestUtils.writeToFile("changed", a);
+    Assert.assertTrue(b.delete());
+    files = sync(top, dest, SyncOptions.Direction.UPLOAD, false, false);
+    Assert.assertEquals(1, files.size());
+    Assert.assertEquals(3, TestUtils.listObjects(_testBucket, Utils.getObjectKey(dest)).size());
+    files = sync(top, dest, SyncOptions.Direction.UPLOAD, true, false);
+    Assert.assertEquals(1, files.size());
+    Assert.assertEquals(2, TestUtils.listObjects(_testBucket, Utils.getObjectKey(dest)).size());
+
+    File dlDir = TestUtils.createTmpDir(true);
+    TestUtils.downloadRecursively(dest, dlDir);
+    Assert.assertTrue(TestUtils.compareFiles(a, new File(dlDir, a.getName())));
+    Assert.assertFalse(new File(dlDir, b.getName()).exists());
+  }
+
+
+  @Test
+  public void testSyncDownload()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("sync-download");
+    File top = TestUtils.createTmpDir(true);
+    File a = TestUtils.createTextFile(top, 100);
+    File b = TestUtils.createTextFile(top, 200);
+    File sub = TestUtils.createTmpDir(top);
+    File c = TestUtils.createTextFile(sub, 300);
+    URI src = TestUtils.getUri(_testBucket, top, rootPrefix);
+    Assert.assertEquals(3, TestUtils.uploadDir(top, src).size());
+
+    // first sync downloads everything, including the subdirectory
+    File dlDir = TestUtils.createTmpDir(true);
+    List<StoreFile> files = sync(dlDir, src, SyncOptions.Direction.DOWNLOAD, false, false);
+    Assert.assertEquals(3, files.size());
+    File dlA = new File(dlDir, a.getName());
+    File dlC = new File(new File(dlDir, sub.getName()), c.getName());
+    Assert.assertTrue(TestUtils.compareFiles(a, dlA));
+    Assert.assertTrue(TestUtils.compareFiles(c, dlC));
+
+    // nothing changed
+    files = sync(dlDir, src, SyncOptions.Direction.DOWNLOAD, false, false);
+    Assert.assertEquals(0, files.size());
+
+    // a touched file with the same content is not downloaded again, but gets the time of the
+    // object back
+    long objectTime = dlA.lastModified();
+    dlA.setLastModified(objectTime - 3600 * 1000);
+    files = sync(dlDir, src, SyncOptions.Direction.DOWNLOAD, false, false);
+    Assert.assertEquals(0, files.size());
+    Assert.assertEquals(objectTime / 1000, dlA.lastModified() / 1000);
+
+    // changed and extraneous files
+    TestUtils.writeToFile("changed", dlA);
+    File extra = TestUtils.createTextFile(dlDir, 10);
+    files = sync(dlDir, src, SyncOptions.Direction.DOWNLOAD, false, true);
+    Assert.assertEquals(1, files.size());
+    Assert.assertTrue(TestUtils.compareFiles(a, dlA));
+    Assert.assertTrue(extra.exists());
+    files = sync(dlDir, src, SyncOptions.Direction.DOWNLOAD, true, false);
+    Assert.assertEquals(1, files.size());
+    Assert.assertFalse(extra.exists());
+    Assert.assertTrue(new File(dlDir, b.getName()).exists());
+  }
+
+
+  @Test
+  public void testSyncDryRun()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("sync-dryrun");
+    File top = TestUtils.createTmpDir(true);
+    TestUtils.createTextFile(top, 100);
+    TestUtils.createTextFile(top, 100);
+    URI dest = TestUtils.getUri(_testBucket, top, rootPrefix);
+
+    SyncOptions opts = _client.getOptionsBuilderFactory()
+      .newSyncOptionsBuilder()
+      .setFile(top)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setDirection(SyncOptions.Direction.UPLOAD)
+      .setDryRun(true)
+      .createOptions();
+    Assert.assertNull(_client.sync(opts).get());
+    Assert.assertEquals(0, TestUtils.listObjects(_testBucket, Utils.getObjectKey(dest)).size());
+  }
+
+
+  private List<StoreFile> sync(
+    File dir, URI uri, SyncOptions.Direction direction, boolean delete, boolean checksum)
+    throws Throwable
+  {
+    SyncOptions opts = _client.getOptionsBuilderFactory()
+      .newSyncOptionsBuilder()
+      .setFile(dir)
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setDirection(direction)
+      .setDelete(delete)
+      .setChecksum(checksum)
+      .createOptions();
+    return _client.sync(opts).get();
+  }
+}
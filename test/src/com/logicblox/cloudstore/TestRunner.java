@@ -31,7 +31,16 @@ import org.junit.runners.Suite;
                       CopyTests.class,
                       DeleteTests.class,
                       RenameTests.class,
-                      MultiKeyTests.class})
+                      MultiKeyTests.class,
+                      SyncTests.class,
+                      VerifyTests.class,
+                      ConcatTests.class,
+                      ReadTests.class,
+                      CacheTests.class,
+                      MetadataCacheTests.class,
+                      SpoolTests.class,
+                      DedupTests.class,
+                      BatchTests.class})
 public class TestRunner
 {
   public static void main(String[] args)
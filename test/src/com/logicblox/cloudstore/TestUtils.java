@@ -56,6 +56,7 @@ public class TestUtils
   private static Random _rand = null;
   private static Set<File> _autoDeleteDirs = new HashSet<File>();
   private static Set<String> _bucketsToDestroy = new HashSet<String>();
+  private static FakeS3Server _embeddedServer = null;
 
   static boolean SKIP_CLEANUP = false;
   static final int RETRY_COUNT = 5;
@@ -92,6 +93,15 @@ public class TestUtils
         ++i;
         Utils.setDefaultKeyDir(args[i]);
       }
+      else if(args[i].equals("--embedded"))
+      {
+        startEmbeddedServer(null);
+      }
+      else if(args[i].equals("--embedded-dir"))
+      {
+        ++i;
+        startEmbeddedServer(new File(args[i]));
+      }
       else
       {
         System.out.println("Error:  '" + args[i] + "' unexpected");
@@ -122,6 +132,40 @@ public class TestUtils
   }
 
 
+  // run the tests against an in-process FakeS3Server instead of a
+  // real storage service.  data is kept in memory unless dataDir is set
+  public static void startEmbeddedServer(File dataDir)
+  {
+    try
+    {
+      _embeddedServer = new FakeS3Server(new FakeS3Storage(dataDir));
+      _embeddedServer.start();
+    }
+    catch(IOException e)
+    {
+      System.out.println("Error: cannot start embedded server: " + e.getMessage());
+      System.exit(1);
+    }
+    _service = "s3";
+    _endpoint = _embeddedServer.getEndpoint();
+
+    // the embedded server doesn't check signatures, but the AWS SDK
+    // needs some credentials to sign requests with
+    if(System.getProperty("aws.accessKeyId") == null)
+    {
+      System.setProperty("aws.accessKeyId", "cloud-store");
+      System.setProperty("aws.secretKey", "cloud-store");
+    }
+  }
+
+
+  // return the embedded server started by --embedded, or null
+  public static FakeS3Server getEmbeddedServer()
+  {
+    return _embeddedServer;
+  }
+
+
   public static void setUp()
     throws Throwable
   {
@@ -341,7 +385,7 @@ public class TestUtils
     }
     ListOptions lsOpts = builder.createOptions();
     List<StoreFile> objs = _client.listObjects(lsOpts).get();
-    for(StoreFile f : objs)
+    for(StoreFile f : PartManifest.withoutAttachedManifests(objs))
       deleteObject(bucket, f.getObjectKey());
   }
 
@@ -379,6 +423,14 @@ public class TestUtils
     return false;
   }
 
+  // number of requests of a type sent by the test client since the counts in before
+  public static long getRequestCount(Map<String, Long> before, String requestType)
+  {
+    Long now = _client.getMetrics().getRequestCounts().get(requestType);
+    Long then = before.get(requestType);
+    return ((now == null) ? 0 : now) - ((then == null) ? 0 : then);
+  }
+
   public static Metadata objectExists(String bucket, String key)
     throws ExecutionException, InterruptedException
   {
@@ -598,7 +650,7 @@ public class TestUtils
   public static boolean supportsAcl()
     throws MalformedURLException
   {
-    if(getEndpoint() == null)
+    if(getEndpoint() == null || _embeddedServer != null)
       return true;
 
     // Minio doesn't support ACLs
@@ -992,7 +1044,7 @@ public class TestUtils
   {
     System.out.println(
       "usage:  TestRunner {--help || -h} {--service s3|gs} {--endpoint url} {--dest-prefix url} " +
-        "{--keydir dir}");
+        "{--keydir dir} {--embedded || --embedded-dir dir}");
   }
 
 }
@@ -16,6 +16,9 @@
 
 package com.logicblox.cloudstore;
 
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
 import junit.framework.Assert;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.AfterClass;
@@ -24,14 +27,25 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.file.Files;
 import java.security.Key;
 import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
@@ -925,6 +939,376 @@ public class UploadDownloadTests
   }
 
 
+  @Test
+  public void testDirectoryUploadFilters()
+    throws Throwable
+  {
+    File top = TestUtils.createTmpDir(true);
+    File a = new File(top, "a.csv");
+    File b = new File(top, "b.txt");
+    File sub = new File(top, "sub");
+    File c = new File(sub, "c.csv");
+    File skip = new File(top, "skip");
+    File d = new File(skip, "d.csv");
+    sub.mkdir();
+    skip.mkdir();
+    for(File f : new File[]{a, b, c, d})
+    {
+      TestUtils.writeToFile(f.getName(), f);
+    }
+    Files.createSymbolicLink(new File(top, "link.csv").toPath(), a.toPath());
+    Files.createSymbolicLink(new File(top, "linkdir").toPath(), sub.toPath());
+
+    String rootPrefix = TestUtils.addPrefix("dir-filters/");
+    URI dest = TestUtils.getUri(_testBucket, top, rootPrefix);
+    UploadOptions opts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(top)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setIncludes(Collections.singletonList("**.csv"))
+      .setExcludes(Collections.singletonList("skip"))
+      .createOptions();
+    Assert.assertEquals(2, _client.uploadRecursively(opts).get().size());
+
+    List<StoreFile> objs = TestUtils.listObjects(_testBucket, rootPrefix);
+    String topN = rootPrefix + top.getName() + "/";
+    Assert.assertEquals(2, objs.size());
+    Assert.assertTrue(TestUtils.findObject(objs, topN + "a.csv"));
+    Assert.assertTrue(TestUtils.findObject(objs, topN + "sub/c.csv"));
+
+    try
+    {
+      _client.getOptionsBuilderFactory()
+        .newUploadOptionsBuilder()
+        .setFile(top)
+        .setBucketName(Utils.getBucketName(dest))
+        .setObjectKey(Utils.getObjectKey(dest))
+        .setIncludes(Collections.singletonList("[a-"))
+        .createOptions();
+      Assert.fail("Expected an exception");
+    }
+    catch(UsageException expected)
+    {
+      // expected
+    }
+  }
+
+
+  @Test
+  public void testPackedUploadDownload()
+    throws Throwable
+  {
+    File top = TestUtils.createTmpDir(true);
+    File a = TestUtils.createTextFile(top, 100);
+    File b = TestUtils.createTextFile(top, 700);
+    File big = TestUtils.createTextFile(top, 5000);
+    File sub = TestUtils.createTmpDir(top);
+    File c = TestUtils.createTextFile(sub, 0);
+    // too long for the name field of a tar header
+    StringBuilder longName = new StringBuilder();
+    for(int i = 0; i < 12; ++i)
+    {
+      longName.append("long-name-");
+    }
+    File deep = new File(sub, longName.toString());
+    deep.mkdir();
+    File d = new File(deep, "d.txt");
+    Files.copy(TestUtils.createTextFile(300).toPath(), d.toPath());
+
+    String rootPrefix = TestUtils.addPrefix("dir-packed/");
+    URI dest = TestUtils.getUri(_testBucket, top, rootPrefix);
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(top)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setPackSize(2048)
+      .createOptions();
+    _client.uploadRecursively(upOpts).get();
+
+    // the big file is an object of its own, the small ones are in archives
+    String topN = rootPrefix + top.getName() + "/";
+    List<StoreFile> objs = TestUtils.listObjects(_testBucket, rootPrefix);
+    Assert.assertTrue(TestUtils.findObject(objs, topN + big.getName()));
+    Assert.assertTrue(TestUtils.findObject(objs, PackIndex.getIndexKey(topN)));
+    Assert.assertTrue(TestUtils.findObject(objs, PackIndex.getArchiveKey(topN, 0)));
+    Assert.assertFalse(TestUtils.findObject(objs, topN + a.getName()));
+
+    // every archive is streamed as a whole
+    File dlDir = TestUtils.createTmpDir(true);
+    TestUtils.downloadRecursively(dest, dlDir);
+    Assert.assertEquals(4, dlDir.list().length);
+    Assert.assertTrue(TestUtils.compareFiles(a, new File(dlDir, a.getName())));
+    Assert.assertTrue(TestUtils.compareFiles(b, new File(dlDir, b.getName())));
+    Assert.assertTrue(TestUtils.compareFiles(big, new File(dlDir, big.getName())));
+    File dlSub = new File(dlDir, sub.getName());
+    Assert.assertTrue(TestUtils.compareFiles(c, new File(dlSub, c.getName())));
+    Assert.assertTrue(
+      TestUtils.compareFiles(d, new File(new File(dlSub, deep.getName()), d.getName())));
+
+    // a single file is read with a ranged read
+    File partialDir = TestUtils.createTmpDir(true);
+    DownloadOptions dlOpts = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(partialDir)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setIncludes(Collections.singletonList("**/d.txt"))
+      .createOptions();
+    _client.downloadRecursively(dlOpts).get();
+    Assert.assertEquals(1, partialDir.list().length);
+    File partialSub = new File(partialDir, sub.getName());
+    Assert.assertEquals(1, partialSub.list().length);
+    Assert.assertTrue(
+      TestUtils.compareFiles(d, new File(new File(partialSub, deep.getName()), d.getName())));
+  }
+
+
+  @Test
+  public void testFanOutUpload()
+    throws Throwable
+  {
+    // the part size is the minimum S3 part size, so that the file has three parts
+    long chunkSize = 5 * 1024 * 1024;
+    File toUpload = TestUtils.createTextFile(2 * chunkSize + 1000);
+    String otherBucket = TestUtils.createTestBucket();
+    String rootPrefix = TestUtils.addPrefix("fan-out");
+    URI first = TestUtils.getUri(_testBucket, toUpload, rootPrefix + "/a");
+    URI second = TestUtils.getUri(otherBucket, toUpload, rootPrefix + "/b");
+
+    // a destination that fails does not stop the others
+    FanOutUpload upload = new FanOutUploadBuilder()
+      .setFile(toUpload)
+      .setChunkSize(chunkSize)
+      .addDestination(_client, Utils.getBucketName(first), Utils.getObjectKey(first))
+      .addDestination(_client, _testBucket, rootPrefix + "/c", "no-such-fan-out-key", null)
+      .addDestination(_client, Utils.getBucketName(second), Utils.getObjectKey(second))
+      .createFanOutUpload();
+    List<StoreFile> uploaded = upload.start().get();
+    Assert.assertEquals(3, uploaded.size());
+    Assert.assertNotNull(uploaded.get(0));
+    Assert.assertNull(uploaded.get(1));
+    Assert.assertNotNull(uploaded.get(2));
+    try
+    {
+      upload.getUploads().get(1).get();
+      Assert.fail("expected exception");
+    }
+    catch(ExecutionException exc)
+    {
+      // expected
+    }
+    Assert.assertEquals(toUpload.length(), upload.getBytesRead());
+
+    for(URI uri : new URI[]{first, second})
+    {
+      File dlTemp = TestUtils.createTmpFile();
+      TestUtils.downloadFile(uri, dlTemp, true);
+      Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+    }
+
+    // without a buffer every destination reads the file itself
+    FanOutUpload unbuffered = new FanOutUploadBuilder()
+      .setFile(toUpload)
+      .setChunkSize(chunkSize)
+      .setMaxBufferedBytes(0)
+      .addDestination(_client, Utils.getBucketName(first), Utils.getObjectKey(first))
+      .addDestination(_client, Utils.getBucketName(second), Utils.getObjectKey(second))
+      .createFanOutUpload();
+    unbuffered.start().get();
+    Assert.assertEquals(2 * toUpload.length(), unbuffered.getBytesRead());
+  }
+
+
+  @Test
+  public void testClientMetrics()
+    throws Throwable
+  {
+    ClientMetrics metrics = _client.getMetrics();
+    long headCount = metrics.getLatency(ClientMetrics.HEAD).getCount();
+    long bytesUploaded = metrics.getBytesUploaded();
+    long bytesDownloaded = metrics.getBytesDownloaded();
+
+    File toUpload = TestUtils.createTextFile(100);
+    String rootPrefix = TestUtils.addPrefix("metrics/");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+    Assert.assertNotNull(TestUtils.uploadFile(toUpload, dest));
+
+    File dlTemp = TestUtils.createTmpFile();
+    Assert.assertNotNull(TestUtils.downloadFile(dest, dlTemp));
+    Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+
+    Assert.assertTrue(metrics.getLatency(ClientMetrics.HEAD).getCount() > headCount);
+    Assert.assertTrue(metrics.getBytesUploaded() >= bytesUploaded + toUpload.length());
+    Assert.assertTrue(metrics.getBytesDownloaded() >= bytesDownloaded + toUpload.length());
+    Assert.assertEquals(Long.valueOf(0), metrics.getInFlightRequests().get(ClientMetrics.HEAD));
+    Assert.assertTrue(metrics.toJson().contains("\"" + ClientMetrics.HEAD + "\""));
+  }
+
+
+  @Test
+  public void testDirectoryTransferProgress()
+    throws Throwable
+  {
+    File top = TestUtils.createTmpDir(true);
+    File a = TestUtils.createTextFile(top, 1000);
+    File b = TestUtils.createTextFile(top, 2000);
+    File sub = TestUtils.createTmpDir(top);
+    File c = TestUtils.createTextFile(sub, 3000);
+    long totalBytes = a.length() + b.length() + c.length();
+
+    String rootPrefix = TestUtils.addPrefix("dir-progress/");
+    URI dest = TestUtils.getUri(_testBucket, top, rootPrefix);
+
+    // upload the directory
+    TransferProgressRecorder uploadProgress = new TransferProgressRecorder();
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(top)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setTransferProgressListener(uploadProgress)
+      .createOptions();
+    Assert.assertEquals(3, _client.uploadRecursively(upOpts).get().size());
+
+    TransferProgress last = uploadProgress.waitForFinalReport();
+    Assert.assertEquals("upload", last.getOperation());
+    Assert.assertEquals(3, last.getTotalObjects());
+    Assert.assertEquals(3, last.getCompletedObjects());
+    Assert.assertEquals(totalBytes, last.getTotalBytes());
+    Assert.assertEquals(totalBytes, last.getTransferredBytes());
+    Assert.assertEquals(0, last.getEtaMillis());
+
+    // download it again
+    TransferProgressRecorder downloadProgress = new TransferProgressRecorder();
+    DownloadOptions dlOpts = _client.getOptionsBuilderFactory()
+      .newDownloadOptionsBuilder()
+      .setFile(TestUtils.createTmpDir(true))
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setOverwrite(true)
+      .setTransferProgressListener(downloadProgress)
+      .createOptions();
+    Assert.assertEquals(3, _client.downloadRecursively(dlOpts).get().size());
+
+    last = downloadProgress.waitForFinalReport();
+    Assert.assertEquals("download", last.getOperation());
+    Assert.assertEquals(3, last.getTotalObjects());
+    Assert.assertEquals(3, last.getCompletedObjects());
+    Assert.assertEquals(totalBytes, last.getTotalBytes());
+    Assert.assertEquals(totalBytes, last.getTransferredBytes());
+  }
+
+
+  @Test
+  public void testTransferSessionReports()
+    throws Throwable
+  {
+    // two parts, so that part progress arrives in several events
+    File toUpload = TestUtils.createTextFile(6 * 1024 * 1024);
+    String rootPrefix = TestUtils.addPrefix("session-progress");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+
+    TransferProgressRecorder recorder = new TransferProgressRecorder();
+    TransferSession session = new TransferSession("upload", 0, 0, recorder, null,
+      _client.getInternalExecutor(), 10);
+    session.start();
+    session.addObject(toUpload.length());
+
+    // the first periodic report arrives before any bytes are transferred
+    TransferProgress first = recorder.waitForReports(1).get(0);
+    Assert.assertFalse(first.isDone());
+    Assert.assertEquals(1, first.getTotalObjects());
+    Assert.assertEquals(toUpload.length(), first.getTotalBytes());
+    Assert.assertEquals(0, first.getTransferredBytes());
+    Assert.assertEquals(0, first.getCompletedObjects());
+
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(toUpload)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setChunkSize(5 * 1024 * 1024)
+      .setOverallProgressListenerFactory(session)
+      .createOptions();
+    ListenableFuture<StoreFile> upload = _client.upload(upOpts);
+    session.track(dest.toString(), toUpload.length(), upload);
+    session.stopOnCompletion(upload);
+    upload.get();
+
+    TransferProgress last = recorder.waitForFinalReport();
+    Assert.assertEquals("upload", last.getOperation());
+    Assert.assertEquals(1, last.getTotalObjects());
+    Assert.assertEquals(1, last.getCompletedObjects());
+    Assert.assertEquals(toUpload.length(), last.getTotalBytes());
+    Assert.assertEquals(toUpload.length(), last.getTransferredBytes());
+    Assert.assertEquals(0, last.getEtaMillis());
+
+    // progress never goes backwards and the final report is the only one that is done
+    List<TransferProgress> reports = recorder.getReports();
+    long transferred = 0;
+    for(int i = 0; i < reports.size(); ++i)
+    {
+      TransferProgress p = reports.get(i);
+      Assert.assertTrue(p.getTransferredBytes() >= transferred);
+      Assert.assertTrue(p.getTransferredBytes() <= p.getTotalBytes());
+      Assert.assertEquals(i == reports.size() - 1, p.isDone());
+      transferred = p.getTransferredBytes();
+    }
+
+    // stopping again does not report again
+    session.stop();
+    Assert.assertEquals(reports.size(), recorder.getReports().size());
+  }
+
+
+  private static class TransferProgressRecorder
+    implements TransferProgressListener
+  {
+    private final List<TransferProgress> _reports = new ArrayList<>();
+    private TransferProgress _last;
+
+    public synchronized void progress(TransferProgress progress)
+    {
+      _reports.add(progress);
+      _last = progress;
+      notifyAll();
+    }
+
+    synchronized List<TransferProgress> getReports()
+    {
+      return new ArrayList<>(_reports);
+    }
+
+    synchronized List<TransferProgress> waitForReports(int count)
+      throws InterruptedException
+    {
+      long deadline = System.currentTimeMillis() + 10000;
+      while(_reports.size() < count && System.currentTimeMillis() < deadline)
+      {
+        wait(100);
+      }
+      Assert.assertTrue(_reports.size() >= count);
+      return new ArrayList<>(_reports);
+    }
+
+    // the final report is sent asynchronously once the transfer future completes
+    synchronized TransferProgress waitForFinalReport()
+      throws InterruptedException
+    {
+      long deadline = System.currentTimeMillis() + 10000;
+      while((_last == null || !_last.isDone()) && System.currentTimeMillis() < deadline)
+      {
+        wait(100);
+      }
+      Assert.assertNotNull(_last);
+      Assert.assertTrue(_last.isDone());
+      return _last;
+    }
+  }
+
+
   @Test
   public void testMultipartUploadDownload()
     throws Throwable
@@ -979,6 +1363,396 @@ public class UploadDownloadTests
   }
 
 
+  @Test
+  public void testDeltaUpload()
+    throws Throwable
+  {
+    Assume.assumeTrue(TestUtils.supportsMultiPart());
+
+    int chunkSize = 5 * 1024 * 1024;
+    int fileSize = 3 * chunkSize - 1000;
+    File toUpload = TestUtils.createTextFile(fileSize);
+    String rootPrefix = TestUtils.addPrefix("delta-upload");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(toUpload)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setChunkSize(chunkSize)
+      .setDelta(true)
+      .createOptions();
+
+    // without a manifest every part is uploaded
+    Map<String, Long> before = _client.getMetrics().getRequestCounts();
+    _client.upload(upOpts).get();
+    Assert.assertEquals(3, TestUtils.getRequestCount(before, ClientMetrics.UPLOAD_PART));
+    Assert.assertEquals(0, TestUtils.getRequestCount(before, ClientMetrics.COPY_PART));
+
+    // change the middle part only
+    try(RandomAccessFile raf = new RandomAccessFile(toUpload, "rw"))
+    {
+      raf.seek(chunkSize + 10);
+      raf.write("changed".getBytes("UTF-8"));
+    }
+    before = _client.getMetrics().getRequestCounts();
+    StoreFile f = _client.upload(upOpts).get();
+    Assert.assertEquals(1, TestUtils.getRequestCount(before, ClientMetrics.UPLOAD_PART));
+    Assert.assertEquals(2, TestUtils.getRequestCount(before, ClientMetrics.COPY_PART));
+    Assert.assertEquals(Utils.getObjectKey(dest), f.getObjectKey());
+
+    File dlTemp = TestUtils.createTmpFile();
+    TestUtils.downloadFile(dest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+
+    // a manifest of a replaced object is ignored
+    try(RandomAccessFile raf = new RandomAccessFile(toUpload, "rw"))
+    {
+      raf.seek(10);
+      raf.write("replaced".getBytes("UTF-8"));
+    }
+    TestUtils.uploadFile(toUpload, dest);
+    before = _client.getMetrics().getRequestCounts();
+    _client.upload(upOpts).get();
+    Assert.assertEquals(0, TestUtils.getRequestCount(before, ClientMetrics.COPY_PART));
+
+    // manifests are not part of recursive downloads
+    File dlDir = TestUtils.createTmpDir(true);
+    URI prefix = new URI(dest.toString().substring(0, dest.toString().lastIndexOf('/') + 1));
+    Assert.assertEquals(1, TestUtils.downloadRecursively(prefix, dlDir).size());
+  }
+
+
+  @Test
+  public void testDeltaManifestFollowsObject()
+    throws Throwable
+  {
+    Assume.assumeTrue(TestUtils.supportsMultiPart());
+
+    int chunkSize = 5 * 1024 * 1024;
+    File toUpload = TestUtils.createTextFile(2 * chunkSize - 1000);
+    String rootPrefix = TestUtils.addPrefix("delta-manifest");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+    String key = Utils.getObjectKey(dest);
+    String dir = key.substring(0, key.lastIndexOf('/') + 1);
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(toUpload)
+      .setBucketName(_testBucket)
+      .setObjectKey(key)
+      .setChunkSize(chunkSize)
+      .setDelta(true)
+      .createOptions();
+    _client.upload(upOpts).get();
+    Assert.assertNotNull(TestUtils.objectExists(_testBucket, PartManifest.getKey(key)));
+
+    // a copy takes the manifest along, so a delta upload to the copy copies every part
+    String copyKey = dir + "copy/" + toUpload.getName();
+    CopyOptions copyOpts = _client.getOptionsBuilderFactory()
+      .newCopyOptionsBuilder()
+      .setSourceBucketName(_testBucket)
+      .setSourceObjectKey(key)
+      .setDestinationBucketName(_testBucket)
+      .setDestinationObjectKey(copyKey)
+      .createOptions();
+    _client.copy(copyOpts).get();
+    Assert.assertNotNull(TestUtils.objectExists(_testBucket, PartManifest.getKey(copyKey)));
+    UploadOptions copyUpOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(toUpload)
+      .setBucketName(_testBucket)
+      .setObjectKey(copyKey)
+      .setChunkSize(chunkSize)
+      .setDelta(true)
+      .createOptions();
+    Map<String, Long> before = _client.getMetrics().getRequestCounts();
+    _client.upload(copyUpOpts).get();
+    Assert.assertEquals(0, TestUtils.getRequestCount(before, ClientMetrics.UPLOAD_PART));
+    Assert.assertEquals(2, TestUtils.getRequestCount(before, ClientMetrics.COPY_PART));
+
+    // a rename moves the manifest
+    String renameKey = dir + "renamed/" + toUpload.getName();
+    RenameOptions renameOpts = _client.getOptionsBuilderFactory()
+      .newRenameOptionsBuilder()
+      .setSourceBucketName(_testBucket)
+      .setSourceObjectKey(copyKey)
+      .setDestinationBucketName(_testBucket)
+      .setDestinationObjectKey(renameKey)
+      .createOptions();
+    _client.rename(renameOpts).get();
+    Assert.assertNull(TestUtils.objectExists(_testBucket, PartManifest.getKey(copyKey)));
+    Assert.assertNotNull(TestUtils.objectExists(_testBucket, PartManifest.getKey(renameKey)));
+
+    // recursive copies carry manifests once, recursive deletes remove them
+    String treeKey = dir + "tree/";
+    CopyOptions treeOpts = _client.getOptionsBuilderFactory()
+      .newCopyOptionsBuilder()
+      .setSourceBucketName(_testBucket)
+      .setSourceObjectKey(dir + "renamed/")
+      .setDestinationBucketName(_testBucket)
+      .setDestinationObjectKey(treeKey)
+      .createOptions();
+    Assert.assertEquals(1, _client.copyRecursively(treeOpts).get().size());
+    Assert.assertNotNull(TestUtils.objectExists(_testBucket,
+      PartManifest.getKey(treeKey + toUpload.getName())));
+    DeleteOptions delOpts = _client.getOptionsBuilderFactory()
+      .newDeleteOptionsBuilder()
+      .setBucketName(_testBucket)
+      .setObjectKey(treeKey)
+      .createOptions();
+    _client.deleteRecursively(delOpts).get();
+    Assert.assertTrue(TestUtils.listObjects(_testBucket, treeKey).isEmpty());
+
+    // a delete removes the manifest
+    before = _client.getMetrics().getRequestCounts();
+    TestUtils.deleteObject(_testBucket, key);
+    Assert.assertNull(TestUtils.objectExists(_testBucket, PartManifest.getKey(key)));
+    Assert.assertEquals(2, TestUtils.getRequestCount(before, ClientMetrics.DELETE));
+
+    // objects without a manifest are deleted with a single request
+    File plain = TestUtils.createTextFile(100);
+    URI plainUri = TestUtils.getUri(_testBucket, plain, rootPrefix);
+    TestUtils.uploadFile(plain, plainUri);
+    before = _client.getMetrics().getRequestCounts();
+    TestUtils.deleteObject(plainUri);
+    Assert.assertEquals(1, TestUtils.getRequestCount(before, ClientMetrics.DELETE));
+  }
+
+
+  @Test
+  public void testCompressedUploadDownload()
+    throws Throwable
+  {
+    Assume.assumeTrue(TestUtils.supportsMultiPart());
+
+    int chunkSize = 5 * 1024 * 1024;
+    File toUpload = TestUtils.createTextFile(2 * chunkSize + 1000000);
+    String rootPrefix = TestUtils.addPrefix("compressed-upload");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(toUpload)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setChunkSize(chunkSize)
+      .setCompression(CompressionCodec.GZIP)
+      .createOptions();
+    _client.upload(upOpts).get();
+
+    Metadata meta = TestUtils.objectExists(_testBucket, Utils.getObjectKey(dest));
+    Assert.assertTrue(meta.getContentLength() < toUpload.length() / 10);
+    Assert.assertEquals(CompressionCodec.GZIP, meta.getUserMetadata().get("s3tool-compression"));
+    Assert.assertEquals(String.valueOf(Version.COMPRESSED),
+      meta.getUserMetadata().get("s3tool-version"));
+
+    File dlTemp = TestUtils.createTmpFile();
+    TestUtils.downloadFile(dest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+
+    // copies keep the compressed chunks and the index
+    URI copyDest = TestUtils.getUri(_testBucket, "copy-" + toUpload.getName(), rootPrefix);
+    CopyOptions copyOpts = _client.getOptionsBuilderFactory()
+      .newCopyOptionsBuilder()
+      .setSourceBucketName(_testBucket)
+      .setSourceObjectKey(Utils.getObjectKey(dest))
+      .setDestinationBucketName(_testBucket)
+      .setDestinationObjectKey(Utils.getObjectKey(copyDest))
+      .createOptions();
+    _client.copy(copyOpts).get();
+    TestUtils.downloadFile(copyDest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+
+    // random data does not compress, so the chunks span several parts
+    File random = TestUtils.createTmpFile();
+    byte[] bytes = new byte[2 * chunkSize + 1000000];
+    new Random(42).nextBytes(bytes);
+    try(RandomAccessFile out = new RandomAccessFile(random, "rw"))
+    {
+      out.write(bytes);
+    }
+    URI randomDest = TestUtils.getUri(_testBucket, random, rootPrefix);
+    upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(random)
+      .setBucketName(Utils.getBucketName(randomDest))
+      .setObjectKey(Utils.getObjectKey(randomDest))
+      .setChunkSize(chunkSize)
+      .setCompression(CompressionCodec.GZIP)
+      .createOptions();
+    Assert.assertTrue(_client.upload(upOpts).get().getETag().endsWith("-3"));
+    TestUtils.downloadFile(randomDest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(random, dlTemp));
+  }
+
+
+  @Test
+  public void testCompressedEncryptedUploadDownload()
+    throws Throwable
+  {
+    Assume.assumeTrue(TestUtils.supportsMultiPart());
+
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+
+    String rootPrefix = TestUtils.addPrefix("compressed-encrypted-upload");
+    for(int size : new int[]{0, 100, 6 * 1024 * 1024})
+    {
+      File toUpload = TestUtils.createTextFile(size);
+      URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+      UploadOptions upOpts = _client.getOptionsBuilderFactory()
+        .newUploadOptionsBuilder()
+        .setFile(toUpload)
+        .setBucketName(Utils.getBucketName(dest))
+        .setObjectKey(Utils.getObjectKey(dest))
+        .setChunkSize(5 * 1024 * 1024)
+        .setEncKey(keyName)
+        .setCompression(CompressionCodec.DEFLATE)
+        .createOptions();
+      _client.upload(upOpts).get();
+
+      File dlTemp = TestUtils.createTmpFile();
+      TestUtils.downloadFile(dest, dlTemp, true);
+      Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+    }
+
+    try
+    {
+      _client.getOptionsBuilderFactory()
+        .newUploadOptionsBuilder()
+        .setFile(TestUtils.createTextFile(10))
+        .setBucketName(_testBucket)
+        .setObjectKey("unused")
+        .setCompression("no-such-codec")
+        .createOptions();
+      Assert.fail("Expected unknown compression error");
+    }
+    catch(UsageException ex)
+    {
+      Assert.assertTrue(ex.getMessage().contains("no-such-codec"));
+    }
+  }
+
+
+  @Test
+  public void testLegacyEncryptedDownload()
+    throws Throwable
+  {
+    // objects encrypted with AES/CBC per chunk, the format before segmented encryption
+    Assume.assumeTrue(_client instanceof S3Client);
+
+    String keyName = "cloud-store-ut";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+
+    int chunkSize = 1000;
+    File toUpload = TestUtils.createTextFile(2500);
+    byte[] plain = Files.readAllBytes(toUpload.toPath());
+    byte[] keyBytes = new byte[32];
+    new Random(42).nextBytes(keyBytes);
+    Key dataKey = new SecretKeySpec(keyBytes, "AES");
+    ByteArrayOutputStream stored = new ByteArrayOutputStream();
+    for(int position = 0; position < plain.length; position += chunkSize)
+    {
+      InputStream chunk = new ByteArrayInputStream(plain, position,
+        Math.min(chunkSize, plain.length - position));
+      try(InputStream in = new CipherWithInlineIVInputStream(chunk,
+        Cipher.getInstance("AES/CBC/PKCS5Padding"), Cipher.ENCRYPT_MODE, dataKey))
+      {
+        ByteStreams.copy(in, stored);
+      }
+    }
+
+    Cipher cipherRSA = Cipher.getInstance("RSA");
+    cipherRSA.init(Cipher.ENCRYPT_MODE, _client.getKeyProvider().getPublicKey(keyName));
+    ObjectMetadata meta = new ObjectMetadata();
+    meta.setContentLength(stored.size());
+    meta.addUserMetadata("s3tool-version", String.valueOf(Version.CURRENT));
+    meta.addUserMetadata("s3tool-key-name", keyName);
+    meta.addUserMetadata("s3tool-symmetric-key",
+      DatatypeConverter.printBase64Binary(cipherRSA.doFinal(keyBytes)));
+    meta.addUserMetadata("s3tool-chunk-size", String.valueOf(chunkSize));
+    meta.addUserMetadata("s3tool-file-length", String.valueOf(plain.length));
+    URI dest = TestUtils.getUri(_testBucket, toUpload, TestUtils.addPrefix("legacy-encrypted"));
+    ((S3Client) _client)._client.putObject(_testBucket, Utils.getObjectKey(dest),
+      new ByteArrayInputStream(stored.toByteArray()), meta);
+
+    File dlTemp = TestUtils.createTmpFile();
+    TestUtils.downloadFile(dest, dlTemp, true);
+    Assert.assertTrue(TestUtils.compareFiles(toUpload, dlTemp));
+  }
+
+
+  @Test
+  public void testSegmentedEncryptionTampering()
+    throws Throwable
+  {
+    // a file of two chunks of 250 bytes, in segments of 100 bytes
+    byte[] plain = new byte[500];
+    new Random(7).nextBytes(plain);
+    byte[] keyBytes = new byte[32];
+    new Random(42).nextBytes(keyBytes);
+    Key dataKey = new SecretKeySpec(keyBytes, "AES");
+    byte[] first = cryptSegments(Cipher.ENCRYPT_MODE, dataKey,
+      Arrays.copyOfRange(plain, 0, 250), 0, 250, 500, false);
+    byte[] second = cryptSegments(Cipher.ENCRYPT_MODE, dataKey,
+      Arrays.copyOfRange(plain, 250, 500), 1, 250, 500, true);
+
+    ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+    decrypted.write(cryptSegments(Cipher.DECRYPT_MODE, dataKey, first, 0, 250, 500, false));
+    decrypted.write(cryptSegments(Cipher.DECRYPT_MODE, dataKey, second, 1, 250, 500, true));
+    Assert.assertTrue(Arrays.equals(plain, decrypted.toByteArray()));
+
+    // a flipped byte
+    byte[] flipped = first.clone();
+    flipped[150] ^= 1;
+    assertTampered(dataKey, flipped, 0, 250, 500, false);
+
+    // the last segment is dropped, and the file length changed to match
+    byte[] truncated = Arrays.copyOf(second,
+      (int) SegmentedCipherInputStream.getEncryptedLength(200, 100));
+    assertTampered(dataKey, truncated, 1, 200, 450, true);
+
+    // the last part is dropped, and the file length changed to match
+    assertTampered(dataKey, first, 0, 250, 250, true);
+
+    // the file length is changed
+    assertTampered(dataKey, second, 1, 250, 499, true);
+  }
+
+
+  private static byte[] cryptSegments(
+    int opmode, Key key, byte[] input, long chunkNumber, long length, long fileLength,
+    boolean lastChunk)
+    throws Exception
+  {
+    try(InputStream in = new SegmentedCipherInputStream(new ByteArrayInputStream(input), opmode,
+      key, chunkNumber, length, 100, fileLength, lastChunk))
+    {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+
+  private static void assertTampered(
+    Key key, byte[] stored, long chunkNumber, long length, long fileLength, boolean lastChunk)
+    throws Exception
+  {
+    try
+    {
+      cryptSegments(Cipher.DECRYPT_MODE, key, stored, chunkNumber, length, fileLength,
+        lastChunk);
+      Assert.fail("expected exception");
+    }
+    catch(IOException ex)
+    {
+      Assert.assertTrue(ex.getMessage().contains("failed authentication"));
+    }
+  }
+
+
   @Test
   public void testSmallMultipartUploadDownload()
     throws Throwable
@@ -1251,18 +2025,31 @@ public class UploadDownloadTests
     // verify metadata
     Metadata destMeta = TestUtils.objectExists(Utils.getBucketName(dest), Utils.getObjectKey(dest));
     Assert.assertNotNull(destMeta);
-    Cipher cipherAES = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    long blockSize = cipherAES.getBlockSize();
-    long partSize = blockSize * (fileSize / blockSize + 2);
-    Assert.assertEquals(destMeta.getContentLength(), partSize);
-
-    // verify user metadata
     Map<String, String> destUserMeta = destMeta.getUserMetadata();
     Assert.assertNotNull(destUserMeta);
-    Assert.assertEquals(destUserMeta.size(), 6);
+    if(TestUtils.supportsMultiPart())
+    {
+      // encrypted in authenticated segments
+      int segmentSize = SegmentedCipherInputStream.DEFAULT_SEGMENT_SIZE;
+      Assert.assertEquals(destMeta.getContentLength(),
+        SegmentedCipherInputStream.getEncryptedLength(fileSize, segmentSize));
+      Assert.assertEquals(destUserMeta.size(), 7);
+      Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-version")), Version.SEGMENTED);
+      Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-segment-size")), segmentSize);
+    }
+    else
+    {
+      Cipher cipherAES = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      long blockSize = cipherAES.getBlockSize();
+      long partSize = blockSize * (fileSize / blockSize + 2);
+      Assert.assertEquals(destMeta.getContentLength(), partSize);
+      Assert.assertEquals(destUserMeta.size(), 6);
+      Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-version")), Version.CURRENT);
+    }
+
+    // verify user metadata
     Assert.assertEquals(Long.parseLong(destUserMeta.get("s3tool-chunk-size")), chunkSize);
     Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-file-length")), fileSize);
-    Assert.assertEquals(Integer.parseInt(destUserMeta.get("s3tool-version")), Version.CURRENT);
     Assert.assertEquals(destUserMeta.get("s3tool-key-name"), keyName);
 
     PrivateKey privKey = _client.getKeyProvider().getPrivateKey(keyName);
@@ -0,0 +1,176 @@
+/*
+  Copyright 2018, Infor Inc.
+
+  Licensed under the Apache License, Version 2.0 (the "License");
+  you may not use this file except in compliance with the License.
+  You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing, software
+  distributed under the License is distributed on an "AS IS" BASIS,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  See the License for the specific language governing permissions and
+  limitations under the License.
+*/
+
+package com.logicblox.cloudstore;
+
+import junit.framework.Assert;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+public class VerifyTests
+{
+  private static CloudStoreClient _client = null;
+  private static String _testBucket = null;
+
+
+  @BeforeClass
+  public static void setUp()
+    throws Throwable
+  {
+    TestUtils.setUp();
+    _testBucket = TestUtils.getTestBucket();
+    _client = TestUtils.getClient();
+  }
+
+
+  @AfterClass
+  public static void tearDown()
+    throws Throwable
+  {
+    TestUtils.tearDown();
+    _testBucket = null;
+    _client = null;
+  }
+
+
+  @Test
+  public void testVerifyMultipartFile()
+    throws Throwable
+  {
+    int chunkSize = 5 * 1024 * 1024;
+    File toUpload = TestUtils.createTextFile(chunkSize + 1000000);
+    String rootPrefix = TestUtils.addPrefix("verify-multipart");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+    UploadOptions upOpts = _client.getOptionsBuilderFactory()
+      .newUploadOptionsBuilder()
+      .setFile(toUpload)
+      .setBucketName(Utils.getBucketName(dest))
+      .setObjectKey(Utils.getObjectKey(dest))
+      .setChunkSize(chunkSize)
+      .createOptions();
+    _client.upload(upOpts).get();
+
+    List<VerifyResult> results = verify(toUpload, dest, false);
+    Assert.assertEquals(1, results.size());
+    Assert.assertEquals(VerifyResult.Status.MATCH, results.get(0).getStatus());
+    Assert.assertEquals(results.get(0).getRemoteETag(), results.get(0).getLocalETag());
+    if(TestUtils.supportsMultiPart())
+    {
+      Assert.assertTrue(results.get(0).getRemoteETag().endsWith("-2"));
+    }
+
+    // same size, different content
+    File other = TestUtils.createTextFile(chunkSize + 1000000);
+    Assert.assertTrue(toUpload.delete());
+    Assert.assertTrue(other.renameTo(toUpload));
+    results = verify(toUpload, dest, false);
+    Assert.assertEquals(VerifyResult.Status.MISMATCH, results.get(0).getStatus());
+  }
+
+
+  @Test
+  public void testVerifyDir()
+    throws Throwable
+  {
+    String rootPrefix = TestUtils.addPrefix("verify-dir");
+    File top = TestUtils.createTmpDir(true);
+    File a = TestUtils.createTextFile(top, 100);
+    File b = TestUtils.createTextFile(top, 200);
+    File sub = TestUtils.createTmpDir(top);
+    File c = TestUtils.createTextFile(sub, 300);
+    URI dest = TestUtils.getUri(_testBucket, top, rootPrefix);
+    Assert.assertEquals(3, TestUtils.uploadDir(top, dest).size());
+
+    List<VerifyResult> results = verify(top, dest, true);
+    Assert.assertEquals(3, results.size());
+    for(VerifyResult result : results)
+    {
+      Assert.assertTrue(result.isMatch());
+    }
+
+    TestUtils.writeToFile("changed", a);
+    Assert.assertTrue(c.delete());
+    File extra = TestUtils.createTextFile(top, 10);
+    results = verify(top, dest, true);
+    Assert.assertEquals(4, results.size());
+    for(VerifyResult result : results)
+    {
+      if(result.getFile().equals(a))
+      {
+        Assert.assertEquals(VerifyResult.Status.MISMATCH, result.getStatus());
+      }
+      else if(result.getFile().equals(b))
+      {
+        Assert.assertEquals(VerifyResult.Status.MATCH, result.getStatus());
+      }
+      else if(result.getFile().equals(c))
+      {
+        Assert.assertEquals(VerifyResult.Status.MISSING_LOCAL, result.getStatus());
+      }
+      else
+      {
+        Assert.assertEquals(extra, result.getFile());
+        Assert.assertEquals(VerifyResult.Status.MISSING_REMOTE, result.getStatus());
+      }
+    }
+  }
+
+
+  @Test
+  public void testVerifyEncryptedFile()
+    throws Throwable
+  {
+    String keyName = "cloud-store-ut-verify";
+    File keydir = TestUtils.createTmpDir(true);
+    TestUtils.createEncryptionKey(keydir, keyName);
+    TestUtils.setKeyProvider(keydir);
+
+    File toUpload = TestUtils.createTextFile(100);
+    String rootPrefix = TestUtils.addPrefix("verify-encrypted");
+    URI dest = TestUtils.getUri(_testBucket, toUpload, rootPrefix);
+    TestUtils.uploadEncryptedFile(toUpload, dest, keyName);
+
+    List<VerifyResult> results = verify(toUpload, dest, false);
+    Assert.assertEquals(VerifyResult.Status.UNVERIFIABLE, results.get(0).getStatus());
+  }
+
+
+  private List<VerifyResult> verify(File file, URI uri, boolean recursive)
+    throws Throwable
+  {
+    VerifyOptions opts = _client.getOptionsBuilderFactory()
+      .newVerifyOptionsBuilder()
+      .setFile(file)
+      .setBucketName(Utils.getBucketName(uri))
+      .setObjectKey(Utils.getObjectKey(uri))
+      .setRecursive(recursive)
+      .createOptions();
+    try
+    {
+      return _client.verify(opts).get();
+    }
+    catch(ExecutionException exc)
+    {
+      throw exc.getCause();
+    }
+  }
+}